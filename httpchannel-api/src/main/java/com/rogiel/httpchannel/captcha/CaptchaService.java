@@ -18,6 +18,8 @@
  */
 package com.rogiel.httpchannel.captcha;
 
+import java.util.concurrent.Future;
+
 import com.rogiel.httpchannel.captcha.exception.AuthenticationCaptchaServiceException;
 import com.rogiel.httpchannel.captcha.exception.InvalidCaptchaServiceException;
 import com.rogiel.httpchannel.captcha.exception.UnsolvableCaptchaServiceException;
@@ -48,6 +50,29 @@ public interface CaptchaService<C extends Captcha> {
 	 */
 	void solve(C captcha) throws UnsolvableCaptchaServiceException;
 
+	/**
+	 * Submits the captcha to be resolved without blocking the caller. Once
+	 * resolved, the future returns the same <code>captcha</code> instance,
+	 * with its answer set. If it cannot be solved, the future fails with an
+	 * {@link UnsolvableCaptchaServiceException}.
+	 * 
+	 * @param captcha
+	 *            the captcha
+	 * @return the future resolved captcha
+	 */
+	Future<C> solveAsync(C captcha);
+
+	/**
+	 * Returns the amount of CAPTCHAs that can still be solved, as currently
+	 * known by the service. Implementations should answer from local state,
+	 * without contacting the CAPTCHA solving server, so that callers can check
+	 * it before starting work that requires a CAPTCHA.
+	 * 
+	 * @return amount of remaining CAPTCHA solving, <code>-1</code> if no limit
+	 *         is applied or if it is not known yet
+	 */
+	int getRemainingCaptchas();
+
 	/**
 	 * Notifies the service that the given captcha answer was correct
 	 * 
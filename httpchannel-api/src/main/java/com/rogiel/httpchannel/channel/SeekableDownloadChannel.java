@@ -21,24 +21,52 @@ package com.rogiel.httpchannel.channel;
 import java.io.IOException;
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.NonWritableChannelException;
 import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.rogiel.httpchannel.service.DownloadChannel;
 import com.rogiel.httpchannel.service.DownloadService;
 import com.rogiel.httpchannel.service.Downloader;
 import com.rogiel.httpchannel.service.DownloaderCapability;
+import com.rogiel.httpchannel.util.NamedThreadFactory;
 
 /**
- * Creates a pseudo-seekable {@link DownloadChannel}. This implementations opens
- * a new connection on every call to {@link #position(long)} and thus might
- * consume a lot of bandwidth to start downloads. Also, some services do not
- * support download resuming, those services are not supported by
- * {@link SeekableDownloadChannel}.
+ * Creates a pseudo-seekable {@link DownloadChannel}. Data is read in blocks of
+ * fixed size that are kept in a LRU cache, so seeking back into data already
+ * read does not touch the network. Seeking forward by less than the read-ahead
+ * window reads (and caches) the data in between instead of opening a new
+ * connection. Only larger seeks open a new connection, which might consume a
+ * lot of bandwidth to start downloads. While data is read sequentially, the
+ * following blocks are prefetched in the background.
  * <p>
- * You can use {@link #isSupported(DownloadChannel)} or
+ * Also, some services do not support download resuming, those services are
+ * not supported by {@link SeekableDownloadChannel}. You can use
+ * {@link #isSupported(DownloadChannel)} or
  * {@link #isSupported(DownloadService)} to check whether an channel or a
  * service is supported.
+ * <p>
+ * The cache, read-ahead and prefetch sizes can be tuned with
+ * {@link #setCache(int, int, boolean)}, {@link #setReadAhead(long)} and
+ * {@link #setPrefetch(int)}, using the counters returned by
+ * {@link #getCacheHits()}, {@link #getCacheMisses()} and
+ * {@link #getReconnects()}.
+ * <p>
+ * Optionally, every block downloaded can also be persisted into a sparse local
+ * file with {@link #setBackingFile(Path)}. Ranges already in the file, even if
+ * downloaded by another instance or before a restart, are then read from the
+ * file and never downloaded again. With
+ * {@link #SeekableDownloadChannel(Downloader, Path)}, the file is consulted
+ * before connecting to the service at all, so a file downloaded completely
+ * never touches the network again.
  * 
  * @author <a href="http://www.rogiel.com">Rogiel</a>
  * @see SeekableDownloadChannel#isSupported(DownloadChannel)
@@ -47,16 +75,101 @@ import com.rogiel.httpchannel.service.DownloaderCapability;
 public class SeekableDownloadChannel implements DownloadChannel,
 		SeekableByteChannel {
 	/**
-	 * The current opened channel.
+	 * The default block size
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+	/**
+	 * The default number of blocks in cache
+	 */
+	public static final int DEFAULT_CACHE_BLOCKS = 32;
+	/**
+	 * The default read-ahead window
+	 */
+	public static final long DEFAULT_READ_AHEAD = 512 * 1024;
+	/**
+	 * The default number of blocks prefetched ahead of sequential reads
+	 */
+	public static final int DEFAULT_PREFETCH_BLOCKS = 4;
+
+	/**
+	 * The downloader used to open new connections
+	 */
+	private final Downloader<?> downloader;
+	/**
+	 * The service providing this download, <code>null</code> until the first
+	 * connection if opened from a backing file
+	 */
+	private volatile DownloadService<?> service;
+	/**
+	 * The file name
+	 */
+	private volatile String filename;
+	/**
+	 * The file size or <code>-1</code> if unknown
+	 */
+	private volatile long size;
+
+	/**
+	 * The block cache
+	 */
+	private volatile BlockCache cache = new BlockCache(DEFAULT_BLOCK_SIZE,
+			DEFAULT_CACHE_BLOCKS, false);
+	/**
+	 * The read-ahead window
+	 */
+	private volatile long readAhead = DEFAULT_READ_AHEAD;
+	/**
+	 * The number of blocks prefetched ahead of sequential reads
+	 */
+	private volatile int prefetch = DEFAULT_PREFETCH_BLOCKS;
+
+	/**
+	 * The local file the downloaded blocks are persisted into, if any
+	 */
+	private volatile SparseFileStore store;
+
+	/**
+	 * Guards changes to {@link #channel} and {@link #channelPosition}
+	 */
+	private final Object channelLock = new Object();
+	/**
+	 * The current opened channel. Always positioned at the start of a block.
 	 * <p>
-	 * This channel will be swapped at every call to {@link #position(long)}.
+	 * This channel will be swapped when reading data too far from its
+	 * position.
 	 */
-	private DownloadChannel channel;
+	private volatile DownloadChannel channel;
+	/**
+	 * The position of {@link #channel}
+	 */
+	private volatile long channelPosition = 0;
+	/**
+	 * Whether a prefetch task is scheduled or running
+	 */
+	private volatile boolean prefetching;
+	/**
+	 * Whether this channel has been closed
+	 */
+	private volatile boolean closed;
+
 	/**
 	 * The current channel position
 	 */
 	private long position = 0;
 
+	/**
+	 * The number of blocks read from the cache
+	 */
+	private final AtomicLong hits = new AtomicLong();
+	/**
+	 * The number of blocks that had to be downloaded while reading
+	 */
+	private final AtomicLong misses = new AtomicLong();
+	/**
+	 * The number of new connections opened
+	 */
+	private final AtomicLong reconnects = new AtomicLong();
+
 	/**
 	 * Creates a new {@link SeekableDownloadChannel} using an base
 	 * {@link DownloadChannel}
@@ -75,12 +188,17 @@ public class SeekableDownloadChannel implements DownloadChannel,
 			throw new IOException("This channel is not supported");
 		}
 		this.channel = channel;
+		this.service = channel.getService();
+		this.downloader = channel.getDownloader();
+		this.filename = channel.filename();
+		this.size = channel.size();
 	}
 
 	/**
 	 * Creates a new {@link SeekableDownloadChannel} using an base
 	 * {@link DownloadChannel}. If not supported, an {@link IOException} is
-	 * thrown and the channel is <b>not</b> closed.
+	 * thrown and the channel is <b>not</b> closed. The channel must be
+	 * positioned at the beginning of the file.
 	 * 
 	 * @param channel
 	 *            the base {@link DownloadChannel}
@@ -105,6 +223,50 @@ public class SeekableDownloadChannel implements DownloadChannel,
 		this(downloader.openChannel(), true);
 	}
 
+	/**
+	 * Creates a new {@link SeekableDownloadChannel} using an base
+	 * {@link Downloader}, persisting the blocks into a backing file as
+	 * {@link #setBackingFile(Path)} does. If the file was already created by a
+	 * previous download, its size and name are taken from the file and no
+	 * connection is opened until data missing from the file is read. In that
+	 * case, {@link #getService()} returns <code>null</code> until then.
+	 * 
+	 * @param downloader
+	 *            the base {@link Downloader}
+	 * @param file
+	 *            the local file
+	 * @throws IOException
+	 *             if any exception occur while opening the channel or the
+	 *             local file, if the file size is unknown or if the channel
+	 *             is not supported
+	 */
+	public SeekableDownloadChannel(Downloader<?> downloader, Path file)
+			throws IOException {
+		this.downloader = downloader;
+		SparseFileStore store = SparseFileStore.open(file);
+		if (store == null) {
+			final DownloadChannel channel = downloader.openChannel();
+			try {
+				if (!isSupported(channel))
+					throw new IOException("This channel is not supported");
+				if (channel.size() < 0)
+					throw new IOException("Unknown file size");
+				store = new SparseFileStore(file, channel.size(),
+						channel.filename());
+			} catch (IOException e) {
+				channel.close();
+				throw e;
+			}
+			this.channel = channel;
+			this.service = channel.getService();
+		}
+		this.store = store;
+		this.size = store.getSize();
+		this.filename = store.getFilename();
+		if (store.isComplete())
+			closeChannel();
+	}
+
 	/**
 	 * Creates a new {@link SeekableDownloadChannel} using an base
 	 * {@link DownloadService} and an {@link URI}.
@@ -122,45 +284,367 @@ public class SeekableDownloadChannel implements DownloadChannel,
 		this(service.getDownloader(uri));
 	}
 
+	/**
+	 * Replaces the block cache. Blocks already cached are discarded.
+	 * 
+	 * @param blockSize
+	 *            the block size. Data is always downloaded in whole blocks.
+	 * @param blocks
+	 *            the maximum number of blocks in cache
+	 * @param direct
+	 *            whether blocks are allocated off-heap (see
+	 *            {@link ByteBuffer#allocateDirect(int)})
+	 */
+	public void setCache(int blockSize, int blocks, boolean direct) {
+		if (blockSize < 1)
+			throw new IllegalArgumentException("blockSize must be at least 1");
+		if (blocks < 1)
+			throw new IllegalArgumentException("blocks must be at least 1");
+		synchronized (channelLock) {
+			this.cache = new BlockCache(blockSize, blocks, direct);
+			// the connection must be aligned with the new block size
+			if (channelPosition % blockSize != 0)
+				closeChannel();
+		}
+	}
+
+	/**
+	 * @param readAhead
+	 *            the read-ahead window. Seeking forward by less than this
+	 *            amount reads the data in between instead of opening a new
+	 *            connection.
+	 */
+	public void setReadAhead(long readAhead) {
+		this.readAhead = readAhead;
+	}
+
+	/**
+	 * @param prefetch
+	 *            the number of blocks prefetched ahead of sequential reads.
+	 *            Zero disables prefetching.
+	 */
+	public void setPrefetch(int prefetch) {
+		this.prefetch = prefetch;
+	}
+
+	/**
+	 * Persists every block downloaded into a sparse local file, along with a
+	 * map of the ranges downloaded (in a file with the same name and a
+	 * <tt>.ranges</tt> suffix). Ranges already in the file are read from it
+	 * through a memory-mapped view and never downloaded again. If the file
+	 * was created for a remote file of another size, it is discarded.
+	 * <p>
+	 * If the whole file is already available locally, the current connection
+	 * is closed right away.
+	 * 
+	 * @param file
+	 *            the local file
+	 * @throws IOException
+	 *             if the file size is unknown or the local file cannot be
+	 *             opened
+	 */
+	public void setBackingFile(Path file) throws IOException {
+		if (size < 0)
+			throw new IOException("Unknown file size");
+		final SparseFileStore store = new SparseFileStore(file, size,
+				filename);
+		synchronized (channelLock) {
+			if (this.store != null)
+				this.store.close();
+			this.store = store;
+			if (store.isComplete())
+				closeChannel();
+		}
+	}
+
+	/**
+	 * @return the number of blocks read from the cache
+	 */
+	public long getCacheHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of blocks that were not in cache when read
+	 */
+	public long getCacheMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the number of new connections opened
+	 */
+	public long getReconnects() {
+		return reconnects.get();
+	}
+
 	@Override
 	public long size() throws IOException {
-		return channel.size();
+		return size;
 	}
 
 	@Override
 	public String filename() throws IOException {
-		return channel.filename();
+		return filename;
 	}
 
 	@Override
 	public DownloadService<?> getService() {
-		return channel.getService();
+		return service;
 	}
 
 	@Override
 	public Downloader<?> getDownloader() {
-		return channel.getDownloader();
+		return downloader;
 	}
 
 	@Override
 	public boolean isOpen() {
-		return channel.isOpen();
+		return !closed;
 	}
 
 	@Override
 	public void close() throws IOException {
-		channel.close();
-		channel = null;
+		closed = true;
+		synchronized (channelLock) {
+			closeChannel();
+			cache.clear();
+			if (store != null)
+				store.close();
+		}
 		position = 0;
 	}
 
 	@Override
 	public int read(ByteBuffer dst) throws IOException {
-		int read = channel.read(dst);
-		position += read;
+		if (closed)
+			throw new ClosedChannelException();
+		final int start = dst.position();
+		while (dst.hasRemaining()) {
+			final long size = this.size;
+			if (size >= 0 && position >= size)
+				break;
+			final SparseFileStore store = this.store;
+			if (store != null) {
+				final int read = store.read(position, dst);
+				if (read > 0) {
+					position += read;
+					continue;
+				}
+			}
+
+			final BlockCache cache = this.cache;
+			final long index = position / cache.blockSize;
+			final int offset = (int) (position % cache.blockSize);
+
+			int read = cache.copy(index, offset, dst);
+			if (read >= 0) {
+				hits.incrementAndGet();
+			} else {
+				misses.incrementAndGet();
+				read = fetch(cache, index, offset, dst);
+			}
+			if (read == 0)
+				break;
+			position += read;
+		}
+		final int read = dst.position() - start;
+		if (read > 0)
+			prefetch();
+		else if (dst.hasRemaining())
+			return -1;
 		return read;
 	}
 
+	/**
+	 * Downloads a block and copies it into <code>dst</code>
+	 * 
+	 * @param cache
+	 *            the block cache
+	 * @param index
+	 *            the block index
+	 * @param offset
+	 *            the offset inside the block
+	 * @param dst
+	 *            the buffer to copy data into
+	 * @return the number of bytes copied, zero if the end of the file was
+	 *         reached
+	 * @throws IOException
+	 *             if any error occur while downloading the block
+	 */
+	private int fetch(BlockCache cache, long index, int offset, ByteBuffer dst)
+			throws IOException {
+		synchronized (channelLock) {
+			// may have been prefetched while waiting for the lock
+			int read = cache.copy(index, offset, dst);
+			if (read >= 0)
+				return read;
+			final long start = index * cache.blockSize;
+			if (channel == null || start < channelPosition
+					|| start - channelPosition > readAhead)
+				reconnect(start);
+			// blocks skipped within the read-ahead window are cached too
+			while (channel != null && channelPosition <= start) {
+				readBlock(cache);
+			}
+			read = cache.copy(index, offset, dst);
+			return Math.max(0, read);
+		}
+	}
+
+	/**
+	 * Reads the next block from {@link #channel} into the cache. Must be called
+	 * while holding {@link #channelLock}.
+	 * 
+	 * @param cache
+	 *            the block cache
+	 * @return the number of bytes read, less than the block size only at the
+	 *         end of the file
+	 * @throws IOException
+	 *             if any error occur while reading the channel
+	 */
+	private int readBlock(BlockCache cache) throws IOException {
+		final ByteBuffer block = cache.allocate();
+		try {
+			while (block.hasRemaining()) {
+				if (channel.read(block) < 0)
+					break;
+			}
+		} catch (IOException e) {
+			cache.free(block);
+			closeChannel();
+			throw e;
+		}
+		block.flip();
+		final int read = block.limit();
+		final long start = channelPosition;
+		final long index = start / cache.blockSize;
+		channelPosition += read;
+		if (read < cache.blockSize) {
+			// reached the end of the file
+			size = channelPosition;
+			closeChannel();
+		}
+		if (read > 0)
+			cache.put(index, block);
+		else
+			cache.free(block);
+		// blocks are only reused by readBlock, so it is safe to write it now
+		if (store != null && read > 0)
+			store.write(start, block.duplicate());
+		return read;
+	}
+
+	/**
+	 * Opens a new connection at the given position. Must be called while
+	 * holding {@link #channelLock}.
+	 * 
+	 * @param start
+	 *            the position
+	 * @throws IOException
+	 *             if any error occur while opening the connection
+	 */
+	private void reconnect(long start) throws IOException {
+		closeChannel();
+		reconnects.incrementAndGet();
+		final DownloadChannel channel = downloader.openChannel(start);
+		if (service == null) {
+			// first connection of a channel opened from its backing file
+			if (!isSupported(channel)) {
+				channel.close();
+				throw new IOException("This channel is not supported");
+			}
+			service = channel.getService();
+		}
+		this.channel = channel;
+		channelPosition = start;
+	}
+
+	/**
+	 * Closes the current connection, ignoring any error. Must be called while
+	 * holding {@link #channelLock}.
+	 */
+	private void closeChannel() {
+		if (channel == null)
+			return;
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// the connection is not used anymore
+		}
+		channel = null;
+	}
+
+	/**
+	 * Schedules the download of the blocks ahead of the current position, if
+	 * the connection is already positioned close to it and the blocks are not
+	 * in the backing file
+	 */
+	private void prefetch() {
+		final int prefetch = this.prefetch;
+		if (prefetch <= 0 || prefetching || closed || channel == null)
+			return;
+		final long position = this.position;
+		final long channelPosition = this.channelPosition;
+		final long ahead = channelPosition - position;
+		if (ahead < 0 || ahead >= (long) cache.blockSize * prefetch)
+			return;
+		if (isStored(channelPosition, cache.blockSize))
+			return;
+		prefetching = true;
+		PrefetchExecutor.EXECUTOR.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					prefetch(position, prefetch);
+				} finally {
+					prefetching = false;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Downloads the blocks ahead of <code>position</code>, as long as the
+	 * connection is already positioned between <code>position</code> and the
+	 * end of the prefetch window and the blocks are not in the backing file.
+	 * Errors are ignored, the blocks will be downloaded again when read.
+	 * 
+	 * @param position
+	 *            the reader position
+	 * @param prefetch
+	 *            the number of blocks to prefetch
+	 */
+	private void prefetch(long position, int prefetch) {
+		synchronized (channelLock) {
+			final BlockCache cache = this.cache;
+			final long end = position + (long) cache.blockSize
+					* Math.min(prefetch, cache.capacity / 2);
+			try {
+				while (!closed && channel != null && channelPosition >= position
+						&& channelPosition < end
+						&& !isStored(channelPosition, cache.blockSize)) {
+					if (readBlock(cache) < cache.blockSize)
+						break;
+				}
+			} catch (IOException e) {
+				// the blocks will be downloaded when read
+			}
+		}
+	}
+
+	/**
+	 * @param start
+	 *            the block start
+	 * @param blockSize
+	 *            the block size
+	 * @return <code>true</code> if the block is in the backing file
+	 */
+	private boolean isStored(long start, int blockSize) {
+		final SparseFileStore store = this.store;
+		return store != null && store.isFilled(start, start + blockSize);
+	}
+
 	/**
 	 * This implementation always throws an {@link NonWritableChannelException}.
 	 * <p>
@@ -180,14 +664,22 @@ public class SeekableDownloadChannel implements DownloadChannel,
 		return position;
 	}
 
+	/**
+	 * Moves the channel position. No connection is opened until data is read
+	 * from a position that is neither in cache nor within the read-ahead
+	 * window of the current connection.
+	 * <p>
+	 * 
+	 * {@inheritDoc}
+	 */
 	@Override
 	public SeekableDownloadChannel position(long newPosition)
 			throws IOException {
-		// closes the current channel
-		channel.close();
-		// now open a new channel
+		if (newPosition < 0)
+			throw new IllegalArgumentException("negative position");
+		if (closed)
+			throw new ClosedChannelException();
 		this.position = newPosition;
-		channel = channel.getDownloader().openChannel(position);
 		return this;
 	}
 
@@ -203,10 +695,13 @@ public class SeekableDownloadChannel implements DownloadChannel,
 	}
 
 	/**
-	 * @return the current {@link DownloadChannel}
+	 * @return the current {@link DownloadChannel} or <code>null</code> if no
+	 *         connection is open
 	 */
 	public DownloadChannel channel() {
-		return channel;
+		synchronized (channelLock) {
+			return channel;
+		}
 	}
 
 	/**
@@ -244,4 +739,140 @@ public class SeekableDownloadChannel implements DownloadChannel,
 	public static boolean isSupported(DownloadChannel channel) {
 		return isSupported(channel.getService());
 	}
+
+	/**
+	 * A LRU cache of fixed size blocks. Evicted buffers are reused for the
+	 * next blocks.
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	private static class BlockCache {
+		/**
+		 * The block size
+		 */
+		private final int blockSize;
+		/**
+		 * The maximum number of blocks
+		 */
+		private final int capacity;
+		/**
+		 * Whether blocks are allocated off-heap
+		 */
+		private final boolean direct;
+		/**
+		 * The cached blocks, in access order
+		 */
+		private final LinkedHashMap<Long, ByteBuffer> blocks;
+		/**
+		 * The evicted buffers, ready to be reused
+		 */
+		private final Deque<ByteBuffer> free = new ArrayDeque<>();
+
+		/**
+		 * @param blockSize
+		 *            the block size
+		 * @param capacity
+		 *            the maximum number of blocks
+		 * @param direct
+		 *            whether blocks are allocated off-heap
+		 */
+		private BlockCache(int blockSize, final int capacity, boolean direct) {
+			this.blockSize = blockSize;
+			this.capacity = capacity;
+			this.direct = direct;
+			this.blocks = new LinkedHashMap<Long, ByteBuffer>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(
+						Map.Entry<Long, ByteBuffer> eldest) {
+					if (size() <= capacity)
+						return false;
+					free.push(eldest.getValue());
+					return true;
+				}
+			};
+		}
+
+		/**
+		 * Copies data from a cached block
+		 * 
+		 * @param index
+		 *            the block index
+		 * @param offset
+		 *            the offset inside the block
+		 * @param dst
+		 *            the buffer to copy data into
+		 * @return the number of bytes copied or <code>-1</code> if the block
+		 *         is not in cache
+		 */
+		private synchronized int copy(long index, int offset, ByteBuffer dst) {
+			final ByteBuffer block = blocks.get(index);
+			if (block == null)
+				return -1;
+			if (offset >= block.limit())
+				return 0;
+			final ByteBuffer data = block.duplicate();
+			data.position(offset);
+			if (data.remaining() > dst.remaining())
+				data.limit(offset + dst.remaining());
+			final int read = data.remaining();
+			dst.put(data);
+			return read;
+		}
+
+		/**
+		 * @return an empty buffer, not yet in cache
+		 */
+		private synchronized ByteBuffer allocate() {
+			ByteBuffer block = free.poll();
+			if (block == null)
+				block = (direct ? ByteBuffer.allocateDirect(blockSize)
+						: ByteBuffer.allocate(blockSize));
+			block.clear();
+			return block;
+		}
+
+		/**
+		 * @param index
+		 *            the block index
+		 * @param block
+		 *            the block data, from {@link #allocate()}
+		 */
+		private synchronized void put(long index, ByteBuffer block) {
+			final ByteBuffer previous = blocks.put(index, block);
+			if (previous != null)
+				free.push(previous);
+		}
+
+		/**
+		 * @param block
+		 *            a buffer from {@link #allocate()} that will not be cached
+		 */
+		private synchronized void free(ByteBuffer block) {
+			free.push(block);
+		}
+
+		/**
+		 * Removes all blocks
+		 */
+		private synchronized void clear() {
+			blocks.clear();
+			free.clear();
+		}
+	}
+
+	/**
+	 * Holds the executor that prefetches blocks, created on first use
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	private static class PrefetchExecutor {
+		/**
+		 * The executor. Threads are daemons and die when idle.
+		 */
+		private static final ExecutorService EXECUTOR = Executors
+				.newCachedThreadPool(new NamedThreadFactory(
+						"seekable-prefetch"));
+	}
 }
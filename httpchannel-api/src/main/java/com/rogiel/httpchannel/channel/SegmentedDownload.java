@@ -0,0 +1,561 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.channel;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rogiel.httpchannel.service.DownloadChannel;
+import com.rogiel.httpchannel.service.DownloadListener;
+import com.rogiel.httpchannel.service.DownloadService;
+import com.rogiel.httpchannel.service.Downloader;
+import com.rogiel.httpchannel.util.NamedThreadFactory;
+
+/**
+ * Downloads a file over several connections at once. The file is split into
+ * segments and each segment is downloaded by its own connection, directly into
+ * its offset of a preallocated file. When a connection finishes its segment,
+ * it takes over half of the largest segment left, so all connections stay busy
+ * until the end of the download.
+ * <p>
+ * Only services that support download resuming can be downloaded in segments
+ * (see {@link SeekableDownloadChannel#isSupported(DownloadService)}).
+ * Services without resume support, and files of unknown size, are downloaded
+ * over a single connection.
+ * <p>
+ * If a connection fails or cannot be opened (e.g. because the service limits
+ * the number of concurrent downloads), its segment is taken over by the other
+ * connections. The download only fails if no connection is left. This class
+ * implements {@link Callable} and thus can be executed inside an
+ * {@link java.util.concurrent.Executor Executor}.
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ */
+public class SegmentedDownload implements Callable<Long> {
+	/**
+	 * The default number of connections
+	 */
+	public static final int DEFAULT_CONNECTIONS = 4;
+	/**
+	 * The default minimum segment size
+	 */
+	public static final long DEFAULT_MIN_SEGMENT_SIZE = 1024 * 1024;
+	/**
+	 * The size of the buffer used by each connection
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * The logger instance
+	 */
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	/**
+	 * The downloader
+	 */
+	private final Downloader<?> downloader;
+	/**
+	 * The file to download into
+	 */
+	private final Path path;
+
+	/**
+	 * The listener passed to every connection opened
+	 */
+	private DownloadListener listener;
+	/**
+	 * The maximum number of connections
+	 */
+	private int connections = DEFAULT_CONNECTIONS;
+	/**
+	 * The minimum segment size. Segments are never split below this size.
+	 */
+	private long minSegmentSize = DEFAULT_MIN_SEGMENT_SIZE;
+	/**
+	 * The executor that runs the connections. If <code>null</code>, a new
+	 * thread is created for each connection.
+	 */
+	private ExecutorService executor;
+
+	/**
+	 * Creates a new segmented download
+	 * 
+	 * @param downloader
+	 *            the downloader
+	 * @param path
+	 *            the file to download into. If it exists, it is overwritten.
+	 */
+	public SegmentedDownload(Downloader<?> downloader, Path path) {
+		this.downloader = downloader;
+		this.path = path;
+	}
+
+	/**
+	 * Creates a new segmented download
+	 * 
+	 * @param service
+	 *            the download service
+	 * @param uri
+	 *            the download {@link URI}
+	 * @param path
+	 *            the file to download into. If it exists, it is overwritten.
+	 */
+	public SegmentedDownload(DownloadService<?> service, URI uri, Path path) {
+		this(service.getDownloader(uri), path);
+	}
+
+	/**
+	 * @param listener
+	 *            the listener passed to every connection opened
+	 */
+	public void setListener(DownloadListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @param connections
+	 *            the maximum number of connections
+	 */
+	public void setConnections(int connections) {
+		if (connections < 1)
+			throw new IllegalArgumentException(
+					"connections must be at least 1");
+		this.connections = connections;
+	}
+
+	/**
+	 * @param minSegmentSize
+	 *            the minimum segment size. Segments are never split below
+	 *            this size.
+	 */
+	public void setMinSegmentSize(long minSegmentSize) {
+		if (minSegmentSize < 1)
+			throw new IllegalArgumentException(
+					"minSegmentSize must be at least 1");
+		this.minSegmentSize = minSegmentSize;
+	}
+
+	/**
+	 * Sets the executor that runs the connections. Each connection blocks one
+	 * thread while downloading. If not set, a new thread is created for each
+	 * connection.
+	 * 
+	 * @param executor
+	 *            the executor
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Downloads the file
+	 * 
+	 * @return the number of bytes downloaded
+	 * @throws IOException
+	 *             if the file could not be downloaded
+	 */
+	@Override
+	public Long call() throws IOException {
+		final DownloadChannel channel = downloader.openChannel(listener);
+		try (final FileChannel file = FileChannel.open(path,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			final long size = channel.size();
+			final int count = (int) Math.min(connections,
+					Math.max(1, size / minSegmentSize));
+			if (size < 0 || count == 1
+					|| !SeekableDownloadChannel.isSupported(channel)) {
+				final Segment segment = new Segment(0, (size < 0 ? Long.MAX_VALUE
+						: size));
+				try {
+					transfer(file, segment, channel);
+				} finally {
+					channel.close();
+				}
+				return segment.end;
+			}
+
+			// preallocate the file, so segments can be written anywhere
+			if (size > 0)
+				file.write(ByteBuffer.allocate(1), size - 1);
+			return download(file, channel, size, count);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Downloads the file in segments
+	 * 
+	 * @param file
+	 *            the file to download into
+	 * @param channel
+	 *            the channel already opened at the beginning of the file
+	 * @param size
+	 *            the file size
+	 * @param count
+	 *            the initial number of segments
+	 * @return the number of bytes downloaded
+	 * @throws IOException
+	 *             if the file could not be downloaded
+	 */
+	private long download(FileChannel file, DownloadChannel channel,
+			long size, int count) throws IOException {
+		final SegmentTable table = new SegmentTable(size, count);
+		final ExecutorService executor = (this.executor != null ? this.executor
+				: Executors.newFixedThreadPool(count, THREAD_FACTORY));
+		final List<Future<?>> futures = new ArrayList<>();
+		try {
+			for (int i = 0; i < count; i++) {
+				futures.add(executor.submit(new SegmentWorker(file, table,
+						table.segments.get(i), (i == 0 ? channel : null))));
+			}
+			for (final Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			for (final Future<?> future : futures) {
+				future.cancel(true);
+			}
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		} finally {
+			if (this.executor == null)
+				executor.shutdown();
+		}
+
+		// segments released once the other connections were already done
+		Segment segment;
+		while ((segment = table.next()) != null) {
+			if (!new SegmentWorker(file, table, segment, null).call())
+				break;
+		}
+		table.checkComplete();
+		return size;
+	}
+
+	/**
+	 * Opens a new connection at the current position of the segment
+	 * 
+	 * @param segment
+	 *            the segment
+	 * @param size
+	 *            the file size
+	 * @return the new channel
+	 * @throws IOException
+	 *             if the channel could not be opened or the service did not
+	 *             honor the requested position
+	 */
+	private DownloadChannel open(Segment segment, long size)
+			throws IOException {
+		final DownloadChannel channel = downloader.openChannel(listener,
+				segment.position);
+		if (channel.size() != size - segment.position) {
+			channel.close();
+			throw new IOException("Service returned " + channel.size()
+					+ " bytes for a download starting at " + segment.position
+					+ " of " + size);
+		}
+		return channel;
+	}
+
+	/**
+	 * Downloads a segment until its end. The end of the segment can be moved
+	 * back while it is being downloaded.
+	 * 
+	 * @param file
+	 *            the file to download into
+	 * @param segment
+	 *            the segment
+	 * @param channel
+	 *            the channel opened at the segment position
+	 * @throws IOException
+	 *             if any error occur while reading the channel or writing the
+	 *             file
+	 */
+	private void transfer(FileChannel file, Segment segment,
+			DownloadChannel channel) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		long position = segment.position;
+		while (position < segment.end) {
+			buffer.clear();
+			buffer.limit((int) Math.min(BUFFER_SIZE, segment.end - position));
+			if (channel.read(buffer) < 0) {
+				if (segment.end != Long.MAX_VALUE)
+					throw new IOException("Premature end of stream at "
+							+ position);
+				segment.end = position;
+				break;
+			}
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				position += file.write(buffer, position);
+			}
+			segment.position = position;
+		}
+	}
+
+	/**
+	 * Creates the daemon threads used when no executor is set
+	 */
+	private static final ThreadFactory THREAD_FACTORY = new NamedThreadFactory(
+			"segmented-download");
+
+	/**
+	 * A range of the file
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	private static class Segment {
+		/**
+		 * The number of bytes already downloaded, counted from the beginning
+		 * of the file. Only updated by the owner connection.
+		 */
+		private volatile long position;
+		/**
+		 * The end of the segment (exclusive). Can be moved back when the
+		 * segment is split.
+		 */
+		private volatile long end;
+		/**
+		 * Whether a connection is downloading this segment. Guarded by the
+		 * {@link SegmentTable}.
+		 */
+		private boolean owned = true;
+
+		/**
+		 * @param start
+		 *            the start of the segment
+		 * @param end
+		 *            the end of the segment (exclusive)
+		 */
+		private Segment(long start, long end) {
+			this.position = start;
+			this.end = end;
+		}
+
+		/**
+		 * @return the number of bytes left to download
+		 */
+		private long remaining() {
+			return Math.max(0, end - position);
+		}
+	}
+
+	/**
+	 * Keeps track of the segments and hands them out to connections
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	private class SegmentTable {
+		/**
+		 * The file size
+		 */
+		private final long size;
+		/**
+		 * All segments. Guarded by <code>this</code>.
+		 */
+		private final List<Segment> segments = new ArrayList<>();
+		/**
+		 * The first connection failure. Guarded by <code>this</code>.
+		 */
+		private IOException failure;
+
+		/**
+		 * @param size
+		 *            the file size
+		 * @param count
+		 *            the number of initial segments
+		 */
+		private SegmentTable(long size, int count) {
+			this.size = size;
+			for (int i = 0; i < count; i++) {
+				segments.add(new Segment(size * i / count, size * (i + 1)
+						/ count));
+			}
+		}
+
+		/**
+		 * Hands out a segment to a connection that has finished its own. A
+		 * segment abandoned by a failed connection is preferred, otherwise the
+		 * largest segment left is split in half.
+		 * 
+		 * @return the segment or <code>null</code> if there is no segment left
+		 *         large enough to be split
+		 */
+		private synchronized Segment next() {
+			Segment largest = null;
+			for (final Segment segment : segments) {
+				if (segment.remaining() == 0)
+					continue;
+				if (!segment.owned) {
+					segment.owned = true;
+					return segment;
+				}
+				if (largest == null
+						|| segment.remaining() > largest.remaining())
+					largest = segment;
+			}
+			if (largest == null || largest.remaining() < 2 * minSegmentSize)
+				return null;
+
+			final long end = largest.end;
+			final long split = largest.position + largest.remaining() / 2;
+			largest.end = split;
+			final Segment segment = new Segment(split, end);
+			segments.add(segment);
+			logger.debug("Split segment at {}, {} bytes left", split, end
+					- split);
+			return segment;
+		}
+
+		/**
+		 * Gives up a segment after a connection failure, so it can be taken
+		 * over by another connection
+		 * 
+		 * @param segment
+		 *            the segment
+		 * @param e
+		 *            the failure
+		 */
+		private synchronized void release(Segment segment, IOException e) {
+			segment.owned = false;
+			if (failure == null)
+				failure = e;
+		}
+
+		/**
+		 * @throws IOException
+		 *             if any segment was left incomplete
+		 */
+		private synchronized void checkComplete() throws IOException {
+			for (final Segment segment : segments) {
+				if (segment.remaining() > 0) {
+					if (failure != null)
+						throw failure;
+					throw new IOException("Segment at " + segment.position
+							+ " of " + size + " was not downloaded");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Downloads segments over a single connection at a time until there is no
+	 * segment left. If the connection fails, its segment is released and the
+	 * worker stops, returning <code>false</code>.
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	private class SegmentWorker implements Callable<Boolean> {
+		/**
+		 * The file to download into
+		 */
+		private final FileChannel file;
+		/**
+		 * The segment table
+		 */
+		private final SegmentTable table;
+		/**
+		 * The first segment
+		 */
+		private final Segment segment;
+		/**
+		 * The channel already opened for the first segment, if any
+		 */
+		private final DownloadChannel channel;
+
+		/**
+		 * @param file
+		 *            the file to download into
+		 * @param table
+		 *            the segment table
+		 * @param segment
+		 *            the first segment
+		 * @param channel
+		 *            the channel already opened for the first segment or
+		 *            <code>null</code>
+		 */
+		private SegmentWorker(FileChannel file, SegmentTable table,
+				Segment segment, DownloadChannel channel) {
+			this.file = file;
+			this.table = table;
+			this.segment = segment;
+			this.channel = channel;
+		}
+
+		@Override
+		public Boolean call() {
+			Segment segment = this.segment;
+			DownloadChannel channel = this.channel;
+			while (segment != null) {
+				try {
+					if (channel == null)
+						channel = open(segment, table.size);
+					transfer(file, segment, channel);
+				} catch (IOException e) {
+					logger.debug("Connection failed at {}, releasing segment",
+							segment.position, e);
+					table.release(segment, e);
+					close(channel);
+					return false;
+				}
+				close(channel);
+				channel = null;
+				segment = table.next();
+			}
+			return true;
+		}
+
+		/**
+		 * Closes the channel, ignoring any error
+		 * 
+		 * @param channel
+		 *            the channel
+		 */
+		private void close(DownloadChannel channel) {
+			if (channel == null)
+				return;
+			try {
+				channel.close();
+			} catch (IOException e) {
+				logger.debug("Error closing channel", e);
+			}
+		}
+	}
+}
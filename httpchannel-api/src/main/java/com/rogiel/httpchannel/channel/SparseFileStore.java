@@ -0,0 +1,383 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.channel;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A local sparse file holding the ranges of a remote file downloaded so far.
+ * The filled ranges are kept in a range map, persisted next to the file (with
+ * a <tt>.ranges</tt> suffix) along with the remote file size and name, so the
+ * data downloaded survives process restarts and can be read without
+ * connecting to the service. Filled ranges are read through a memory-mapped
+ * view of the file. The file is locked while the store is open, so it is never
+ * shared by two stores.
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ */
+class SparseFileStore implements Closeable {
+	/**
+	 * The range map file header
+	 */
+	private static final int MAGIC = 0x48435352;
+	/**
+	 * The range map file format version
+	 */
+	private static final int VERSION = 2;
+	/**
+	 * The size of each mapped region of the file
+	 */
+	private static final int REGION_SIZE = 64 * 1024 * 1024;
+	/**
+	 * The amount of data written after which the range map is persisted
+	 */
+	private static final long FLUSH_THRESHOLD = 4 * 1024 * 1024;
+
+	/**
+	 * The range map file
+	 */
+	private final Path rangesFile;
+	/**
+	 * The data file channel
+	 */
+	private final FileChannel file;
+	/**
+	 * The remote file size
+	 */
+	private final long size;
+	/**
+	 * The remote file name, may be <code>null</code>
+	 */
+	private final String filename;
+	/**
+	 * The filled ranges, by start position, mapped to their end (exclusive).
+	 * Ranges never overlap nor touch each other.
+	 */
+	private final TreeMap<Long, Long> ranges = new TreeMap<>();
+	/**
+	 * The mapped regions, mapped on first use
+	 */
+	private final MappedByteBuffer[] regions;
+	/**
+	 * The amount of data written since the range map was last persisted
+	 */
+	private long unflushed;
+
+	/**
+	 * Opens a store, loading its range map if it exists and was created for
+	 * a remote file of the same size. Otherwise, the store starts empty.
+	 * 
+	 * @param path
+	 *            the data file
+	 * @param size
+	 *            the remote file size
+	 * @param filename
+	 *            the remote file name, may be <code>null</code>
+	 * @throws IOException
+	 *             if the store cannot be opened or is already open
+	 */
+	SparseFileStore(Path path, long size, String filename) throws IOException {
+		this.rangesFile = getRangesFile(path);
+		this.size = size;
+		this.filename = filename;
+		this.regions = new MappedByteBuffer[(int) ((size + REGION_SIZE - 1) / REGION_SIZE)];
+		this.file = FileChannel.open(path, StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.SPARSE);
+		try {
+			lock(path);
+			if (!load() || file.size() != size) {
+				ranges.clear();
+				file.truncate(0);
+				// only the last byte is written, the file stays sparse
+				if (size > 0)
+					file.write(ByteBuffer.allocate(1), size - 1);
+			}
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens an existing store, taking the remote file size and name from its
+	 * range map
+	 * 
+	 * @param path
+	 *            the data file
+	 * @return the store or <code>null</code> if there is no valid range map
+	 * @throws IOException
+	 *             if the store cannot be opened or is already open
+	 */
+	static SparseFileStore open(Path path) throws IOException {
+		final long size;
+		final String filename;
+		try (final InputStream stream = Files
+				.newInputStream(getRangesFile(path));
+				final DataInputStream in = new DataInputStream(stream)) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				return null;
+			size = in.readLong();
+			filename = (in.readBoolean() ? in.readUTF() : null);
+		} catch (NoSuchFileException | EOFException e) {
+			return null;
+		}
+		if (size < 0)
+			return null;
+		return new SparseFileStore(path, size, filename);
+	}
+
+	/**
+	 * @return the remote file size
+	 */
+	long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the remote file name, may be <code>null</code>
+	 */
+	String getFilename() {
+		return filename;
+	}
+
+	/**
+	 * Copies data from a filled range
+	 * 
+	 * @param position
+	 *            the position
+	 * @param dst
+	 *            the buffer to copy data into
+	 * @return the number of bytes copied or <code>-1</code> if the position
+	 *         is not filled
+	 * @throws IOException
+	 *             if the file cannot be mapped
+	 */
+	synchronized int read(long position, ByteBuffer dst) throws IOException {
+		final Map.Entry<Long, Long> range = ranges.floorEntry(position);
+		if (range == null || range.getValue() <= position)
+			return -1;
+		final int index = (int) (position / REGION_SIZE);
+		final int offset = (int) (position % REGION_SIZE);
+		if (regions[index] == null)
+			regions[index] = file.map(MapMode.READ_ONLY, (long) index
+					* REGION_SIZE, Math.min(REGION_SIZE, size - (long) index
+					* REGION_SIZE));
+		final ByteBuffer data = regions[index].duplicate();
+		data.position(offset);
+		final long available = Math.min(range.getValue() - position,
+				data.remaining());
+		if (available < dst.remaining())
+			data.limit((int) (offset + available));
+		else
+			data.limit(offset + dst.remaining());
+		final int read = data.remaining();
+		dst.put(data);
+		return read;
+	}
+
+	/**
+	 * Writes data into the file and marks it as filled
+	 * 
+	 * @param position
+	 *            the position
+	 * @param src
+	 *            the data
+	 * @throws IOException
+	 *             if the data cannot be written
+	 */
+	synchronized void write(long position, ByteBuffer src) throws IOException {
+		final long start = position;
+		while (src.hasRemaining()) {
+			position += file.write(src, position);
+		}
+		fill(start, position);
+		unflushed += position - start;
+		if (unflushed >= FLUSH_THRESHOLD)
+			flush();
+	}
+
+	/**
+	 * @param start
+	 *            the range start
+	 * @param end
+	 *            the range end (exclusive)
+	 * @return <code>true</code> if the whole range, up to the end of the file,
+	 *         has been filled
+	 */
+	synchronized boolean isFilled(long start, long end) {
+		end = Math.min(end, size);
+		if (start >= end)
+			return true;
+		final Map.Entry<Long, Long> range = ranges.floorEntry(start);
+		return range != null && range.getValue() >= end;
+	}
+
+	/**
+	 * @return <code>true</code> if the whole file has been filled
+	 */
+	synchronized boolean isComplete() {
+		if (size == 0)
+			return true;
+		final Map.Entry<Long, Long> range = ranges.firstEntry();
+		return range != null && range.getKey() == 0 && range.getValue() >= size;
+	}
+
+	/**
+	 * Persists the range map. The data is forced to disk first, so the range
+	 * map never covers data that is not on disk.
+	 * 
+	 * @throws IOException
+	 *             if the range map cannot be persisted
+	 */
+	synchronized void flush() throws IOException {
+		file.force(false);
+		final Path temp = rangesFile.resolveSibling(rangesFile.getFileName()
+				+ ".tmp");
+		try (final OutputStream stream = Files.newOutputStream(temp);
+				final DataOutputStream out = new DataOutputStream(stream)) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(size);
+			out.writeBoolean(filename != null);
+			if (filename != null)
+				out.writeUTF(filename);
+			out.writeInt(ranges.size());
+			for (final Map.Entry<Long, Long> range : ranges.entrySet()) {
+				out.writeLong(range.getKey());
+				out.writeLong(range.getValue());
+			}
+		}
+		Files.move(temp, rangesFile, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		unflushed = 0;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Loads the persisted range map
+	 * 
+	 * @return <code>true</code> if the range map was loaded
+	 * @throws IOException
+	 *             if the range map cannot be read
+	 */
+	private boolean load() throws IOException {
+		try (final InputStream stream = Files.newInputStream(rangesFile);
+				final DataInputStream in = new DataInputStream(stream)) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION
+					|| in.readLong() != size)
+				return false;
+			if (in.readBoolean())
+				in.readUTF();
+			final int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				final long start = in.readLong();
+				final long end = in.readLong();
+				if (start < 0 || end > size)
+					return false;
+				fill(start, end);
+			}
+			return true;
+		} catch (NoSuchFileException | EOFException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Locks the data file, which stays locked until the store is closed
+	 * 
+	 * @param path
+	 *            the data file
+	 * @throws IOException
+	 *             if the file is locked by another store
+	 */
+	private void lock(Path path) throws IOException {
+		FileLock lock;
+		try {
+			lock = file.tryLock();
+		} catch (OverlappingFileLockException e) {
+			lock = null;
+		}
+		if (lock == null)
+			throw new IOException("The file " + path
+					+ " is already in use by another channel");
+	}
+
+	/**
+	 * @param path
+	 *            the data file
+	 * @return the range map file of <code>path</code>
+	 */
+	private static Path getRangesFile(Path path) {
+		return path.resolveSibling(path.getFileName() + ".ranges");
+	}
+
+	/**
+	 * Marks a range as filled, merging it with the ranges it overlaps or
+	 * touches
+	 * 
+	 * @param start
+	 *            the range start
+	 * @param end
+	 *            the range end (exclusive)
+	 */
+	private void fill(long start, long end) {
+		if (start >= end)
+			return;
+		final Map.Entry<Long, Long> previous = ranges.floorEntry(start);
+		if (previous != null && previous.getValue() >= start) {
+			start = previous.getKey();
+			end = Math.max(end, previous.getValue());
+		}
+		Map.Entry<Long, Long> next;
+		while ((next = ranges.ceilingEntry(start)) != null
+				&& next.getKey() <= end) {
+			end = Math.max(end, next.getValue());
+			ranges.remove(next.getKey());
+		}
+		ranges.put(start, end);
+	}
+}
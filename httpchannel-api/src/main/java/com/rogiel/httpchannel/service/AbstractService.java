@@ -86,6 +86,25 @@ public abstract class AbstractService implements Service {
 		if (captchaService == null)
 			throw new NoCaptchaServiceException(
 					"No CaptchaService is configured");
+		admitCaptcha();
 		captchaService.solve((Captcha) captcha);
 	}
+
+	/**
+	 * Checks, without contacting the CAPTCHA solving server, whether the
+	 * {@link CaptchaService} can still solve CAPTCHAs. Services should call
+	 * this before starting work that will require a CAPTCHA, so that it fails
+	 * immediately once the CAPTCHA credits have run out instead of after the
+	 * download page has been loaded.
+	 * 
+	 * @throws UnsolvableCaptchaServiceException
+	 *             if the {@link CaptchaService} has no CAPTCHAs left
+	 */
+	protected void admitCaptcha() throws UnsolvableCaptchaServiceException {
+		final CaptchaService<Captcha> captchaService = this.captchaService;
+		if (captchaService != null
+				&& captchaService.getRemainingCaptchas() == 0)
+			throw new UnsolvableCaptchaServiceException(
+					"The CaptchaService has no CAPTCHAs left");
+	}
 }
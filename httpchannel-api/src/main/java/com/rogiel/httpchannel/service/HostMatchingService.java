@@ -0,0 +1,39 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.service;
+
+import java.net.URI;
+
+/**
+ * A {@link DownloadService} that only matches {@link URI}s of a known set of
+ * hosts. Knowing the hosts beforehand allows {@link URI}s to be dispatched to
+ * services by host name, instead of asking every service to match them.
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ */
+public interface HostMatchingService extends Service {
+	/**
+	 * Returns the host names of the {@link URI}s matched by
+	 * {@link DownloadService#matchURI(URI)}. {@link URI}s of any other host
+	 * must never be matched by the service.
+	 * 
+	 * @return the host names, in lower case
+	 */
+	String[] getDownloadHosts();
+}
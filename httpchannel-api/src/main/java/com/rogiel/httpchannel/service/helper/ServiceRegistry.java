@@ -0,0 +1,395 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.service.helper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.rogiel.httpchannel.service.Service;
+import com.rogiel.httpchannel.service.ServiceID;
+
+/**
+ * A registry of the {@link Service} providers available in the classpath.
+ * Unlike a {@link ServiceLoader}, providers are indexed by their
+ * {@link ServiceID} and are only instantiated the first time they are
+ * requested, so looking up a single service does not pay the construction
+ * cost of all the others.
+ * <p>
+ * Provider IDs are read from the <code>public static final</code>
+ * {@link ServiceID} field declared by each service (<code>SERVICE_ID</code>),
+ * which only requires the class to be initialized. Providers that do not
+ * declare such a field are instantiated eagerly to ask for their ID.
+ * <p>
+ * The time spent initializing and instantiating each provider is recorded
+ * and can be queried with {@link #getStartupTime(ServiceID, TimeUnit)}.
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ */
+public class ServiceRegistry implements Iterable<Service> {
+	/**
+	 * The provider-configuration resource listing the service implementations
+	 */
+	private static final String PROVIDERS_RESOURCE = "META-INF/services/"
+			+ Service.class.getName();
+	/**
+	 * The name of the static field holding the service ID
+	 */
+	private static final String SERVICE_ID_FIELD = "SERVICE_ID";
+
+	/**
+	 * The providers, in the order they were found in the classpath
+	 */
+	private final List<Provider> providers;
+	/**
+	 * The providers indexed by their service ID
+	 */
+	private final ConcurrentMap<ServiceID, Provider> index = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates a new registry with the providers visible to the thread context
+	 * class loader
+	 */
+	public ServiceRegistry() {
+		this(Thread.currentThread().getContextClassLoader());
+	}
+
+	/**
+	 * Creates a new registry with the providers visible to the given class
+	 * loader
+	 * 
+	 * @param loader
+	 *            the class loader. If <code>null</code>, the system class
+	 *            loader is used.
+	 */
+	public ServiceRegistry(ClassLoader loader) {
+		if (loader == null)
+			loader = ClassLoader.getSystemClassLoader();
+		final List<Provider> providers = new ArrayList<>();
+		for (final String name : findProviderNames(loader)) {
+			final Provider provider = new Provider(name, loader);
+			providers.add(provider);
+			if (provider.id != null)
+				index.putIfAbsent(provider.id, provider);
+		}
+		this.providers = Collections.unmodifiableList(providers);
+	}
+
+	/**
+	 * Returns the service with the given <tt>id</tt>, instantiating it if this
+	 * is the first time it is requested
+	 * 
+	 * @param id
+	 *            the service id
+	 * @return the service or <code>null</code> if no service has the given
+	 *         id
+	 * @throws ServiceConfigurationError
+	 *             if the service cannot be instantiated
+	 */
+	public Service getService(ServiceID id) {
+		final Provider provider = index.get(id);
+		if (provider == null)
+			return null;
+		return provider.get();
+	}
+
+	/**
+	 * @param id
+	 *            the service id
+	 * @return <code>true</code> if a service with the given <tt>id</tt> is
+	 *         registered
+	 */
+	public boolean contains(ServiceID id) {
+		return index.containsKey(id);
+	}
+
+	/**
+	 * @param id
+	 *            the service id
+	 * @return <code>true</code> if the service with the given <tt>id</tt> has
+	 *         already been instantiated
+	 */
+	public boolean isInstantiated(ServiceID id) {
+		final Provider provider = index.get(id);
+		return provider != null && provider.service != null;
+	}
+
+	/**
+	 * @return the IDs of all registered services, in classpath order. No
+	 *         service is instantiated.
+	 */
+	public List<ServiceID> getServiceIDs() {
+		final List<ServiceID> ids = new ArrayList<>(providers.size());
+		for (final Provider provider : providers) {
+			if (provider.id != null && index.get(provider.id) == provider)
+				ids.add(provider.id);
+		}
+		return ids;
+	}
+
+	/**
+	 * Returns the time spent loading and instantiating the service with the
+	 * given <tt>id</tt>
+	 * 
+	 * @param id
+	 *            the service id
+	 * @param unit
+	 *            the unit to return the time in
+	 * @return the startup time or <code>-1</code> if the service is unknown or
+	 *         was not instantiated yet
+	 */
+	public long getStartupTime(ServiceID id, TimeUnit unit) {
+		final Provider provider = index.get(id);
+		if (provider == null || provider.service == null)
+			return -1;
+		return unit.convert(provider.startupTime, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param unit
+	 *            the unit to return the times in
+	 * @return the startup time of each service already instantiated, in
+	 *         classpath order
+	 */
+	public Map<ServiceID, Long> getStartupTimes(TimeUnit unit) {
+		final Map<ServiceID, Long> times = new LinkedHashMap<>();
+		for (final Provider provider : providers) {
+			if (provider.id != null && provider.service != null)
+				times.put(provider.id, unit.convert(provider.startupTime,
+						TimeUnit.NANOSECONDS));
+		}
+		return times;
+	}
+
+	/**
+	 * Iterates over all services, in classpath order. Services are
+	 * instantiated as the iteration reaches them.
+	 */
+	@Override
+	public Iterator<Service> iterator() {
+		return new Iterator<Service>() {
+			private final Iterator<Provider> iterator = providers.iterator();
+
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public Service next() {
+				if (!iterator.hasNext())
+					throw new NoSuchElementException();
+				return iterator.next().get();
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Reads the names of all providers registered in the given class loader
+	 * 
+	 * @param loader
+	 *            the class loader
+	 * @return the provider class names, without duplicates
+	 * @throws ServiceConfigurationError
+	 *             if a provider-configuration file cannot be read
+	 */
+	private static Set<String> findProviderNames(ClassLoader loader) {
+		final Set<String> names = new LinkedHashSet<>();
+		try {
+			final Enumeration<URL> resources = loader
+					.getResources(PROVIDERS_RESOURCE);
+			while (resources.hasMoreElements()) {
+				final URL url = resources.nextElement();
+				try (final BufferedReader reader = new BufferedReader(
+						new InputStreamReader(url.openStream(),
+								StandardCharsets.UTF_8))) {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						final int comment = line.indexOf('#');
+						if (comment >= 0)
+							line = line.substring(0, comment);
+						line = line.trim();
+						if (line.length() > 0)
+							names.add(line);
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new ServiceConfigurationError(Service.class.getName()
+					+ ": Error reading configuration file", e);
+		}
+		return names;
+	}
+
+	/**
+	 * A lazily instantiated service provider
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	private static class Provider {
+		/**
+		 * The provider class name
+		 */
+		private final String name;
+		/**
+		 * The provider class or <code>null</code> if it could not be loaded
+		 */
+		private final Class<? extends Service> type;
+		/**
+		 * The error that prevented the provider class from being loaded
+		 */
+		private final Throwable error;
+		/**
+		 * The service id or <code>null</code> if unknown
+		 */
+		private final ServiceID id;
+
+		/**
+		 * The time (in nanoseconds) spent loading and initializing the class
+		 */
+		private final long loadTime;
+		/**
+		 * The time (in nanoseconds) spent loading and instantiating the
+		 * service
+		 */
+		private volatile long startupTime;
+		/**
+		 * The service instance or <code>null</code> if not yet instantiated
+		 */
+		private volatile Service service;
+
+		/**
+		 * Loads the provider class and resolves its service id
+		 * 
+		 * @param name
+		 *            the provider class name
+		 * @param loader
+		 *            the class loader
+		 */
+		private Provider(String name, ClassLoader loader) {
+			this.name = name;
+			final long start = System.nanoTime();
+			Class<? extends Service> type = null;
+			Throwable error = null;
+			ServiceID id = null;
+			try {
+				type = Class.forName(name, true, loader).asSubclass(
+						Service.class);
+				id = findServiceID(type);
+			} catch (ClassNotFoundException | ClassCastException
+					| LinkageError e) {
+				error = e;
+			}
+			this.type = type;
+			this.error = error;
+			this.loadTime = System.nanoTime() - start;
+			if (type != null && id == null) {
+				try {
+					id = get().getServiceID();
+				} catch (ServiceConfigurationError e) {
+					// reported again when the provider is iterated
+				}
+			}
+			this.id = id;
+		}
+
+		/**
+		 * @return the service instance, creating it if needed
+		 * @throws ServiceConfigurationError
+		 *             if the service cannot be instantiated
+		 */
+		private Service get() {
+			Service service = this.service;
+			if (service == null) {
+				synchronized (this) {
+					service = this.service;
+					if (service == null) {
+						service = instantiate();
+						this.service = service;
+					}
+				}
+			}
+			return service;
+		}
+
+		/**
+		 * @return a new service instance
+		 * @throws ServiceConfigurationError
+		 *             if the service cannot be instantiated
+		 */
+		private Service instantiate() {
+			if (type == null)
+				throw new ServiceConfigurationError(Service.class.getName()
+						+ ": Provider " + name + " could not be loaded", error);
+			final long start = System.nanoTime();
+			try {
+				final Service service = type.getConstructor().newInstance();
+				startupTime = loadTime + (System.nanoTime() - start);
+				return service;
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				throw new ServiceConfigurationError(Service.class.getName()
+						+ ": Provider " + name + " could not be instantiated",
+						e);
+			}
+		}
+
+		/**
+		 * @param type
+		 *            the provider class
+		 * @return the value of the <code>SERVICE_ID</code> field or
+		 *         <code>null</code> if the class does not declare it
+		 */
+		private static ServiceID findServiceID(Class<?> type) {
+			try {
+				final Field field = type.getDeclaredField(SERVICE_ID_FIELD);
+				if (!Modifier.isPublic(field.getModifiers())
+						|| !Modifier.isStatic(field.getModifiers())
+						|| field.getType() != ServiceID.class)
+					return null;
+				return (ServiceID) field.get(null);
+			} catch (NoSuchFieldException | IllegalAccessException e) {
+				return null;
+			}
+		}
+	}
+}
@@ -19,8 +19,10 @@
 package com.rogiel.httpchannel.service.helper;
 
 import java.net.URI;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.ServiceLoader;
+import java.util.Map;
 
 import com.rogiel.httpchannel.service.DownloadService;
 import com.rogiel.httpchannel.service.Service;
@@ -31,16 +33,32 @@ import com.rogiel.httpchannel.service.UploadService;
  * @author <a href="http://www.rogiel.com">Rogiel</a>
  */
 public class Services {
-	private static ServiceLoader<Service> services = ServiceLoader
-			.load(Service.class);
+	/**
+	 * The registry of available services
+	 */
+	private static volatile ServiceRegistry registry = new ServiceRegistry();
+	/**
+	 * The dispatcher for the services available, built on first use
+	 */
+	private static volatile URIDispatcher dispatcher;
 
 	/**
 	 * Reloads the list of available services in the classpath
 	 * 
-	 * @see java.util.ServiceLoader#reload()
+	 * @see ServiceRegistry
 	 */
 	public static void reload() {
-		services.reload();
+		synchronized (Services.class) {
+			registry = new ServiceRegistry();
+			dispatcher = null;
+		}
+	}
+
+	/**
+	 * @return the {@link ServiceRegistry} for the services available
+	 */
+	public static ServiceRegistry getRegistry() {
+		return registry;
 	}
 
 	/**
@@ -51,58 +69,74 @@ public class Services {
 	 * @return the matched service
 	 */
 	public static DownloadService<?> matchURI(URI uri) {
-		for (final Service service : iterate()) {
-			if (!(service instanceof DownloadService))
-				continue;
-			if (((DownloadService<?>) service).matchURI(uri))
-				return (DownloadService<?>) service;
+		return getDispatcher().match(uri);
+	}
+
+	/**
+	 * Tries to detect which service should be used to download each of the
+	 * given URIs. Large collections are matched in parallel.
+	 * 
+	 * @param uris
+	 *            the URIs
+	 * @return a map of each URI to its matched service (or <code>null</code>
+	 *         if no service matches it)
+	 * @see URIDispatcher#matchAll(Collection)
+	 */
+	public static Map<URI, DownloadService<?>> matchAll(Collection<URI> uris) {
+		return getDispatcher().matchAll(uris);
+	}
+
+	/**
+	 * @return the {@link URIDispatcher} for the services available
+	 */
+	public static URIDispatcher getDispatcher() {
+		URIDispatcher dispatcher = Services.dispatcher;
+		if (dispatcher == null) {
+			synchronized (Services.class) {
+				dispatcher = Services.dispatcher;
+				if (dispatcher == null) {
+					dispatcher = new URIDispatcher(iterate());
+					Services.dispatcher = dispatcher;
+				}
+			}
 		}
-		return null;
+		return dispatcher;
 	}
 
 	/**
-	 * Tries to detect which service has the given <tt>id</tt>
+	 * Tries to detect which service has the given <tt>id</tt>. Only the
+	 * matched service is instantiated.
 	 * 
 	 * @param id
 	 *            the service id
 	 * @return the matched service
 	 */
 	public static Service getService(ServiceID id) {
-		for (final Service service : iterate()) {
-			if (service.getServiceID().equals(id))
-				return service;
-		}
-		return null;
+		return registry.getService(id);
 	}
 	
 	/**
-	 * Tries to detect which service has the given <tt>id</tt>
+	 * Tries to detect which service has the given <tt>id</tt>. Only the
+	 * matched service is instantiated.
 	 * 
 	 * @param id
 	 *            the service id
 	 * @return the matched service
 	 */
 	public static UploadService<?> getUploadService(ServiceID id) {
-		for (final Service service : iterate()) {
-			if (service.getServiceID().equals(id))
-				return (UploadService<?>) service;
-		}
-		return null;
+		return (UploadService<?>) registry.getService(id);
 	}
 	
 	/**
-	 * Tries to detect which service has the given <tt>id</tt>
+	 * Tries to detect which service has the given <tt>id</tt>. Only the
+	 * matched service is instantiated.
 	 * 
 	 * @param id
 	 *            the service id
 	 * @return the matched service
 	 */
 	public static DownloadService<?> getDownloadService(ServiceID id) {
-		for (final Service service : iterate()) {
-			if (service.getServiceID().equals(id))
-				return (DownloadService<?>) service;
-		}
-		return null;
+		return (DownloadService<?>) registry.getService(id);
 	}
 
 	/**
@@ -114,13 +148,14 @@ public class Services {
 		return new Iterable<Service>() {
 			@Override
 			public Iterator<Service> iterator() {
-				return services.iterator();
+				return registry.iterator();
 			}
 		};
 	}
 
 	/**
-	 * Creates a new {@link Iterable} instance to iterate over service ids
+	 * Creates a new {@link Iterable} instance to iterate over service ids.
+	 * Services are not instantiated.
 	 * 
 	 * @return the {@link Iterable} instance
 	 */
@@ -128,25 +163,8 @@ public class Services {
 		return new Iterable<ServiceID>() {
 			@Override
 			public Iterator<ServiceID> iterator() {
-				return new Iterator<ServiceID>() {
-					private final Iterator<Service> iterator = iterate()
-							.iterator();
-
-					@Override
-					public boolean hasNext() {
-						return iterator.hasNext();
-					}
-
-					@Override
-					public ServiceID next() {
-						return iterator.next().getServiceID();
-					}
-
-					@Override
-					public void remove() {
-						iterator.remove();
-					}
-				};
+				return Collections.unmodifiableList(registry.getServiceIDs())
+						.iterator();
 			}
 		};
 	}
@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.service.helper;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.rogiel.httpchannel.service.DownloadService;
+import com.rogiel.httpchannel.service.HostMatchingService;
+import com.rogiel.httpchannel.service.Service;
+
+/**
+ * Dispatches {@link URI}s to the {@link DownloadService} that can download
+ * them. Services implementing {@link HostMatchingService} are indexed by host
+ * name, so each {@link URI} is only matched against the services of its host
+ * and the services that do not declare their hosts. The result is the same as
+ * asking every service in order.
+ * <p>
+ * Instances are immutable and thread-safe.
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ */
+public class URIDispatcher {
+	/**
+	 * The minimum number of {@link URI}s handled by each task in
+	 * {@link #matchAll(Collection)}
+	 */
+	private static final int BATCH_SIZE = 512;
+
+	/**
+	 * The candidate services for each host, in service order
+	 */
+	private final Map<String, DownloadService<?>[]> hosts = new HashMap<>();
+	/**
+	 * The services that do not declare their hosts, in service order. These
+	 * are the only candidates for {@link URI}s of unknown hosts.
+	 */
+	private final DownloadService<?>[] unindexed;
+
+	/**
+	 * Creates a new dispatcher
+	 * 
+	 * @param services
+	 *            the services, in the order they should be matched
+	 */
+	public URIDispatcher(Iterable<? extends Service> services) {
+		final List<DownloadService<?>> all = new ArrayList<>();
+		final List<DownloadService<?>> unindexed = new ArrayList<>();
+		final Map<String, List<DownloadService<?>>> indexed = new HashMap<>();
+		for (final Service service : services) {
+			if (!(service instanceof DownloadService))
+				continue;
+			final DownloadService<?> downloadService = (DownloadService<?>) service;
+			all.add(downloadService);
+			if (!(service instanceof HostMatchingService)) {
+				unindexed.add(downloadService);
+				continue;
+			}
+			for (final String host : ((HostMatchingService) service)
+					.getDownloadHosts()) {
+				final String key = host.toLowerCase(Locale.ENGLISH);
+				List<DownloadService<?>> candidates = indexed.get(key);
+				if (candidates == null) {
+					candidates = new ArrayList<>();
+					indexed.put(key, candidates);
+				}
+				if (!candidates.contains(downloadService))
+					candidates.add(downloadService);
+			}
+		}
+
+		this.unindexed = unindexed.toArray(new DownloadService<?>[unindexed
+				.size()]);
+		for (final Map.Entry<String, List<DownloadService<?>>> entry : indexed
+				.entrySet()) {
+			// keep the original order between indexed and unindexed services
+			final List<DownloadService<?>> candidates = new ArrayList<>();
+			for (final DownloadService<?> service : all) {
+				if (entry.getValue().contains(service)
+						|| unindexed.contains(service))
+					candidates.add(service);
+			}
+			hosts.put(entry.getKey(), candidates
+					.toArray(new DownloadService<?>[candidates.size()]));
+		}
+	}
+
+	/**
+	 * Tries to detect which service should be used to download the given URI
+	 * 
+	 * @param uri
+	 *            the URI
+	 * @return the matched service or <code>null</code> if no service matches
+	 */
+	public DownloadService<?> match(URI uri) {
+		DownloadService<?>[] candidates = null;
+		final String host = uri.getHost();
+		if (host != null)
+			candidates = hosts.get(host.toLowerCase(Locale.ENGLISH));
+		if (candidates == null)
+			candidates = unindexed;
+		for (final DownloadService<?> service : candidates) {
+			if (service.matchURI(uri))
+				return service;
+		}
+		return null;
+	}
+
+	/**
+	 * Detects which service should be used to download each of the given URIs.
+	 * Large collections are matched in parallel.
+	 * 
+	 * @param uris
+	 *            the URIs
+	 * @return a map of each URI to its matched service (or <code>null</code>
+	 *         if no service matches it), in the collection iteration order
+	 */
+	public Map<URI, DownloadService<?>> matchAll(Collection<URI> uris) {
+		final URI[] array = uris.toArray(new URI[uris.size()]);
+		final DownloadService<?>[] matches = new DownloadService<?>[array.length];
+		if (array.length <= BATCH_SIZE
+				|| MatchPool.POOL.getParallelism() == 1)
+			new MatchTask(array, matches, 0, array.length).compute();
+		else
+			MatchPool.POOL.invoke(new MatchTask(array, matches, 0,
+					array.length));
+
+		final Map<URI, DownloadService<?>> result = new LinkedHashMap<>();
+		for (int i = 0; i < array.length; i++) {
+			result.put(array[i], matches[i]);
+		}
+		return Collections.unmodifiableMap(result);
+	}
+
+	/**
+	 * Matches a range of URIs, splitting it in half until it is small enough
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	private class MatchTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The URIs
+		 */
+		private final URI[] uris;
+		/**
+		 * The matched services, by URI index
+		 */
+		private final DownloadService<?>[] matches;
+		/**
+		 * The first URI index
+		 */
+		private final int start;
+		/**
+		 * The last URI index (exclusive)
+		 */
+		private final int end;
+
+		/**
+		 * @param uris
+		 *            the URIs
+		 * @param matches
+		 *            the matched services, by URI index
+		 * @param start
+		 *            the first URI index
+		 * @param end
+		 *            the last URI index (exclusive)
+		 */
+		private MatchTask(URI[] uris, DownloadService<?>[] matches, int start,
+				int end) {
+			this.uris = uris;
+			this.matches = matches;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start <= BATCH_SIZE) {
+				for (int i = start; i < end; i++) {
+					matches[i] = match(uris[i]);
+				}
+				return;
+			}
+			final int middle = (start + end) >>> 1;
+			invokeAll(new MatchTask(uris, matches, start, middle),
+					new MatchTask(uris, matches, middle, end));
+		}
+	}
+
+	/**
+	 * Holds the pool used by {@link URIDispatcher#matchAll(Collection)},
+	 * created on first use
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	private static class MatchPool {
+		/**
+		 * The pool. Its threads are daemons.
+		 */
+		private static final ForkJoinPool POOL = new ForkJoinPool();
+	}
+}
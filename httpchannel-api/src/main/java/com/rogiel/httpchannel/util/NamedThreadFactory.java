@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@link ThreadFactory} that creates daemon threads named after a common
+ * prefix followed by a sequence number (e.g. <code>httpchannel-3</code>).
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ */
+public class NamedThreadFactory implements ThreadFactory {
+	/**
+	 * The thread name prefix
+	 */
+	private final String name;
+	/**
+	 * The sequence number for the next thread
+	 */
+	private final AtomicInteger sequence = new AtomicInteger();
+
+	/**
+	 * Creates a new instance
+	 * 
+	 * @param name
+	 *            the thread name prefix
+	 */
+	public NamedThreadFactory(String name) {
+		this.name = name;
+	}
+
+	@Override
+	public Thread newThread(Runnable r) {
+		final Thread thread = new Thread(r, name + "-"
+				+ sequence.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	}
+}
@@ -0,0 +1,264 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.service.helper;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import com.rogiel.httpchannel.captcha.Captcha;
+import com.rogiel.httpchannel.captcha.CaptchaService;
+import com.rogiel.httpchannel.service.CapabilityMatrix;
+import com.rogiel.httpchannel.service.DownloadService;
+import com.rogiel.httpchannel.service.Downloader;
+import com.rogiel.httpchannel.service.DownloaderCapability;
+import com.rogiel.httpchannel.service.HostMatchingService;
+import com.rogiel.httpchannel.service.Service;
+import com.rogiel.httpchannel.service.ServiceID;
+import com.rogiel.httpchannel.service.ServiceMode;
+import com.rogiel.httpchannel.service.config.NullDownloaderConfiguration;
+
+/**
+ * Compares the {@link URIDispatcher} against a linear scan of all services.
+ * The services are stubs that only match {@link URI}s, modeled after the
+ * patterns of the real services.
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ */
+public class URIDispatcherBenchmark {
+	private static final int URIS = 200000;
+	private static final int ROUNDS = 5;
+
+	private static final List<Service> SERVICES = Arrays.<Service> asList(
+			new HostStubService("megaupload",
+					"http://(www\\.)?megaupload\\.com/\\?d=([A-Za-z0-9]+)",
+					"megaupload.com", "www.megaupload.com"),
+			new HostStubService("multiupload",
+					"http://(www\\.)?multiupload\\.nl/([A-Za-z0-9]+)",
+					"multiupload.nl", "www.multiupload.nl"),
+			new HostStubService("hotfile",
+					"http://hotfile\\.com/dl/([0-9]+)/([A-Za-z0-9]+)/(.*)",
+					"hotfile.com"),
+			new HostStubService("uploadhere",
+					"http://(www\\.)?uploadhere\\.com/([A-Za-z0-9]+)",
+					"uploadhere.com", "www.uploadhere.com"),
+			new StubService("generic",
+					"http://(www\\.)?example-files\\.com/([A-Za-z0-9]+)"),
+			new HostStubService("uploadking",
+					"http://(www\\.)?uploadking\\.com/([A-Za-z0-9]+)",
+					"uploadking.com", "www.uploadking.com"),
+			new HostStubService("2shared",
+					"http://(www\\.)?2shared\\.com/file/([A-Za-z0-9]+)/(.*)",
+					"2shared.com", "www.2shared.com"));
+
+	@Test
+	public void benchmark() {
+		final List<URI> uris = generate(URIS);
+		final URIDispatcher dispatcher = new URIDispatcher(SERVICES);
+
+		// warm up and check both produce the same results
+		final Map<URI, DownloadService<?>> matches = dispatcher.matchAll(uris);
+		for (final URI uri : uris) {
+			assertEquals(scan(uri), matches.get(uri));
+			assertEquals(scan(uri), dispatcher.match(uri));
+		}
+
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			for (final URI uri : uris) {
+				scan(uri);
+			}
+			final long scan = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (final URI uri : uris) {
+				dispatcher.match(uri);
+			}
+			final long match = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			dispatcher.matchAll(uris);
+			final long matchAll = System.nanoTime() - start;
+
+			System.out.println("Round " + round + ": linear scan "
+					+ scan / 1000000 + " ms, match " + match / 1000000
+					+ " ms, matchAll " + matchAll / 1000000 + " ms ("
+					+ URIS + " URIs)");
+		}
+	}
+
+	/**
+	 * The linear scan previously done by {@link Services#matchURI(URI)}
+	 */
+	private static DownloadService<?> scan(URI uri) {
+		for (final Service service : SERVICES) {
+			if (!(service instanceof DownloadService))
+				continue;
+			if (((DownloadService<?>) service).matchURI(uri))
+				return (DownloadService<?>) service;
+		}
+		return null;
+	}
+
+	/**
+	 * Generates a mix of URIs of known services and of unknown hosts
+	 */
+	private static List<URI> generate(int count) {
+		final Random random = new Random(0);
+		final List<URI> uris = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			final String id = Long.toString(random.nextLong() & Long.MAX_VALUE,
+					36);
+			switch (random.nextInt(6)) {
+			case 0:
+				uris.add(URI.create("http://www.megaupload.com/?d=" + id));
+				break;
+			case 1:
+				uris.add(URI.create("http://www.multiupload.nl/" + id));
+				break;
+			case 2:
+				uris.add(URI.create("http://hotfile.com/dl/" + i + "/" + id
+						+ "/file.zip.html"));
+				break;
+			case 3:
+				uris.add(URI.create("http://www.uploadhere.com/" + id));
+				break;
+			case 4:
+				uris.add(URI.create("http://www.example-files.com/" + id));
+				break;
+			default:
+				uris.add(URI.create("http://www.example" + random.nextInt(100)
+						+ ".com/files/" + id));
+				break;
+			}
+		}
+		return uris;
+	}
+
+	/**
+	 * A service that matches {@link URI}s against a pattern, without
+	 * declaring its hosts
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	private static class StubService implements
+			DownloadService<NullDownloaderConfiguration> {
+		private final ServiceID id;
+		private final Pattern pattern;
+
+		public StubService(String id, String pattern) {
+			this.id = ServiceID.create(id);
+			this.pattern = Pattern.compile(pattern);
+		}
+
+		@Override
+		public boolean matchURI(URI uri) {
+			return pattern.matcher(uri.toString()).matches();
+		}
+
+		@Override
+		public ServiceID getServiceID() {
+			return id;
+		}
+
+		@Override
+		public int getMajorVersion() {
+			return 1;
+		}
+
+		@Override
+		public int getMinorVersion() {
+			return 0;
+		}
+
+		@Override
+		public ServiceMode getServiceMode() {
+			return null;
+		}
+
+		@Override
+		public CapabilityMatrix<ServiceMode> getPossibleServiceModes() {
+			return null;
+		}
+
+		@Override
+		public void setCaptchaService(
+				CaptchaService<? extends Captcha> captchaService) {
+		}
+
+		@Override
+		public Downloader<NullDownloaderConfiguration> getDownloader(URI uri,
+				NullDownloaderConfiguration configuration) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Downloader<NullDownloaderConfiguration> getDownloader(URI uri) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public NullDownloaderConfiguration newDownloaderConfiguration() {
+			return NullDownloaderConfiguration.SHARED_INSTANCE;
+		}
+
+		@Override
+		public CapabilityMatrix<DownloaderCapability> getDownloadCapabilities() {
+			return null;
+		}
+
+		@Override
+		public Service clone() {
+			return this;
+		}
+
+		@Override
+		public String toString() {
+			return id.toString();
+		}
+	}
+
+	/**
+	 * A {@link StubService} that declares its hosts
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	private static class HostStubService extends StubService implements
+			HostMatchingService {
+		private final String[] hosts;
+
+		public HostStubService(String id, String pattern, String... hosts) {
+			super(id, pattern);
+			this.hosts = hosts;
+		}
+
+		@Override
+		public String[] getDownloadHosts() {
+			return hosts;
+		}
+	}
+}
@@ -20,9 +20,13 @@ package com.captchatrader;
 
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
 import java.net.URI;
+import java.nio.charset.Charset;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
@@ -30,10 +34,12 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.entity.mime.MultipartEntity;
 import org.apache.http.entity.mime.content.StringBody;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.protocol.HttpContext;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
-import org.omg.CORBA.Any;
 
 import com.captchatrader.exception.ApplicationKeyDisabledException;
 import com.captchatrader.exception.CaptchaTraderException;
@@ -57,41 +63,130 @@ import com.captchatrader.exception.UserNotValidatedException;
  * 
  */
 public class CaptchaTrader {
+	/**
+	 * The CaptchaTrader.com API URI
+	 */
+	public static final URI DEFAULT_API_URI = URI
+			.create("http://api.captchatrader.com/");
+	/**
+	 * The default maximum number of connections open at once to the API
+	 */
+	public static final int DEFAULT_MAX_CONNECTIONS = 16;
+	/**
+	 * The default amount of time (in milliseconds) a connection is kept alive
+	 * when the server does not explicitly send a <code>Keep-Alive</code>
+	 * header
+	 */
+	public static final long DEFAULT_KEEP_ALIVE = 15 * 1000;
+
+	/**
+	 * The charset used to encode the form fields
+	 */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * The pooled and thread-safe connection manager
+	 */
+	private final ThreadSafeClientConnManager connectionManager = new ThreadSafeClientConnManager();
 	/**
 	 * The {@link HttpClient} instance
 	 */
-	private final HttpClient client = new DefaultHttpClient();
-	private final JSONParser json = new JSONParser();
+	private final DefaultHttpClient client = new DefaultHttpClient(
+			connectionManager);
 
 	private final URI apiURI;
 	private final String applicationKey;
 	private final String username;
 	private final String password;
 
+	/**
+	 * The <code>api_key</code> form field. {@link StringBody} is immutable and
+	 * can be written any number of times, so the credential fields are
+	 * encoded only once.
+	 */
+	private final StringBody applicationKeyBody;
+	/**
+	 * The <code>username</code> form field, <code>null</code> if not set
+	 */
+	private final StringBody usernameBody;
+	/**
+	 * The <code>password</code> form field, <code>null</code> if not set (e.g.
+	 * if the API key is used as username)
+	 */
+	private final StringBody passwordBody;
+
 	/**
 	 * Creates a new API instance with the given application key
 	 * 
+	 * @param apiURI
+	 *            the API base URI
 	 * @param applicationKey
 	 *            the key
+	 * @param username
+	 *            the username
+	 * @param password
+	 *            the password
+	 * @param maxConnections
+	 *            the maximum number of connections open at once to the API
 	 */
 	public CaptchaTrader(URI apiURI, String applicationKey, String username,
-			String password) {
+			String password, int maxConnections) {
 		this.apiURI = apiURI;
 		this.applicationKey = applicationKey;
 		this.username = username;
 		this.password = password;
+
+		this.applicationKeyBody = body(applicationKey);
+		this.usernameBody = body(username);
+		this.passwordBody = body(password);
+
+		// all requests go to a single host
+		connectionManager.setMaxTotal(maxConnections);
+		connectionManager.setDefaultMaxPerRoute(maxConnections);
+		// reuse connections even if the server does not send an Keep-Alive
+		client.setKeepAliveStrategy(new DefaultConnectionKeepAliveStrategy() {
+			@Override
+			public long getKeepAliveDuration(HttpResponse response,
+					HttpContext context) {
+				final long duration = super.getKeepAliveDuration(response,
+						context);
+				if (duration < 0)
+					return DEFAULT_KEEP_ALIVE;
+				return duration;
+			}
+		});
 	}
 
 	/**
 	 * Creates a new API instance with the given application key
 	 * 
+	 * @param apiURI
+	 *            the API base URI
 	 * @param applicationKey
 	 *            the key
-	 * @throws MalformedURIException
+	 * @param username
+	 *            the username
+	 * @param password
+	 *            the password
+	 */
+	public CaptchaTrader(URI apiURI, String applicationKey, String username,
+			String password) {
+		this(apiURI, applicationKey, username, password,
+				DEFAULT_MAX_CONNECTIONS);
+	}
+
+	/**
+	 * Creates a new API instance with the given application key
+	 * 
+	 * @param applicationKey
+	 *            the key
+	 * @param username
+	 *            the username
+	 * @param password
+	 *            the password
 	 */
 	public CaptchaTrader(String applicationKey, String username, String password) {
-		this(URI.create("http://api.captchatrader.com/"), applicationKey,
-				username, password);
+		this(DEFAULT_API_URI, applicationKey, username, password);
 	}
 
 	/**
@@ -100,8 +195,10 @@ public class CaptchaTrader {
 	 * @param uri
 	 *            The URI of the CAPTCHA image.
 	 * @return The decoded CAPTCHA.
-	 * @throws Any
-	 *             exceptions sent by the server.
+	 * @throws CaptchaTraderException
+	 *             any of the errors sent by the server
+	 * @throws IOException
+	 *             if any i/o error occur
 	 */
 	public ResolvedCaptcha submit(URI uri) throws CaptchaTraderException,
 			IOException {
@@ -109,10 +206,10 @@ public class CaptchaTrader {
 		final HttpPost request = new HttpPost(requestUri);
 		final MultipartEntity entity = new MultipartEntity();
 
-		entity.addPart("api_key", new StringBody(applicationKey));
-		entity.addPart("username", new StringBody(username));
-		entity.addPart("password", new StringBody(password));
-		entity.addPart("value", new StringBody(uri.toString()));
+		addPart(entity, "api_key", applicationKeyBody);
+		addPart(entity, "username", usernameBody);
+		addPart(entity, "password", passwordBody);
+		addPart(entity, "value", body(uri.toString()));
 
 		request.setEntity(entity);
 		final List<Object> response = validate(execute(request));
@@ -130,6 +227,8 @@ public class CaptchaTrader {
 	 *            <code>true</code> if the CAPTCHA was correctly resolved
 	 * @throws CaptchaTraderException
 	 *             any of the possible errors
+	 * @throws IOException
+	 *             if any i/o error occur
 	 */
 	public void respond(ResolvedCaptcha captcha, boolean state)
 			throws CaptchaTraderException, IOException {
@@ -137,10 +236,10 @@ public class CaptchaTrader {
 		final HttpPost request = new HttpPost(requestUri);
 		final MultipartEntity entity = new MultipartEntity();
 
-		entity.addPart("is_correct", new StringBody(state ? "1" : "0"));
-		entity.addPart("password", new StringBody(password));
-		entity.addPart("ticket", new StringBody(captcha.getID()));
-		entity.addPart("username", new StringBody(username));
+		addPart(entity, "is_correct", body(state ? "1" : "0"));
+		addPart(entity, "password", passwordBody);
+		addPart(entity, "ticket", body(captcha.getID()));
+		addPart(entity, "username", usernameBody);
 
 		request.setEntity(entity);
 		validate(execute(request));
@@ -149,9 +248,11 @@ public class CaptchaTrader {
 	/**
 	 * Checks the amount of resolutions available on a users account
 	 * 
-	 * @return The decoded CAPTCHA.
-	 * @throws Any
-	 *             exceptions sent by the server.
+	 * @return the amount of credits available
+	 * @throws CaptchaTraderException
+	 *             any of the errors sent by the server
+	 * @throws IOException
+	 *             if any i/o error occur
 	 */
 	public int getCredits() throws CaptchaTraderException, IOException {
 		return ((Number) validate(
@@ -160,6 +261,28 @@ public class CaptchaTrader {
 				.intValue();
 	}
 
+	/**
+	 * Closes all expired connections and those that have been idle longer than
+	 * the given time
+	 * 
+	 * @param idleTime
+	 *            the idle time
+	 * @param unit
+	 *            the <code>idleTime</code> unit
+	 */
+	public void closeIdleConnections(long idleTime, TimeUnit unit) {
+		connectionManager.closeExpiredConnections();
+		connectionManager.closeIdleConnections(idleTime, unit);
+	}
+
+	/**
+	 * Shuts down this API instance, closing all connections. Requests should
+	 * not be issued after this method has been called.
+	 */
+	public void shutdown() {
+		connectionManager.shutdown();
+	}
+
 	private List<Object> validate(List<Object> response)
 			throws CaptchaTraderException {
 		if ((long) response.get(0) == -1) {
@@ -170,20 +293,58 @@ public class CaptchaTrader {
 
 	@SuppressWarnings("unchecked")
 	private List<Object> execute(HttpUriRequest request) throws IOException {
-		final HttpResponse response = client.execute(request);
-		try {
-			return (List<Object>) json.parse(new InputStreamReader(response
-					.getEntity().getContent()));
+		final HttpEntity entity = client.execute(request).getEntity();
+		// closing the stream consumes the remaining content and releases the
+		// connection back to the pool so that it can be kept alive
+		try (final InputStreamReader reader = new InputStreamReader(
+				entity.getContent(), UTF_8)) {
+			// the parser is not thread-safe
+			return (List<Object>) new JSONParser().parse(reader);
 		} catch (IllegalStateException | ParseException e) {
 			throw new IOException(e);
 		}
 	}
 
+	/**
+	 * Adds a form field to the entity, unless it is <code>null</code>
+	 * 
+	 * @param entity
+	 *            the entity
+	 * @param name
+	 *            the field name
+	 * @param body
+	 *            the field, may be <code>null</code>
+	 */
+	private static void addPart(MultipartEntity entity, String name,
+			StringBody body) {
+		if (body != null)
+			entity.addPart(name, body);
+	}
+
+	/**
+	 * Creates a new form field
+	 * 
+	 * @param value
+	 *            the field value
+	 * @return the {@link StringBody}, <code>null</code> if the value is
+	 *         <code>null</code>
+	 */
+	private static StringBody body(String value) {
+		if (value == null)
+			return null;
+		try {
+			return new StringBody(value, UTF_8);
+		} catch (UnsupportedEncodingException e) {
+			// UTF-8 is always supported
+			throw new IllegalStateException(e);
+		}
+	}
+
 	private CaptchaTraderException translateException(String error) {
 		switch (error) {
 		case "API KEY DISABLED":
 			return new ApplicationKeyDisabledException();
-		case " CONNECTION LIMIT":
+		case "CONNECTION LIMIT":
 			return new ConnectionLimitException();
 		case "DAILY LIMIT":
 			return new DailyLimitException();
@@ -50,6 +50,6 @@ public class ResolvedCaptcha {
 	}
 
 	public void invalid() throws CaptchaTraderException, IOException {
-		api.respond(this, true);
+		api.respond(this, false);
 	}
 }
@@ -19,6 +19,22 @@
 package com.rogiel.httpchannel.captcha.impl;
 
 import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,16 +42,34 @@ import org.slf4j.LoggerFactory;
 import com.captchatrader.CaptchaTrader;
 import com.captchatrader.ResolvedCaptcha;
 import com.captchatrader.exception.CaptchaTraderException;
+import com.captchatrader.exception.ConnectionLimitException;
+import com.captchatrader.exception.DailyLimitException;
+import com.captchatrader.exception.InsuficientCreditsException;
 import com.rogiel.httpchannel.captcha.ImageCaptcha;
 import com.rogiel.httpchannel.captcha.ImageCaptchaService;
 import com.rogiel.httpchannel.captcha.exception.AuthenticationCaptchaServiceException;
 import com.rogiel.httpchannel.captcha.exception.InvalidCaptchaServiceException;
 import com.rogiel.httpchannel.captcha.exception.UnsolvableCaptchaServiceException;
+import com.rogiel.httpchannel.util.NamedThreadFactory;
 
 /**
  * Implements CAPTCHA solving using CaptchaTrader.com service. If
  * username-password authentication is not desired, send the API key as username
  * and <code>null</code> password.
+ * <p>
+ * CAPTCHAs are solved asynchronously by a small pool of threads. The number
+ * of CAPTCHAs submitted at the same time is limited and lowered whenever the
+ * server reports a <tt>CONNECTION LIMIT</tt>, growing back as submissions
+ * succeed. A CAPTCHA rejected with <tt>CONNECTION LIMIT</tt> too many times
+ * fails. After a <tt>DAILY LIMIT</tt> or <tt>INSUFFICIENT CREDITS</tt>
+ * error, submissions fail immediately for an exponentially growing period
+ * instead of hitting the server. Answers are reported back in batches, in the
+ * background.
+ * <p>
+ * The account credits are tracked locally: each CAPTCHA takes its credits up
+ * front and gives them back if it could not be submitted. Once no credits are
+ * left, submissions fail immediately. The counter is periodically reconciled
+ * with the server, in the background.
  * 
  * @author <a href="http://www.rogiel.com">Rogiel</a>
  */
@@ -44,76 +78,265 @@ public class CaptchaTraderService implements ImageCaptchaService {
 			.getLogger(CaptchaTraderService.class);
 	private static final String APP_KEY = "2acc44805ec208cc4d6b00c75a414996";
 
+	/**
+	 * The default maximum number of CAPTCHAs being solved at the same time
+	 */
+	public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+	/**
+	 * The time (in milliseconds) before resubmitting a CAPTCHA rejected with
+	 * <tt>CONNECTION LIMIT</tt>
+	 */
+	private static final long RETRY_DELAY = 1000;
+	/**
+	 * The maximum number of times a CAPTCHA is submitted before giving up on
+	 * <tt>CONNECTION LIMIT</tt>
+	 */
+	private static final int MAX_ATTEMPTS = 5;
+	/**
+	 * The default initial time (in milliseconds) submissions are suspended
+	 * after a quota error
+	 */
+	public static final long DEFAULT_MIN_BACKOFF = 60 * 1000;
+	/**
+	 * The default maximum time (in milliseconds) submissions are suspended
+	 * after repeated quota errors
+	 */
+	public static final long DEFAULT_MAX_BACKOFF = 60 * 60 * 1000;
+	/**
+	 * The time (in milliseconds) answers are accumulated before being reported
+	 */
+	private static final long REPORT_DELAY = 1000;
+	/**
+	 * The amount of credits charged for each CAPTCHA
+	 */
+	private static final int CREDITS_PER_CAPTCHA = 10;
+	/**
+	 * The time (in milliseconds) between reconciliations of the local credit
+	 * counter with the server
+	 */
+	private static final long RECONCILE_INTERVAL = 5 * 60 * 1000;
+
+	/**
+	 * The {@link ThreadFactory} for the solver threads
+	 */
+	private static final ThreadFactory THREAD_FACTORY = new NamedThreadFactory(
+			"captchatrader");
+
 	/**
 	 * The current application key to be used
 	 */
 	private String currentApplicationKey = CaptchaTraderService.APP_KEY;
+	/**
+	 * The CaptchaTrader API URI
+	 */
+	private URI apiURI = CaptchaTrader.DEFAULT_API_URI;
 
 	/**
 	 * The CaptchaTrader.com API object
 	 */
-	private CaptchaTrader api;
+	private volatile CaptchaTrader api;
+
+	/**
+	 * The executor that solves CAPTCHAs and reports answers
+	 */
+	private final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(
+			DEFAULT_MAX_IN_FLIGHT + 1, THREAD_FACTORY);
+	/**
+	 * The CAPTCHAs waiting to be submitted
+	 */
+	private final Deque<Solve> pending = new ArrayDeque<>();
+	/**
+	 * The maximum number of CAPTCHAs being solved at the same time
+	 */
+	private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+	/**
+	 * The current limit of CAPTCHAs being solved at the same time, lowered
+	 * when the server rejects connections
+	 */
+	private int limit = DEFAULT_MAX_IN_FLIGHT;
+	/**
+	 * The number of CAPTCHAs being solved
+	 */
+	private int inFlight;
+	/**
+	 * The number of CAPTCHAs solved since the limit was last raised
+	 */
+	private int successes;
+	/**
+	 * The initial backoff period (in milliseconds)
+	 */
+	private long minBackoff = DEFAULT_MIN_BACKOFF;
+	/**
+	 * The maximum backoff period (in milliseconds)
+	 */
+	private long maxBackoff = DEFAULT_MAX_BACKOFF;
+	/**
+	 * The current backoff period (in milliseconds)
+	 */
+	private long backoff;
+	/**
+	 * The time until which submissions are suspended
+	 */
+	private volatile long backoffUntil;
+
+	/**
+	 * The answers waiting to be reported
+	 */
+	private final Queue<Report> reports = new ConcurrentLinkedQueue<>();
+	/**
+	 * Whether a report is already scheduled
+	 */
+	private final AtomicBoolean reportScheduled = new AtomicBoolean();
+
+	/**
+	 * The amount of credits left on the account, <code>-1</code> if not known
+	 */
+	private final AtomicInteger credits = new AtomicInteger(-1);
+	/**
+	 * The amount of credits taken by CAPTCHAs still being solved
+	 */
+	private final AtomicInteger reserved = new AtomicInteger();
+	/**
+	 * The task that reconciles the credit counter with the server
+	 */
+	private ScheduledFuture<?> reconcileTask;
+
+	/**
+	 * Creates a new instance
+	 */
+	public CaptchaTraderService() {
+		executor.setKeepAliveTime(60, TimeUnit.SECONDS);
+		executor.allowCoreThreadTimeOut(true);
+		executor.setRemoveOnCancelPolicy(true);
+	}
 
 	@Override
 	public int authenticate(String username, String password)
 			throws AuthenticationCaptchaServiceException {
-		api = new CaptchaTrader(currentApplicationKey, username, password);
+		final CaptchaTrader api = new CaptchaTrader(apiURI,
+				currentApplicationKey, username, password);
 		logger.debug("Authenticating into CaptchaTrader");
+		final int credits;
 		try {
 			// this will validate the account
-			return (int) Math.ceil(((double) api.getCredits()) / 10);
+			credits = api.getCredits();
 		} catch (IOException | CaptchaTraderException e) {
+			api.shutdown();
 			throw new AuthenticationCaptchaServiceException(e);
 		}
+		final CaptchaTrader previous = this.api;
+		this.api = api;
+		// releases the pooled connections of the previous account
+		if (previous != null)
+			previous.shutdown();
+		update(credits);
+		scheduleReconcile();
+		return captchas(credits);
 	}
 
 	@Override
 	public void solve(ImageCaptcha captcha)
 			throws UnsolvableCaptchaServiceException {
+		final Future<ImageCaptcha> future = solveAsync(captcha);
 		try {
-			logger.debug("Resolving CAPTCHA {}", captcha.getImageURI());
-			final ResolvedCaptcha resolved = api.submit(captcha.getImageURI());
-			captcha.setAnswer(resolved.getAnswer());
-			captcha.setAttachment(resolved);
-			logger.debug("CAPTCHA solved, answer is \"{}\"",
-					resolved.getAnswer());
-		} catch (IOException | CaptchaTraderException e) {
+			future.get();
+		} catch (InterruptedException e) {
+			// nobody is waiting for the answer anymore, do not pay for it
+			future.cancel(true);
+			Thread.currentThread().interrupt();
 			throw new UnsolvableCaptchaServiceException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof UnsolvableCaptchaServiceException)
+				throw (UnsolvableCaptchaServiceException) e.getCause();
+			throw new UnsolvableCaptchaServiceException(e.getCause());
 		}
 	}
 
+	@Override
+	public Future<ImageCaptcha> solveAsync(ImageCaptcha captcha) {
+		final Solve solve = new Solve(captcha);
+		if (isBackingOff()) {
+			solve.fail(new UnsolvableCaptchaServiceException(
+					"CaptchaTrader quota exceeded, retrying later"));
+			return solve;
+		}
+		if (!solve.reserve()) {
+			solve.fail(new UnsolvableCaptchaServiceException(
+					"No CaptchaTrader credits left"));
+			return solve;
+		}
+		synchronized (this) {
+			pending.addLast(solve);
+			dispatch();
+		}
+		return solve;
+	}
+
+	@Override
+	public int getRemainingCaptchas() {
+		final int credits = this.credits.get();
+		if (credits < 0)
+			return -1;
+		return captchas(credits);
+	}
+
 	@Override
 	public void valid(ImageCaptcha captcha)
 			throws InvalidCaptchaServiceException {
-		final Object attachment = captcha.getAttachment();
-		if (attachment instanceof ResolvedCaptcha) {
-			try {
-				logger.debug("Notifying server that CAPTCHA {} is valid",
-						captcha);
-				((ResolvedCaptcha) attachment).valid();
-			} catch (CaptchaTraderException | IOException e) {
-				throw new InvalidCaptchaServiceException(e);
-			}
-		} else {
-			throw new InvalidCaptchaServiceException();
-		}
+		report(captcha, true);
 	}
 
 	@Override
 	public void invalid(ImageCaptcha captcha)
 			throws InvalidCaptchaServiceException {
-		final Object attachment = captcha.getAttachment();
-		if (attachment instanceof ResolvedCaptcha) {
+		report(captcha, false);
+	}
+
+	/**
+	 * Reports all pending answers to the server, in the current thread
+	 */
+	public void flush() {
+		int count = 0;
+		Report report;
+		while ((report = reports.poll()) != null) {
 			try {
-				logger.debug("Notifying server that CAPTCHA {} is invalid",
-						captcha);
-				((ResolvedCaptcha) attachment).invalid();
+				if (report.valid)
+					report.captcha.valid();
+				else
+					report.captcha.invalid();
+				count++;
 			} catch (CaptchaTraderException | IOException e) {
-				throw new InvalidCaptchaServiceException(e);
+				logger.warn("Unable to report CAPTCHA {}",
+						report.captcha.getID(), e);
 			}
-		} else {
-			throw new InvalidCaptchaServiceException();
 		}
+		if (count > 0)
+			logger.debug("Reported {} CAPTCHA answers", count);
+	}
+
+	/**
+	 * Reconciles the local credit counter with the server, in the current
+	 * thread
+	 */
+	public void reconcile() {
+		final CaptchaTrader api = this.api;
+		if (api == null)
+			return;
+		try {
+			update(api.getCredits());
+			logger.debug("CaptchaTrader credits reconciled, {} left",
+					credits.get());
+		} catch (IOException | CaptchaTraderException e) {
+			logger.warn("Unable to reconcile CaptchaTrader credits", e);
+		}
+	}
+
+	/**
+	 * @return the amount of credits left on the account, as tracked locally,
+	 *         or <code>-1</code> if not known
+	 */
+	public int getCredits() {
+		return credits.get();
 	}
 
 	/**
@@ -129,4 +352,467 @@ public class CaptchaTraderService implements ImageCaptchaService {
 		logger.debug("Setting new application key as {}", key);
 		currentApplicationKey = key;
 	}
+
+	/**
+	 * Sets the CaptchaTrader API URI. Only takes effect on the next
+	 * {@link #authenticate(String, String)}.
+	 * 
+	 * @param apiURI
+	 *            the API base URI, <code>null</code> to use the default
+	 */
+	public void setApiURI(URI apiURI) {
+		if (apiURI == null)
+			apiURI = CaptchaTrader.DEFAULT_API_URI;
+		this.apiURI = apiURI;
+	}
+
+	/**
+	 * Sets the maximum number of CAPTCHAs being solved at the same time
+	 * 
+	 * @param maxInFlight
+	 *            the maximum number of CAPTCHAs
+	 */
+	public synchronized void setMaxInFlight(int maxInFlight) {
+		if (maxInFlight <= 0)
+			throw new IllegalArgumentException("maxInFlight must be positive");
+		executor.setCorePoolSize(maxInFlight + 1);
+		this.maxInFlight = maxInFlight;
+		this.limit = maxInFlight;
+		dispatch();
+	}
+
+	/**
+	 * @return the maximum number of CAPTCHAs being solved at the same time
+	 */
+	public synchronized int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	/**
+	 * @return the number of CAPTCHAs being solved
+	 */
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	/**
+	 * @return the current limit of CAPTCHAs being solved at the same time,
+	 *         lower than {@link #getMaxInFlight()} while the server rejects
+	 *         connections
+	 */
+	public synchronized int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Sets the period submissions are suspended after a quota error. The
+	 * period doubles on consecutive errors, up to <code>max</code>.
+	 * 
+	 * @param min
+	 *            the initial period
+	 * @param max
+	 *            the maximum period
+	 * @param unit
+	 *            the time unit
+	 */
+	public synchronized void setBackoff(long min, long max, TimeUnit unit) {
+		if (min <= 0 || max < min)
+			throw new IllegalArgumentException("invalid backoff period");
+		this.minBackoff = unit.toMillis(min);
+		this.maxBackoff = unit.toMillis(max);
+	}
+
+	/**
+	 * @return the period (in milliseconds) submissions are suspended after
+	 *         the last quota error, <code>0</code> if the last submission
+	 *         succeeded
+	 */
+	public synchronized long getBackoff() {
+		return backoff;
+	}
+
+	/**
+	 * Queues an answer to be reported
+	 * 
+	 * @param captcha
+	 *            the captcha
+	 * @param valid
+	 *            whether the answer was correct
+	 * @throws InvalidCaptchaServiceException
+	 *             if the CAPTCHA was not solved by this service
+	 */
+	private void report(ImageCaptcha captcha, boolean valid)
+			throws InvalidCaptchaServiceException {
+		final Object attachment = captcha.getAttachment();
+		if (!(attachment instanceof ResolvedCaptcha))
+			throw new InvalidCaptchaServiceException();
+		logger.debug("Queuing CAPTCHA {} to be reported as {}", captcha,
+				valid ? "valid" : "invalid");
+		reports.add(new Report((ResolvedCaptcha) attachment, valid));
+		if (reportScheduled.compareAndSet(false, true)) {
+			executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					reportScheduled.set(false);
+					flush();
+				}
+			}, REPORT_DELAY, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Sets the local credit counter from the amount reported by the server
+	 * 
+	 * @param serverCredits
+	 *            the amount of credits reported by the server
+	 */
+	private void update(int serverCredits) {
+		// credits taken by CAPTCHAs still being solved might not have been
+		// charged by the server yet
+		credits.set(Math.max(0, serverCredits - reserved.get()));
+	}
+
+	/**
+	 * (Re)schedules the periodic reconciliation of the credit counter
+	 */
+	private synchronized void scheduleReconcile() {
+		if (reconcileTask != null)
+			reconcileTask.cancel(false);
+		reconcileTask = executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				reconcile();
+			}
+		}, RECONCILE_INTERVAL, RECONCILE_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param credits
+	 *            the amount of credits
+	 * @return the amount of CAPTCHAs that can be solved with the credits
+	 */
+	private static int captchas(int credits) {
+		return credits / CREDITS_PER_CAPTCHA;
+	}
+
+	/**
+	 * Submits pending CAPTCHAs while below the limit. Must be called while
+	 * holding the lock.
+	 */
+	private void dispatch() {
+		while (inFlight < limit && !pending.isEmpty()) {
+			final Solve solve = pending.pollFirst();
+			if (solve.isDone()) {
+				solve.settle(false);
+				continue;
+			}
+			inFlight++;
+			executor.execute(solve);
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if submissions are suspended
+	 */
+	private boolean isBackingOff() {
+		return System.currentTimeMillis() < backoffUntil;
+	}
+
+	/**
+	 * Suspends submissions after a quota error, doubling the period on
+	 * consecutive errors
+	 */
+	private synchronized void backOff() {
+		backoff = (backoff == 0 ? minBackoff : Math.min(backoff * 2,
+				maxBackoff));
+		backoffUntil = System.currentTimeMillis() + backoff;
+		logger.warn("CaptchaTrader quota exceeded, suspending for {} ms",
+				backoff);
+	}
+
+	/**
+	 * A CAPTCHA being solved
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	private class Solve implements Future<ImageCaptcha>, Runnable {
+		/**
+		 * The captcha
+		 */
+		private final ImageCaptcha captcha;
+		/**
+		 * Released once the CAPTCHA is solved, failed or cancelled
+		 */
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		/**
+		 * Whether the solve was cancelled
+		 */
+		private volatile boolean cancelled;
+		/**
+		 * The error that failed the solve
+		 */
+		private UnsolvableCaptchaServiceException error;
+		/**
+		 * The amount of credits taken by this CAPTCHA
+		 */
+		private int reservation;
+		/**
+		 * The number of times this CAPTCHA was submitted
+		 */
+		private int attempts;
+
+		/**
+		 * @param captcha
+		 *            the captcha
+		 */
+		public Solve(ImageCaptcha captcha) {
+			this.captcha = captcha;
+		}
+
+		@Override
+		public void run() {
+			if (isDone()) {
+				settle(false);
+				release(false);
+				return;
+			}
+			if (isBackingOff()) {
+				settle(false);
+				release(false);
+				fail(new UnsolvableCaptchaServiceException(
+						"CaptchaTrader quota exceeded, retrying later"));
+				return;
+			}
+			attempts++;
+			try {
+				logger.debug("Resolving CAPTCHA {}", captcha.getImageURI());
+				final ResolvedCaptcha resolved = api.submit(captcha
+						.getImageURI());
+				captcha.setAnswer(resolved.getAnswer());
+				captcha.setAttachment(resolved);
+				logger.debug("CAPTCHA solved, answer is \"{}\"",
+						resolved.getAnswer());
+				settle(true);
+				release(true);
+				complete();
+			} catch (ConnectionLimitException e) {
+				if (attempts < MAX_ATTEMPTS) {
+					retry();
+					return;
+				}
+				settle(false);
+				release(false);
+				fail(new UnsolvableCaptchaServiceException(e));
+			} catch (InsuficientCreditsException e) {
+				settle(false);
+				credits.set(0);
+				backOff();
+				release(false);
+				fail(new UnsolvableCaptchaServiceException(e));
+			} catch (DailyLimitException e) {
+				settle(false);
+				backOff();
+				release(false);
+				fail(new UnsolvableCaptchaServiceException(e));
+			} catch (IOException | CaptchaTraderException | RuntimeException e) {
+				settle(false);
+				release(false);
+				fail(new UnsolvableCaptchaServiceException(e));
+			}
+		}
+
+		/**
+		 * Takes the credits for this CAPTCHA from the local counter. If the
+		 * amount of credits is not known yet, the server is left to decide.
+		 * 
+		 * @return <code>false</code> if there are not enough credits left
+		 */
+		private synchronized boolean reserve() {
+			while (true) {
+				final int current = credits.get();
+				if (current < 0)
+					return true;
+				if (current < CREDITS_PER_CAPTCHA)
+					return false;
+				if (credits.compareAndSet(current, current
+						- CREDITS_PER_CAPTCHA)) {
+					reserved.addAndGet(CREDITS_PER_CAPTCHA);
+					reservation = CREDITS_PER_CAPTCHA;
+					return true;
+				}
+			}
+		}
+
+		/**
+		 * Settles the credits taken by this CAPTCHA
+		 * 
+		 * @param charged
+		 *            whether the server has charged the credits, if not, they
+		 *            are given back
+		 */
+		private synchronized void settle(boolean charged) {
+			if (reservation == 0)
+				return;
+			reserved.addAndGet(-reservation);
+			if (!charged)
+				credits.addAndGet(reservation);
+			reservation = 0;
+		}
+
+		/**
+		 * Frees the slot taken by this CAPTCHA. Successful submissions raise
+		 * the limit back, one slot at a time.
+		 * 
+		 * @param solved
+		 *            whether the CAPTCHA was solved
+		 */
+		private void release(boolean solved) {
+			synchronized (CaptchaTraderService.this) {
+				inFlight--;
+				if (solved) {
+					backoff = 0;
+					if (limit < maxInFlight && ++successes >= limit) {
+						limit++;
+						successes = 0;
+					}
+				}
+				dispatch();
+			}
+		}
+
+		/**
+		 * Lowers the limit to the number of CAPTCHAs the server is accepting
+		 * and resubmits this CAPTCHA after a delay
+		 */
+		private void retry() {
+			synchronized (CaptchaTraderService.this) {
+				inFlight--;
+				limit = Math.max(1, Math.min(limit, inFlight));
+				successes = 0;
+				logger.debug("CaptchaTrader connection limit reached, "
+						+ "limiting to {} CAPTCHAs", limit);
+			}
+			executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					synchronized (CaptchaTraderService.this) {
+						pending.addFirst(Solve.this);
+						dispatch();
+					}
+				}
+			}, RETRY_DELAY, TimeUnit.MILLISECONDS);
+		}
+
+		/**
+		 * Completes the solve
+		 */
+		private void complete() {
+			done.countDown();
+		}
+
+		/**
+		 * Fails the solve
+		 * 
+		 * @param error
+		 *            the error
+		 */
+		private synchronized void fail(UnsolvableCaptchaServiceException error) {
+			if (isDone())
+				return;
+			this.error = error;
+			done.countDown();
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			synchronized (this) {
+				if (isDone())
+					return false;
+				cancelled = true;
+				done.countDown();
+			}
+			withdraw();
+			return true;
+		}
+
+		/**
+		 * Removes this CAPTCHA from the pending queue, if it has not been
+		 * submitted yet, and gives its credits back
+		 */
+		private void withdraw() {
+			final boolean removed;
+			synchronized (CaptchaTraderService.this) {
+				removed = pending.remove(this);
+			}
+			if (removed)
+				settle(false);
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		@Override
+		public boolean isDone() {
+			return done.getCount() == 0;
+		}
+
+		@Override
+		public ImageCaptcha get() throws InterruptedException,
+				ExecutionException {
+			done.await();
+			return report();
+		}
+
+		@Override
+		public ImageCaptcha get(long timeout, TimeUnit unit)
+				throws InterruptedException, ExecutionException,
+				TimeoutException {
+			if (!done.await(timeout, unit))
+				throw new TimeoutException();
+			return report();
+		}
+
+		/**
+		 * @return the solved captcha
+		 * @throws ExecutionException
+		 *             if the CAPTCHA could not be solved
+		 */
+		private synchronized ImageCaptcha report() throws ExecutionException {
+			if (cancelled)
+				throw new CancellationException();
+			if (error != null)
+				throw new ExecutionException(error);
+			return captcha;
+		}
+	}
+
+	/**
+	 * An answer waiting to be reported
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	private static class Report {
+		/**
+		 * The solved captcha
+		 */
+		private final ResolvedCaptcha captcha;
+		/**
+		 * Whether the answer was correct
+		 */
+		private final boolean valid;
+
+		/**
+		 * @param captcha
+		 *            the solved captcha
+		 * @param valid
+		 *            whether the answer was correct
+		 */
+		public Report(ResolvedCaptcha captcha, boolean valid) {
+			this.captcha = captcha;
+			this.valid = valid;
+		}
+	}
 }
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.captchatrader;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * Measures the {@link CaptchaTrader} solve throughput against a local
+ * {@link CaptchaTraderStub} with an increasing number of concurrent
+ * submitters
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ */
+public class CaptchaTraderBenchmark {
+	private static final int[] SUBMITTERS = { 1, 8, 64 };
+	private static final int SOLVES = 2000;
+	private static final int ROUNDS = 3;
+	/**
+	 * The amount of time (in milliseconds) the stub takes to answer
+	 */
+	private static final long LATENCY = 1;
+
+	@Test
+	public void benchmark() throws Exception {
+		final CaptchaTraderStub stub = new CaptchaTraderStub(
+				Integer.MAX_VALUE, LATENCY);
+		final CaptchaTrader api = new CaptchaTrader(stub.getURI(), "key",
+				"user", "pass", 64);
+		try {
+			// warm up and check the stub answers are parsed
+			final ResolvedCaptcha resolved = api.submit(URI
+					.create("http://www.example.com/captcha.png"));
+			assertEquals(CaptchaTraderStub.ANSWER, resolved.getAnswer());
+			resolved.valid();
+			assertEquals(1, stub.getResponds());
+			assertEquals(Integer.MAX_VALUE
+					- CaptchaTraderStub.CREDITS_PER_CAPTCHA, api.getCredits());
+
+			for (int round = 0; round < ROUNDS; round++) {
+				for (final int submitters : SUBMITTERS) {
+					final int connections = stub.getConnections();
+					final long start = System.nanoTime();
+					solve(api, submitters, SOLVES);
+					final long time = System.nanoTime() - start;
+
+					System.out.println("Round " + round + ": " + submitters
+							+ " submitters, " + SOLVES + " solves in " + time
+							/ 1000000 + " ms (" + SOLVES * 1000000000L / time
+							+ " solves/s, "
+							+ (stub.getConnections() - connections)
+							+ " new connections)");
+				}
+			}
+		} finally {
+			api.shutdown();
+			stub.stop();
+		}
+	}
+
+	/**
+	 * Submits and responds <code>solves</code> CAPTCHAs split between
+	 * <code>submitters</code> threads
+	 */
+	private static void solve(final CaptchaTrader api, int submitters,
+			final int solves) throws Exception {
+		final ExecutorService executor = Executors
+				.newFixedThreadPool(submitters);
+		try {
+			final List<Future<Void>> futures = new ArrayList<>();
+			for (int i = 0; i < submitters; i++) {
+				final int count = solves / submitters
+						+ (i < solves % submitters ? 1 : 0);
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						for (int j = 0; j < count; j++) {
+							api.submit(
+									URI.create("http://www.example.com/captcha.png"))
+									.valid();
+						}
+						return null;
+					}
+				}));
+			}
+			for (final Future<Void> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
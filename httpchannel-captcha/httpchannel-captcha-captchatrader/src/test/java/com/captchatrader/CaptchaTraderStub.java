@@ -0,0 +1,322 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.captchatrader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local CaptchaTrader endpoint that answers every CAPTCHA with the same
+ * text. It implements just enough of the API for {@link CaptchaTrader} to be
+ * exercised without an account or network access.
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ */
+public class CaptchaTraderStub {
+	/**
+	 * The answer given to every CAPTCHA
+	 */
+	public static final String ANSWER = "stub answer";
+	/**
+	 * The amount of credits charged for each CAPTCHA
+	 */
+	public static final int CREDITS_PER_CAPTCHA = 10;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	static {
+		// the response headers and body are written separately, without this
+		// every response would be delayed by the client delayed ACK
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	/**
+	 * The HTTP server
+	 */
+	private final HttpServer server;
+	/**
+	 * The server worker threads
+	 */
+	private final ExecutorService executor = Executors
+			.newCachedThreadPool(new ThreadFactory() {
+				private final AtomicInteger sequence = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					final Thread thread = new Thread(r, "captchatrader-stub-"
+							+ sequence.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+	/**
+	 * The amount of time (in milliseconds) each request takes to be answered
+	 */
+	private final long latency;
+
+	/**
+	 * The next ticket ID
+	 */
+	private final AtomicLong tickets = new AtomicLong();
+	/**
+	 * The number of credits left on the account
+	 */
+	private final AtomicInteger credits;
+	/**
+	 * The number of submits received
+	 */
+	private final AtomicInteger submits = new AtomicInteger();
+	/**
+	 * The number of submits being answered
+	 */
+	private final AtomicInteger activeSubmits = new AtomicInteger();
+	/**
+	 * The maximum number of submits answered at the same time, others are
+	 * rejected with <tt>CONNECTION LIMIT</tt>
+	 */
+	private volatile int connectionLimit = Integer.MAX_VALUE;
+	/**
+	 * The error every submit is rejected with, if any
+	 */
+	private volatile String submitError;
+	/**
+	 * The number of responds received
+	 */
+	private final AtomicInteger responds = new AtomicInteger();
+	/**
+	 * The client addresses seen, one per connection opened
+	 */
+	private final Set<InetSocketAddress> connections = Collections
+			.newSetFromMap(new ConcurrentHashMap<InetSocketAddress, Boolean>());
+
+	/**
+	 * Creates and starts a new stub listening on an ephemeral local port
+	 * 
+	 * @param initialCredits
+	 *            the number of credits on the account
+	 * @param latency
+	 *            the amount of time (in milliseconds) each request takes to be
+	 *            answered
+	 * @throws IOException
+	 *             if the server could not be started
+	 */
+	public CaptchaTraderStub(int initialCredits, long latency)
+			throws IOException {
+		this.credits = new AtomicInteger(initialCredits);
+		this.latency = latency;
+
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 128);
+		server.setExecutor(executor);
+		server.createContext("/submit", new StubHandler() {
+			@Override
+			protected String reject() {
+				submits.incrementAndGet();
+				if (submitError != null)
+					return "[-1,\"" + submitError + "\"]";
+				if (activeSubmits.incrementAndGet() > connectionLimit) {
+					activeSubmits.decrementAndGet();
+					return "[-1,\"CONNECTION LIMIT\"]";
+				}
+				return null;
+			}
+
+			@Override
+			protected String answer() {
+				activeSubmits.decrementAndGet();
+				if (credits.addAndGet(-CREDITS_PER_CAPTCHA) < 0) {
+					credits.addAndGet(CREDITS_PER_CAPTCHA);
+					return "[-1,\"INSUFFICIENT CREDITS\"]";
+				}
+				return "[" + tickets.incrementAndGet() + ",\"" + ANSWER
+						+ "\"]";
+			}
+		});
+		server.createContext("/respond", new StubHandler() {
+			@Override
+			protected String answer() {
+				responds.incrementAndGet();
+				return "[0,\"OK\"]";
+			}
+		});
+		server.createContext("/get_credits", new StubHandler() {
+			@Override
+			protected String answer() {
+				return "[0," + credits.get() + "]";
+			}
+		});
+		server.start();
+	}
+
+	/**
+	 * @return the API base URI
+	 */
+	public URI getURI() {
+		return URI.create("http://127.0.0.1:" + server.getAddress().getPort()
+				+ "/");
+	}
+
+	/**
+	 * @return the number of submits received, including those rejected
+	 */
+	public int getSubmits() {
+		return submits.get();
+	}
+
+	/**
+	 * @return the number of responds received
+	 */
+	public int getResponds() {
+		return responds.get();
+	}
+
+	/**
+	 * @return the number of credits left on the account
+	 */
+	public int getCredits() {
+		return credits.get();
+	}
+
+	/**
+	 * Adds credits to the account
+	 * 
+	 * @param amount
+	 *            the amount of credits
+	 */
+	public void addCredits(int amount) {
+		credits.addAndGet(amount);
+	}
+
+	/**
+	 * Sets the maximum number of submits answered at the same time. Submits
+	 * above the limit are rejected with <tt>CONNECTION LIMIT</tt>.
+	 * 
+	 * @param connectionLimit
+	 *            the maximum number of submits
+	 */
+	public void setConnectionLimit(int connectionLimit) {
+		this.connectionLimit = connectionLimit;
+	}
+
+	/**
+	 * Rejects every submit with an error
+	 * 
+	 * @param submitError
+	 *            the error (e.g. <tt>DAILY LIMIT</tt>), <code>null</code> to
+	 *            accept submits again
+	 */
+	public void setSubmitError(String submitError) {
+		this.submitError = submitError;
+	}
+
+	/**
+	 * @return the number of connections opened by clients
+	 */
+	public int getConnections() {
+		return connections.size();
+	}
+
+	/**
+	 * Stops the server
+	 */
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Consumes the request and writes the JSON answer
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	private abstract class StubHandler implements HttpHandler {
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			connections.add(exchange.getRemoteAddress());
+			try (final InputStream in = exchange.getRequestBody()) {
+				final byte[] buffer = new byte[1024];
+				while (in.read(buffer) != -1)
+					;
+			}
+			final String rejection = reject();
+			if (rejection != null) {
+				write(exchange, rejection);
+				return;
+			}
+			if (latency > 0) {
+				try {
+					Thread.sleep(latency);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			write(exchange, answer());
+		}
+
+		/**
+		 * Writes the JSON answer
+		 * 
+		 * @param exchange
+		 *            the exchange
+		 * @param answer
+		 *            the JSON answer
+		 * @throws IOException
+		 *             if the answer cannot be written
+		 */
+		private void write(HttpExchange exchange, String answer)
+				throws IOException {
+			final byte[] response = answer.getBytes(UTF_8);
+			exchange.getResponseHeaders().set("Content-Type",
+					"application/json");
+			exchange.sendResponseHeaders(200, response.length);
+			try (final OutputStream out = exchange.getResponseBody()) {
+				out.write(response);
+			}
+		}
+
+		/**
+		 * Rejects the request right away, before the latency
+		 * 
+		 * @return the JSON error or <code>null</code> to answer the request
+		 */
+		protected String reject() {
+			return null;
+		}
+
+		/**
+		 * @return the JSON answer
+		 */
+		protected abstract String answer();
+	}
+}
@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.captcha.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.captchatrader.CaptchaTraderStub;
+import com.rogiel.httpchannel.captcha.ImageCaptcha;
+import com.rogiel.httpchannel.captcha.exception.UnsolvableCaptchaServiceException;
+
+/**
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ */
+public class CaptchaTraderServiceTest {
+	private CaptchaTraderStub stub;
+	private CaptchaTraderService service;
+
+	@Before
+	public void setUp() throws Exception {
+		stub = new CaptchaTraderStub(30, 0);
+		service = new CaptchaTraderService();
+		service.setApiURI(stub.getURI());
+	}
+
+	@Test
+	public void testCredits() throws Exception {
+		assertEquals(3, service.authenticate("user", "pass"));
+		for (int i = 0; i < 3; i++) {
+			final ImageCaptcha captcha = captcha(i);
+			service.solve(captcha);
+			assertEquals(CaptchaTraderStub.ANSWER, captcha.getAnswer());
+			assertEquals(2 - i, service.getRemainingCaptchas());
+		}
+
+		try {
+			service.solve(captcha(3));
+			fail("CAPTCHA solved without credits");
+		} catch (UnsolvableCaptchaServiceException e) {
+		}
+		// the CAPTCHA must have been rejected without reaching the server
+		assertEquals(3, stub.getSubmits());
+
+		stub.addCredits(20);
+		service.reconcile();
+		assertEquals(2, service.getRemainingCaptchas());
+		service.solve(captcha(4));
+		assertEquals(4, stub.getSubmits());
+	}
+
+	@Test
+	public void testPartialCredits() throws Exception {
+		stub.addCredits(5);
+		// 35 credits are only enough for 3 CAPTCHAs
+		assertEquals(3, service.authenticate("user", "pass"));
+		for (int i = 0; i < 3; i++) {
+			service.solve(captcha(i));
+		}
+		assertEquals(0, service.getRemainingCaptchas());
+		assertEquals(5, service.getCredits());
+
+		try {
+			service.solve(captcha(3));
+			fail("CAPTCHA solved without enough credits");
+		} catch (UnsolvableCaptchaServiceException e) {
+		}
+		assertEquals(3, stub.getSubmits());
+	}
+
+	@Test
+	public void testInterruptedSolve() throws Exception {
+		stub.stop();
+		stub = new CaptchaTraderStub(30, 500);
+		service.setApiURI(stub.getURI());
+		service.setMaxInFlight(1);
+		assertEquals(3, service.authenticate("user", "pass"));
+
+		final Future<ImageCaptcha> first = service.solveAsync(captcha(0));
+		// the second CAPTCHA is queued behind the first one
+		Thread.currentThread().interrupt();
+		try {
+			service.solve(captcha(1));
+			fail("Interrupted solve returned");
+		} catch (UnsolvableCaptchaServiceException e) {
+		}
+		assertTrue(Thread.interrupted());
+		// the credits of the queued CAPTCHA are given back right away
+		assertEquals(20, service.getCredits());
+
+		first.get();
+		service.solve(captcha(2));
+		assertEquals(2, stub.getSubmits());
+		assertEquals(1, service.getRemainingCaptchas());
+	}
+
+	@Test
+	public void testBackoff() throws Exception {
+		service.setBackoff(200, 500, TimeUnit.MILLISECONDS);
+		assertEquals(3, service.authenticate("user", "pass"));
+		stub.setSubmitError("DAILY LIMIT");
+
+		assertUnsolvable(captcha(0));
+		assertEquals(200, service.getBackoff());
+		assertEquals(1, stub.getSubmits());
+		// the credits are given back
+		assertEquals(30, service.getCredits());
+
+		// submissions fail without reaching the server while backing off
+		assertUnsolvable(captcha(1));
+		assertEquals(1, stub.getSubmits());
+
+		// the period doubles on consecutive errors, up to the maximum
+		Thread.sleep(250);
+		assertUnsolvable(captcha(2));
+		assertEquals(400, service.getBackoff());
+		assertEquals(2, stub.getSubmits());
+		Thread.sleep(450);
+		assertUnsolvable(captcha(3));
+		assertEquals(500, service.getBackoff());
+		assertEquals(3, stub.getSubmits());
+
+		// a successful submission resets it
+		stub.setSubmitError(null);
+		Thread.sleep(550);
+		service.solve(captcha(4));
+		assertEquals(0, service.getBackoff());
+		assertEquals(4, stub.getSubmits());
+	}
+
+	@Test
+	public void testAdaptiveLimit() throws Exception {
+		stub.stop();
+		stub = new CaptchaTraderStub(100, 300);
+		stub.setConnectionLimit(2);
+		service.setApiURI(stub.getURI());
+		assertEquals(4, service.getMaxInFlight());
+		assertEquals(10, service.authenticate("user", "pass"));
+
+		final List<Future<ImageCaptcha>> futures = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			futures.add(service.solveAsync(captcha(i)));
+		}
+		// two CAPTCHAs are rejected, the limit drops to what the server
+		// accepts
+		final long deadline = System.currentTimeMillis() + 2000;
+		while (service.getLimit() > 2
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(2, service.getLimit());
+		assertEquals(4, stub.getSubmits());
+
+		// the rejected CAPTCHAs are resubmitted
+		for (final Future<ImageCaptcha> future : futures) {
+			assertEquals(CaptchaTraderStub.ANSWER, future.get().getAnswer());
+		}
+		assertEquals(6, stub.getSubmits());
+		assertEquals(6, service.getRemainingCaptchas());
+
+		// successful submissions raise the limit back, one slot at a time
+		stub.setConnectionLimit(Integer.MAX_VALUE);
+		service.solve(captcha(4));
+		assertEquals(4, service.getLimit());
+	}
+
+	@Test
+	public void testConnectionLimitAttempts() throws Exception {
+		assertEquals(3, service.authenticate("user", "pass"));
+		stub.setConnectionLimit(0);
+
+		// gives up instead of resubmitting forever
+		assertUnsolvable(captcha(0));
+		assertEquals(5, stub.getSubmits());
+		assertEquals(0, service.getInFlight());
+		assertEquals(30, service.getCredits());
+	}
+
+	@Test
+	public void testApplicationKeyOnly() throws Exception {
+		// the API key can be sent as username, without password
+		assertEquals(3, service.authenticate("key", null));
+		final ImageCaptcha captcha = captcha(0);
+		service.solve(captcha);
+		assertEquals(CaptchaTraderStub.ANSWER, captcha.getAnswer());
+	}
+
+	@After
+	public void tearDown() {
+		stub.stop();
+	}
+
+	private void assertUnsolvable(ImageCaptcha captcha) {
+		try {
+			service.solve(captcha);
+			fail("CAPTCHA solved");
+		} catch (UnsolvableCaptchaServiceException e) {
+		}
+	}
+
+	private static ImageCaptcha captcha(int id) {
+		return new ImageCaptcha("captcha-" + id,
+				URI.create("http://www.example.com/captcha/" + id + ".png"));
+	}
+}
@@ -19,6 +19,7 @@
 package com.rogiel.httpchannel.copy;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.URI;
 import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
@@ -27,9 +28,21 @@ import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rogiel.httpchannel.copy.exception.ChannelCopyException;
 import com.rogiel.httpchannel.copy.exception.NoServiceFoundException;
 import com.rogiel.httpchannel.service.DownloadChannel;
 import com.rogiel.httpchannel.service.DownloadService;
@@ -39,8 +52,8 @@ import com.rogiel.httpchannel.service.Uploader.UploaderConfiguration;
 import com.rogiel.httpchannel.service.exception.DownloadLimitExceededException;
 import com.rogiel.httpchannel.service.exception.DownloadLinkNotFoundException;
 import com.rogiel.httpchannel.service.exception.DownloadNotAuthorizedException;
-import com.rogiel.httpchannel.service.exception.UploadLinkNotFoundException;
 import com.rogiel.httpchannel.service.helper.Services;
+import com.rogiel.httpchannel.util.NamedThreadFactory;
 
 /**
  * This class provides an utility that copies the entire content of a
@@ -56,10 +69,45 @@ import com.rogiel.httpchannel.service.helper.Services;
  * Once all output channels were set, {@link #call()} must be called in order to
  * start copying data. This class implements {@link Callable} and thus can be
  * executed inside an {@link Executor}.
+ * <p>
+ * Data is read only once from the input channel into a shared pool of buffers
+ * and each output is written by its own thread, so a slow output does not
+ * slow down the others until it lags behind by the whole pool. If an output
+ * fails, it is detached from the copy and the other outputs continue. The
+ * outcome of each output is reported as a {@link ChannelCopyResult}.
+ * <p>
+ * Every output needs a thread of its own for the whole copy. An executor set
+ * with {@link #setExecutor(ExecutorService)} must be able to run all outputs
+ * at the same time: with fewer free threads than outputs, the outputs left
+ * queued never drain their buffers and the copy deadlocks.
+ * <p>
+ * When the outputs run at very different speeds, a spill buffer can be enabled
+ * with {@link #setSpill(Path, int, long)}. The input is then read straight into
+ * a memory-mapped temporary file, so it can be drained at full speed and
+ * closed as soon as possible, while the slower outputs catch up from the file.
  * 
  * @author <a href="http://www.rogiel.com">Rogiel</a>
  */
-public class ChannelCopy implements Callable<List<URI>> {
+public class ChannelCopy implements Callable<List<ChannelCopyResult>> {
+	/**
+	 * The default maximum number of buffers an output can lag behind the input
+	 */
+	public static final int DEFAULT_MAX_LAG = 16;
+	/**
+	 * The size of each buffer
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+	/**
+	 * Creates the daemon threads used when no executor is set
+	 */
+	private static final ThreadFactory THREAD_FACTORY = new NamedThreadFactory(
+			"channelcopy");
+
+	/**
+	 * The logger instance
+	 */
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
 	/**
 	 * The input channel
 	 */
@@ -78,6 +126,29 @@ public class ChannelCopy implements Callable<List<URI>> {
 	 */
 	private final List<UploadChannel> uploadChannels = new ArrayList<>();
 
+	/**
+	 * The executor that runs the output writers. If <code>null</code>, a new
+	 * thread is created for each output.
+	 */
+	private ExecutorService executor;
+	/**
+	 * The maximum number of buffers an output can lag behind the input
+	 */
+	private int maxLag = DEFAULT_MAX_LAG;
+	/**
+	 * The directory to create the spill file in. If <code>null</code>, the
+	 * default temporary directory is used.
+	 */
+	private Path spillDirectory;
+	/**
+	 * The size of each mapped region of the spill file
+	 */
+	private int spillWindow;
+	/**
+	 * The maximum size of the spill file. If zero, no spill file is used.
+	 */
+	private long spillBudget;
+
 	/**
 	 * Initializes with an {@link ReadableByteChannel}, filename and filesize
 	 * 
@@ -192,35 +263,544 @@ public class ChannelCopy implements Callable<List<URI>> {
 				.openChannel());
 	}
 
+	/**
+	 * Sets the executor that runs the output writers. Each output blocks one
+	 * thread for the whole copy, so the executor must have a free thread for
+	 * every output, otherwise the copy deadlocks. If not set, a new thread is
+	 * created for each output.
+	 * 
+	 * @param executor
+	 *            the executor
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Sets the maximum number of buffers an output can lag behind the input.
+	 * Once the slowest output lags behind by this amount, reading is paused
+	 * until it catches up.
+	 * 
+	 * @param maxLag
+	 *            the maximum lag, in buffers of 64 KiB
+	 */
+	public void setMaxLag(int maxLag) {
+		if (maxLag < 1)
+			throw new IllegalArgumentException("maxLag must be at least 1");
+		this.maxLag = maxLag;
+	}
+
+	/**
+	 * Enables the spill buffer. The input is read into a temporary file of up
+	 * to <code>diskBudget</code> bytes and each output reads from the file at
+	 * its own pace. Reading is only paused once the slowest output lags behind
+	 * by the whole budget.
+	 * 
+	 * @param directory
+	 *            the directory to create the spill file in or
+	 *            <code>null</code> for the default temporary directory
+	 * @param memoryWindow
+	 *            the size of the file region mapped in memory at once by the
+	 *            input and by each output
+	 * @param diskBudget
+	 *            the maximum size of the spill file, rounded up to a multiple
+	 *            of <code>memoryWindow</code>
+	 */
+	public void setSpill(Path directory, int memoryWindow, long diskBudget) {
+		if (memoryWindow < 1)
+			throw new IllegalArgumentException(
+					"memoryWindow must be at least 1");
+		if (diskBudget < 1)
+			throw new IllegalArgumentException("diskBudget must be at least 1");
+		this.spillDirectory = directory;
+		this.spillWindow = memoryWindow;
+		this.spillBudget = diskBudget;
+	}
+
+	/**
+	 * Enables the spill buffer in the default temporary directory
+	 * 
+	 * @param memoryWindow
+	 *            the size of the file region mapped in memory at once by the
+	 *            input and by each output
+	 * @param diskBudget
+	 *            the maximum size of the spill file
+	 * @see #setSpill(Path, int, long)
+	 */
+	public void setSpill(int memoryWindow, long diskBudget) {
+		setSpill(null, memoryWindow, diskBudget);
+	}
+
 	@Override
-	public List<URI> call() throws IOException {
-		final ByteBuffer buffer = ByteBuffer.allocate(16 * 1024);
+	public List<ChannelCopyResult> call() throws IOException {
+		final ExecutorService executor = (this.executor != null ? this.executor
+				: Executors.newFixedThreadPool(
+						Math.max(1, uploadChannels.size()), THREAD_FACTORY));
 		try {
-			while (downloadChannel.read(buffer) >= 0) {
-				buffer.flip();
-				final int limit = buffer.limit();
-				final int position = buffer.position();
-				for (final UploadChannel channel : uploadChannels) {
-					channel.write(buffer);
-					buffer.limit(limit).position(position);
-				}
-				buffer.clear();
-			}
+			if (spillBudget > 0)
+				return copySpilled(executor);
+			return copyBuffered(executor);
+		} finally {
+			if (this.executor == null)
+				executor.shutdown();
+		}
+	}
+
+	/**
+	 * Copies the input through the in-memory buffer pool
+	 * 
+	 * @param executor
+	 *            the executor that runs the output writers
+	 * @return the result for each output
+	 * @throws IOException
+	 *             if any error occur while reading the input channel
+	 */
+	private List<ChannelCopyResult> copyBuffered(ExecutorService executor)
+			throws IOException {
+		final BufferPool pool = new BufferPool(maxLag, BUFFER_SIZE);
+		final List<BufferWriter> writers = new ArrayList<>();
+		final List<Future<ChannelCopyResult>> futures = new ArrayList<>();
+		for (final UploadChannel channel : uploadChannels) {
+			final BufferWriter writer = new BufferWriter(channel, maxLag);
+			writers.add(writer);
+			futures.add(executor.submit(writer));
+		}
+		try {
+			copy(pool, writers);
 		} finally {
 			downloadChannel.close();
+			for (final BufferWriter writer : writers) {
+				writer.end();
+			}
+		}
+		return await(futures);
+	}
+
+	/**
+	 * Copies the input through a spill file
+	 * 
+	 * @param executor
+	 *            the executor that runs the output writers
+	 * @return the result for each output
+	 * @throws IOException
+	 *             if any error occur while reading the input channel or
+	 *             writing the spill file
+	 */
+	private List<ChannelCopyResult> copySpilled(ExecutorService executor)
+			throws IOException {
+		try (final SpillBuffer spill = new SpillBuffer(spillDirectory,
+				spillWindow, spillBudget)) {
+			final List<Future<ChannelCopyResult>> futures = new ArrayList<>();
 			for (final UploadChannel channel : uploadChannels) {
+				futures.add(executor.submit(new SpillWriter(channel, spill
+						.open())));
+			}
+			try {
+				copy(spill);
+			} finally {
+				downloadChannel.close();
+				spill.finish();
+			}
+			return await(futures);
+		}
+	}
+
+	/**
+	 * Reads the input channel until its end and dispatches each buffer read to
+	 * all outputs that have not failed
+	 * 
+	 * @param pool
+	 *            the buffer pool
+	 * @param writers
+	 *            the output writers
+	 * @throws IOException
+	 *             if any error occur while reading the input channel
+	 */
+	private void copy(BufferPool pool, List<BufferWriter> writers)
+			throws IOException {
+		final List<BufferWriter> live = new ArrayList<>(writers.size());
+		while (true) {
+			final SharedBuffer buffer = pool.acquire();
+			if (downloadChannel.read(buffer.data) < 0) {
+				pool.release(buffer);
+				return;
+			}
+			buffer.data.flip();
+
+			live.clear();
+			for (final BufferWriter writer : writers) {
+				if (!writer.hasFailed())
+					live.add(writer);
+			}
+			if (live.isEmpty()) {
+				pool.release(buffer);
+				logger.debug("All outputs have failed, aborting copy");
+				return;
+			}
+			buffer.retain(live.size());
+			for (final BufferWriter writer : live) {
+				writer.dispatch(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Reads the input channel until its end into the spill buffer
+	 * 
+	 * @param spill
+	 *            the spill buffer
+	 * @throws IOException
+	 *             if any error occur while reading the input channel or
+	 *             writing the spill file
+	 */
+	private void copy(SpillBuffer spill) throws IOException {
+		while (spill.hasCursors()) {
+			if (spill.fill(downloadChannel) < 0)
+				return;
+		}
+		logger.debug("All outputs have failed, aborting copy");
+	}
+
+	/**
+	 * Waits for all writers to finish
+	 * 
+	 * @param futures
+	 *            the writer futures, in output order
+	 * @return the writer results
+	 * @throws IOException
+	 *             if the thread is interrupted while waiting
+	 */
+	private static List<ChannelCopyResult> await(
+			List<Future<ChannelCopyResult>> futures) throws IOException {
+		final List<ChannelCopyResult> results = new ArrayList<>();
+		try {
+			for (final Future<ChannelCopyResult> future : futures) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			throw new ChannelCopyException(e.getCause());
+		}
+		return results;
+	}
+
+	/**
+	 * A buffer shared by all outputs. It is returned to the pool once every
+	 * output has written it.
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	private static class SharedBuffer {
+		/**
+		 * The pool this buffer belongs to
+		 */
+		private final BufferPool pool;
+		/**
+		 * The buffer data. Outputs must only read it through a
+		 * {@link ByteBuffer#duplicate() duplicate}.
+		 */
+		private final ByteBuffer data;
+		/**
+		 * The number of outputs that have not written the buffer yet
+		 */
+		private final AtomicInteger references = new AtomicInteger();
+
+		/**
+		 * @param pool
+		 *            the pool
+		 * @param size
+		 *            the buffer size
+		 */
+		private SharedBuffer(BufferPool pool, int size) {
+			this.pool = pool;
+			this.data = (size > 0 ? ByteBuffer.allocate(size) : null);
+		}
+
+		/**
+		 * @param count
+		 *            the number of outputs the buffer is dispatched to
+		 */
+		private void retain(int count) {
+			references.set(count);
+		}
+
+		/**
+		 * Called by each output once it has written the buffer
+		 */
+		private void release() {
+			if (references.decrementAndGet() == 0)
+				pool.release(this);
+		}
+	}
+
+	/**
+	 * A bounded pool of {@link SharedBuffer}s. Buffers are only allocated when
+	 * needed.
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	private static class BufferPool {
+		/**
+		 * The buffers ready to be filled
+		 */
+		private final BlockingQueue<SharedBuffer> free;
+		/**
+		 * The maximum number of buffers
+		 */
+		private final int capacity;
+		/**
+		 * The size of each buffer
+		 */
+		private final int bufferSize;
+		/**
+		 * The number of buffers allocated so far. Only used by the reader.
+		 */
+		private int allocated;
+
+		/**
+		 * @param capacity
+		 *            the maximum number of buffers
+		 * @param bufferSize
+		 *            the size of each buffer
+		 */
+		private BufferPool(int capacity, int bufferSize) {
+			this.free = new ArrayBlockingQueue<>(capacity);
+			this.capacity = capacity;
+			this.bufferSize = bufferSize;
+		}
+
+		/**
+		 * @return an empty buffer, waiting for one to be released if all
+		 *         buffers are in use
+		 * @throws InterruptedIOException
+		 *             if the thread is interrupted
+		 */
+		private SharedBuffer acquire() throws InterruptedIOException {
+			SharedBuffer buffer = free.poll();
+			if (buffer == null && allocated < capacity) {
+				allocated++;
+				return new SharedBuffer(this, bufferSize);
+			}
+			try {
+				if (buffer == null)
+					buffer = free.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+			buffer.data.clear();
+			return buffer;
+		}
+
+		/**
+		 * @param buffer
+		 *            the buffer to be returned to the pool
+		 */
+		private void release(SharedBuffer buffer) {
+			free.offer(buffer);
+		}
+	}
+
+	/**
+	 * Writes the data read from the input into a single output. Once the
+	 * output fails, it is detached from the copy and the remaining data is
+	 * discarded.
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	private abstract class OutputWriter implements
+			Callable<ChannelCopyResult> {
+		/**
+		 * The output channel
+		 */
+		protected final UploadChannel channel;
+		/**
+		 * The exception that caused the output to fail
+		 */
+		private volatile Exception failure;
+
+		/**
+		 * @param channel
+		 *            the output channel
+		 */
+		protected OutputWriter(UploadChannel channel) {
+			this.channel = channel;
+		}
+
+		/**
+		 * @return <code>true</code> if the output has failed
+		 */
+		protected boolean hasFailed() {
+			return failure != null;
+		}
+
+		@Override
+		public ChannelCopyResult call() {
+			final boolean interrupted = transfer();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				if (failure == null)
+					failure = e;
+			}
+			if (interrupted)
+				Thread.currentThread().interrupt();
+			if (failure != null)
+				return new ChannelCopyResult(channel, null, failure);
+			return new ChannelCopyResult(channel, channel.getDownloadLink(),
+					null);
+		}
+
+		/**
+		 * Writes all data into the output, until the input reaches its end or
+		 * the output fails
+		 * 
+		 * @return <code>true</code> if the thread was interrupted
+		 */
+		protected abstract boolean transfer();
+
+		/**
+		 * @param data
+		 *            the data to be written into the output
+		 * @throws IOException
+		 *             if any error occur while writing
+		 */
+		protected void write(ByteBuffer data) throws IOException {
+			while (data.hasRemaining()) {
+				channel.write(data);
+			}
+		}
+
+		/**
+		 * Detaches the output from the copy
+		 * 
+		 * @param e
+		 *            the exception that caused the output to fail
+		 */
+		protected void fail(Exception e) {
+			if (failure != null)
+				return;
+			logger.warn("Output {} has failed, detaching it from the copy",
+					channel, e);
+			failure = e;
+		}
+	}
+
+	/**
+	 * Writes the buffers dispatched from the buffer pool. Once the output
+	 * fails, the remaining buffers are released without being written.
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	private class BufferWriter extends OutputWriter {
+		/**
+		 * The buffers waiting to be written
+		 */
+		private final BlockingQueue<SharedBuffer> queue;
+
+		/**
+		 * @param channel
+		 *            the output channel
+		 * @param capacity
+		 *            the maximum number of buffers waiting to be written
+		 */
+		private BufferWriter(UploadChannel channel, int capacity) {
+			super(channel);
+			// one extra slot for the end marker
+			this.queue = new ArrayBlockingQueue<>(capacity + 1);
+		}
+
+		/**
+		 * @param buffer
+		 *            the buffer to be written
+		 */
+		private void dispatch(SharedBuffer buffer) {
+			// never blocks: there are no more buffers than the queue capacity
+			queue.offer(buffer);
+		}
+
+		/**
+		 * Signals that there is no more data to be written
+		 */
+		private void end() {
+			queue.offer(END);
+		}
+
+		@Override
+		protected boolean transfer() {
+			boolean interrupted = false;
+			while (true) {
+				final SharedBuffer buffer;
+				try {
+					buffer = queue.take();
+				} catch (InterruptedException e) {
+					interrupted = true;
+					fail(new InterruptedIOException());
+					continue;
+				}
+				if (buffer == END)
+					return interrupted;
 				try {
-					channel.close();
-				} catch (UploadLinkNotFoundException e) {
+					if (!hasFailed())
+						write(buffer.data.duplicate());
+				} catch (IOException e) {
+					fail(e);
+				} finally {
+					buffer.release();
 				}
 			}
 		}
+	}
 
-		final List<URI> uris = new ArrayList<>();
-		for (final UploadChannel channel : uploadChannels) {
-			uris.add(channel.getDownloadLink());
+	/**
+	 * Writes the data read from a {@link SpillBuffer}. Once the output fails,
+	 * its cursor is closed so the input is no longer held back by it.
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	private class SpillWriter extends OutputWriter {
+		/**
+		 * The spill buffer cursor
+		 */
+		private final SpillBuffer.Cursor cursor;
+
+		/**
+		 * @param channel
+		 *            the output channel
+		 * @param cursor
+		 *            the spill buffer cursor
+		 */
+		private SpillWriter(UploadChannel channel, SpillBuffer.Cursor cursor) {
+			super(channel);
+			this.cursor = cursor;
 		}
 
-		return uris;
+		@Override
+		protected boolean transfer() {
+			try {
+				ByteBuffer data;
+				while ((data = cursor.next()) != null) {
+					final int length = data.remaining();
+					write(data);
+					cursor.advance(length);
+				}
+				return false;
+			} catch (InterruptedIOException e) {
+				fail(e);
+				return Thread.interrupted();
+			} catch (IOException e) {
+				fail(e);
+				return false;
+			} finally {
+				cursor.close();
+			}
+		}
 	}
+
+	/**
+	 * Signals the end of the data to the output writers
+	 */
+	private static final SharedBuffer END = new SharedBuffer(null, 0);
 }
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.copy;
+
+import java.net.URI;
+
+import com.rogiel.httpchannel.service.UploadChannel;
+
+/**
+ * The result of copying data into a single output of a {@link ChannelCopy}.
+ * Each output either succeeds, with the download link returned by the service,
+ * or fails, with the exception that detached it from the copy.
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ */
+public class ChannelCopyResult {
+	/**
+	 * The output channel
+	 */
+	private final UploadChannel channel;
+	/**
+	 * The download link. Only set if the copy succeeded.
+	 */
+	private final URI downloadLink;
+	/**
+	 * The exception that caused the copy to fail. Only set if the copy
+	 * failed.
+	 */
+	private final Exception failure;
+
+	/**
+	 * Creates a new instance
+	 * 
+	 * @param channel
+	 *            the output channel
+	 * @param downloadLink
+	 *            the download link
+	 * @param failure
+	 *            the exception that caused the copy to fail
+	 */
+	public ChannelCopyResult(UploadChannel channel, URI downloadLink,
+			Exception failure) {
+		this.channel = channel;
+		this.downloadLink = downloadLink;
+		this.failure = failure;
+	}
+
+	/**
+	 * @return the output channel
+	 */
+	public UploadChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * @return <code>true</code> if all data has been copied into the output
+	 *         and the service returned a download link
+	 */
+	public boolean isSuccessful() {
+		return failure == null;
+	}
+
+	/**
+	 * @return the download link or <code>null</code> if the copy failed
+	 */
+	public URI getDownloadLink() {
+		return downloadLink;
+	}
+
+	/**
+	 * @return the exception that caused the copy to fail or <code>null</code>
+	 *         if it succeeded
+	 */
+	public Exception getFailure() {
+		return failure;
+	}
+
+	@Override
+	public String toString() {
+		return "ChannelCopyResult [channel=" + channel + ", downloadLink="
+				+ downloadLink + ", failure=" + failure + "]";
+	}
+}
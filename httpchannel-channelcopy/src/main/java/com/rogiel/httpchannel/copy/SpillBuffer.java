@@ -0,0 +1,316 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.copy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A ring buffer backed by a memory-mapped temporary file. Data is written by a
+ * single producer and read by any number of {@link Cursor}s, each at its own
+ * pace. The producer is only blocked once it is ahead of the slowest cursor by
+ * the whole file capacity.
+ * <p>
+ * The file is mapped in regions of <tt>window</tt> bytes and the producer and
+ * each cursor only keep their current region mapped, so at most one window per
+ * participant is held in memory at any time.
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ */
+class SpillBuffer implements Closeable {
+	/**
+	 * The spill file channel
+	 */
+	private final FileChannel file;
+	/**
+	 * The size of each mapped region
+	 */
+	private final int window;
+	/**
+	 * The spill file capacity, always a multiple of {@link #window}
+	 */
+	private final long capacity;
+
+	/**
+	 * The open cursors. Guarded by <code>this</code>.
+	 */
+	private final Set<Cursor> cursors = new HashSet<>();
+	/**
+	 * The total number of bytes written. Guarded by <code>this</code>.
+	 */
+	private long written;
+	/**
+	 * Whether the producer has finished writing. Guarded by <code>this</code>.
+	 */
+	private boolean finished;
+
+	/**
+	 * The region currently mapped by the producer
+	 */
+	private MappedByteBuffer region;
+	/**
+	 * The index of the region currently mapped by the producer
+	 */
+	private long regionIndex = -1;
+
+	/**
+	 * Creates a new spill buffer
+	 * 
+	 * @param directory
+	 *            the directory to create the spill file in or
+	 *            <code>null</code> for the default temporary directory
+	 * @param window
+	 *            the size of each mapped region
+	 * @param budget
+	 *            the maximum size of the spill file, rounded up to a multiple
+	 *            of <code>window</code>
+	 * @throws IOException
+	 *             if the spill file cannot be created
+	 */
+	SpillBuffer(Path directory, int window, long budget) throws IOException {
+		this.window = window;
+		this.capacity = Math.max(1, (budget + window - 1) / window) * window;
+		final Path path = (directory != null ? Files.createTempFile(directory,
+				"channelcopy-", ".spill") : Files.createTempFile(
+				"channelcopy-", ".spill"));
+		try {
+			this.file = FileChannel.open(path, StandardOpenOption.READ,
+					StandardOpenOption.WRITE,
+					StandardOpenOption.DELETE_ON_CLOSE);
+		} catch (IOException e) {
+			Files.deleteIfExists(path);
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens a new cursor positioned at the current end of the buffer. Cursors
+	 * must be opened before any data is written if they are expected to read
+	 * all of it.
+	 * 
+	 * @return the new cursor
+	 */
+	synchronized Cursor open() {
+		final Cursor cursor = new Cursor(written);
+		cursors.add(cursor);
+		return cursor;
+	}
+
+	/**
+	 * @return <code>true</code> if at least one cursor is still open
+	 */
+	synchronized boolean hasCursors() {
+		return !cursors.isEmpty();
+	}
+
+	/**
+	 * Reads data from <code>channel</code> straight into the spill file. If
+	 * the buffer is full, waits until the slowest cursor catches up.
+	 * 
+	 * @param channel
+	 *            the channel to read from
+	 * @return the number of bytes read or <code>-1</code> if the channel has
+	 *         reached its end
+	 * @throws IOException
+	 *             if any error occur while reading or mapping the file
+	 */
+	int fill(ReadableByteChannel channel) throws IOException {
+		final long position;
+		final long space;
+		synchronized (this) {
+			while (written - minPosition() >= capacity) {
+				await();
+			}
+			position = written;
+			space = capacity - (written - minPosition());
+		}
+
+		final long index = (position % capacity) / window;
+		final int offset = (int) (position % window);
+		if (index != regionIndex) {
+			region = map(index, MapMode.READ_WRITE);
+			regionIndex = index;
+		}
+		final ByteBuffer target = region.duplicate();
+		target.position(offset);
+		target.limit((int) Math.min(window, offset + space));
+
+		final int read = channel.read(target);
+		if (read > 0) {
+			synchronized (this) {
+				written += read;
+				notifyAll();
+			}
+		}
+		return read;
+	}
+
+	/**
+	 * Signals the cursors that no more data will be written
+	 */
+	synchronized void finish() {
+		finished = true;
+		notifyAll();
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * @return the position of the slowest cursor or the write position if no
+	 *         cursor is open. Must be called while holding the lock.
+	 */
+	private long minPosition() {
+		long min = written;
+		for (final Cursor cursor : cursors) {
+			min = Math.min(min, cursor.position);
+		}
+		return min;
+	}
+
+	/**
+	 * Waits to be notified. Must be called while holding the lock.
+	 * 
+	 * @throws InterruptedIOException
+	 *             if the thread is interrupted
+	 */
+	private void await() throws InterruptedIOException {
+		try {
+			wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+
+	/**
+	 * @param index
+	 *            the region index
+	 * @param mode
+	 *            the map mode
+	 * @return the mapped region
+	 * @throws IOException
+	 *             if the region cannot be mapped
+	 */
+	private MappedByteBuffer map(long index, MapMode mode) throws IOException {
+		return file.map(mode, index * window, window);
+	}
+
+	/**
+	 * Reads the data in the buffer independently from the other cursors. The
+	 * data read is only released once {@link #advance(int)} is called.
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	class Cursor implements Closeable {
+		/**
+		 * The number of bytes consumed. Guarded by the buffer lock.
+		 */
+		private long position;
+
+		/**
+		 * The region currently mapped by the cursor
+		 */
+		private MappedByteBuffer region;
+		/**
+		 * The index of the region currently mapped by the cursor
+		 */
+		private long regionIndex = -1;
+
+		/**
+		 * @param position
+		 *            the initial position
+		 */
+		private Cursor(long position) {
+			this.position = position;
+		}
+
+		/**
+		 * Waits until data is available. The returned buffer may not contain
+		 * all the data available, as it never spans more than one region.
+		 * 
+		 * @return a read-only view of the data available or <code>null</code>
+		 *         if all data has been consumed and the producer has finished
+		 * @throws IOException
+		 *             if any error occur while mapping the file
+		 */
+		ByteBuffer next() throws IOException {
+			final long position;
+			final long available;
+			synchronized (SpillBuffer.this) {
+				while (written == this.position && !finished) {
+					await();
+				}
+				position = this.position;
+				available = written - position;
+			}
+			if (available == 0)
+				return null;
+
+			final long index = (position % capacity) / window;
+			final int offset = (int) (position % window);
+			if (index != regionIndex) {
+				region = map(index, MapMode.READ_ONLY);
+				regionIndex = index;
+			}
+			final ByteBuffer data = region.asReadOnlyBuffer();
+			data.position(offset);
+			data.limit((int) Math.min(window, offset + available));
+			return data;
+		}
+
+		/**
+		 * Releases data read from the buffer
+		 * 
+		 * @param length
+		 *            the number of bytes consumed
+		 */
+		void advance(int length) {
+			synchronized (SpillBuffer.this) {
+				position += length;
+				SpillBuffer.this.notifyAll();
+			}
+		}
+
+		/**
+		 * Detaches the cursor from the buffer. The producer will no longer
+		 * wait for it.
+		 */
+		@Override
+		public void close() {
+			synchronized (SpillBuffer.this) {
+				cursors.remove(this);
+				SpillBuffer.this.notifyAll();
+			}
+		}
+	}
+}
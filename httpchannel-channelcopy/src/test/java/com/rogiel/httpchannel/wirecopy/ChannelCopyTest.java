@@ -19,13 +19,13 @@
 package com.rogiel.httpchannel.wirecopy;
 
 import java.io.IOException;
-import java.net.URI;
 import java.nio.file.Paths;
 import java.util.List;
 
 import org.junit.Test;
 
 import com.rogiel.httpchannel.copy.ChannelCopy;
+import com.rogiel.httpchannel.copy.ChannelCopyResult;
 import com.rogiel.httpchannel.service.ServiceID;
 import com.rogiel.httpchannel.service.helper.Services;
 
@@ -38,7 +38,7 @@ public class ChannelCopyTest {
 		copy.addOutput(Services.getUploadService(ServiceID.create("hotfile")));
 		copy.addOutput(Services.getUploadService(ServiceID.create("depositfiles")));
 
-		final List<URI> downloadUris = copy.call();
-		System.out.println(downloadUris);
+		final List<ChannelCopyResult> results = copy.call();
+		System.out.println(results);
 	}
 }
@@ -34,6 +34,7 @@ import com.rogiel.httpchannel.service.DownloadListener;
 import com.rogiel.httpchannel.service.DownloadService;
 import com.rogiel.httpchannel.service.Downloader;
 import com.rogiel.httpchannel.service.DownloaderCapability;
+import com.rogiel.httpchannel.service.HostMatchingService;
 import com.rogiel.httpchannel.service.Service;
 import com.rogiel.httpchannel.service.ServiceID;
 import com.rogiel.httpchannel.service.ServiceMode;
@@ -61,7 +62,8 @@ import com.rogiel.httpchannel.util.html.Page;
  */
 public class TwoSharedService extends AbstractHttpService implements Service,
 		UploadService<NullUploaderConfiguration>,
-		DownloadService<NullDownloaderConfiguration> {
+		DownloadService<NullDownloaderConfiguration>,
+		HostMatchingService {
 	/**
 	 * This service ID
 	 */
@@ -154,6 +156,11 @@ public class TwoSharedService extends AbstractHttpService implements Service,
 		return DOWNLOAD_URL_PATTERN.matcher(uri.toString()).matches();
 	}
 
+	@Override
+	public String[] getDownloadHosts() {
+		return new String[] { "2shared.com", "www.2shared.com" };
+	}
+
 	@Override
 	public CapabilityMatrix<DownloaderCapability> getDownloadCapabilities() {
 		return new CapabilityMatrix<DownloaderCapability>(
@@ -232,6 +239,10 @@ public class TwoSharedService extends AbstractHttpService implements Service,
 				DownloadLinkNotFoundException, DownloadLimitExceededException,
 				DownloadNotAuthorizedException, DownloadNotResumableException,
 				UnsolvableCaptchaServiceException, NoCaptchaServiceException {
+			final DownloadChannel cached = downloadCached(position);
+			if (cached != null)
+				return cached;
+
 			final Page page = get(uri).asPage();
 			final String downloadUri = page.script(
 					DIRECT_DOWNLOAD_URL_PATTERN).asString();
@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.service.fourshared;
+
+import java.net.URL;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import javax.xml.namespace.QName;
+import javax.xml.ws.WebServiceException;
+
+import com.pmstation.shared.soap.client.DesktopAppJax2;
+import com.pmstation.shared.soap.client.DesktopAppJax2Service;
+
+/**
+ * A bounded pool of {@link DesktopAppJax2} ports. JAX-WS ports are not
+ * guaranteed to be thread-safe, so every call leases a port for its own
+ * exclusive use and gives it back once done. The {@link DesktopAppJax2Service}
+ * (and the WSDL parsing it implies) is only created when the first port is
+ * leased, from the WSDL bundled in the classpath.
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ */
+class FourSharedPortPool {
+	/**
+	 * The default maximum number of ports
+	 */
+	public static final int DEFAULT_SIZE = 4;
+
+	/**
+	 * The bundled WSDL
+	 */
+	private static final URL WSDL_LOCATION = DesktopAppJax2Service.class
+			.getResource("DesktopApp.wsdl");
+	/**
+	 * The SOAP service name
+	 */
+	private static final QName SERVICE_NAME = new QName(
+			"http://api.soap.shared.pmstation.com/", "DesktopAppJax2Service");
+
+	/**
+	 * The permits for ports in use
+	 */
+	private final Semaphore permits;
+	/**
+	 * The ports created and not in use
+	 */
+	private final BlockingQueue<DesktopAppJax2> idle = new LinkedBlockingQueue<>();
+	/**
+	 * The JAX-WS service, created on first use
+	 */
+	private volatile DesktopAppJax2Service service;
+
+	/**
+	 * Creates a new pool
+	 * 
+	 * @param size
+	 *            the maximum number of ports in use at the same time
+	 */
+	public FourSharedPortPool(int size) {
+		if (size <= 0)
+			throw new IllegalArgumentException("size must be positive");
+		this.permits = new Semaphore(size, true);
+	}
+
+	/**
+	 * Leases a port, blocking until one is available. The port must be given
+	 * back with {@link #release(DesktopAppJax2)}.
+	 * 
+	 * @return the port
+	 * @throws WebServiceException
+	 *             if the thread is interrupted while waiting or the port
+	 *             cannot be created
+	 */
+	public DesktopAppJax2 lease() {
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new WebServiceException("Interrupted waiting for a port", e);
+		}
+		final DesktopAppJax2 port = idle.poll();
+		if (port != null)
+			return port;
+		try {
+			return createPort();
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Gives back a port previously leased with {@link #lease()}
+	 * 
+	 * @param port
+	 *            the port
+	 */
+	public void release(DesktopAppJax2 port) {
+		idle.offer(port);
+		permits.release();
+	}
+
+	/**
+	 * @return a new port
+	 */
+	private DesktopAppJax2 createPort() {
+		DesktopAppJax2Service service = this.service;
+		if (service == null) {
+			synchronized (this) {
+				service = this.service;
+				if (service == null) {
+					service = new DesktopAppJax2Service(WSDL_LOCATION,
+							SERVICE_NAME);
+					this.service = service;
+				}
+			}
+		}
+		synchronized (service) {
+			return service.getDesktopAppJax2Port();
+		}
+	}
+}
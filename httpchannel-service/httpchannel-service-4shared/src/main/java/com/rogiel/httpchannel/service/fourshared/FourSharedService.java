@@ -24,9 +24,8 @@ import java.util.concurrent.Future;
 
 import com.pmstation.shared.soap.client.ApiException;
 import com.pmstation.shared.soap.client.DesktopAppJax2;
-import com.pmstation.shared.soap.client.DesktopAppJax2Service;
-import com.rogiel.httpchannel.service.AbstractAccountDetails;
 import com.rogiel.httpchannel.service.AbstractAuthenticator;
+import com.rogiel.httpchannel.service.AbstractCachedAccountDetails;
 import com.rogiel.httpchannel.service.AbstractHttpService;
 import com.rogiel.httpchannel.service.AbstractUploader;
 import com.rogiel.httpchannel.service.AccountDetails;
@@ -68,8 +67,11 @@ public class FourSharedService extends AbstractHttpService implements Service,
 	 */
 	public static final ServiceID SERVICE_ID = ServiceID.create("4shared");
 
-	private final DesktopAppJax2 api = new DesktopAppJax2Service()
-			.getDesktopAppJax2Port();
+	/**
+	 * The SOAP API ports, created on first use
+	 */
+	private final FourSharedPortPool ports = new FourSharedPortPool(
+			FourSharedPortPool.DEFAULT_SIZE);
 
 	@Override
 	public ServiceID getServiceID() {
@@ -177,6 +179,8 @@ public class FourSharedService extends AbstractHttpService implements Service,
 
 		@Override
 		public UploadChannel openChannel() throws IOException {
+			final String uri;
+			final DesktopAppJax2 api = ports.lease();
 			try {
 				logger.debug("Starting upload to 4shared.com");
 				final String sessionID = api.createUploadSessionKey(
@@ -191,35 +195,45 @@ public class FourSharedService extends AbstractHttpService implements Service,
 				if (datacenterID <= 0)
 					throw new ChannelServiceException("DatacenterID is invalid");
 
-				final String uri = api.getUploadFormUrl((int) datacenterID,
-						sessionID);
+				uri = api.getUploadFormUrl((int) datacenterID, sessionID);
 				logger.debug("Upload URI: {}", uri);
-
-				// create a new channel
-				final LinkedUploadChannel channel = createLinkedChannel(this);
-				uploadFuture = multipartPost(uri)
-						.parameter("FilePart", channel).asPageAsync();
-
-				// wait for channel link
-				return waitChannelLink(channel);
 			} catch (ApiException e) {
 				throw new ChannelServiceException(e);
+			} finally {
+				ports.release(api);
 			}
+
+			// create a new channel
+			final LinkedUploadChannel channel = createLinkedChannel(this);
+			uploadFuture = multipartPost(uri).parameter("FilePart", channel)
+					.asPageAsync();
+
+			// wait for channel link
+			return waitChannelLink(channel);
 		}
 
 		@Override
 		public String finish() throws IOException {
+			final long linkID;
 			try {
-				final long linkID = uploadFuture.get()
-						.inputByID("uploadedFileId").asLong();
-				return api.getFileDownloadLink(account.getUsername(),
-						getPassword(), linkID);
+				linkID = uploadFuture.get().inputByID("uploadedFileId")
+						.asLong();
 			} catch (InterruptedException e) {
 				return null;
 			} catch (ExecutionException e) {
 				throw (IOException) e.getCause();
+			}
+			final DesktopAppJax2 api = ports.lease();
+			try {
+				final String link = api.getFileDownloadLink(
+						account.getUsername(), getPassword(), linkID);
+				if (account instanceof AccountDetailsImpl)
+					((AccountDetailsImpl) account).consumeDiskSpace(filesize);
+				return link;
 			} catch (ApiException e) {
 				throw new DownloadLinkNotFoundException(e);
+			} finally {
+				ports.release(api);
 			}
 		}
 	}
@@ -236,8 +250,14 @@ public class FourSharedService extends AbstractHttpService implements Service,
 		public AccountDetails login() throws IOException {
 			logger.debug("Logging to 4shared.com");
 
-			final String response = api.login(credential.getUsername(),
-					credential.getPassword());
+			final String response;
+			final DesktopAppJax2 api = ports.lease();
+			try {
+				response = api.login(credential.getUsername(),
+						credential.getPassword());
+			} finally {
+				ports.release(api);
+			}
 
 			if (!response.isEmpty())
 				throw new AuthenticationInvalidCredentialException();
@@ -251,7 +271,8 @@ public class FourSharedService extends AbstractHttpService implements Service,
 		}
 	}
 
-	private class AccountDetailsImpl extends AbstractAccountDetails implements
+	private class AccountDetailsImpl extends
+			AbstractCachedAccountDetails<AccountSnapshot> implements
 			PremiumAccountDetails, DiskQuotaAccountDetails,
 			FilesizeLimitAccountDetails {
 		private final String password;
@@ -262,53 +283,105 @@ public class FourSharedService extends AbstractHttpService implements Service,
 		}
 
 		@Override
-		public boolean isActive() {
+		protected AccountSnapshot fetch() throws IOException {
+			final DesktopAppJax2 api = ports.lease();
 			try {
-				return api.isAccountActive(username, password);
+				return new AccountSnapshot(api.isAccountActive(username,
+						password), api.isAccountPremium(username, password),
+						api.getFreeSpace(username, password), api.getSpaceLimit(
+								username, password), api.getMaxFileSize(
+								username, password));
 			} catch (ApiException e) {
-				return false;
+				throw new ChannelServiceException(e);
+			} finally {
+				ports.release(api);
 			}
 		}
 
+		/**
+		 * Subtracts an uploaded file from the free disk space, without
+		 * querying the service
+		 * 
+		 * @param size
+		 *            the uploaded file size
+		 */
+		private void consumeDiskSpace(long size) {
+			AccountSnapshot snapshot;
+			do {
+				snapshot = peek();
+				if (snapshot == null || snapshot.freeDiskSpace < 0)
+					return;
+			} while (!update(snapshot, snapshot.consume(size)));
+		}
+
+		@Override
+		public boolean isActive() {
+			final AccountSnapshot snapshot = snapshot();
+			return snapshot != null && snapshot.active;
+		}
+
 		@Override
 		public boolean isPremium() {
-			try {
-				return api.isAccountPremium(username, password);
-			} catch (ApiException e) {
-				return false;
-			}
+			final AccountSnapshot snapshot = snapshot();
+			return snapshot != null && snapshot.premium;
 		}
 
 		@Override
 		public long getFreeDiskSpace() {
-			try {
-				return api.getFreeSpace(username, password);
-			} catch (ApiException e) {
-				return -1;
-			}
+			final AccountSnapshot snapshot = snapshot();
+			return snapshot == null ? -1 : snapshot.freeDiskSpace;
 		}
 
 		@Override
 		public long getUsedDiskSpace() {
-			return getMaximumDiskSpace() - getFreeDiskSpace();
+			final AccountSnapshot snapshot = snapshot();
+			return snapshot == null ? -1 : snapshot.maximumDiskSpace
+					- snapshot.freeDiskSpace;
 		}
 
 		@Override
 		public long getMaximumDiskSpace() {
-			try {
-				return api.getSpaceLimit(username, password);
-			} catch (ApiException e) {
-				return -1;
-			}
+			final AccountSnapshot snapshot = snapshot();
+			return snapshot == null ? -1 : snapshot.maximumDiskSpace;
 		}
 
 		@Override
 		public long getMaximumFilesize() {
-			try {
-				return api.getMaxFileSize(username, password);
-			} catch (ApiException e) {
-				return -1;
-			}
+			final AccountSnapshot snapshot = snapshot();
+			return snapshot == null ? -1 : snapshot.maximumFilesize;
+		}
+	}
+
+	/**
+	 * The account information fetched in a single refresh
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	private static class AccountSnapshot {
+		private final boolean active;
+		private final boolean premium;
+		private final long freeDiskSpace;
+		private final long maximumDiskSpace;
+		private final long maximumFilesize;
+
+		private AccountSnapshot(boolean active, boolean premium,
+				long freeDiskSpace, long maximumDiskSpace, long maximumFilesize) {
+			this.active = active;
+			this.premium = premium;
+			this.freeDiskSpace = freeDiskSpace;
+			this.maximumDiskSpace = maximumDiskSpace;
+			this.maximumFilesize = maximumFilesize;
+		}
+
+		/**
+		 * @param size
+		 *            the uploaded file size
+		 * @return a copy of this snapshot with <code>size</code> bytes less
+		 *         of free disk space
+		 */
+		private AccountSnapshot consume(long size) {
+			return new AccountSnapshot(active, premium, Math.max(0,
+					freeDiskSpace - size), maximumDiskSpace, maximumFilesize);
 		}
 	}
 
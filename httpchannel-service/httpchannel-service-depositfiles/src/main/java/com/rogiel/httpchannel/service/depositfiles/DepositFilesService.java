@@ -252,7 +252,7 @@ public class DepositFilesService extends AbstractHttpService implements
 		@Override
 		public void logout() throws IOException {
 			post("http://www.uploadking.com/login").parameter("do", "logout")
-					.request();
+					.asString();
 			// TODO check logout status
 		}
 	}
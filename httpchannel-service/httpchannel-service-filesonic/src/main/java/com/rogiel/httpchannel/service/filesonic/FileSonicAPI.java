@@ -19,56 +19,100 @@
 package com.rogiel.httpchannel.service.filesonic;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
-
-import javax.xml.bind.JAXB;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.rogiel.httpchannel.http.HttpContext;
 import com.rogiel.httpchannel.service.filesonic.xml.FSAPI;
 import com.rogiel.httpchannel.service.filesonic.xml.FSGetUploadURL;
+import com.rogiel.httpchannel.service.filesonic.xml.FSGetUploadURL.FSGetUploadURLResponse;
 import com.rogiel.httpchannel.service.filesonic.xml.FSUpload;
+import com.rogiel.httpchannel.util.xml.UnmarshallerPool;
 
 /**
  * @author <a href="http://www.rogiel.com">Rogiel</a>
  */
 public class FileSonicAPI {
 	private static final String BASE_URI = "http://api.filesonic.com/";
-	
+	/**
+	 * The time (in milliseconds) a <tt>getUploadUrl</tt> response is reused
+	 */
+	private static final long UPLOAD_URL_TTL = 30 * 1000;
+
 	private final HttpContext ctx;
 
 	private String email;
 	private String password;
-	
+
+	/**
+	 * The last <tt>getUploadUrl</tt> response, not yet used by an upload
+	 */
+	private final AtomicReference<UploadURL> uploadURL = new AtomicReference<>();
+
 	public FileSonicAPI(HttpContext ctx) {
 		this.ctx = ctx;
 	}
 
 	public URI getUploadURI() throws IOException {
-		return URI.create((((FSGetUploadURL) execute(FSUpload.class,
-				"upload?method=getUploadUrl").getResponse()).getResponse()
-				.getUploadURI()));
+		// each upload takes its own URL, but reuses the one just fetched to
+		// check the maximum filesize
+		UploadURL uploadURL = this.uploadURL.getAndSet(null);
+		if (uploadURL == null || uploadURL.isExpired())
+			uploadURL = fetchUploadURL();
+		return URI.create(uploadURL.response.getUploadURI());
 	}
 
 	public long getMaxFilesize() throws IOException {
-		return ((FSGetUploadURL) execute(FSUpload.class,
-				"upload?method=getUploadUrl").getResponse()).getResponse()
-				.getMaxFilesize();
+		UploadURL uploadURL = this.uploadURL.get();
+		if (uploadURL == null || uploadURL.isExpired()) {
+			uploadURL = fetchUploadURL();
+			this.uploadURL.set(uploadURL);
+		}
+		return uploadURL.response.getMaxFilesize();
 	}
 
 	public void login(String email, String password) {
 		this.email = email;
 		this.password = password;
+		this.uploadURL.set(null);
 	}
 
 	public void logout() {
 		this.email = null;
 		this.password = null;
+		this.uploadURL.set(null);
+	}
+
+	private UploadURL fetchUploadURL() throws IOException {
+		return new UploadURL(((FSGetUploadURL) execute(FSUpload.class,
+				"upload?method=getUploadUrl").getResponse()).getResponse());
 	}
 
 	private <T extends FSAPI> T execute(Class<T> type, String requestURI)
 			throws IOException {
 		final URI uri = URI.create(BASE_URI + requestURI + "&u=" + email
 				+ "&p=" + password + "&format=xml");
-		return JAXB.unmarshal(ctx.get(uri).asStream(), type);
+		try (final InputStream in = ctx.get(uri).asStream()) {
+			return UnmarshallerPool.unmarshal(in, type);
+		}
+	}
+
+	/**
+	 * A <tt>getUploadUrl</tt> response and the time it was fetched
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	private static class UploadURL {
+		private final FSGetUploadURLResponse response;
+		private final long timestamp = System.currentTimeMillis();
+
+		private UploadURL(FSGetUploadURLResponse response) {
+			this.response = response;
+		}
+
+		private boolean isExpired() {
+			return System.currentTimeMillis() - timestamp >= UPLOAD_URL_TTL;
+		}
 	}
 }
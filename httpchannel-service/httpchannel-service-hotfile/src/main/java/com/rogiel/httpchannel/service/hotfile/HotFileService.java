@@ -25,6 +25,7 @@ import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 import org.apache.http.client.ClientProtocolException;
+import org.htmlparser.tags.LinkTag;
 
 import com.rogiel.httpchannel.service.AbstractAccountDetails;
 import com.rogiel.httpchannel.service.AbstractAuthenticator;
@@ -45,6 +46,7 @@ import com.rogiel.httpchannel.service.DownloadListener;
 import com.rogiel.httpchannel.service.DownloadService;
 import com.rogiel.httpchannel.service.Downloader;
 import com.rogiel.httpchannel.service.DownloaderCapability;
+import com.rogiel.httpchannel.service.HostMatchingService;
 import com.rogiel.httpchannel.service.Service;
 import com.rogiel.httpchannel.service.ServiceID;
 import com.rogiel.httpchannel.service.ServiceMode;
@@ -59,6 +61,8 @@ import com.rogiel.httpchannel.service.config.NullDownloaderConfiguration;
 import com.rogiel.httpchannel.service.config.NullUploaderConfiguration;
 import com.rogiel.httpchannel.service.exception.AuthenticationInvalidCredentialException;
 import com.rogiel.httpchannel.util.Filesizes;
+import com.rogiel.httpchannel.util.html.Extractor;
+import com.rogiel.httpchannel.util.html.MatchedElement;
 import com.rogiel.httpchannel.util.html.Page;
 import com.rogiel.httpchannel.util.html.SearchResults;
 
@@ -71,7 +75,8 @@ import com.rogiel.httpchannel.util.html.SearchResults;
 public class HotFileService extends AbstractHttpService implements Service,
 		UploadService<NullUploaderConfiguration>,
 		DownloadService<NullDownloaderConfiguration>,
-		AuthenticationService<NullAuthenticatorConfiguration> {
+		AuthenticationService<NullAuthenticatorConfiguration>,
+		HostMatchingService {
 	/**
 	 * This service ID
 	 */
@@ -181,6 +186,11 @@ public class HotFileService extends AbstractHttpService implements Service,
 		return DOWNLOAD_URI_PATTERN.matcher(uri.toString()).matches();
 	}
 
+	@Override
+	public String[] getDownloadHosts() {
+		return new String[] { "hotfile.com" };
+	}
+
 	@Override
 	public CapabilityMatrix<DownloaderCapability> getDownloadCapabilities() {
 		return new CapabilityMatrix<DownloaderCapability>(
@@ -264,7 +274,8 @@ public class HotFileService extends AbstractHttpService implements Service,
 		public DownloadChannel openChannel(DownloadListener listener,
 				long position) throws IOException {
 			logger.debug("Downloading {} from hotfile.com", uri);
-			final Page page = get(uri).asPage();
+			final MatchedElement<LinkTag> link = get(uri).extract(
+					Extractor.link(DOWNLOAD_DIRECT_LINK_PATTERN));
 
 			// // try to find timer
 			// final String stringTimer = PatternUtils.find(DOWNLOAD_TIMER,
@@ -278,8 +289,7 @@ public class HotFileService extends AbstractHttpService implements Service,
 			// + " milliseconds");
 			// }
 
-			final String downloadUrl = page.link(DOWNLOAD_DIRECT_LINK_PATTERN)
-					.asString();
+			final String downloadUrl = link.asString();
 			logger.debug("Download link is {}", downloadUrl);
 			// final String tmHash = PatternUtils.find(DOWNLOAD_TMHASH_PATTERN,
 			// content);F
@@ -311,21 +321,21 @@ public class HotFileService extends AbstractHttpService implements Service,
 			page = get("http://www.hotfile.com/myreferals.html?lang=en")
 					.asPage();
 			
-			final SearchResults usernameResults = page
-					.search(ACCOUNT_NAME_PATTERN);
+			final SearchResults[] results = page.searchAll(
+					ACCOUNT_NAME_PATTERN, ACCOUNT_TYPE_PATTERN,
+					HOTLINK_TRAFFIC_PATTERN, REFERRAL_URL_PATTERN);
+			final SearchResults usernameResults = results[0];
 			if (!usernameResults.hasResults())
 				throw new AuthenticationInvalidCredentialException();
 
 			final String username = usernameResults.asString(1);
-			final String type = page.search(ACCOUNT_TYPE_PATTERN).asString();
+			final String type = results[1].asString();
 
-			final SearchResults trafficResults = page
-					.search(HOTLINK_TRAFFIC_PATTERN);
+			final SearchResults trafficResults = results[2];
 			final long hotlinkTraffic = Filesizes.auto(
 					trafficResults.asDouble(1), trafficResults.asString(3));
 
-			final String referralURL = page.search(REFERRAL_URL_PATTERN)
-					.asString();
+			final String referralURL = results[3].asString();
 
 			return (account = new AccountDetailsImpl(username, type == null,
 					hotlinkTraffic, referralURL));
@@ -334,7 +344,7 @@ public class HotFileService extends AbstractHttpService implements Service,
 		@Override
 		public void logout() throws IOException {
 			post("http://www.megaupload.com/?c=account").parameter("logout",
-					true).request();
+					true).asString();
 			// TODO check logout status
 		}
 	}
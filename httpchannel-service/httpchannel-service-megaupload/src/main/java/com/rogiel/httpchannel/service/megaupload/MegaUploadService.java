@@ -43,8 +43,11 @@ import com.rogiel.httpchannel.service.Credential;
 import com.rogiel.httpchannel.service.DownloadChannel;
 import com.rogiel.httpchannel.service.DownloadListener;
 import com.rogiel.httpchannel.service.DownloadService;
+import com.rogiel.httpchannel.service.DownloadStage;
+import com.rogiel.httpchannel.service.DownloadStage.Continuation;
 import com.rogiel.httpchannel.service.Downloader;
 import com.rogiel.httpchannel.service.DownloaderCapability;
+import com.rogiel.httpchannel.service.HostMatchingService;
 import com.rogiel.httpchannel.service.Service;
 import com.rogiel.httpchannel.service.ServiceID;
 import com.rogiel.httpchannel.service.ServiceMode;
@@ -60,6 +63,7 @@ import com.rogiel.httpchannel.service.exception.DownloadLimitExceededException;
 import com.rogiel.httpchannel.service.exception.DownloadLinkNotFoundException;
 import com.rogiel.httpchannel.util.HttpClientUtils;
 import com.rogiel.httpchannel.util.PatternUtils;
+import com.rogiel.httpchannel.util.html.Extractor;
 import com.rogiel.httpchannel.util.html.Page;
 
 /**
@@ -71,7 +75,8 @@ import com.rogiel.httpchannel.util.html.Page;
 public class MegaUploadService extends AbstractHttpService implements Service,
 		UploadService<MegaUploadUploaderConfiguration>,
 		DownloadService<MegaUploadDownloaderConfiguration>,
-		AuthenticationService<NullAuthenticatorConfiguration> {
+		AuthenticationService<NullAuthenticatorConfiguration>,
+		HostMatchingService {
 	/**
 	 * This service ID
 	 */
@@ -171,6 +176,11 @@ public class MegaUploadService extends AbstractHttpService implements Service,
 		return DOWNLOAD_URI_PATTERN.matcher(uri.toString()).matches();
 	}
 
+	@Override
+	public String[] getDownloadHosts() {
+		return new String[] { "www.megaupload.com" };
+	}
+
 	@Override
 	public CapabilityMatrix<DownloaderCapability> getDownloadCapabilities() {
 		return new CapabilityMatrix<DownloaderCapability>(
@@ -223,9 +233,8 @@ public class MegaUploadService extends AbstractHttpService implements Service,
 		@Override
 		public UploadChannel openChannel() throws IOException {
 			logger.debug("Starting upload to megaupload.com");
-			final Page page = get("http://www.megaupload.com/multiupload/")
-					.asPage();
-			final String uri = page.form(UPLOAD_URL_PATTERN).asString();
+			final String uri = get("http://www.megaupload.com/multiupload/")
+					.extract(Extractor.form(UPLOAD_URL_PATTERN)).asString();
 			logger.debug("Upload URI is {}", uri);
 
 			final LinkedUploadChannel channel = createLinkedChannel(this);
@@ -259,7 +268,17 @@ public class MegaUploadService extends AbstractHttpService implements Service,
 		@Override
 		public DownloadChannel openChannel(DownloadListener listener,
 				long position) throws IOException {
+			return await(listener, start(listener, position));
+		}
+
+		@Override
+		protected DownloadStage start(DownloadListener listener,
+				final long position) throws IOException {
 			logger.debug("Starting {} download from megaupload.com", uri);
+			final DownloadChannel cached = downloadCached(position);
+			if (cached != null)
+				return DownloadStage.complete(cached);
+
 			HttpResponse response = get(uri).request();
 
 			// disable direct downloads, we don't support them!
@@ -273,7 +292,7 @@ public class MegaUploadService extends AbstractHttpService implements Service,
 				post("http://www.megaupload.com/?c=account")
 						.parameter("do", "directdownloads")
 						.parameter("accountupdate", "1")
-						.parameter("set_ddl", "0").request();
+						.parameter("set_ddl", "0").asString();
 
 				// execute and re-request download
 				response = get(uri).request();
@@ -284,9 +303,19 @@ public class MegaUploadService extends AbstractHttpService implements Service,
 			// try to find timer
 			int timer = page.script(DOWNLOAD_TIMER).asInteger(1);
 			if (timer > 0 && configuration.getRespectWaitTime()) {
-				logger.debug("");
-				timer(listener, timer * 1000);
+				return DownloadStage.timer(timer * 1000, new Continuation() {
+					@Override
+					public DownloadStage resume() throws IOException {
+						return DownloadStage.complete(openChannel(page,
+								position));
+					}
+				});
 			}
+			return DownloadStage.complete(openChannel(page, position));
+		}
+
+		private DownloadChannel openChannel(Page page, long position)
+				throws IOException {
 			final String downloadUrl = page
 					.link(DOWNLOAD_DIRECT_LINK_PATTERN).asString();
 			if (downloadUrl != null && downloadUrl.length() > 0) {
@@ -301,6 +330,7 @@ public class MegaUploadService extends AbstractHttpService implements Service,
 				} else {
 					final String filename = FilenameUtils.getName(downloadUrl);
 					final long contentLength = getContentLength(downloadResponse);
+					cacheDirectLink(downloadUrl, downloadResponse);
 
 					return createInputStreamChannel(downloadResponse
 							.getEntity().getContent(), contentLength, filename);
@@ -336,7 +366,7 @@ public class MegaUploadService extends AbstractHttpService implements Service,
 		@Override
 		public void logout() throws IOException {
 			post("http://www.megaupload.com/?c=account").parameter("logout",
-					true).request();
+					true).asString();
 			// TODO check logout status
 		}
 	}
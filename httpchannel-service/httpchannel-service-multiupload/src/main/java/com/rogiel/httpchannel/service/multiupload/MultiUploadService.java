@@ -42,6 +42,7 @@ import com.rogiel.httpchannel.service.DownloadListener;
 import com.rogiel.httpchannel.service.DownloadService;
 import com.rogiel.httpchannel.service.Downloader;
 import com.rogiel.httpchannel.service.DownloaderCapability;
+import com.rogiel.httpchannel.service.HostMatchingService;
 import com.rogiel.httpchannel.service.Service;
 import com.rogiel.httpchannel.service.ServiceID;
 import com.rogiel.httpchannel.service.ServiceMode;
@@ -71,7 +72,8 @@ import com.rogiel.httpchannel.util.html.Page;
 public class MultiUploadService extends AbstractHttpService implements Service,
 		UploadService<MultiUploadUploaderConfiguration>,
 		DownloadService<NullDownloaderConfiguration>,
-		AuthenticationService<NullAuthenticatorConfiguration> {
+		AuthenticationService<NullAuthenticatorConfiguration>,
+		HostMatchingService {
 	/**
 	 * This service ID
 	 */
@@ -167,6 +169,11 @@ public class MultiUploadService extends AbstractHttpService implements Service,
 		return DOWNLOAD_LINK_PATTERN.matcher(uri.toString()).matches();
 	}
 
+	@Override
+	public String[] getDownloadHosts() {
+		return new String[] { "multiupload.nl", "www.multiupload.nl" };
+	}
+
 	@Override
 	public CapabilityMatrix<DownloaderCapability> getDownloadCapabilities() {
 		return new CapabilityMatrix<>(
@@ -273,6 +280,10 @@ public class MultiUploadService extends AbstractHttpService implements Service,
 				long position) throws IOException,
 				DownloadLinkNotFoundException, DownloadLimitExceededException,
 				DownloadNotAuthorizedException, DownloadNotResumableException {
+			final DownloadChannel cached = downloadCached(position);
+			if (cached != null)
+				return cached;
+
 			final Page page = get(uri).asPage();
 			final String link = page.link(DIRECT_DOWNLOAD_LINK_PATTERN)
 					.asString();
@@ -307,7 +318,7 @@ public class MultiUploadService extends AbstractHttpService implements Service,
 		@Override
 		public void logout() throws IOException {
 			post("http://www.multiupload.nl/login").parameter("do", "logout")
-					.request();
+					.asString();
 			// TODO check logout status
 		}
 	}
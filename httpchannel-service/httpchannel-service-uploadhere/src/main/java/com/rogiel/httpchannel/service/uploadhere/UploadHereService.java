@@ -20,6 +20,7 @@ package com.rogiel.httpchannel.service.uploadhere;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.regex.Pattern;
@@ -41,8 +42,11 @@ import com.rogiel.httpchannel.service.Credential;
 import com.rogiel.httpchannel.service.DownloadChannel;
 import com.rogiel.httpchannel.service.DownloadListener;
 import com.rogiel.httpchannel.service.DownloadService;
+import com.rogiel.httpchannel.service.DownloadStage;
+import com.rogiel.httpchannel.service.DownloadStage.Continuation;
 import com.rogiel.httpchannel.service.Downloader;
 import com.rogiel.httpchannel.service.DownloaderCapability;
+import com.rogiel.httpchannel.service.HostMatchingService;
 import com.rogiel.httpchannel.service.Service;
 import com.rogiel.httpchannel.service.ServiceID;
 import com.rogiel.httpchannel.service.ServiceMode;
@@ -70,7 +74,8 @@ import com.rogiel.httpchannel.util.html.Page;
 public class UploadHereService extends AbstractHttpService implements Service,
 		UploadService<NullUploaderConfiguration>,
 		DownloadService<NullDownloaderConfiguration>,
-		AuthenticationService<NullAuthenticatorConfiguration> {
+		AuthenticationService<NullAuthenticatorConfiguration>,
+		HostMatchingService {
 	/**
 	 * This service ID
 	 */
@@ -166,6 +171,11 @@ public class UploadHereService extends AbstractHttpService implements Service,
 		return DOWNLOAD_URI_PATTERN.matcher(uri.toString()).matches();
 	}
 
+	@Override
+	public String[] getDownloadHosts() {
+		return new String[] { "uploadhere.com", "www.uploadhere.com" };
+	}
+
 	@Override
 	public CapabilityMatrix<DownloaderCapability> getDownloadCapabilities() {
 		return new CapabilityMatrix<DownloaderCapability>(
@@ -262,20 +272,55 @@ public class UploadHereService extends AbstractHttpService implements Service,
 		@Override
 		public DownloadChannel openChannel(DownloadListener listener,
 				long position) throws IOException {
-			Page page = get(uri).asPage();
+			return await(listener, start(listener, position));
+		}
+
+		@Override
+		protected DownloadStage start(DownloadListener listener,
+				final long position) throws IOException {
+			final DownloadChannel cached = downloadCached(position);
+			if (cached != null)
+				return DownloadStage.complete(cached);
+			// most downloads require a CAPTCHA, do not even load the page
+			// if the captcha service has run out of credits
+			admitCaptcha();
+
+			final Page page = get(uri).asPage();
 
 			final int waitTime = page.script(TIMER_PATTERN).asInteger(1) * 1000;
 			logger.debug("Wait time is {}", waitTime);
 
-			timer(listener, waitTime);
+			// solve the captcha while the timer runs
+			final Future<ImageCaptcha> captcha = submit(new Callable<ImageCaptcha>() {
+				@Override
+				public ImageCaptcha call() throws IOException {
+					return extractCaptcha(page);
+				}
+			});
+
+			return DownloadStage.timer(waitTime, new Continuation() {
+				@Override
+				public DownloadStage resume() throws IOException {
+					return DownloadStage.complete(openChannel(page,
+							join(captcha), position));
+				}
+			});
+		}
+
+		private ImageCaptcha extractCaptcha(Page page) throws IOException {
 			final ImageCaptcha captcha = ReCaptchaExtractor.extractAjaxCaptcha(
 					page, http);
-
-			String content;
 			if (captcha != null) {
 				logger.debug("Service is requiring CAPTCHA {}", captcha);
 				resolveCaptcha(captcha);
+			}
+			return captcha;
+		}
 
+		private DownloadChannel openChannel(Page page, ImageCaptcha captcha,
+				long position) throws IOException {
+			String content;
+			if (captcha != null) {
 				content = post(uri)
 						.parameter("recaptcha_challenge_field", captcha.getID())
 						.parameter("recaptcha_response_field",
@@ -321,7 +366,7 @@ public class UploadHereService extends AbstractHttpService implements Service,
 		@Override
 		public void logout() throws IOException {
 			post("http://www.uploadhere.com/login").parameter("do", "logout")
-					.request();
+					.asString();
 			// TODO check logout status
 		}
 	}
@@ -20,10 +20,13 @@ package com.rogiel.httpchannel.service.uploadking;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
+import org.htmlparser.tags.ScriptTag;
+
 import com.rogiel.httpchannel.captcha.ImageCaptcha;
 import com.rogiel.httpchannel.captcha.ReCaptchaExtractor;
 import com.rogiel.httpchannel.service.AbstractAccountDetails;
@@ -41,8 +44,11 @@ import com.rogiel.httpchannel.service.Credential;
 import com.rogiel.httpchannel.service.DownloadChannel;
 import com.rogiel.httpchannel.service.DownloadListener;
 import com.rogiel.httpchannel.service.DownloadService;
+import com.rogiel.httpchannel.service.DownloadStage;
+import com.rogiel.httpchannel.service.DownloadStage.Continuation;
 import com.rogiel.httpchannel.service.Downloader;
 import com.rogiel.httpchannel.service.DownloaderCapability;
+import com.rogiel.httpchannel.service.HostMatchingService;
 import com.rogiel.httpchannel.service.Service;
 import com.rogiel.httpchannel.service.ServiceID;
 import com.rogiel.httpchannel.service.ServiceMode;
@@ -59,6 +65,9 @@ import com.rogiel.httpchannel.service.exception.AuthenticationInvalidCredentialE
 import com.rogiel.httpchannel.service.exception.DownloadLinkNotFoundException;
 import com.rogiel.httpchannel.service.exception.InvalidCaptchaException;
 import com.rogiel.httpchannel.util.PatternUtils;
+import com.rogiel.httpchannel.util.html.Extraction;
+import com.rogiel.httpchannel.util.html.Extractor;
+import com.rogiel.httpchannel.util.html.MatchedElement;
 import com.rogiel.httpchannel.util.html.Page;
 
 /**
@@ -70,7 +79,8 @@ import com.rogiel.httpchannel.util.html.Page;
 public class UploadKingService extends AbstractHttpService implements Service,
 		UploadService<NullUploaderConfiguration>,
 		DownloadService<NullDownloaderConfiguration>,
-		AuthenticationService<NullAuthenticatorConfiguration> {
+		AuthenticationService<NullAuthenticatorConfiguration>,
+		HostMatchingService {
 	/**
 	 * This service ID
 	 */
@@ -86,6 +96,16 @@ public class UploadKingService extends AbstractHttpService implements Service,
 			"count = ([0-9]*);", Pattern.COMMENTS);
 	private static final Pattern DIERCT_DOWNLOAD_URI_PATTERN = Pattern
 			.compile("(http:\\\\/\\\\/www[0-9]*\\.uploadking\\.com(:[0-9]*)?\\\\/files\\\\/([0-9A-z]*)\\\\/(.*))\"");
+	static final Extractor<ScriptTag> TIMER_EXTRACTOR = Extractor
+			.script(TIMER_PATTERN);
+	static final Extractor<ScriptTag> DIRECT_DOWNLOAD_URI_EXTRACTOR = Extractor
+			.script(DIERCT_DOWNLOAD_URI_PATTERN);
+	/**
+	 * The download page either requires a CAPTCHA or already has the link
+	 */
+	static final Extractor<ScriptTag> CAPTCHA_OR_LINK_EXTRACTOR = Extractor
+			.anyOf(ReCaptchaExtractor.AJAX_CAPTCHA_EXTRACTOR,
+					DIRECT_DOWNLOAD_URI_EXTRACTOR);
 
 	private static final String INVALID_LOGIN_STRING = "Incorrect username and/or password. Please try again!";
 
@@ -166,6 +186,11 @@ public class UploadKingService extends AbstractHttpService implements Service,
 		return DOWNLOAD_URI_PATTERN.matcher(uri.toString()).matches();
 	}
 
+	@Override
+	public String[] getDownloadHosts() {
+		return new String[] { "uploadking.com", "www.uploadking.com" };
+	}
+
 	@Override
 	public CapabilityMatrix<DownloaderCapability> getDownloadCapabilities() {
 		return new CapabilityMatrix<DownloaderCapability>(
@@ -259,30 +284,72 @@ public class UploadKingService extends AbstractHttpService implements Service,
 		@Override
 		public DownloadChannel openChannel(DownloadListener listener,
 				long position) throws IOException {
-			Page page = get(uri).asPage();
+			return await(listener, start(listener, position));
+		}
 
-			final int waitTime = page.script(TIMER_PATTERN).asInteger(1) * 1000;
+		@Override
+		protected DownloadStage start(DownloadListener listener,
+				final long position) throws IOException {
+			final DownloadChannel cached = downloadCached(position);
+			if (cached != null)
+				return DownloadStage.complete(cached);
+			// most downloads require a CAPTCHA, do not even load the page
+			// if the captcha service has run out of credits
+			admitCaptcha();
+
+			final Extraction extraction = get(uri).extract(TIMER_EXTRACTOR,
+					CAPTCHA_OR_LINK_EXTRACTOR);
+
+			final int waitTime = extraction.get(TIMER_EXTRACTOR).asInteger(1)
+					* 1000;
 			logger.debug("Wait time is {}", waitTime);
 
-			timer(listener, waitTime);
-			final ImageCaptcha captcha = ReCaptchaExtractor.extractAjaxCaptcha(
-					page, http);
+			// solve the captcha while the timer runs
+			final Future<ImageCaptcha> captcha = submit(new Callable<ImageCaptcha>() {
+				@Override
+				public ImageCaptcha call() throws IOException {
+					return extractCaptcha(extraction);
+				}
+			});
+
+			return DownloadStage.timer(waitTime, new Continuation() {
+				@Override
+				public DownloadStage resume() throws IOException {
+					return DownloadStage.complete(openChannel(join(captcha),
+							extraction, position));
+				}
+			});
+		}
 
-			String content;
+		private ImageCaptcha extractCaptcha(Extraction extraction)
+				throws IOException {
+			final ImageCaptcha captcha = ReCaptchaExtractor.extractAjaxCaptcha(
+					extraction.get(ReCaptchaExtractor.AJAX_CAPTCHA_EXTRACTOR),
+					http);
 			if (captcha != null) {
 				logger.debug("Service is requiring CAPTCHA {}", captcha);
 				resolveCaptcha(captcha);
+			}
+			return captcha;
+		}
 
-				content = post(uri)
+		private DownloadChannel openChannel(ImageCaptcha captcha,
+				Extraction extraction, long position) throws IOException {
+			String downloadLink;
+			if (captcha != null) {
+				final String content = post(uri)
 						.parameter("recaptcha_challenge_field", captcha.getID())
 						.parameter("recaptcha_response_field",
 								captcha.getAnswer()).asString();
+				downloadLink = PatternUtils.find(DIERCT_DOWNLOAD_URI_PATTERN,
+						content, 1);
 			} else {
-				content = page.toString();
+				// without a CAPTCHA, the link is already on the page
+				final MatchedElement<ScriptTag> link = extraction
+						.get(DIRECT_DOWNLOAD_URI_EXTRACTOR);
+				downloadLink = (link != null ? link.asString(1) : null);
 			}
 
-			String downloadLink = PatternUtils.find(
-					DIERCT_DOWNLOAD_URI_PATTERN, content, 1);
 			if (downloadLink == null) {
 				captchaService.invalid(captcha);
 				throw new DownloadLinkNotFoundException(
@@ -318,7 +385,7 @@ public class UploadKingService extends AbstractHttpService implements Service,
 		@Override
 		public void logout() throws IOException {
 			post("http://www.uploadking.com/login").parameter("do", "logout")
-					.request();
+					.asString();
 			// TODO check logout status
 		}
 	}
@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.service.uploadking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.rogiel.httpchannel.captcha.ReCaptchaExtractor;
+import com.rogiel.httpchannel.util.html.Extraction;
+
+/**
+ * Checks the extraction of both variants of the UploadKing download page,
+ * without any network access
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ */
+public class UploadKingExtractionTest {
+	private static final String TIMER = "<script type=\"text/javascript\">"
+			+ "var count=30; countdown();</script>";
+	private static final String CAPTCHA = "<script type=\"text/javascript\">"
+			+ "Recaptcha.create(\"6LcEvs0SAAAAAAykpzcaaxpegnSndWcEWYsSMs0M\", "
+			+ "\"recaptcha_div\", {theme: \"clean\"});</script>";
+	private static final String LINK = "<script type=\"text/javascript\">"
+			+ "var link = {\"link\":\"http:\\/\\/www3.uploadking.com:80"
+			+ "\\/files\\/ABC123\\/file.zip\"};</script>";
+	/**
+	 * Content that must not be read once both elements have been found
+	 */
+	private static final int PADDING = 1024 * 1024;
+
+	@Test
+	public void testCaptchaPage() throws IOException {
+		final Extraction extraction = extract(TIMER + CAPTCHA);
+
+		assertTrue(extraction.isComplete());
+		assertEquals(30, extraction.get(UploadKingService.TIMER_EXTRACTOR)
+				.asInteger(1));
+		assertNotNull(extraction
+				.get(ReCaptchaExtractor.AJAX_CAPTCHA_EXTRACTOR));
+		assertNull(extraction
+				.get(UploadKingService.DIRECT_DOWNLOAD_URI_EXTRACTOR));
+	}
+
+	@Test
+	public void testDirectLinkPage() throws IOException {
+		final Extraction extraction = extract(LINK + TIMER);
+
+		assertTrue(extraction.isComplete());
+		assertEquals(30, extraction.get(UploadKingService.TIMER_EXTRACTOR)
+				.asInteger(1));
+		assertNull(extraction.get(ReCaptchaExtractor.AJAX_CAPTCHA_EXTRACTOR));
+		assertEquals("http:\\/\\/www3.uploadking.com:80\\/files\\/ABC123"
+				+ "\\/file.zip",
+				extraction.get(UploadKingService.DIRECT_DOWNLOAD_URI_EXTRACTOR)
+						.asString(1));
+		// no CAPTCHA is requested for this page
+		assertNull(ReCaptchaExtractor.extractAjaxCaptcha(
+				extraction.get(ReCaptchaExtractor.AJAX_CAPTCHA_EXTRACTOR),
+				null));
+	}
+
+	/**
+	 * Extracts the download page elements from <code>scripts</code>,
+	 * followed by a large amount of content that must not be read
+	 * 
+	 * @param scripts
+	 *            the page scripts
+	 * @return the extraction
+	 * @throws IOException
+	 *             if the page cannot be read
+	 */
+	private Extraction extract(String scripts) throws IOException {
+		final StringBuilder html = new StringBuilder("<html><head>")
+				.append(scripts).append("</head><body>");
+		while (html.length() < PADDING) {
+			html.append("<p>padding</p>");
+		}
+		html.append("</body></html>");
+
+		final CountingInputStream in = new CountingInputStream(
+				html.toString().getBytes("UTF-8"));
+		final Extraction extraction = Extraction.extract(in, "UTF-8",
+				UploadKingService.TIMER_EXTRACTOR,
+				UploadKingService.CAPTCHA_OR_LINK_EXTRACTOR);
+		assertTrue("The whole page was read", in.count < PADDING / 2);
+		return extraction;
+	}
+
+	/**
+	 * Counts the bytes read from the page
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	private static class CountingInputStream extends ByteArrayInputStream {
+		private int count;
+
+		public CountingInputStream(byte[] buf) {
+			super(buf);
+		}
+
+		@Override
+		public synchronized int read() {
+			final int b = super.read();
+			if (b >= 0)
+				count++;
+			return b;
+		}
+
+		@Override
+		public synchronized int read(byte[] b, int off, int len) {
+			final int read = super.read(b, off, len);
+			if (read > 0)
+				count += read;
+			return read;
+		}
+	}
+}
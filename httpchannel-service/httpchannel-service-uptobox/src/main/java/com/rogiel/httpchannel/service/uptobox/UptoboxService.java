@@ -75,6 +75,14 @@ public class UptoboxService extends AbstractHttpService implements Service,
 
 	private static final Pattern DISK_USAGE_PATTERN = Pattern
 			.compile("Used space ([0-9]+(\\.[0-9]+)?) (Kb|Mb) of ([0-9]+) Mb");
+	private static final Pattern ACCOUNT_USERNAME_PATTERN = Pattern
+			.compile("Username:(.+) Apply");
+	private static final Pattern ACCOUNT_FREE_PATTERN = Pattern.compile(
+			"Account type Free member", Pattern.MULTILINE);
+	private static final Pattern ACCOUNT_POINTS_PATTERN = Pattern
+			.compile("You have collected:([0-9])+");
+	private static final Pattern ACCOUNT_REFERRALS_PATTERN = Pattern
+			.compile("My referrals:([0-9])+");
 
 	@Override
 	public ServiceID getServiceID() {
@@ -229,21 +237,17 @@ public class UptoboxService extends AbstractHttpService implements Service,
 					.parameter("login", credential.getUsername())
 					.parameter("password", credential.getPassword()).asPage();
 
-			final SearchResults results = page.search(Pattern
-					.compile("Username:(.+) Apply"));
-			if (!results.hasResults())
+			final SearchResults[] results = page.searchAll(
+					ACCOUNT_USERNAME_PATTERN, ACCOUNT_FREE_PATTERN,
+					ACCOUNT_POINTS_PATTERN, ACCOUNT_REFERRALS_PATTERN);
+			if (!results[0].hasResults())
 				throw new AuthenticationInvalidCredentialException();
-			final String username = results.asString(1);
+			final String username = results[0].asString(1);
 			if (username == null)
 				throw new AuthenticationInvalidCredentialException();
-			final boolean premium = !page.search(
-					Pattern.compile("Account type Free member",
-							Pattern.MULTILINE)).hasResults();
-			final int points = page.search(
-					Pattern.compile("You have collected:([0-9])+"))
-					.asInteger(1);
-			final int referrals = page.search(
-					Pattern.compile("My referrals:([0-9])+")).asInteger(1);
+			final boolean premium = !results[1].hasResults();
+			final int points = results[2].asInteger(1);
+			final int referrals = results[3].asInteger(1);
 			final String referralURL = page.link(
 					Pattern.compile("http://uptobox\\.com/affiliate/[0-9]+"))
 					.asString();
@@ -253,12 +257,10 @@ public class UptoboxService extends AbstractHttpService implements Service,
 					Pattern.compile("Up to ([0-9]*) Mb")).asInteger(1);
 
 			final Page disk = get("http://uptobox.com/?op=my_files").asPage();
-			final double usedDiskSpace = disk.search(DISK_USAGE_PATTERN)
-					.asDouble(1);
-			final String usedDiskSpaceUnit = disk.search(DISK_USAGE_PATTERN)
-					.asString(3);
-			final double maximumDiskSpace = disk.search(DISK_USAGE_PATTERN)
-					.asDouble(4);
+			final SearchResults diskUsage = disk.search(DISK_USAGE_PATTERN);
+			final double usedDiskSpace = diskUsage.asDouble(1);
+			final String usedDiskSpaceUnit = diskUsage.asString(3);
+			final double maximumDiskSpace = diskUsage.asDouble(4);
 
 			return (account = new AccountDetailsImpl(username, premium,
 					Filesizes.mb(maximumFileSize),
@@ -269,7 +271,7 @@ public class UptoboxService extends AbstractHttpService implements Service,
 
 		@Override
 		public void logout() throws IOException {
-			get("http://uptobox.com/?op=logout").request();
+			get("http://uptobox.com/?op=logout").asString();
 			account = null;
 		}
 	}
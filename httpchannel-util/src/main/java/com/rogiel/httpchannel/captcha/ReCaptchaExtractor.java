@@ -22,8 +22,12 @@ import java.io.IOException;
 import java.net.URI;
 import java.util.regex.Pattern;
 
+import org.htmlparser.tags.ScriptTag;
+
 import com.rogiel.httpchannel.http.HttpContext;
 import com.rogiel.httpchannel.util.PatternUtils;
+import com.rogiel.httpchannel.util.html.Extractor;
+import com.rogiel.httpchannel.util.html.MatchedElement;
 import com.rogiel.httpchannel.util.html.Page;
 
 /**
@@ -43,6 +47,14 @@ public class ReCaptchaExtractor {
 	private static final Pattern CAPTCHA_IMAGE_PATTERN = Pattern
 			.compile("challenge : '(.*)'");
 
+	/**
+	 * An {@link Extractor} for the script that creates the Ajax ReCaptcha
+	 * 
+	 * @see #extractAjaxCaptcha(MatchedElement, HttpContext)
+	 */
+	public static final Extractor<ScriptTag> AJAX_CAPTCHA_EXTRACTOR = Extractor
+			.script(CAPTCHA_ID_PATTERN);
+
 	private static final String CHALLENGE_BASE_URI = "http://www.google.com/recaptcha/api/challenge?ajax=1&k=";
 	private static final String IMAGE_BASE_URI = "http://www.google.com/recaptcha/api/image?c=";
 
@@ -77,7 +89,25 @@ public class ReCaptchaExtractor {
 	 * @return the {@link ImageCaptcha} contained at the given <code>page</code>
 	 */
 	public static ImageCaptcha extractAjaxCaptcha(Page page, HttpContext ctx) {
-		final String siteID = page.script(CAPTCHA_ID_PATTERN).asString(1);
+		return extractAjaxCaptcha(page.script(CAPTCHA_ID_PATTERN), ctx);
+	}
+
+	/**
+	 * Extracts the {@link ImageCaptcha} for an ReCAPTCHA using the Ajax API
+	 * 
+	 * @param script
+	 *            the script matched by {@link #AJAX_CAPTCHA_EXTRACTOR}, may be
+	 *            <code>null</code>
+	 * @param ctx
+	 *            the {@link HttpContext}
+	 * @return the {@link ImageCaptcha} created by the given <code>script</code>
+	 *         or <code>null</code> if there is no script
+	 */
+	public static ImageCaptcha extractAjaxCaptcha(
+			MatchedElement<ScriptTag> script, HttpContext ctx) {
+		if (script == null)
+			return null;
+		final String siteID = script.asString(1);
 		try {
 			return doExtract(ctx.get(CHALLENGE_BASE_URI + siteID).asString());
 		} catch (IOException e) {
@@ -20,8 +20,8 @@ package com.rogiel.httpchannel.http;
 
 import java.io.IOException;
 
-import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
 
 public class GetRequest extends Request {
 	private long position = 0;
@@ -31,11 +31,11 @@ public class GetRequest extends Request {
 	}
 
 	@Override
-	public HttpResponse request() throws IOException {
+	protected HttpUriRequest createRequest() throws IOException {
 		final HttpGet get = new HttpGet(uri);
 		if (position > 0)
 			get.addHeader("Range", "bytes=" + position + "-");
-		return ctx.client.execute(get);
+		return get;
 	}
 
 	public GetRequest position(long position) {
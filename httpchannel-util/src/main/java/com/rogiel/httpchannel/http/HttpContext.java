@@ -18,40 +18,179 @@
  */
 package com.rogiel.httpchannel.http;
 
+import java.lang.ref.WeakReference;
 import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
 import org.apache.http.ProtocolException;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.params.ClientParamBean;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.client.DefaultRedirectStrategy;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+
+import com.rogiel.httpchannel.http.engine.BlockingHttpEngine;
+import com.rogiel.httpchannel.http.engine.HttpEngine;
+import com.rogiel.httpchannel.http.engine.NioHttpEngine;
+import com.rogiel.httpchannel.http.executor.HttpExecutors;
+import com.rogiel.httpchannel.util.HttpClientUtils;
+import com.rogiel.httpchannel.util.NamedThreadFactory;
 
 /**
+ * An {@link HttpContext} holds the {@link HttpClient} and the pool of
+ * connections shared by all requests issued from it. Connections are kept
+ * alive and reused across requests and are limited both in total and per
+ * host, so that concurrent transfers in the same service are able to use one
+ * socket each without exhausting the remote server.
+ * <p>
+ * Requests are executed by an {@link HttpEngine}. By default, a
+ * {@link BlockingHttpEngine} is used, but each context can be switched to a
+ * {@link NioHttpEngine} with {@link #setEngine(HttpEngine)}. The connection
+ * limits and the idle connection eviction of the context also apply to the
+ * pool of a {@link NioHttpEngine} set as its engine.
+ * 
  * @author <a href="http://www.rogiel.com">Rogiel</a>
  * 
  */
 public class HttpContext {
-	protected final ExecutorService threadPool = Executors
-			.newCachedThreadPool();
+	/**
+	 * The default maximum number of connections open at once
+	 */
+	public static final int DEFAULT_MAX_CONNECTIONS = 100;
+	/**
+	 * The default maximum number of connections open at once to a single host
+	 */
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 20;
+	/**
+	 * The default amount of time (in milliseconds) an idle connection is kept
+	 * on the pool
+	 */
+	public static final long DEFAULT_IDLE_TIMEOUT = 30 * 1000;
+	/**
+	 * The default amount of time (in milliseconds) a connection is kept alive
+	 * when the server does not explicitly send a <code>Keep-Alive</code>
+	 * header
+	 */
+	public static final long DEFAULT_KEEP_ALIVE = 15 * 1000;
+	/**
+	 * The parameter holding the time (in milliseconds) the blocking client
+	 * waits for a pooled connection. This is the name of
+	 * <code>ClientPNames.CONN_MANAGER_TIMEOUT</code> in later HttpClient
+	 * versions, read by this version without going through the deprecated
+	 * <code>ConnManagerPNames</code>.
+	 */
+	private static final String CONN_MANAGER_TIMEOUT = "http.conn-manager.timeout";
+
+	/**
+	 * The executor that periodically evicts idle and expired connections from
+	 * all pools
+	 */
+	private static final ScheduledExecutorService evictor = Executors
+			.newSingleThreadScheduledExecutor(new NamedThreadFactory(
+					"httpchannel-connection-evictor"));
+
+	/**
+	 * The executor created by this context, the only one shut down by
+	 * {@link #shutdown()}
+	 */
+	private final ExecutorService defaultThreadPool = HttpExecutors
+			.newExecutor("httpchannel-http");
+	/**
+	 * The executor in which asynchronous requests are run
+	 */
+	protected volatile ExecutorService threadPool = defaultThreadPool;
+	/**
+	 * The pooled and thread-safe connection manager
+	 */
+	protected final ThreadSafeClientConnManager connectionManager = new ThreadSafeClientConnManager();
 	/**
 	 * The {@link HttpClient} instance for this service
 	 */
-	protected final DefaultHttpClient client = new DefaultHttpClient();
+	protected final DefaultHttpClient client = new DefaultHttpClient(
+			connectionManager);
+	/**
+	 * The engine that executes requests
+	 */
+	protected volatile HttpEngine engine = new BlockingHttpEngine(client, this);
 
 	protected final ClientParamBean params;
 
+	/**
+	 * The connection limits set for single hosts, applied to engines set
+	 * later on
+	 */
+	private final ConcurrentMap<String, Integer> hostConnectionLimits = new ConcurrentHashMap<>();
+
+	/**
+	 * The eviction task for this context
+	 */
+	private final ScheduledFuture<?> evictionTask;
+
+	/**
+	 * The amount of time (in milliseconds) an idle connection is kept on the
+	 * pool
+	 */
+	private volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+	/**
+	 * The amount of time (in milliseconds) a connection is kept alive if the
+	 * server does not say otherwise
+	 */
+	private volatile long keepAlive = DEFAULT_KEEP_ALIVE;
+	/**
+	 * The amount of time (in milliseconds) a request waits for a pooled
+	 * connection, <code>0</code> to wait forever
+	 */
+	private volatile long connectionWaitTimeout;
+	/**
+	 * The maximum size (in bytes) of a page parsed by
+	 * {@link Request#asPage()}
+	 */
+	private volatile long maxPageSize = HttpClientUtils.DEFAULT_MAX_PAGE_SIZE;
+	/**
+	 * The maximum size (in bytes) of a JSON document parsed by
+	 * {@link Request#asJson()}
+	 */
+	private volatile long maxJsonSize = HttpClientUtils.DEFAULT_MAX_JSON_SIZE;
+
+	/**
+	 * Creates a new context using the default connection limits
+	 */
 	public HttpContext() {
+		this(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS_PER_HOST);
+	}
+
+	/**
+	 * Creates a new context
+	 * 
+	 * @param maxConnections
+	 *            the maximum number of connections open at once
+	 * @param maxConnectionsPerHost
+	 *            the maximum number of connections open at once to a single
+	 *            host
+	 */
+	public HttpContext(int maxConnections, int maxConnectionsPerHost) {
+		connectionManager.setMaxTotal(maxConnections);
+		connectionManager.setDefaultMaxPerRoute(maxConnectionsPerHost);
+
 		// default configuration
 		params = new ClientParamBean(client.getParams());
 		params.setHandleRedirects(true);
 		params.setAllowCircularRedirects(true);
 		params.setRejectRelativeRedirect(false);
 		params.setMaxRedirects(10);
-		
+
 		// browser behavior
 		client.setRedirectStrategy(new DefaultRedirectStrategy() {
 			@Override
@@ -62,6 +201,23 @@ public class HttpContext {
 				return response.containsHeader("Location");
 			}
 		});
+		// reuse connections even if the server does not send an Keep-Alive
+		client.setKeepAliveStrategy(new DefaultConnectionKeepAliveStrategy() {
+			@Override
+			public long getKeepAliveDuration(HttpResponse response,
+					org.apache.http.protocol.HttpContext context) {
+				final long duration = super.getKeepAliveDuration(response,
+						context);
+				if (duration < 0)
+					return keepAlive;
+				return duration;
+			}
+		});
+
+		final EvictionTask task = new EvictionTask(this);
+		evictionTask = evictor.scheduleWithFixedDelay(task, 5, 5,
+				TimeUnit.SECONDS);
+		task.future = evictionTask;
 	}
 
 	public GetRequest get(String uri) {
@@ -79,4 +235,298 @@ public class HttpContext {
 	public PostMultipartRequest multipartPost(String uri) {
 		return new PostMultipartRequest(this, uri);
 	}
+
+	/**
+	 * @return the blocking {@link HttpClient} of this context
+	 */
+	public DefaultHttpClient getClient() {
+		return client;
+	}
+
+	/**
+	 * @return the engine that executes requests
+	 */
+	public HttpEngine getEngine() {
+		return engine;
+	}
+
+	/**
+	 * Sets the engine that executes requests issued from now on. The previous
+	 * engine is not shut down and requests already executing on it are not
+	 * affected.
+	 * 
+	 * @param engine
+	 *            the engine
+	 */
+	public void setEngine(HttpEngine engine) {
+		this.engine = engine;
+		if (engine instanceof NioHttpEngine) {
+			final NioHttpEngine nio = (NioHttpEngine) engine;
+			nio.setMaxConnections(getMaxConnections());
+			nio.setMaxConnectionsPerHost(getMaxConnectionsPerHost());
+			nio.setConnectionWaitTimeout(connectionWaitTimeout);
+			for (final Map.Entry<String, Integer> limit : hostConnectionLimits
+					.entrySet()) {
+				nio.setMaxConnectionsPerHost(limit.getKey(), limit.getValue());
+			}
+		}
+	}
+
+	/**
+	 * @return the executor in which asynchronous requests are run
+	 */
+	public ExecutorService getExecutor() {
+		return threadPool;
+	}
+
+	/**
+	 * Sets the executor in which asynchronous requests are run. The previous
+	 * executor is not shut down and requests already submitted to it will
+	 * still run there. The given executor is owned by the caller and is not
+	 * shut down by {@link #shutdown()}.
+	 * 
+	 * @param executor
+	 *            the executor, <code>null</code> to go back to the executor
+	 *            created by this context
+	 */
+	public void setExecutor(ExecutorService executor) {
+		if (executor == null)
+			executor = defaultThreadPool;
+		this.threadPool = executor;
+	}
+
+	/**
+	 * @param maxConnections
+	 *            the maximum number of connections open at once
+	 */
+	public void setMaxConnections(int maxConnections) {
+		connectionManager.setMaxTotal(maxConnections);
+		final NioHttpEngine nio = getNioEngine();
+		if (nio != null)
+			nio.setMaxConnections(maxConnections);
+	}
+
+	/**
+	 * @return the maximum number of connections open at once
+	 */
+	public int getMaxConnections() {
+		return connectionManager.getMaxTotal();
+	}
+
+	/**
+	 * @param maxConnections
+	 *            the maximum number of connections open at once to a single
+	 *            host
+	 */
+	public void setMaxConnectionsPerHost(int maxConnections) {
+		connectionManager.setDefaultMaxPerRoute(maxConnections);
+		final NioHttpEngine nio = getNioEngine();
+		if (nio != null)
+			nio.setMaxConnectionsPerHost(maxConnections);
+	}
+
+	/**
+	 * Sets the maximum number of connections open at once to the given
+	 * <code>host</code>. This overrides the default per host limit for both
+	 * <tt>http</tt> and <tt>https</tt> connections.
+	 * 
+	 * @param host
+	 *            the host name
+	 * @param maxConnections
+	 *            the maximum number of connections open at once to the
+	 *            <code>host</code>
+	 */
+	public void setMaxConnectionsPerHost(String host, int maxConnections) {
+		connectionManager.setMaxForRoute(new HttpRoute(new HttpHost(host, 80,
+				"http")), maxConnections);
+		connectionManager.setMaxForRoute(new HttpRoute(new HttpHost(host, 443,
+				"https"), null, true), maxConnections);
+		hostConnectionLimits.put(host, maxConnections);
+		final NioHttpEngine nio = getNioEngine();
+		if (nio != null)
+			nio.setMaxConnectionsPerHost(host, maxConnections);
+	}
+
+	/**
+	 * @return the maximum number of connections open at once to a single host
+	 */
+	public int getMaxConnectionsPerHost() {
+		return connectionManager.getDefaultMaxPerRoute();
+	}
+
+	/**
+	 * Sets the amount of time a request will wait for a connection to be
+	 * released back to the pool when all connections are busy.
+	 * 
+	 * @param timeout
+	 *            the timeout. <code>0</code> means wait forever.
+	 * @param unit
+	 *            the timeout unit
+	 */
+	public void setConnectionWaitTimeout(long timeout, TimeUnit unit) {
+		this.connectionWaitTimeout = unit.toMillis(timeout);
+		client.getParams().setLongParameter(CONN_MANAGER_TIMEOUT,
+				connectionWaitTimeout);
+		final NioHttpEngine nio = getNioEngine();
+		if (nio != null)
+			nio.setConnectionWaitTimeout(connectionWaitTimeout);
+	}
+
+	/**
+	 * @return the amount of time (in milliseconds) a request waits for a
+	 *         pooled connection, <code>0</code> to wait forever
+	 */
+	public long getConnectionWaitTimeout() {
+		return connectionWaitTimeout;
+	}
+
+	/**
+	 * Sets the amount of time a connection can remain idle on the pool before
+	 * being closed
+	 * 
+	 * @param timeout
+	 *            the timeout
+	 * @param unit
+	 *            the timeout unit
+	 */
+	public void setIdleTimeout(long timeout, TimeUnit unit) {
+		this.idleTimeout = unit.toMillis(timeout);
+	}
+
+	/**
+	 * Sets the amount of time a connection is kept alive if the server does
+	 * not inform an <code>Keep-Alive</code> timeout.
+	 * 
+	 * @param timeout
+	 *            the timeout
+	 * @param unit
+	 *            the timeout unit
+	 */
+	public void setKeepAlive(long timeout, TimeUnit unit) {
+		this.keepAlive = unit.toMillis(timeout);
+	}
+
+	/**
+	 * Sets the maximum size of a page parsed by {@link Request#asPage()}.
+	 * Larger pages abort the connection and fail with an IOException.
+	 * 
+	 * @param maxPageSize
+	 *            the maximum page size (in bytes)
+	 */
+	public void setMaxPageSize(long maxPageSize) {
+		this.maxPageSize = maxPageSize;
+	}
+
+	/**
+	 * @return the maximum size (in bytes) of a page parsed by
+	 *         {@link Request#asPage()}
+	 */
+	public long getMaxPageSize() {
+		return maxPageSize;
+	}
+
+	/**
+	 * Sets the maximum size of a JSON document parsed by
+	 * {@link Request#asJson()}. Larger documents abort the connection and fail
+	 * with an IOException. Documents are not limited by default, and never
+	 * when parsed with a handler.
+	 * 
+	 * @param maxJsonSize
+	 *            the maximum document size (in bytes)
+	 */
+	public void setMaxJsonSize(long maxJsonSize) {
+		this.maxJsonSize = maxJsonSize;
+	}
+
+	/**
+	 * @return the maximum size (in bytes) of a JSON document parsed by
+	 *         {@link Request#asJson()}
+	 */
+	public long getMaxJsonSize() {
+		return maxJsonSize;
+	}
+
+	/**
+	 * Closes all expired connections and those that have been idle longer than
+	 * the idle timeout.
+	 */
+	public void closeIdleConnections() {
+		connectionManager.closeExpiredConnections();
+		connectionManager.closeIdleConnections(idleTimeout,
+				TimeUnit.MILLISECONDS);
+		final NioHttpEngine nio = getNioEngine();
+		if (nio != null)
+			nio.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return the number of connections currently open, either leased or idle
+	 *         on the pool, including those of a {@link NioHttpEngine}
+	 */
+	public int getOpenConnections() {
+		final NioHttpEngine nio = getNioEngine();
+		return connectionManager.getConnectionsInPool()
+				+ (nio != null ? nio.getOpenConnections() : 0);
+	}
+
+	/**
+	 * Shuts down this context, closing all connections. Requests should not be
+	 * issued after this method has been called. An executor set with
+	 * {@link #setExecutor(ExecutorService)} is left running.
+	 */
+	public void shutdown() {
+		evictionTask.cancel(false);
+		engine.shutdown();
+		defaultThreadPool.shutdown();
+		connectionManager.shutdown();
+	}
+
+	/**
+	 * @return the current engine if it is a {@link NioHttpEngine}, which has a
+	 *         connection pool of its own
+	 */
+	private NioHttpEngine getNioEngine() {
+		final HttpEngine engine = this.engine;
+		if (engine instanceof NioHttpEngine)
+			return (NioHttpEngine) engine;
+		return null;
+	}
+
+	/**
+	 * Periodically evicts idle connections from an {@link HttpContext}. The
+	 * task only holds a weak reference to the context and cancels itself once
+	 * the context is no longer reachable.
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	private static class EvictionTask implements Runnable {
+		/**
+		 * The context
+		 */
+		private final WeakReference<HttpContext> context;
+		/**
+		 * The scheduled execution of this task
+		 */
+		private volatile ScheduledFuture<?> future;
+
+		/**
+		 * @param context
+		 *            the context
+		 */
+		public EvictionTask(HttpContext context) {
+			this.context = new WeakReference<HttpContext>(context);
+		}
+
+		@Override
+		public void run() {
+			final HttpContext ctx = context.get();
+			if (ctx == null) {
+				final ScheduledFuture<?> future = this.future;
+				if (future != null)
+					future.cancel(false);
+				return;
+			}
+			ctx.closeIdleConnections();
+		}
+	}
 }
@@ -22,8 +22,8 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 
 import org.apache.http.Header;
-import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.entity.mime.MultipartEntity;
 import org.apache.http.entity.mime.content.ContentBody;
 import org.apache.http.entity.mime.content.StringBody;
@@ -45,13 +45,13 @@ public class PostMultipartRequest extends PostRequest {
 	}
 
 	@Override
-	public HttpResponse request() throws IOException {
+	protected HttpUriRequest createRequest() throws IOException {
 		final HttpPost post = new HttpPost(uri);
 		for (final Header header : headers) {
 			post.addHeader(header);
 		}
 		post.setEntity(entity);
-		return ctx.client.execute(post);
+		return post;
 	}
 
 	public PostMultipartRequest parameter(String name, ContentBody body) {
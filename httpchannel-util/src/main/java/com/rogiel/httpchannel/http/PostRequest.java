@@ -24,10 +24,10 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.http.Header;
-import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.message.BasicNameValuePair;
 
 public class PostRequest extends Request {
@@ -38,13 +38,13 @@ public class PostRequest extends Request {
 	}
 
 	@Override
-	public HttpResponse request() throws IOException {
+	protected HttpUriRequest createRequest() throws IOException {
 		final HttpPost post = new HttpPost(uri);
 		for(final Header header : headers) {
 			post.addHeader(header);
 		}
 		post.setEntity(new UrlEncodedFormEntity(params));
-		return ctx.client.execute(post);
+		return post;
 	}
 
 	public PostRequest parameter(String name, String value)
@@ -22,22 +22,27 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.Future;
 
 import org.apache.http.Header;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.message.BasicHeader;
-import org.json.simple.parser.JSONParser;
+import org.htmlparser.Tag;
+import org.json.simple.parser.ContentHandler;
 import org.json.simple.parser.ParseException;
 
+import com.rogiel.httpchannel.http.engine.RequestCallback;
+import com.rogiel.httpchannel.http.engine.RequestFunction;
+import com.rogiel.httpchannel.http.engine.RequestFuture;
 import com.rogiel.httpchannel.util.HttpClientUtils;
+import com.rogiel.httpchannel.util.html.Extraction;
+import com.rogiel.httpchannel.util.html.Extractor;
+import com.rogiel.httpchannel.util.html.MatchedElement;
 import com.rogiel.httpchannel.util.html.Page;
+import com.rogiel.httpchannel.util.json.JsonField;
 
 public abstract class Request {
-	private static final JSONParser jsonParser = new JSONParser();
-	
 	protected final List<Header> headers = new ArrayList<>();
 	
 	protected final HttpContext ctx;
@@ -53,65 +58,155 @@ public abstract class Request {
 		return this;
 	}
 
-	public abstract HttpResponse request() throws IOException;
+	protected abstract HttpUriRequest createRequest() throws IOException;
 
-	public Future<HttpResponse> requestAsync() throws IOException {
-		return ctx.threadPool.submit(new Callable<HttpResponse>() {
-			@Override
-			public HttpResponse call() throws Exception {
-				return request();
-			}
-		});
+	public HttpResponse request() throws IOException {
+		return ctx.engine.execute(createRequest());
+	}
+
+	public RequestFuture<HttpResponse> requestAsync() throws IOException {
+		return ctx.engine.executeAsync(createRequest());
+	}
+
+	public RequestFuture<HttpResponse> requestAsync(
+			RequestCallback<? super HttpResponse> callback) throws IOException {
+		return requestAsync().addCallback(callback);
 	}
 
 	public String asString() throws ClientProtocolException, IOException {
 		return HttpClientUtils.toString(request());
 	}
 
-	public Future<String> asStringAsync() throws IOException {
-		return ctx.threadPool.submit(new Callable<String>() {
+	public RequestFuture<String> asStringAsync() throws IOException {
+		return requestAsync().then(new RequestFunction<HttpResponse, String>() {
 			@Override
-			public String call() throws Exception {
-				return asString();
+			public String apply(HttpResponse response) throws Exception {
+				return HttpClientUtils.toString(response);
 			}
 		});
 	}
-	
+
+	public RequestFuture<String> asStringAsync(
+			RequestCallback<? super String> callback) throws IOException {
+		return asStringAsync().addCallback(callback);
+	}
+
 	public InputStream asStream() throws ClientProtocolException, IOException {
 		return request().getEntity().getContent();
 	}
 
-	public Future<InputStream> asStreamAsync() throws IOException {
-		return ctx.threadPool.submit(new Callable<InputStream>() {
+	public RequestFuture<InputStream> asStreamAsync() throws IOException {
+		return requestAsync().then(
+				new RequestFunction<HttpResponse, InputStream>() {
+					@Override
+					public InputStream apply(HttpResponse response)
+							throws Exception {
+						return response.getEntity().getContent();
+					}
+				});
+	}
+
+	public Page asPage() throws ClientProtocolException, IOException {
+		return HttpClientUtils.toPage(request(), ctx.getMaxPageSize());
+	}
+
+	public RequestFuture<Page> asPageAsync() throws IOException {
+		return requestAsync().then(new RequestFunction<HttpResponse, Page>() {
 			@Override
-			public InputStream call() throws Exception {
-				return asStream();
+			public Page apply(HttpResponse response) throws Exception {
+				return HttpClientUtils.toPage(response, ctx.getMaxPageSize());
 			}
 		});
 	}
 
-	public Page asPage() throws ClientProtocolException, IOException {
-		return Page.parse(asString());
+	public RequestFuture<Page> asPageAsync(
+			RequestCallback<? super Page> callback) throws IOException {
+		return asPageAsync().addCallback(callback);
+	}
+
+	public <T extends Tag> MatchedElement<T> extract(Extractor<T> extractor)
+			throws IOException {
+		return extract(new Extractor<?>[] { extractor }).get(extractor);
+	}
+
+	public Extraction extract(Extractor<?>... extractors) throws IOException {
+		return HttpClientUtils.extract(request(), ctx.getMaxPageSize(),
+				extractors);
 	}
 
-	public Future<Page> asPageAsync() throws IOException {
-		return ctx.threadPool.submit(new Callable<Page>() {
+	public RequestFuture<Extraction> extractAsync(
+			final Extractor<?>... extractors) throws IOException {
+		return requestAsync().then(
+				new RequestFunction<HttpResponse, Extraction>() {
+					@Override
+					public Extraction apply(HttpResponse response)
+							throws Exception {
+						return HttpClientUtils.extract(response,
+								ctx.getMaxPageSize(), extractors);
+					}
+				});
+	}
+
+	public Object asJson() throws ClientProtocolException, IOException,
+			ParseException {
+		return HttpClientUtils.toJson(request(), ctx.getMaxJsonSize());
+	}
+
+	public RequestFuture<Object> asJsonAsync() throws IOException {
+		return requestAsync().then(new RequestFunction<HttpResponse, Object>() {
 			@Override
-			public Page call() throws Exception {
-				return asPage();
+			public Object apply(HttpResponse response) throws Exception {
+				return HttpClientUtils.toJson(response, ctx.getMaxJsonSize());
 			}
 		});
 	}
-	
-	public Object asJson() throws ClientProtocolException, IOException, ParseException {
-		return jsonParser.parse(asString());
+
+	/**
+	 * Parses the response as JSON, sending each token to the
+	 * <code>handler</code> instead of building the object tree
+	 * 
+	 * @param handler
+	 *            the token handler
+	 * @return <code>true</code> if the whole document was parsed,
+	 *         <code>false</code> if the handler stopped the parsing
+	 * @throws IOException
+	 *             if any error occur while reading the response
+	 * @throws ParseException
+	 *             if the response is not valid JSON
+	 */
+	public boolean asJson(ContentHandler handler) throws IOException,
+			ParseException {
+		return HttpClientUtils.parseJson(request(), handler);
+	}
+
+	/**
+	 * Reads a single field from the JSON response, without building the
+	 * object tree for the rest of the document
+	 * 
+	 * @param path
+	 *            the path of object keys to the field
+	 * @return the field value or <code>null</code> if not found
+	 * @throws IOException
+	 *             if any error occur while reading the response
+	 * @throws ParseException
+	 *             if the response is not valid JSON
+	 * @see JsonField
+	 */
+	public Object asJsonField(String... path) throws IOException,
+			ParseException {
+		final JsonField field = new JsonField(path);
+		asJson(field);
+		return field.getValue();
 	}
 
-	public Future<Object> asJsonAsync() throws IOException {
-		return ctx.threadPool.submit(new Callable<Object>() {
+	public RequestFuture<Object> asJsonFieldAsync(final String... path)
+			throws IOException {
+		return requestAsync().then(new RequestFunction<HttpResponse, Object>() {
 			@Override
-			public Object call() throws Exception {
-				return asJson();
+			public Object apply(HttpResponse response) throws Exception {
+				final JsonField field = new JsonField(path);
+				HttpClientUtils.parseJson(response, field);
+				return field.getValue();
 			}
 		});
 	}
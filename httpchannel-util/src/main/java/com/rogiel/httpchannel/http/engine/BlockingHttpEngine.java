@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.http.engine;
+
+import java.io.IOException;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+
+import com.rogiel.httpchannel.http.HttpContext;
+
+/**
+ * The default {@link HttpEngine}. Requests are executed with a blocking
+ * {@link HttpClient} and asynchronous requests hold one thread of the
+ * {@link HttpContext#getExecutor() context executor} until the response
+ * headers are received.
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ */
+public class BlockingHttpEngine implements HttpEngine {
+	/**
+	 * The {@link HttpClient} instance
+	 */
+	private final HttpClient client;
+	/**
+	 * The context whose executor runs asynchronous requests
+	 */
+	private final HttpContext ctx;
+
+	/**
+	 * Creates a new engine
+	 * 
+	 * @param client
+	 *            the {@link HttpClient} instance
+	 * @param ctx
+	 *            the context whose executor runs asynchronous requests
+	 */
+	public BlockingHttpEngine(HttpClient client, HttpContext ctx) {
+		this.client = client;
+		this.ctx = ctx;
+	}
+
+	@Override
+	public HttpResponse execute(HttpUriRequest request) throws IOException {
+		return client.execute(request);
+	}
+
+	@Override
+	public RequestFuture<HttpResponse> executeAsync(
+			final HttpUriRequest request) {
+		final DefaultRequestFuture<HttpResponse> future = new DefaultRequestFuture<HttpResponse>() {
+			@Override
+			public boolean cancel(boolean mayInterruptIfRunning) {
+				if (!super.cancel(mayInterruptIfRunning))
+					return false;
+				request.abort();
+				return true;
+			}
+		};
+		ctx.getExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				if (future.isDone())
+					return;
+				try {
+					final HttpResponse response = client.execute(request);
+					// cancelled while executing: release the connection
+					if (!future.completed(response))
+						request.abort();
+				} catch (Exception e) {
+					future.failed(e);
+				}
+			}
+		});
+		return future;
+	}
+
+	@Override
+	public void shutdown() {
+		client.getConnectionManager().shutdown();
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.http.engine;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.http.Header;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.ProtocolException;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.params.CookiePolicy;
+import org.apache.http.client.protocol.ClientContext;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.cookie.CookieOrigin;
+import org.apache.http.cookie.CookieSpec;
+import org.apache.http.cookie.CookieSpecRegistry;
+import org.apache.http.cookie.MalformedCookieException;
+import org.apache.http.cookie.SM;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Sends and stores cookies for {@link NioHttpEngine} requests. The cookie
+ * store is shared with the blocking client of the same context, so a session
+ * opened by one engine is seen by the other.
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ */
+class CookieInterceptor implements HttpRequestInterceptor,
+		HttpResponseInterceptor {
+	/**
+	 * The cookie store
+	 */
+	private final CookieStore store;
+	/**
+	 * The cookie specification registry
+	 */
+	private final CookieSpecRegistry registry;
+	/**
+	 * The client parameters
+	 */
+	private final HttpParams params;
+
+	/**
+	 * @param store
+	 *            the cookie store
+	 * @param registry
+	 *            the cookie specification registry
+	 * @param params
+	 *            the client parameters
+	 */
+	public CookieInterceptor(CookieStore store, CookieSpecRegistry registry,
+			HttpParams params) {
+		this.store = store;
+		this.registry = registry;
+		this.params = params;
+	}
+
+	@Override
+	public void process(HttpRequest request, HttpContext context)
+			throws HttpException, IOException {
+		final HttpHost target = (HttpHost) context
+				.getAttribute(ExecutionContext.HTTP_TARGET_HOST);
+		if (target == null)
+			return;
+		final URI uri;
+		try {
+			uri = new URI(request.getRequestLine().getUri());
+		} catch (URISyntaxException e) {
+			throw new ProtocolException("Invalid request URI: "
+					+ request.getRequestLine().getUri(), e);
+		}
+		final boolean secure = "https".equalsIgnoreCase(target
+				.getSchemeName());
+		int port = target.getPort();
+		if (port < 0)
+			port = (secure ? 443 : 80);
+		final String path = uri.getPath();
+		final CookieOrigin origin = new CookieOrigin(target.getHostName(),
+				port, (path == null || path.isEmpty() ? "/" : path), secure);
+		final CookieSpec spec = registry.getCookieSpec(
+				CookiePolicy.BEST_MATCH, params);
+
+		final Date now = new Date();
+		final List<Cookie> matched = new ArrayList<>();
+		for (final Cookie cookie : store.getCookies()) {
+			if (!cookie.isExpired(now) && spec.match(cookie, origin))
+				matched.add(cookie);
+		}
+		if (!matched.isEmpty()) {
+			for (final Header header : spec.formatCookies(matched)) {
+				request.addHeader(header);
+			}
+		}
+
+		context.setAttribute(ClientContext.COOKIE_SPEC, spec);
+		context.setAttribute(ClientContext.COOKIE_ORIGIN, origin);
+	}
+
+	@Override
+	public void process(HttpResponse response, HttpContext context)
+			throws HttpException, IOException {
+		final CookieSpec spec = (CookieSpec) context
+				.getAttribute(ClientContext.COOKIE_SPEC);
+		final CookieOrigin origin = (CookieOrigin) context
+				.getAttribute(ClientContext.COOKIE_ORIGIN);
+		if (spec == null || origin == null)
+			return;
+		for (final Header header : response.getHeaders(SM.SET_COOKIE)) {
+			try {
+				for (final Cookie cookie : spec.parse(header, origin)) {
+					try {
+						spec.validate(cookie, origin);
+						store.addCookie(cookie);
+					} catch (MalformedCookieException e) {
+						// rejected by the cookie policy, ignore
+					}
+				}
+			} catch (MalformedCookieException e) {
+				// unparseable cookie, ignore
+			}
+		}
+	}
+}
@@ -0,0 +1,359 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.http.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.rogiel.httpchannel.http.executor.HttpExecutors;
+
+/**
+ * Default {@link RequestFuture} implementation. The future is completed by
+ * calling {@link #completed(Object)}, {@link #failed(Exception)} or
+ * {@link #cancel(boolean)}; only the first call has any effect.
+ * <p>
+ * Callbacks are handed off to the callback executor without blocking, so a
+ * future can be completed from a NIO I/O thread. If the executor cannot take
+ * the callbacks right away a completed future fails with a
+ * {@link RejectedExecutionException} instead. Callbacks are then told of the
+ * failure, or cancellation, on the completing thread: they must not block
+ * when notified of either.
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ * @param <T>
+ *            the result type
+ */
+public class DefaultRequestFuture<T> implements RequestFuture<T> {
+	/**
+	 * The executor in which callbacks are notified. If <code>null</code>
+	 * callbacks are notified on the thread that completes the future.
+	 */
+	private final Executor callbackExecutor;
+	/**
+	 * The callbacks waiting for completion
+	 */
+	private final List<RequestCallback<? super T>> callbacks = new ArrayList<>();
+
+	/**
+	 * Whether the future has completed
+	 */
+	private boolean done;
+	/**
+	 * Whether the future is being completed: callbacks are being handed off
+	 */
+	private boolean completing;
+	/**
+	 * Whether the future has been cancelled
+	 */
+	private boolean cancelled;
+	/**
+	 * The result
+	 */
+	private T result;
+	/**
+	 * The failure cause
+	 */
+	private Exception exception;
+
+	/**
+	 * Creates a new future that notifies callbacks on the completing thread
+	 */
+	public DefaultRequestFuture() {
+		this(null);
+	}
+
+	/**
+	 * Creates a new future
+	 * 
+	 * @param callbackExecutor
+	 *            the executor in which callbacks are notified
+	 */
+	public DefaultRequestFuture(Executor callbackExecutor) {
+		this.callbackExecutor = callbackExecutor;
+	}
+
+	/**
+	 * Completes this future
+	 * 
+	 * @param result
+	 *            the result
+	 * @return <code>true</code> if the future was not yet completed
+	 */
+	public boolean completed(T result) {
+		return complete(result, null, false);
+	}
+
+	/**
+	 * Fails this future
+	 * 
+	 * @param e
+	 *            the failure cause
+	 * @return <code>true</code> if the future was not yet completed
+	 */
+	public boolean failed(Exception e) {
+		return complete(null, e, false);
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return complete(null, null, true);
+	}
+
+	/**
+	 * Completes this future, handing the waiting callbacks off to the
+	 * callback executor first
+	 * 
+	 * @param result
+	 *            the result
+	 * @param exception
+	 *            the failure cause
+	 * @param cancelled
+	 *            whether the future is cancelled
+	 * @return <code>true</code> if the future was not yet completed and now
+	 *         holds the given outcome, <code>false</code> if it was already
+	 *         completed or failed because the callbacks could not be handed
+	 *         off
+	 */
+	private boolean complete(T result, Exception exception, boolean cancelled) {
+		final List<RequestCallback<? super T>> callbacks;
+		synchronized (this) {
+			if (done || completing)
+				return false;
+			completing = true;
+			callbacks = takeCallbacks();
+		}
+		boolean accepted = true;
+		boolean failedOver = false;
+		if (callbackExecutor != null && !callbacks.isEmpty()) {
+			try {
+				HttpExecutors.handOff(callbackExecutor,
+						new Notification<T>(callbacks, result, exception,
+								cancelled));
+			} catch (RejectedExecutionException e) {
+				accepted = false;
+				if (exception == null && !cancelled) {
+					result = null;
+					exception = e;
+					failedOver = true;
+				}
+			}
+		}
+		final List<RequestCallback<? super T>> late;
+		synchronized (this) {
+			this.result = result;
+			this.exception = exception;
+			this.cancelled = cancelled;
+			this.done = true;
+			this.completing = false;
+			notifyAll();
+			// registered while the callbacks were being handed off
+			late = takeCallbacks();
+		}
+		if (callbackExecutor == null || !accepted)
+			new Notification<T>(callbacks, result, exception, cancelled).run();
+		for (final RequestCallback<? super T> callback : late) {
+			dispatch(callback);
+		}
+		return !failedOver;
+	}
+
+	@Override
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	@Override
+	public synchronized boolean isDone() {
+		return done;
+	}
+
+	@Override
+	public synchronized T get() throws InterruptedException,
+			ExecutionException {
+		while (!done) {
+			wait();
+		}
+		return getResult();
+	}
+
+	@Override
+	public synchronized T get(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!done) {
+			final long remaining = deadline - System.nanoTime();
+			if (remaining <= 0)
+				throw new TimeoutException();
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return getResult();
+	}
+
+	/**
+	 * @return the result of this (completed) future
+	 * @throws ExecutionException
+	 *             if the future has failed
+	 */
+	private T getResult() throws ExecutionException {
+		if (cancelled)
+			throw new CancellationException();
+		if (exception != null)
+			throw new ExecutionException(exception);
+		return result;
+	}
+
+	@Override
+	public RequestFuture<T> addCallback(RequestCallback<? super T> callback) {
+		synchronized (this) {
+			if (!done) {
+				callbacks.add(callback);
+				return this;
+			}
+		}
+		dispatch(callback);
+		return this;
+	}
+
+	@Override
+	public <V> RequestFuture<V> then(
+			final RequestFunction<? super T, V> function) {
+		final DefaultRequestFuture<V> future = new DefaultRequestFuture<V>(
+				callbackExecutor) {
+			@Override
+			public boolean cancel(boolean mayInterruptIfRunning) {
+				if (!super.cancel(mayInterruptIfRunning))
+					return false;
+				DefaultRequestFuture.this.cancel(mayInterruptIfRunning);
+				return true;
+			}
+		};
+		addCallback(new RequestCallback<T>() {
+			@Override
+			public void completed(T result) {
+				try {
+					future.completed(function.apply(result));
+				} catch (Exception e) {
+					future.failed(e);
+				}
+			}
+
+			@Override
+			public void failed(Exception e) {
+				future.failed(e);
+			}
+
+			@Override
+			public void cancelled() {
+				future.cancel(false);
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Removes the registered callbacks. Must be called while holding the lock.
+	 * 
+	 * @return the registered callbacks
+	 */
+	private List<RequestCallback<? super T>> takeCallbacks() {
+		final List<RequestCallback<? super T>> callbacks = new ArrayList<>(
+				this.callbacks);
+		this.callbacks.clear();
+		return callbacks;
+	}
+
+	/**
+	 * Notifies a callback registered after completion on the callback
+	 * executor. If the executor cannot take it, the callback is told of the
+	 * {@link RejectedExecutionException} on the current thread.
+	 * 
+	 * @param callback
+	 *            the callback
+	 */
+	private void dispatch(RequestCallback<? super T> callback) {
+		final List<RequestCallback<? super T>> callbacks = new ArrayList<>(1);
+		callbacks.add(callback);
+		final Notification<T> notification;
+		synchronized (this) {
+			notification = new Notification<T>(callbacks, result, exception,
+					cancelled);
+		}
+		if (callbackExecutor == null) {
+			notification.run();
+			return;
+		}
+		try {
+			HttpExecutors.handOff(callbackExecutor, notification);
+		} catch (RejectedExecutionException e) {
+			callback.failed(e);
+		}
+	}
+
+	/**
+	 * Notifies callbacks of the outcome of a future
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 * @param <T>
+	 *            the result type
+	 */
+	private static class Notification<T> implements Runnable {
+		/**
+		 * The callbacks to notify
+		 */
+		private final List<RequestCallback<? super T>> callbacks;
+		/**
+		 * The result
+		 */
+		private final T result;
+		/**
+		 * The failure cause
+		 */
+		private final Exception exception;
+		/**
+		 * Whether the future is cancelled
+		 */
+		private final boolean cancelled;
+
+		public Notification(List<RequestCallback<? super T>> callbacks,
+				T result, Exception exception, boolean cancelled) {
+			this.callbacks = callbacks;
+			this.result = result;
+			this.exception = exception;
+			this.cancelled = cancelled;
+		}
+
+		@Override
+		public void run() {
+			for (final RequestCallback<? super T> callback : callbacks) {
+				if (cancelled)
+					callback.cancelled();
+				else if (exception != null)
+					callback.failed(exception);
+				else
+					callback.completed(result);
+			}
+		}
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.http.engine;
+
+import java.io.IOException;
+
+import org.apache.http.nio.IOControl;
+
+/**
+ * An {@link IOControl} that forwards to the connection {@link IOControl}
+ * once it is known. The shared buffers used by {@link NioHttpEngine} require
+ * an {@link IOControl} at construction time, but the connection is only
+ * handed over when content is first produced or consumed; until then there
+ * is nothing to suspend or resume and all calls are ignored.
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ */
+class DeferredIOControl implements IOControl {
+	/**
+	 * The connection {@link IOControl}
+	 */
+	private volatile IOControl ioctrl;
+
+	/**
+	 * @param ioctrl
+	 *            the connection {@link IOControl}
+	 */
+	void bind(IOControl ioctrl) {
+		this.ioctrl = ioctrl;
+	}
+
+	@Override
+	public void requestInput() {
+		final IOControl ioctrl = this.ioctrl;
+		if (ioctrl != null)
+			ioctrl.requestInput();
+	}
+
+	@Override
+	public void suspendInput() {
+		final IOControl ioctrl = this.ioctrl;
+		if (ioctrl != null)
+			ioctrl.suspendInput();
+	}
+
+	@Override
+	public void requestOutput() {
+		final IOControl ioctrl = this.ioctrl;
+		if (ioctrl != null)
+			ioctrl.requestOutput();
+	}
+
+	@Override
+	public void suspendOutput() {
+		final IOControl ioctrl = this.ioctrl;
+		if (ioctrl != null)
+			ioctrl.suspendOutput();
+	}
+
+	@Override
+	public void shutdown() throws IOException {
+		final IOControl ioctrl = this.ioctrl;
+		if (ioctrl != null)
+			ioctrl.shutdown();
+	}
+}
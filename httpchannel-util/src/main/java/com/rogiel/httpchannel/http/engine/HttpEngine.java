@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.http.engine;
+
+import java.io.IOException;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+
+import com.rogiel.httpchannel.http.HttpContext;
+import com.rogiel.httpchannel.http.Request;
+
+/**
+ * An {@link HttpEngine} is the transport used by an {@link HttpContext} to
+ * execute its {@link Request requests}. The engine can be changed per context
+ * with {@link HttpContext#setEngine(HttpEngine)}.
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ * @see BlockingHttpEngine
+ * @see NioHttpEngine
+ */
+public interface HttpEngine {
+	/**
+	 * Executes the request, blocking until the response headers have been
+	 * received. The response entity must be consumed (or its stream closed) in
+	 * order to release the connection.
+	 * 
+	 * @param request
+	 *            the request
+	 * @return the response
+	 * @throws IOException
+	 *             if any error occur while executing the request
+	 */
+	HttpResponse execute(HttpUriRequest request) throws IOException;
+
+	/**
+	 * Executes the request asynchronously. The returned future completes as
+	 * soon as the response headers have been received; the response entity
+	 * can then be streamed from any thread.
+	 * 
+	 * @param request
+	 *            the request
+	 * @return the future for the response
+	 */
+	RequestFuture<HttpResponse> executeAsync(HttpUriRequest request);
+
+	/**
+	 * Shuts down this engine, releasing all its resources. Requests should not
+	 * be executed after this method has been called.
+	 */
+	void shutdown();
+}
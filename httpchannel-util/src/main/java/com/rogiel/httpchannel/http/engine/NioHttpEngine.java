@@ -0,0 +1,410 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.http.engine;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.RedirectException;
+import org.apache.http.client.RedirectStrategy;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.params.HttpClientParams;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.nio.client.DefaultHttpAsyncClient;
+import org.apache.http.impl.nio.conn.PoolingClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.nio.conn.PoolStats;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.params.SyncBasicHttpParams;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.util.EntityUtils;
+
+import com.rogiel.httpchannel.http.HttpContext;
+import com.rogiel.httpchannel.util.NamedThreadFactory;
+
+/**
+ * An {@link HttpEngine} built on non-blocking sockets. All connections are
+ * multiplexed on a small number of I/O threads, so waiting for a slow server
+ * does not hold any thread: a thread is only needed while a response body is
+ * actually being read (or a request body is being written).
+ * <p>
+ * Request callbacks and {@link RequestFuture#then(RequestFunction)
+ * transformations} run on the {@link HttpContext#getExecutor() context
+ * executor}, never on the I/O threads. The I/O threads never wait for the
+ * executor either: if it is saturated the request fails with a
+ * {@link java.util.concurrent.RejectedExecutionException}.
+ * <p>
+ * Response bodies are streamed through a bounded buffer: if the reader is
+ * slower than the network, the connection stops reading until there is room
+ * again, instead of buffering the whole response in memory.
+ * <p>
+ * Cookies, redirect and keep-alive handling are shared with the blocking
+ * client of the {@link HttpContext}, so a session opened by one engine is
+ * valid for the other.
+ * 
+ * <pre>
+ * ctx.setEngine(new NioHttpEngine(ctx));
+ * </pre>
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ */
+public class NioHttpEngine implements HttpEngine {
+	/**
+	 * The default size of the request and response body buffers
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 32 * 1024;
+	/**
+	 * The maximum number of redirects followed
+	 */
+	public static final int MAX_REDIRECTS = 10;
+
+	/**
+	 * The context
+	 */
+	private final HttpContext ctx;
+	/**
+	 * The non-blocking connection manager
+	 */
+	private final PoolingClientConnectionManager connectionManager;
+	/**
+	 * The non-blocking client
+	 */
+	private final DefaultHttpAsyncClient client;
+	/**
+	 * The redirect strategy shared with the blocking client
+	 */
+	private final RedirectStrategy redirectStrategy;
+	/**
+	 * The size of the request and response body buffers
+	 */
+	private final int bufferSize;
+	/**
+	 * The parameters of the non-blocking client
+	 */
+	private final SyncBasicHttpParams params;
+
+	/**
+	 * Creates a new engine with one I/O thread per processor. The connection
+	 * limits are taken from the context; once the engine is
+	 * {@link HttpContext#setEngine(HttpEngine) set} on it, the context keeps
+	 * them in sync and evicts idle connections.
+	 * 
+	 * @param ctx
+	 *            the context
+	 * @throws IOException
+	 *             if the I/O reactor could not be created
+	 */
+	public NioHttpEngine(HttpContext ctx) throws IOException {
+		this(ctx, Runtime.getRuntime().availableProcessors(),
+				DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Creates a new engine
+	 * 
+	 * @param ctx
+	 *            the context
+	 * @param ioThreads
+	 *            the number of I/O threads
+	 * @param bufferSize
+	 *            the size of the request and response body buffers
+	 * @throws IOException
+	 *             if the I/O reactor could not be created
+	 */
+	public NioHttpEngine(HttpContext ctx, int ioThreads, int bufferSize)
+			throws IOException {
+		this.ctx = ctx;
+		this.bufferSize = bufferSize;
+
+		final DefaultHttpClient blocking = ctx.getClient();
+		params = new SyncBasicHttpParams();
+		DefaultHttpAsyncClient.setDefaultHttpParams(params);
+		// redirects are followed by the engine, see RedirectCallback
+		HttpClientParams.setRedirecting(params, false);
+		HttpProtocolParams.setUseExpectContinue(params, false);
+
+		final DefaultConnectingIOReactor reactor = new DefaultConnectingIOReactor(
+				ioThreads, new NamedThreadFactory("httpchannel-nio"), params);
+		connectionManager = new PoolingClientConnectionManager(reactor);
+		connectionManager.setTotalMax(ctx.getMaxConnections());
+		connectionManager.setDefaultMaxPerHost(ctx.getMaxConnectionsPerHost());
+		setConnectionWaitTimeout(ctx.getConnectionWaitTimeout());
+
+		redirectStrategy = blocking.getRedirectStrategy();
+		client = new DefaultHttpAsyncClient(reactor, connectionManager, params);
+		client.setKeepAliveStrategy(blocking.getConnectionKeepAliveStrategy());
+		final CookieInterceptor cookies = new CookieInterceptor(
+				blocking.getCookieStore(), blocking.getCookieSpecs(), params);
+		client.addRequestInterceptor(cookies);
+		client.addResponseInterceptor(cookies);
+		client.start();
+	}
+
+	@Override
+	public HttpResponse execute(HttpUriRequest request) throws IOException {
+		final RequestFuture<HttpResponse> future = executeAsync(request);
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for response", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new ClientProtocolException(e.getCause());
+		}
+	}
+
+	@Override
+	public RequestFuture<HttpResponse> executeAsync(HttpUriRequest request) {
+		final RedirectingFuture future = new RedirectingFuture();
+		exchange(request, future, 0);
+		return future;
+	}
+
+	/**
+	 * Executes a single exchange, without following redirects
+	 * 
+	 * @param request
+	 *            the request
+	 * @param future
+	 *            the future of the original request
+	 * @param redirects
+	 *            the number of redirects already followed
+	 */
+	private void exchange(HttpUriRequest request, RedirectingFuture future,
+			int redirects) {
+		final StreamingResponseConsumer consumer = new StreamingResponseConsumer(
+				ctx.getExecutor(), bufferSize);
+		future.exchange = consumer.getFuture();
+		if (future.isCancelled())
+			consumer.getFuture().cancel(false);
+		consumer.getFuture().addCallback(
+				new RedirectCallback(request, future, redirects));
+
+		final HttpHost target = URIUtils.extractHost(request.getURI());
+		if (target == null) {
+			consumer.failed(new ClientProtocolException(
+					"URI does not specify a valid host name: "
+							+ request.getURI()));
+			return;
+		}
+		client.execute(new StreamingRequestProducer(target, request,
+				ctx.getExecutor(), bufferSize), consumer, null);
+	}
+
+	/**
+	 * @param maxConnections
+	 *            the maximum number of connections open at once
+	 */
+	public void setMaxConnections(int maxConnections) {
+		connectionManager.setTotalMax(maxConnections);
+	}
+
+	/**
+	 * @param maxConnections
+	 *            the maximum number of connections open at once to a single
+	 *            host
+	 */
+	public void setMaxConnectionsPerHost(int maxConnections) {
+		connectionManager.setDefaultMaxPerHost(maxConnections);
+	}
+
+	/**
+	 * Sets the amount of time a request will wait for a pooled connection.
+	 * The non-blocking client takes it from the connection timeout parameter.
+	 * 
+	 * @param timeout
+	 *            the timeout (in milliseconds). <code>0</code> means wait
+	 *            forever.
+	 */
+	public void setConnectionWaitTimeout(long timeout) {
+		HttpConnectionParams.setConnectionTimeout(params,
+				(int) Math.min(timeout, Integer.MAX_VALUE));
+	}
+
+	/**
+	 * Sets the maximum number of connections open at once to the given
+	 * <code>host</code>, for both <tt>http</tt> and <tt>https</tt>
+	 * connections. Routes are keyed by the host as found in the request
+	 * {@link java.net.URI URI}, so the limit is set both with and without the
+	 * default port.
+	 * 
+	 * @param host
+	 *            the host name
+	 * @param maxConnections
+	 *            the maximum number of connections open at once to the
+	 *            <code>host</code>
+	 */
+	public void setMaxConnectionsPerHost(String host, int maxConnections) {
+		connectionManager.setMaxPerHost(new HttpRoute(new HttpHost(host, -1,
+				"http")), maxConnections);
+		connectionManager.setMaxPerHost(new HttpRoute(new HttpHost(host, 80,
+				"http")), maxConnections);
+		connectionManager.setMaxPerHost(new HttpRoute(new HttpHost(host, -1,
+				"https"), null, true), maxConnections);
+		connectionManager.setMaxPerHost(new HttpRoute(new HttpHost(host, 443,
+				"https"), null, true), maxConnections);
+	}
+
+	/**
+	 * Closes all expired connections and those that have been idle longer than
+	 * the given timeout
+	 * 
+	 * @param timeout
+	 *            the idle timeout
+	 * @param unit
+	 *            the timeout unit
+	 */
+	public void closeIdleConnections(long timeout, TimeUnit unit) {
+		connectionManager.closeExpiredConnections();
+		connectionManager.closeIdleConnections(timeout, unit);
+	}
+
+	/**
+	 * @return the number of connections currently open, either leased or idle
+	 *         on the pool
+	 */
+	public int getOpenConnections() {
+		final PoolStats stats = connectionManager.getTotalStats();
+		return stats.getLeased() + stats.getAvailable();
+	}
+
+	@Override
+	public void shutdown() {
+		try {
+			client.shutdown();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * The future of a request, possibly spanning several redirected exchanges
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	private class RedirectingFuture extends DefaultRequestFuture<HttpResponse> {
+		/**
+		 * The future of the exchange currently executing
+		 */
+		private volatile RequestFuture<HttpResponse> exchange;
+
+		public RedirectingFuture() {
+			super(ctx.getExecutor());
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			if (!super.cancel(mayInterruptIfRunning))
+				return false;
+			final RequestFuture<HttpResponse> exchange = this.exchange;
+			if (exchange != null)
+				exchange.cancel(mayInterruptIfRunning);
+			return true;
+		}
+	}
+
+	/**
+	 * Follows redirects the same way the blocking client does: the redirected
+	 * request is issued with the {@link RedirectStrategy} of the blocking
+	 * client and carries all headers of the original request.
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	private class RedirectCallback implements RequestCallback<HttpResponse> {
+		/**
+		 * The request of this exchange
+		 */
+		private final HttpUriRequest request;
+		/**
+		 * The future of the original request
+		 */
+		private final RedirectingFuture future;
+		/**
+		 * The number of redirects already followed
+		 */
+		private final int redirects;
+
+		/**
+		 * @param request
+		 *            the request of this exchange
+		 * @param future
+		 *            the future of the original request
+		 * @param redirects
+		 *            the number of redirects already followed
+		 */
+		public RedirectCallback(HttpUriRequest request,
+				RedirectingFuture future, int redirects) {
+			this.request = request;
+			this.future = future;
+			this.redirects = redirects;
+		}
+
+		@Override
+		public void completed(HttpResponse response) {
+			try {
+				final BasicHttpContext context = new BasicHttpContext();
+				context.setAttribute(ExecutionContext.HTTP_TARGET_HOST,
+						URIUtils.extractHost(request.getURI()));
+				if (!future.isDone()
+						&& redirectStrategy.isRedirected(request, response,
+								context)) {
+					if (redirects >= MAX_REDIRECTS)
+						throw new RedirectException("Maximum redirects ("
+								+ MAX_REDIRECTS + ") exceeded");
+					EntityUtils.consume(response.getEntity());
+					final HttpUriRequest redirect = redirectStrategy
+							.getRedirect(request, response, context);
+					redirect.setHeaders(request.getAllHeaders());
+					exchange(redirect, future, redirects + 1);
+					return;
+				}
+			} catch (Exception e) {
+				future.failed(e);
+				return;
+			}
+			if (!future.completed(response))
+				// cancelled in the meantime: release the connection
+				try {
+					response.getEntity().getContent().close();
+				} catch (Exception e) {
+				}
+		}
+
+		@Override
+		public void failed(Exception e) {
+			future.failed(e);
+		}
+
+		@Override
+		public void cancelled() {
+			future.cancel(false);
+		}
+	}
+}
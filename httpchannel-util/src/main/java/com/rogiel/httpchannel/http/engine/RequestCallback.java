@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.http.engine;
+
+/**
+ * Callback notified once a {@link RequestFuture} completes
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ * @param <T>
+ *            the result type
+ */
+public interface RequestCallback<T> {
+	/**
+	 * Invoked when the request completes successfully
+	 * 
+	 * @param result
+	 *            the request result
+	 */
+	void completed(T result);
+
+	/**
+	 * Invoked when the request fails
+	 * 
+	 * @param e
+	 *            the failure cause
+	 */
+	void failed(Exception e);
+
+	/**
+	 * Invoked when the request is cancelled
+	 */
+	void cancelled();
+}
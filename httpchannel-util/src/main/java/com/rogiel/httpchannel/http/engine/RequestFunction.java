@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.http.engine;
+
+/**
+ * Transforms the result of a {@link RequestFuture} into another value
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ * @param <F>
+ *            the input type
+ * @param <T>
+ *            the output type
+ * @see RequestFuture#then(RequestFunction)
+ */
+public interface RequestFunction<F, T> {
+	/**
+	 * @param input
+	 *            the result of the original future
+	 * @return the transformed value
+	 * @throws Exception
+	 *             if any error occur while transforming the value
+	 */
+	T apply(F input) throws Exception;
+}
@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.http.engine;
+
+import java.util.concurrent.Future;
+
+/**
+ * An {@link Future} for an asynchronous request that, besides blocking, also
+ * notifies callbacks once the request completes. Callbacks never run on the
+ * I/O threads of an {@link HttpEngine}, so they are free to block (e.g.
+ * reading the response body).
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ * @param <T>
+ *            the result type
+ */
+public interface RequestFuture<T> extends Future<T> {
+	/**
+	 * Registers an callback to be notified once this future completes. If the
+	 * future has already completed, the callback is notified immediately.
+	 * 
+	 * @param callback
+	 *            the callback
+	 * @return this future
+	 */
+	RequestFuture<T> addCallback(RequestCallback<? super T> callback);
+
+	/**
+	 * Creates a new future that completes with the result of this future
+	 * transformed by <code>function</code>. Failures and cancellation are
+	 * propagated to the returned future and cancelling the returned future
+	 * also cancels this one.
+	 * 
+	 * @param <V>
+	 *            the transformed value type
+	 * @param function
+	 *            the function
+	 * @return the new future
+	 */
+	<V> RequestFuture<V> then(RequestFunction<? super T, V> function);
+}
@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.http.engine;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.nio.client.BasicHttpAsyncRequestProducer;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.ContentOutputStream;
+import org.apache.http.nio.entity.ProducingNHttpEntity;
+import org.apache.http.nio.util.HeapByteBufferAllocator;
+import org.apache.http.nio.util.SharedOutputBuffer;
+
+import com.rogiel.httpchannel.http.executor.HttpExecutors;
+
+/**
+ * Produces requests whose entities are written with the blocking
+ * {@link HttpEntity#writeTo(java.io.OutputStream)} API (such as multipart
+ * uploads). The entity is written by an executor thread into a bounded
+ * buffer that the I/O thread drains as the socket becomes writable.
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ */
+class StreamingRequestProducer extends BasicHttpAsyncRequestProducer {
+	/**
+	 * The executor in which entities are written
+	 */
+	private final Executor executor;
+	/**
+	 * The size of the content buffer
+	 */
+	private final int bufferSize;
+
+	/**
+	 * @param target
+	 *            the target host
+	 * @param request
+	 *            the request
+	 * @param executor
+	 *            the executor in which entities are written
+	 * @param bufferSize
+	 *            the size of the content buffer
+	 */
+	public StreamingRequestProducer(HttpHost target, HttpRequest request,
+			Executor executor, int bufferSize) {
+		super(target, request);
+		this.executor = executor;
+		this.bufferSize = bufferSize;
+	}
+
+	@Override
+	protected ProducingNHttpEntity createProducingHttpEntity(
+			HttpRequest request) throws IOException {
+		if (request instanceof HttpEntityEnclosingRequest) {
+			final HttpEntity entity = ((HttpEntityEnclosingRequest) request)
+					.getEntity();
+			if (entity != null && !(entity instanceof ProducingNHttpEntity))
+				return new StreamingEntity(entity);
+		}
+		return super.createProducingHttpEntity(request);
+	}
+
+	/**
+	 * Writes the wrapped entity into a {@link SharedOutputBuffer}
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	private class StreamingEntity extends HttpEntityWrapper implements
+			ProducingNHttpEntity {
+		/**
+		 * The connection {@link IOControl}
+		 */
+		private final DeferredIOControl ioctrl = new DeferredIOControl();
+		/**
+		 * The buffer between the writer and the I/O thread
+		 */
+		private final SharedOutputBuffer buffer = new SharedOutputBuffer(
+				bufferSize, ioctrl, new HeapByteBufferAllocator());
+		/**
+		 * Whether the writer has been started
+		 */
+		private final AtomicBoolean started = new AtomicBoolean();
+
+		/**
+		 * @param entity
+		 *            the entity to be written
+		 */
+		public StreamingEntity(HttpEntity entity) {
+			super(entity);
+		}
+
+		@Override
+		public void produceContent(ContentEncoder encoder, IOControl ioctrl)
+				throws IOException {
+			this.ioctrl.bind(ioctrl);
+			if (started.compareAndSet(false, true))
+				startWriter();
+			buffer.produceContent(encoder);
+		}
+
+		/**
+		 * Starts writing the entity on the executor. Called on the I/O
+		 * thread, so the writer is handed off without blocking.
+		 * 
+		 * @throws IOException
+		 *             if the executor does not accept the writer right away
+		 */
+		private void startWriter() throws IOException {
+			try {
+				HttpExecutors.handOff(executor, new Runnable() {
+					@Override
+					public void run() {
+						try {
+							wrappedEntity.writeTo(new ContentOutputStream(
+									buffer));
+							buffer.writeCompleted();
+						} catch (Exception e) {
+							buffer.shutdown();
+							try {
+								ioctrl.shutdown();
+							} catch (IOException e1) {
+							}
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				throw new IOException("Unable to start entity writer", e);
+			}
+		}
+
+		@Override
+		public void finish() {
+			buffer.shutdown();
+		}
+	}
+}
@@ -0,0 +1,238 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.http.engine;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Executor;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.HttpAsyncResponseConsumer;
+import org.apache.http.nio.entity.ContentInputStream;
+import org.apache.http.nio.util.HeapByteBufferAllocator;
+import org.apache.http.nio.util.SharedInputBuffer;
+
+/**
+ * Consumes a response without buffering it entirely in memory. The future is
+ * completed as soon as the response headers arrive and the entity content is
+ * then streamed through a bounded buffer: when the reader falls behind, the
+ * connection stops reading from the socket until there is room again.
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ */
+class StreamingResponseConsumer implements
+		HttpAsyncResponseConsumer<HttpResponse> {
+	/**
+	 * The future to be completed once the headers are received. Cancelling it
+	 * aborts the exchange.
+	 */
+	private final DefaultRequestFuture<HttpResponse> future;
+	/**
+	 * The connection {@link IOControl}
+	 */
+	private final DeferredIOControl ioctrl = new DeferredIOControl();
+	/**
+	 * The buffer between the I/O thread and the reader
+	 */
+	private final SharedInputBuffer buffer;
+
+	/**
+	 * The response
+	 */
+	private volatile HttpResponse response;
+	/**
+	 * Whether the whole response has been received
+	 */
+	private volatile boolean completed;
+	/**
+	 * Whether the exchange has been aborted
+	 */
+	private volatile boolean aborted;
+	/**
+	 * The failure cause, if the exchange failed after the response headers
+	 * were received
+	 */
+	private volatile Exception exception;
+
+	/**
+	 * @param callbackExecutor
+	 *            the executor in which future callbacks are notified
+	 * @param bufferSize
+	 *            the size of the content buffer
+	 */
+	public StreamingResponseConsumer(Executor callbackExecutor, int bufferSize) {
+		this.future = new DefaultRequestFuture<HttpResponse>(callbackExecutor) {
+			@Override
+			public boolean cancel(boolean mayInterruptIfRunning) {
+				if (!super.cancel(mayInterruptIfRunning))
+					return false;
+				abort();
+				return true;
+			}
+		};
+		this.buffer = new SharedInputBuffer(bufferSize, ioctrl,
+				new HeapByteBufferAllocator());
+	}
+
+	/**
+	 * @return the future completed once the response headers are received
+	 */
+	public RequestFuture<HttpResponse> getFuture() {
+		return future;
+	}
+
+	/**
+	 * Aborts the exchange, closing the connection unless the whole response
+	 * has already been received
+	 */
+	private void abort() {
+		aborted = true;
+		buffer.shutdown();
+		if (completed)
+			return;
+		try {
+			ioctrl.shutdown();
+		} catch (IOException e) {
+		}
+	}
+
+	@Override
+	public void responseReceived(HttpResponse response) {
+		final HttpEntity entity = response.getEntity();
+		if (entity != null) {
+			final BasicHttpEntity streaming = new BasicHttpEntity();
+			streaming.setContentType(entity.getContentType());
+			streaming.setContentEncoding(entity.getContentEncoding());
+			streaming.setContentLength(entity.getContentLength());
+			streaming.setChunked(entity.isChunked());
+			streaming.setContent(new StreamingInputStream());
+			response.setEntity(streaming);
+		}
+		this.response = response;
+		if (!future.completed(response))
+			abort();
+	}
+
+	@Override
+	public void consumeContent(ContentDecoder decoder, IOControl ioctrl)
+			throws IOException {
+		this.ioctrl.bind(ioctrl);
+		if (aborted) {
+			ioctrl.shutdown();
+			return;
+		}
+		buffer.consumeContent(decoder);
+		// the buffer might have suspended input right before the end of the
+		// content: resume it, or the connection is pooled suspended
+		if (decoder.isCompleted())
+			ioctrl.requestInput();
+	}
+
+	@Override
+	public void responseCompleted() {
+		completed = true;
+		buffer.close();
+	}
+
+	@Override
+	public void failed(Exception ex) {
+		this.exception = ex;
+		future.failed(ex);
+		buffer.shutdown();
+	}
+
+	@Override
+	public void cancel() {
+		future.cancel(false);
+	}
+
+	@Override
+	public HttpResponse getResult() {
+		return response;
+	}
+
+	/**
+	 * Reads the entity content from the buffer, reporting the actual failure
+	 * cause if the exchange is aborted while reading
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	private class StreamingInputStream extends ContentInputStream {
+		/**
+		 * Whether the end of the stream has been reached
+		 */
+		private volatile boolean eof;
+
+		public StreamingInputStream() {
+			super(buffer);
+		}
+
+		@Override
+		public int read() throws IOException {
+			try {
+				return eof(super.read());
+			} catch (InterruptedIOException e) {
+				throw translate(e);
+			}
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			try {
+				return eof(super.read(b, off, len));
+			} catch (InterruptedIOException e) {
+				throw translate(e);
+			}
+		}
+
+		@Override
+		public void close() {
+			if (eof)
+				return;
+			// do not drain the remaining content: abort the exchange instead
+			abort();
+		}
+
+		/**
+		 * @param read
+		 *            the value returned by the buffer
+		 * @return <code>read</code>
+		 */
+		private int eof(int read) {
+			if (read < 0)
+				eof = true;
+			return read;
+		}
+
+		/**
+		 * @param e
+		 *            the exception thrown by the buffer
+		 * @return the exception to be thrown to the reader
+		 */
+		private IOException translate(InterruptedIOException e) {
+			if (exception == null)
+				return e;
+			return new IOException(exception);
+		}
+	}
+}
@@ -0,0 +1,219 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.http.executor;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.rogiel.httpchannel.util.NamedThreadFactory;
+
+/**
+ * An {@link ThreadPoolExecutor} with a fixed upper bound on both threads and
+ * queued tasks. Once the executor is saturated, submitters are blocked for up
+ * to the <tt>submit timeout</tt> waiting for room on the queue (backpressure)
+ * and, if none is made, the task is rejected with an
+ * {@link RejectedExecutionException}.
+ * <p>
+ * Idle threads are terminated after the keep alive time, so an unused
+ * executor holds no threads at all.
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ */
+public class BoundedExecutorService extends ThreadPoolExecutor implements
+		MonitoredExecutorService {
+	/**
+	 * Set while the current thread is submitting through
+	 * {@link #tryExecute(Runnable)}
+	 */
+	private static final ThreadLocal<Boolean> nonBlocking = new ThreadLocal<>();
+
+	/**
+	 * The executor name
+	 */
+	private final String name;
+
+	/**
+	 * The number of accepted tasks
+	 */
+	private final AtomicLong submitted = new AtomicLong();
+	/**
+	 * The number of finished tasks
+	 */
+	private final AtomicLong finished = new AtomicLong();
+	/**
+	 * The number of rejected tasks
+	 */
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * Creates a new instance
+	 * 
+	 * @param name
+	 *            the executor name
+	 * @param maxThreads
+	 *            the maximum number of threads
+	 * @param queueCapacity
+	 *            the maximum number of queued tasks. If <code>0</code>, tasks
+	 *            are never queued and are handed directly to a thread.
+	 * @param keepAlive
+	 *            the amount of time an idle thread is kept alive
+	 * @param submitTimeout
+	 *            the amount of time a submitter is blocked waiting for room
+	 *            on a saturated executor. If <code>0</code>, tasks are
+	 *            rejected immediately.
+	 * @param unit
+	 *            the unit of <code>keepAlive</code> and
+	 *            <code>submitTimeout</code>
+	 */
+	public BoundedExecutorService(String name, int maxThreads,
+			int queueCapacity, long keepAlive, long submitTimeout,
+			TimeUnit unit) {
+		super(maxThreads, maxThreads, keepAlive, unit, createQueue(queueCapacity),
+				new NamedThreadFactory(name), new BackpressurePolicy(
+						unit.toMillis(submitTimeout)));
+		this.name = name;
+		allowCoreThreadTimeOut(true);
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		super.execute(command);
+		submitted.incrementAndGet();
+	}
+
+	@Override
+	public boolean tryExecute(Runnable command) {
+		nonBlocking.set(Boolean.TRUE);
+		try {
+			execute(command);
+			return true;
+		} catch (RejectedExecutionException e) {
+			return false;
+		} finally {
+			nonBlocking.remove();
+		}
+	}
+
+	@Override
+	protected void afterExecute(Runnable r, Throwable t) {
+		super.afterExecute(r, t);
+		finished.incrementAndGet();
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public int getActiveTaskCount() {
+		return getActiveCount();
+	}
+
+	@Override
+	public int getQueuedTaskCount() {
+		return getQueue().size();
+	}
+
+	@Override
+	public long getSubmittedTaskCount() {
+		return submitted.get();
+	}
+
+	@Override
+	public long getFinishedTaskCount() {
+		return finished.get();
+	}
+
+	@Override
+	public long getRejectedTaskCount() {
+		return rejected.get();
+	}
+
+	@Override
+	public String toString() {
+		return "BoundedExecutorService [name=" + name + ", active="
+				+ getActiveTaskCount() + ", queued=" + getQueuedTaskCount()
+				+ ", submitted=" + getSubmittedTaskCount() + ", finished="
+				+ getFinishedTaskCount() + ", rejected="
+				+ getRejectedTaskCount() + "]";
+	}
+
+	/**
+	 * @param capacity
+	 *            the queue capacity
+	 * @return a new queue for the executor
+	 */
+	private static BlockingQueue<Runnable> createQueue(int capacity) {
+		if (capacity <= 0)
+			return new SynchronousQueue<Runnable>();
+		return new LinkedBlockingQueue<Runnable>(capacity);
+	}
+
+	/**
+	 * Blocks the submitter until there is room on the queue or the timeout
+	 * expires. Tasks submitted through {@link #tryExecute(Runnable)} are only
+	 * queued if there is room right away.
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	private static class BackpressurePolicy implements
+			RejectedExecutionHandler {
+		/**
+		 * The amount of time (in milliseconds) to wait for room on the queue
+		 */
+		private final long timeout;
+
+		/**
+		 * @param timeout
+		 *            the amount of time (in milliseconds) to wait for room on
+		 *            the queue
+		 */
+		public BackpressurePolicy(long timeout) {
+			this.timeout = timeout;
+		}
+
+		@Override
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+			final BoundedExecutorService bounded = (BoundedExecutorService) executor;
+			if (!executor.isShutdown()) {
+				try {
+					if (nonBlocking.get() != null) {
+						if (executor.getQueue().offer(r))
+							return;
+					} else if (timeout > 0
+							&& executor.getQueue().offer(r, timeout,
+									TimeUnit.MILLISECONDS))
+						return;
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			bounded.rejected.incrementAndGet();
+			throw new RejectedExecutionException("Executor " + bounded.name
+					+ " is saturated or shut down");
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.http.executor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The default {@link HttpExecutorProvider}. Creates
+ * {@link BoundedExecutorService} instances backed by platform threads.
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ */
+public class BoundedHttpExecutorProvider implements HttpExecutorProvider {
+	/**
+	 * The default maximum number of threads per executor
+	 */
+	public static final int DEFAULT_MAX_THREADS = 64;
+	/**
+	 * The default maximum number of queued tasks per executor
+	 */
+	public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+	/**
+	 * The default amount of time (in milliseconds) idle threads are kept alive
+	 */
+	public static final long DEFAULT_KEEP_ALIVE = 60 * 1000;
+	/**
+	 * The default amount of time (in milliseconds) submitters are blocked on a
+	 * saturated executor
+	 */
+	public static final long DEFAULT_SUBMIT_TIMEOUT = 30 * 1000;
+
+	/**
+	 * The maximum number of threads
+	 */
+	private final int maxThreads;
+	/**
+	 * The maximum number of queued tasks
+	 */
+	private final int queueCapacity;
+	/**
+	 * The amount of time (in milliseconds) submitters are blocked on a
+	 * saturated executor
+	 */
+	private final long submitTimeout;
+
+	/**
+	 * Creates a new provider with the default limits
+	 */
+	public BoundedHttpExecutorProvider() {
+		this(DEFAULT_MAX_THREADS, DEFAULT_QUEUE_CAPACITY,
+				DEFAULT_SUBMIT_TIMEOUT, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Creates a new provider
+	 * 
+	 * @param maxThreads
+	 *            the maximum number of threads per executor
+	 * @param queueCapacity
+	 *            the maximum number of queued tasks per executor
+	 * @param submitTimeout
+	 *            the amount of time submitters are blocked on a saturated
+	 *            executor
+	 * @param unit
+	 *            the <code>submitTimeout</code> unit
+	 */
+	public BoundedHttpExecutorProvider(int maxThreads, int queueCapacity,
+			long submitTimeout, TimeUnit unit) {
+		this.maxThreads = maxThreads;
+		this.queueCapacity = queueCapacity;
+		this.submitTimeout = unit.toMillis(submitTimeout);
+	}
+
+	@Override
+	public boolean isAvailable() {
+		return true;
+	}
+
+	@Override
+	public MonitoredExecutorService newExecutor(String name) {
+		return new BoundedExecutorService(name, maxThreads, queueCapacity,
+				DEFAULT_KEEP_ALIVE, submitTimeout, TimeUnit.MILLISECONDS);
+	}
+}
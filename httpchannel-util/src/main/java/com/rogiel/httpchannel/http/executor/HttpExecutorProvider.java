@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.http.executor;
+
+import java.util.ServiceLoader;
+
+import com.rogiel.httpchannel.http.HttpContext;
+import com.rogiel.httpchannel.http.Request;
+
+/**
+ * Provides the executors used to run asynchronous {@link Request requests}
+ * (such as {@link Request#asStringAsync()}) of an {@link HttpContext}.
+ * <p>
+ * Implementations are discovered with {@link ServiceLoader}: to plug a new
+ * provider, add its class name to
+ * <code>META-INF/services/com.rogiel.httpchannel.http.executor.HttpExecutorProvider</code>
+ * . If no provider is available, {@link BoundedHttpExecutorProvider} is used.
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ * @see HttpExecutors
+ */
+public interface HttpExecutorProvider {
+	/**
+	 * Checks whether this provider can be used on the running JVM
+	 * 
+	 * @return <code>true</code> if the provider is available
+	 */
+	boolean isAvailable();
+
+	/**
+	 * Creates a new executor
+	 * 
+	 * @param name
+	 *            the executor name, used to name its threads
+	 * @return the newly created executor
+	 */
+	MonitoredExecutorService newExecutor(String name);
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.http.executor;
+
+import java.util.ServiceLoader;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Locates the {@link HttpExecutorProvider} available on the classpath
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ */
+public class HttpExecutors {
+	/**
+	 * The provider in use
+	 */
+	private static volatile HttpExecutorProvider provider = findProvider();
+
+	/**
+	 * @return the {@link HttpExecutorProvider} in use
+	 */
+	public static HttpExecutorProvider getProvider() {
+		return provider;
+	}
+
+	/**
+	 * Overrides the {@link HttpExecutorProvider} discovered on the classpath.
+	 * Only executors created afterwards are affected.
+	 * 
+	 * @param provider
+	 *            the provider
+	 */
+	public static void setProvider(HttpExecutorProvider provider) {
+		HttpExecutors.provider = provider;
+	}
+
+	/**
+	 * Creates a new executor with the provider in use
+	 * 
+	 * @param name
+	 *            the executor name
+	 * @return the newly created executor
+	 */
+	public static MonitoredExecutorService newExecutor(String name) {
+		return provider.newExecutor(name);
+	}
+
+	/**
+	 * Hands a task off to an executor without blocking the caller, as
+	 * required on the NIO I/O threads. Tasks are submitted to
+	 * {@link MonitoredExecutorService}s with <code>tryExecute</code>; other
+	 * executors must not block on {@link Executor#execute(Runnable)}.
+	 * 
+	 * @param executor
+	 *            the executor
+	 * @param task
+	 *            the task
+	 * @throws RejectedExecutionException
+	 *             if the executor cannot accept the task right away
+	 */
+	public static void handOff(Executor executor, Runnable task) {
+		if (!(executor instanceof MonitoredExecutorService)) {
+			executor.execute(task);
+			return;
+		}
+		if (!((MonitoredExecutorService) executor).tryExecute(task))
+			throw new RejectedExecutionException("Executor saturated: "
+					+ ((MonitoredExecutorService) executor).getName());
+	}
+
+	/**
+	 * @return the first available provider registered on the classpath or an
+	 *         {@link BoundedHttpExecutorProvider} if none is available
+	 */
+	private static HttpExecutorProvider findProvider() {
+		for (final HttpExecutorProvider provider : ServiceLoader
+				.load(HttpExecutorProvider.class)) {
+			if (provider.isAvailable())
+				return provider;
+		}
+		return new BoundedHttpExecutorProvider();
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.http.executor;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * An {@link ExecutorService} that keeps track of the tasks it runs
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ */
+public interface MonitoredExecutorService extends ExecutorService {
+	/**
+	 * Executes the task only if it can be accepted without blocking the
+	 * caller, even if the executor would otherwise block submitters while
+	 * saturated
+	 * 
+	 * @param command
+	 *            the task
+	 * @return <code>false</code> if the task was rejected because the
+	 *         executor is saturated or shut down
+	 */
+	boolean tryExecute(Runnable command);
+
+	/**
+	 * @return the executor name
+	 */
+	String getName();
+
+	/**
+	 * @return the number of tasks currently running
+	 */
+	int getActiveTaskCount();
+
+	/**
+	 * @return the number of tasks waiting to be run
+	 */
+	int getQueuedTaskCount();
+
+	/**
+	 * @return the number of tasks accepted by this executor
+	 */
+	long getSubmittedTaskCount();
+
+	/**
+	 * @return the number of tasks that have finished running
+	 */
+	long getFinishedTaskCount();
+
+	/**
+	 * @return the number of tasks rejected because the executor was saturated
+	 *         or shut down
+	 */
+	long getRejectedTaskCount();
+}
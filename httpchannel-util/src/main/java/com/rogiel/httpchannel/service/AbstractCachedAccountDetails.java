@@ -0,0 +1,239 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.service;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rogiel.httpchannel.util.NamedThreadFactory;
+
+/**
+ * An {@link AccountDetails} whose information is fetched from the service in
+ * a single round trip and kept in an immutable snapshot. Getters read the
+ * snapshot instead of querying the service every time.
+ * <p>
+ * The first access fetches the snapshot synchronously. Once the snapshot is
+ * older than the time-to-live, the stale snapshot keeps being served while a
+ * single refresh runs in the background. Implementations can also adjust the
+ * snapshot locally (e.g. subtract the size of a completed upload from the
+ * free disk space) with {@link #update(Object, Object)}.
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ * @param <S>
+ *            the snapshot type
+ */
+public abstract class AbstractCachedAccountDetails<S> extends
+		AbstractAccountDetails {
+	/**
+	 * The default time-to-live (in milliseconds): 1 minute
+	 */
+	public static final long DEFAULT_TTL = 60 * 1000;
+
+	/**
+	 * The executor that refreshes snapshots in the background
+	 */
+	private static final ExecutorService REFRESH_EXECUTOR = Executors
+			.newCachedThreadPool(new NamedThreadFactory("account-refresh"));
+
+	/**
+	 * The logger instance
+	 */
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	/**
+	 * The current snapshot or <code>null</code> if none was fetched yet
+	 */
+	private final AtomicReference<Entry<S>> entry = new AtomicReference<>();
+	/**
+	 * Whether a background refresh is running
+	 */
+	private final AtomicBoolean refreshing = new AtomicBoolean();
+	/**
+	 * The time-to-live (in milliseconds)
+	 */
+	private volatile long ttl = DEFAULT_TTL;
+
+	/**
+	 * @param service
+	 *            the service providing this account
+	 * @param username
+	 *            the account username
+	 */
+	protected AbstractCachedAccountDetails(AuthenticationService<?> service,
+			String username) {
+		super(service, username);
+	}
+
+	/**
+	 * Fetches all the account information from the service
+	 * 
+	 * @return the new snapshot
+	 * @throws IOException
+	 *             if any error occur while fetching the information
+	 */
+	protected abstract S fetch() throws IOException;
+
+	/**
+	 * Sets the time after which the snapshot is refreshed
+	 * 
+	 * @param ttl
+	 *            the time-to-live. Zero refreshes on every access.
+	 * @param unit
+	 *            the <code>ttl</code> unit
+	 */
+	public void setTTL(long ttl, TimeUnit unit) {
+		this.ttl = unit.toMillis(ttl);
+	}
+
+	/**
+	 * @param unit
+	 *            the desired unit
+	 * @return the time-to-live
+	 */
+	public long getTTL(TimeUnit unit) {
+		return unit.convert(ttl, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Fetches a new snapshot, blocking until it is available
+	 * 
+	 * @throws IOException
+	 *             if any error occur while fetching the information
+	 */
+	public void refresh() throws IOException {
+		entry.set(new Entry<>(fetch(), System.currentTimeMillis()));
+	}
+
+	/**
+	 * Discards the current snapshot. The next access fetches a new one.
+	 */
+	public void invalidate() {
+		entry.set(null);
+	}
+
+	/**
+	 * Returns the current snapshot. If there is none, it is fetched
+	 * synchronously; if it is expired, a background refresh is scheduled and
+	 * the stale snapshot is returned.
+	 * 
+	 * @return the snapshot or <code>null</code> if none could be fetched
+	 */
+	protected S snapshot() {
+		final Entry<S> entry = this.entry.get();
+		if (entry == null) {
+			synchronized (this) {
+				if (this.entry.get() == null) {
+					try {
+						refresh();
+					} catch (IOException e) {
+						logger.warn("Unable to fetch account details", e);
+						return null;
+					}
+				}
+			}
+			return peek();
+		}
+		if (System.currentTimeMillis() - entry.timestamp >= ttl)
+			scheduleRefresh();
+		return entry.snapshot;
+	}
+
+	/**
+	 * @return the current snapshot, without fetching or refreshing it, or
+	 *         <code>null</code> if none was fetched yet
+	 */
+	protected S peek() {
+		final Entry<S> entry = this.entry.get();
+		return entry == null ? null : entry.snapshot;
+	}
+
+	/**
+	 * Atomically replaces the snapshot with a locally updated copy, keeping
+	 * its age. Fails if the snapshot was replaced in the meantime.
+	 * 
+	 * @param expected
+	 *            the snapshot the update was computed from
+	 * @param updated
+	 *            the updated snapshot
+	 * @return <code>true</code> if the snapshot was replaced
+	 */
+	protected boolean update(S expected, S updated) {
+		final Entry<S> entry = this.entry.get();
+		if (entry == null || entry.snapshot != expected)
+			return false;
+		return this.entry.compareAndSet(entry, new Entry<>(updated,
+				entry.timestamp));
+	}
+
+	/**
+	 * Schedules a background refresh unless one is already running
+	 */
+	private void scheduleRefresh() {
+		if (!refreshing.compareAndSet(false, true))
+			return;
+		REFRESH_EXECUTOR.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					refresh();
+				} catch (IOException | RuntimeException e) {
+					logger.warn("Unable to refresh account details", e);
+				} finally {
+					refreshing.set(false);
+				}
+			}
+		});
+	}
+
+	/**
+	 * A snapshot and the time it was fetched
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 * @param <S>
+	 *            the snapshot type
+	 */
+	private static class Entry<S> {
+		/**
+		 * The snapshot
+		 */
+		private final S snapshot;
+		/**
+		 * The time the snapshot was fetched
+		 */
+		private final long timestamp;
+
+		/**
+		 * @param snapshot
+		 *            the snapshot
+		 * @param timestamp
+		 *            the time the snapshot was fetched
+		 */
+		private Entry(S snapshot, long timestamp) {
+			this.snapshot = snapshot;
+			this.timestamp = timestamp;
+		}
+	}
+}
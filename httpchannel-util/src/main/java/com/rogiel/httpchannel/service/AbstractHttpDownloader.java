@@ -19,22 +19,47 @@
 package com.rogiel.httpchannel.service;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.http.Header;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
+import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.rogiel.httpchannel.http.HttpContext;
 import com.rogiel.httpchannel.http.Request;
+import com.rogiel.httpchannel.http.executor.HttpExecutors;
+import com.rogiel.httpchannel.http.executor.MonitoredExecutorService;
 import com.rogiel.httpchannel.service.DownloadListener;
 import com.rogiel.httpchannel.service.DownloadService;
 import com.rogiel.httpchannel.service.Downloader;
+import com.rogiel.httpchannel.service.DirectLinkCache.DirectLink;
+import com.rogiel.httpchannel.service.DownloadStage.Continuation;
 import com.rogiel.httpchannel.service.Downloader.DownloaderConfiguration;
 import com.rogiel.httpchannel.service.channel.InputStreamDownloadChannel;
 import com.rogiel.httpchannel.service.exception.DownloadLinkNotFoundException;
+import com.rogiel.httpchannel.util.ExceptionUtils;
+import com.rogiel.httpchannel.util.HttpClientUtils;
+import com.rogiel.httpchannel.util.NamedThreadFactory;
 import com.rogiel.httpchannel.util.ThreadUtils;
 
 /**
@@ -42,8 +67,51 @@ import com.rogiel.httpchannel.util.ThreadUtils;
  */
 public abstract class AbstractHttpDownloader<C extends DownloaderConfiguration>
 		extends AbstractDownloader<C> implements Downloader<C> {
+	/**
+	 * The scheduler shared by all downloaders to wait for host timers. Timers
+	 * only hand the download flow over to another executor, without blocking,
+	 * so a single thread can handle any number of waiting downloads.
+	 */
+	private static final ScheduledThreadPoolExecutor timerScheduler = new ScheduledThreadPoolExecutor(
+			1, new NamedThreadFactory("httpchannel-download-timer"));
+
+	static {
+		timerScheduler.setRemoveOnCancelPolicy(true);
+	}
+
+	/**
+	 * The executor for asynchronous work of services that have no HTTP
+	 * executor of their own
+	 */
+	private static final MonitoredExecutorService defaultExecutor = HttpExecutors
+			.newExecutor("httpchannel-download");
+
+	/**
+	 * The pattern of the filename in a <code>Content-Disposition</code>
+	 * header
+	 */
+	private static final Pattern DISPOSITION_FILENAME_PATTERN = Pattern
+			.compile("filename\\s*=\\s*\"?([^\";]+)\"?",
+					Pattern.CASE_INSENSITIVE);
+	/**
+	 * The pattern of the total size in a <code>Content-Range</code> header
+	 */
+	private static final Pattern CONTENT_RANGE_SIZE_PATTERN = Pattern
+			.compile("/\\s*([0-9]+)\\s*$");
+
 	private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
+	/**
+	 * The asynchronous download whose stage is running in the current thread
+	 */
+	private final ThreadLocal<StagedDownload> currentDownload = new ThreadLocal<>();
+	/**
+	 * Whether the direct links resolved by this downloader are cached. Only
+	 * downloaders that reuse them, through {@link #downloadCached(long)},
+	 * cache them.
+	 */
+	private volatile boolean cachingDirectLinks;
+
 	protected AbstractHttpDownloader(DownloadService<?> service, URI uri,
 			C configuration) {
 		super(service, uri, configuration);
@@ -68,17 +136,605 @@ public abstract class AbstractHttpDownloader<C extends DownloaderConfiguration>
 		ThreadUtils.sleep(timer);
 	}
 
+	/**
+	 * Starts the download flow. Services whose hosts impose a wait timer
+	 * should override this method and return a
+	 * {@link DownloadStage#timer(long, Continuation) timer stage} instead of
+	 * waiting, then implement {@link #openChannel(DownloadListener, long)} as
+	 * <code>await(listener, start(listener, position))</code>. The default
+	 * implementation simply opens the channel.
+	 * 
+	 * @param listener
+	 *            the download listener
+	 * @param position
+	 *            the download position
+	 * @return the first stage of the download flow
+	 * @throws IOException
+	 *             if any error occur while starting the download
+	 */
+	protected DownloadStage start(DownloadListener listener, long position)
+			throws IOException {
+		return DownloadStage.complete(openChannel(listener, position));
+	}
+
+	/**
+	 * Runs a download flow to completion in the current thread, sleeping
+	 * through its timers
+	 * 
+	 * @param listener
+	 *            the download listener
+	 * @param stage
+	 *            the current stage
+	 * @return the opened channel
+	 * @throws IOException
+	 *             if any error occur while resuming the download
+	 */
+	protected DownloadChannel await(DownloadListener listener,
+			DownloadStage stage) throws IOException {
+		while (!stage.isComplete()) {
+			timer(listener, stage.getTimer());
+			stage = stage.getContinuation().resume();
+		}
+		return stage.getChannel();
+	}
+
+	/**
+	 * Opens the download channel asynchronously, in the service
+	 * {@link HttpContext#getExecutor() HTTP executor}. See
+	 * {@link #openChannelAsync(DownloadListener, long, Executor)}.
+	 * 
+	 * @param listener
+	 *            the download listener
+	 * @param position
+	 *            the download position
+	 * @return the future opened channel
+	 */
+	public Future<DownloadChannel> openChannelAsync(DownloadListener listener,
+			long position) {
+		return openChannelAsync(listener, position, getExecutor());
+	}
+
+	/**
+	 * Opens the download channel asynchronously. The download flow runs in
+	 * <code>executor</code>, but host timers are waited on a shared scheduler
+	 * without holding any thread. As with the synchronous methods, a timer is
+	 * skipped if the <code>listener</code> vetoes it.
+	 * <p>
+	 * Cancelling the returned {@link Future} cancels a pending timer; a stage
+	 * already running is left to finish and its channel, if any, is closed.
+	 * 
+	 * @param listener
+	 *            the download listener
+	 * @param position
+	 *            the download position
+	 * @param executor
+	 *            the executor in which the download flow is run
+	 * @return the future opened channel
+	 */
+	public Future<DownloadChannel> openChannelAsync(
+			final DownloadListener listener, final long position,
+			Executor executor) {
+		final StagedDownload download = new StagedDownload(listener, executor);
+		download.resume(new Continuation() {
+			@Override
+			public DownloadStage resume() throws IOException {
+				return start(listener, position);
+			}
+		});
+		return download;
+	}
+
+	/**
+	 * Starts a task concurrently with the download flow, usually to prepare
+	 * something needed once a wait timer has elapsed (e.g. solving a CAPTCHA).
+	 * The result is collected with {@link #join(Future)}.
+	 * <p>
+	 * If started from an {@link #openChannelAsync(DownloadListener, long)
+	 * asynchronous download}, the task is cancelled along with it, or if the
+	 * download fails before collecting the result.
+	 * 
+	 * @param task
+	 *            the task
+	 * @return the future task result
+	 */
+	protected <T> Future<T> submit(Callable<T> task) {
+		final FutureTask<T> future = new FutureTask<>(task);
+		final StagedDownload download = currentDownload.get();
+		if (download != null)
+			download.attach(future);
+		try {
+			getExecutor().execute(future);
+		} catch (RejectedExecutionException e) {
+			// the task is run by join()
+		}
+		return future;
+	}
+
+	/**
+	 * Waits for a task started with {@link #submit(Callable)}. If no thread
+	 * has picked the task up yet, it is run in the current thread.
+	 * 
+	 * @param future
+	 *            the future task result
+	 * @return the task result
+	 * @throws IOException
+	 *             if the task failed
+	 */
+	protected <T> T join(Future<T> future) throws IOException {
+		if (future instanceof FutureTask)
+			((FutureTask<T>) future).run();
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			ExceptionUtils.asIOException(e);
+			return null;
+		}
+	}
+
+	/**
+	 * @return the executor in which asynchronous work is run: the service
+	 *         {@link HttpContext#getExecutor() HTTP executor} or, if the
+	 *         service has none, a shared default executor
+	 */
+	private Executor getExecutor() {
+		if (service instanceof AbstractHttpService)
+			return ((AbstractHttpService) service).getHttpContext()
+					.getExecutor();
+		return defaultExecutor;
+	}
+
 	protected InputStreamDownloadChannel download(Request request)
 			throws IOException {
 		final HttpResponse response = request.request();
-		if (!(response.getStatusLine().getStatusCode() == HttpStatus.SC_OK
-				|| response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED || response
-				.getStatusLine().getStatusCode() == HttpStatus.SC_PARTIAL_CONTENT))
+		if (!isDownload(response)) {
+			// release the connection back to the pool
+			EntityUtils.consume(response.getEntity());
 			throw new DownloadLinkNotFoundException();
+		}
+		if (cachingDirectLinks)
+			cacheDirectLink(request.getURI(), response);
+		return createInputStreamChannel(request, response);
+	}
+
+	/**
+	 * Reopens the download through the direct link cached by a previous call
+	 * to {@link #download(Request)}, skipping the download page, timers and
+	 * captchas. Calling this method also enables caching of the links this
+	 * downloader resolves.
+	 * <p>
+	 * The replayed response must look like the one first served through the
+	 * link: same media type, filename and size. Expired links are often
+	 * redirected to an error page, so if the host rejects the link or serves
+	 * something else, the link is removed from the cache and
+	 * <code>null</code> is returned, so the caller can resolve the direct link
+	 * again.
+	 * 
+	 * @param position
+	 *            the download position
+	 * @return the download channel or <code>null</code> if there is no usable
+	 *         cached link
+	 * @throws IOException
+	 *             if any error occur while opening the cached link
+	 */
+	protected InputStreamDownloadChannel downloadCached(long position)
+			throws IOException {
+		if (!(service instanceof AbstractHttpService))
+			return null;
+		final AbstractHttpService service = (AbstractHttpService) this.service;
+		cachingDirectLinks = true;
+		final DirectLink link = service.directLinks.get(uri);
+		if (link == null)
+			return null;
+		logger.debug("Reusing direct link {} at position {}", link, position);
+		final Request request = service.get(link.getLink()).position(position);
+		final HttpResponse response = request.request();
+		if (!isDownload(response) || !matches(link, response)) {
+			logger.debug("Cached direct link {} was rejected", link);
+			// do not transfer whatever the host served instead of the file
+			if (response.getEntity() != null)
+				HttpClientUtils.abort(response.getEntity().getContent());
+			service.directLinks.invalidate(uri, link);
+			return null;
+		}
+		return createInputStreamChannel(request, response);
+	}
+
+	/**
+	 * Caches the direct link resolved for this download, along with what the
+	 * host served through it. Links are cached automatically by
+	 * {@link #download(Request)} once {@link #downloadCached(long)} has been
+	 * called.
+	 * 
+	 * @param link
+	 *            the direct link
+	 * @param response
+	 *            the response served through the link
+	 */
+	protected void cacheDirectLink(String link, HttpResponse response) {
+		if (service instanceof AbstractHttpService)
+			((AbstractHttpService) service).directLinks.put(uri,
+					new DirectLink(link, getMediaType(response),
+							getDispositionFilename(response),
+							getTotalLength(response)));
+	}
 
+	/**
+	 * @param request
+	 *            the download request
+	 * @param response
+	 *            the download response
+	 * @return the download channel reading the response
+	 * @throws IOException
+	 *             if any error occur while opening the response
+	 */
+	private InputStreamDownloadChannel createInputStreamChannel(
+			Request request, HttpResponse response) throws IOException {
 		final String filename = FilenameUtils.getName(request.getURI());
 		final long contentLength = getContentLength(response);
 		return createInputStreamChannel(response.getEntity().getContent(),
 				contentLength, filename);
 	}
+
+	/**
+	 * @param response
+	 *            the response
+	 * @return <code>true</code> if the response status is that of a download
+	 */
+	private static boolean isDownload(HttpResponse response) {
+		final int status = response.getStatusLine().getStatusCode();
+		return status == HttpStatus.SC_OK
+				|| status == HttpStatus.SC_NOT_MODIFIED
+				|| status == HttpStatus.SC_PARTIAL_CONTENT;
+	}
+
+	/**
+	 * Checks a response replayed through a cached link against what was
+	 * first served through it. An HTML page is never accepted in place of a
+	 * file.
+	 * 
+	 * @param link
+	 *            the cached link
+	 * @param response
+	 *            the replayed response
+	 * @return <code>true</code> if the response serves the same file
+	 */
+	private boolean matches(DirectLink link, HttpResponse response) {
+		final String contentType = getMediaType(response);
+		if ("text/html".equals(contentType)
+				&& !"text/html".equals(link.getContentType()))
+			return false;
+		if (link.getContentType() != null && contentType != null
+				&& !link.getContentType().equals(contentType))
+			return false;
+		if (link.getFilename() != null
+				&& !link.getFilename().equals(getDispositionFilename(response)))
+			return false;
+		final long size = getTotalLength(response);
+		if (link.getSize() >= 0 && size >= 0 && link.getSize() != size)
+			return false;
+		return true;
+	}
+
+	/**
+	 * @param response
+	 *            the response
+	 * @return the media type, without parameters, or <code>null</code> if
+	 *         not sent
+	 */
+	private static String getMediaType(HttpResponse response) {
+		if (response.getEntity() == null)
+			return null;
+		final Header header = response.getEntity().getContentType();
+		if (header == null)
+			return null;
+		String type = header.getValue();
+		final int parameters = type.indexOf(';');
+		if (parameters >= 0)
+			type = type.substring(0, parameters);
+		return type.trim().toLowerCase();
+	}
+
+	/**
+	 * @param response
+	 *            the response
+	 * @return the filename in the <code>Content-Disposition</code> header or
+	 *         <code>null</code> if not sent
+	 */
+	private static String getDispositionFilename(HttpResponse response) {
+		final Header header = response.getFirstHeader("Content-Disposition");
+		if (header == null)
+			return null;
+		final Matcher matcher = DISPOSITION_FILENAME_PATTERN.matcher(header
+				.getValue());
+		if (!matcher.find())
+			return null;
+		return matcher.group(1).trim();
+	}
+
+	/**
+	 * @param response
+	 *            the response
+	 * @return the total file size, taken from the <code>Content-Range</code>
+	 *         of a partial response or from the length of a full response, or
+	 *         <code>-1</code> if unknown
+	 */
+	private long getTotalLength(HttpResponse response) {
+		final int status = response.getStatusLine().getStatusCode();
+		if (status == HttpStatus.SC_OK)
+			return getContentLength(response);
+		if (status != HttpStatus.SC_PARTIAL_CONTENT)
+			return -1;
+		final Header header = response.getFirstHeader("Content-Range");
+		if (header == null)
+			return -1;
+		final Matcher matcher = CONTENT_RANGE_SIZE_PATTERN.matcher(header
+				.getValue());
+		if (!matcher.find())
+			return -1;
+		return Long.parseLong(matcher.group(1));
+	}
+
+	/**
+	 * A download flow run asynchronously, one stage at a time
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	private class StagedDownload implements Future<DownloadChannel> {
+		/**
+		 * The download listener
+		 */
+		private final DownloadListener listener;
+		/**
+		 * The executor in which stages are run
+		 */
+		private final Executor executor;
+		/**
+		 * Released once the download is complete, failed or cancelled
+		 */
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		/**
+		 * The timer currently pending
+		 */
+		private volatile Future<?> timer;
+		/**
+		 * Whether the download was cancelled
+		 */
+		private volatile boolean cancelled;
+		/**
+		 * The tasks started by the download stages with
+		 * {@link AbstractHttpDownloader#submit(Callable)}
+		 */
+		private final List<Future<?>> tasks = new ArrayList<>();
+		/**
+		 * The opened channel
+		 */
+		private DownloadChannel channel;
+		/**
+		 * The error that failed the download
+		 */
+		private Throwable error;
+
+		/**
+		 * @param listener
+		 *            the download listener
+		 * @param executor
+		 *            the executor in which stages are run
+		 */
+		public StagedDownload(DownloadListener listener, Executor executor) {
+			this.listener = listener;
+			this.executor = executor;
+		}
+
+		/**
+		 * Runs the given continuation in the executor. The caller is blocked
+		 * if the executor applies backpressure.
+		 * 
+		 * @param continuation
+		 *            the continuation
+		 */
+		private void resume(Continuation continuation) {
+			try {
+				executor.execute(task(continuation));
+			} catch (RejectedExecutionException e) {
+				fail(e);
+			}
+		}
+
+		/**
+		 * Runs the given continuation in the executor once a timer has
+		 * elapsed. The timer thread is shared by all downloads and must never
+		 * block, so the download fails if the executor cannot take it right
+		 * away.
+		 * 
+		 * @param continuation
+		 *            the continuation
+		 */
+		private void resumeFromTimer(Continuation continuation) {
+			final Runnable task = task(continuation);
+			boolean accepted;
+			if (executor instanceof MonitoredExecutorService) {
+				accepted = ((MonitoredExecutorService) executor)
+						.tryExecute(task);
+			} else {
+				try {
+					executor.execute(task);
+					accepted = true;
+				} catch (RejectedExecutionException e) {
+					accepted = false;
+				}
+			}
+			if (!accepted)
+				fail(new RejectedExecutionException(
+						"Executor is saturated, unable to resume download"));
+		}
+
+		/**
+		 * @param continuation
+		 *            the continuation
+		 * @return a task that runs the continuation
+		 */
+		private Runnable task(final Continuation continuation) {
+			return new Runnable() {
+				@Override
+				public void run() {
+					step(continuation);
+				}
+			};
+		}
+
+		/**
+		 * Runs stages until the download completes or a timer has to be
+		 * waited
+		 * 
+		 * @param continuation
+		 *            the continuation to run
+		 */
+		private void step(Continuation continuation) {
+			while (!cancelled) {
+				final DownloadStage stage;
+				currentDownload.set(this);
+				try {
+					stage = continuation.resume();
+				} catch (IOException | RuntimeException e) {
+					fail(e);
+					return;
+				} finally {
+					currentDownload.remove();
+				}
+				if (stage.isComplete()) {
+					complete(stage.getChannel());
+					return;
+				}
+				continuation = stage.getContinuation();
+				if (listener != null && !listener.timer(stage.getTimer()))
+					continue;
+				logger.debug("Download timer scheduled {}", stage.getTimer());
+				final Continuation next = continuation;
+				timer = timerScheduler.schedule(new Runnable() {
+					@Override
+					public void run() {
+						resumeFromTimer(next);
+					}
+				}, stage.getTimer(), TimeUnit.MILLISECONDS);
+				if (cancelled)
+					timer.cancel(false);
+				return;
+			}
+		}
+
+		/**
+		 * Attaches a task started by a stage, to be cancelled if the download
+		 * does not complete
+		 * 
+		 * @param task
+		 *            the task
+		 */
+		private synchronized void attach(Future<?> task) {
+			if (isDone())
+				task.cancel(true);
+			else
+				tasks.add(task);
+		}
+
+		/**
+		 * Cancels the tasks started by the stages that are still running
+		 */
+		private void cancelTasks() {
+			for (final Future<?> task : tasks) {
+				task.cancel(true);
+			}
+			tasks.clear();
+		}
+
+		/**
+		 * Completes the download
+		 * 
+		 * @param channel
+		 *            the opened channel
+		 */
+		private synchronized void complete(DownloadChannel channel) {
+			tasks.clear();
+			if (cancelled) {
+				try {
+					channel.close();
+				} catch (IOException e) {
+					logger.debug("Unable to close cancelled download", e);
+				}
+				return;
+			}
+			this.channel = channel;
+			done.countDown();
+		}
+
+		/**
+		 * Fails the download
+		 * 
+		 * @param error
+		 *            the error
+		 */
+		private synchronized void fail(Throwable error) {
+			cancelTasks();
+			if (cancelled)
+				return;
+			this.error = error;
+			done.countDown();
+		}
+
+		@Override
+		public synchronized boolean cancel(boolean mayInterruptIfRunning) {
+			if (done.getCount() == 0)
+				return false;
+			cancelled = true;
+			final Future<?> timer = this.timer;
+			if (timer != null)
+				timer.cancel(false);
+			cancelTasks();
+			done.countDown();
+			return true;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		@Override
+		public boolean isDone() {
+			return done.getCount() == 0;
+		}
+
+		@Override
+		public DownloadChannel get() throws InterruptedException,
+				ExecutionException {
+			done.await();
+			return report();
+		}
+
+		@Override
+		public DownloadChannel get(long timeout, TimeUnit unit)
+				throws InterruptedException, ExecutionException,
+				TimeoutException {
+			if (!done.await(timeout, unit))
+				throw new TimeoutException();
+			return report();
+		}
+
+		/**
+		 * @return the opened channel
+		 * @throws ExecutionException
+		 *             if the download failed
+		 */
+		private synchronized DownloadChannel report()
+				throws ExecutionException {
+			if (cancelled)
+				throw new CancellationException();
+			if (error != null)
+				throw new ExecutionException(error);
+			return channel;
+		}
+	}
 }
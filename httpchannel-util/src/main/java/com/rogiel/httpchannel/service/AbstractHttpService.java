@@ -38,13 +38,42 @@ import com.rogiel.httpchannel.service.exception.UploadServiceException;
  */
 public abstract class AbstractHttpService extends AbstractService implements
 		Service {
+	/**
+	 * The {@link HttpContext} used by this service. All requests share the
+	 * same pool of connections.
+	 */
 	protected final HttpContext http = new HttpContext();
+	/**
+	 * The direct links resolved by this service downloaders
+	 */
+	protected final DirectLinkCache directLinks = new DirectLinkCache();
 
 	protected LinkedUploadChannel waitChannelLink(LinkedUploadChannel channel)
 			throws UploadServiceException {
 		return channel.waitLink(20, TimeUnit.SECONDS);
 	}
 
+	/**
+	 * Returns the {@link HttpContext} used by this service. It can be used to
+	 * tune connection limits and timeouts for this service only.
+	 * 
+	 * @return the service {@link HttpContext}
+	 */
+	public HttpContext getHttpContext() {
+		return http;
+	}
+
+	/**
+	 * Returns the cache of direct links resolved by this service downloaders.
+	 * It can be used to tune the time-to-live of direct links for this
+	 * service only.
+	 * 
+	 * @return the service {@link DirectLinkCache}
+	 */
+	public DirectLinkCache getDirectLinkCache() {
+		return directLinks;
+	}
+
 	public GetRequest get(String uri) {
 		return http.get(uri);
 	}
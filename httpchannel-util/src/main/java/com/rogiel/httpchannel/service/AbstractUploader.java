@@ -74,7 +74,7 @@ public abstract class AbstractUploader<C extends UploaderConfiguration>
 	}
 
 	/**
-	 * Creates a new linked channel
+	 * Creates a new linked channel in pipelined mode
 	 * 
 	 * @param closeCallback
 	 *            the close callback
@@ -83,7 +83,8 @@ public abstract class AbstractUploader<C extends UploaderConfiguration>
 	protected LinkedUploadChannel createLinkedChannel(
 			LinkedUploadChannelCloseCallback closeCallback) {
 		return new LinkedUploadChannel(service, this, closeCallback, filesize,
-				filename);
+				filename, LinkedUploadChannel.DEFAULT_BUFFER_COUNT,
+				LinkedUploadChannel.DEFAULT_BUFFER_SIZE);
 	}
 
 	@Override
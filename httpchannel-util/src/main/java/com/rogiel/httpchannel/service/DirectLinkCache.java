@@ -0,0 +1,287 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.service;
+
+import java.net.URI;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the direct links resolved by a service downloader, keyed by the
+ * download {@link URI}. Resolving a direct link usually requires fetching the
+ * download page, waiting for a timer and solving a captcha, so once resolved,
+ * a link is reused to reopen the download (e.g. to seek) until it expires.
+ * <p>
+ * Hosts usually expire direct links after a while, so each service has its
+ * own cache and its own time-to-live. Along with the link, the cache keeps
+ * what the host first served through it, so that a replayed link can be
+ * checked before it is trusted.
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ */
+public class DirectLinkCache {
+	/**
+	 * The default time-to-live (in milliseconds): 10 minutes
+	 */
+	public static final long DEFAULT_TTL = 10 * 60 * 1000;
+	/**
+	 * The number of entries above which expired entries are purged on insert
+	 */
+	private static final int PURGE_THRESHOLD = 256;
+
+	/**
+	 * The cached links
+	 */
+	private final ConcurrentMap<URI, Entry> links = new ConcurrentHashMap<>();
+	/**
+	 * The time-to-live (in milliseconds). Zero disables the cache.
+	 */
+	private volatile long ttl;
+
+	/**
+	 * Creates a new cache with the default time-to-live
+	 */
+	public DirectLinkCache() {
+		this(DEFAULT_TTL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Creates a new cache
+	 * 
+	 * @param ttl
+	 *            the time-to-live. Zero disables the cache.
+	 * @param unit
+	 *            the <code>ttl</code> unit
+	 */
+	public DirectLinkCache(long ttl, TimeUnit unit) {
+		setTTL(ttl, unit);
+	}
+
+	/**
+	 * Sets the time-to-live of links cached from now on
+	 * 
+	 * @param ttl
+	 *            the time-to-live. Zero disables the cache.
+	 * @param unit
+	 *            the <code>ttl</code> unit
+	 */
+	public void setTTL(long ttl, TimeUnit unit) {
+		this.ttl = unit.toMillis(ttl);
+		if (this.ttl <= 0)
+			links.clear();
+	}
+
+	/**
+	 * @param unit
+	 *            the desired unit
+	 * @return the time-to-live
+	 */
+	public long getTTL(TimeUnit unit) {
+		return unit.convert(ttl, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param uri
+	 *            the download {@link URI}
+	 * @return the direct link or <code>null</code> if none is cached or it
+	 *         has expired
+	 */
+	public DirectLink get(URI uri) {
+		final Entry entry = links.get(uri);
+		if (entry == null)
+			return null;
+		if (entry.isExpired(System.currentTimeMillis())) {
+			links.remove(uri, entry);
+			return null;
+		}
+		return entry.link;
+	}
+
+	/**
+	 * Caches a direct link. If a link is already cached for the
+	 * <code>uri</code>, it is kept along with its expiration time.
+	 * 
+	 * @param uri
+	 *            the download {@link URI}
+	 * @param link
+	 *            the direct link
+	 */
+	public void put(URI uri, DirectLink link) {
+		final long ttl = this.ttl;
+		if (ttl <= 0)
+			return;
+		final long now = System.currentTimeMillis();
+		final Entry entry = new Entry(link, now + ttl);
+		final Entry current = links.putIfAbsent(uri, entry);
+		if (current != null && current.isExpired(now))
+			links.replace(uri, current, entry);
+		if (links.size() > PURGE_THRESHOLD)
+			purge(now);
+	}
+
+	/**
+	 * Removes a cached link, usually because the host rejected it. Nothing is
+	 * done if another link has been cached in the meantime.
+	 * 
+	 * @param uri
+	 *            the download {@link URI}
+	 * @param link
+	 *            the rejected link
+	 */
+	public void invalidate(URI uri, DirectLink link) {
+		final Entry entry = links.get(uri);
+		if (entry != null && entry.link.getLink().equals(link.getLink()))
+			links.remove(uri, entry);
+	}
+
+	/**
+	 * Removes all cached links
+	 */
+	public void clear() {
+		links.clear();
+	}
+
+	/**
+	 * Removes all expired links
+	 * 
+	 * @param now
+	 *            the current time
+	 */
+	private void purge(long now) {
+		for (final Iterator<Entry> iterator = links.values().iterator(); iterator
+				.hasNext();) {
+			if (iterator.next().isExpired(now))
+				iterator.remove();
+		}
+	}
+
+	/**
+	 * A direct link and what the host served through it
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	public static class DirectLink {
+		/**
+		 * The direct link
+		 */
+		private final String link;
+		/**
+		 * The media type served, without parameters
+		 */
+		private final String contentType;
+		/**
+		 * The filename sent in the <code>Content-Disposition</code> header
+		 */
+		private final String filename;
+		/**
+		 * The total file size
+		 */
+		private final long size;
+
+		/**
+		 * @param link
+		 *            the direct link
+		 * @param contentType
+		 *            the media type served or <code>null</code> if unknown
+		 * @param filename
+		 *            the filename sent by the host or <code>null</code> if
+		 *            none
+		 * @param size
+		 *            the total file size or <code>-1</code> if unknown
+		 */
+		public DirectLink(String link, String contentType, String filename,
+				long size) {
+			this.link = link;
+			this.contentType = contentType;
+			this.filename = filename;
+			this.size = size;
+		}
+
+		/**
+		 * @return the direct link
+		 */
+		public String getLink() {
+			return link;
+		}
+
+		/**
+		 * @return the media type served or <code>null</code> if unknown
+		 */
+		public String getContentType() {
+			return contentType;
+		}
+
+		/**
+		 * @return the filename sent by the host or <code>null</code> if none
+		 */
+		public String getFilename() {
+			return filename;
+		}
+
+		/**
+		 * @return the total file size or <code>-1</code> if unknown
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		@Override
+		public String toString() {
+			return link;
+		}
+	}
+
+	/**
+	 * A cached direct link
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	private static class Entry {
+		/**
+		 * The direct link
+		 */
+		private final DirectLink link;
+		/**
+		 * The expiration time
+		 */
+		private final long expires;
+
+		/**
+		 * @param link
+		 *            the direct link
+		 * @param expires
+		 *            the expiration time
+		 */
+		private Entry(DirectLink link, long expires) {
+			this.link = link;
+			this.expires = expires;
+		}
+
+		/**
+		 * @param now
+		 *            the current time
+		 * @return <code>true</code> if the link has expired
+		 */
+		private boolean isExpired(long now) {
+			return now >= expires;
+		}
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.service;
+
+import java.io.IOException;
+
+/**
+ * A stage of a download flow that may have to wait for a timer imposed by the
+ * host. A stage is either complete, carrying the opened
+ * {@link DownloadChannel}, or it asks for the flow to be resumed through its
+ * {@link Continuation} once the timer has elapsed. This allows the waiting to
+ * be scheduled instead of blocking a thread.
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ * @see AbstractHttpDownloader#openChannelAsync(DownloadListener, long)
+ */
+public final class DownloadStage {
+	/**
+	 * The opened channel, if complete
+	 */
+	private final DownloadChannel channel;
+	/**
+	 * The time (in milliseconds) to wait before resuming
+	 */
+	private final long timer;
+	/**
+	 * The continuation to resume the flow, if not complete
+	 */
+	private final Continuation continuation;
+
+	/**
+	 * @param channel
+	 *            the opened channel
+	 * @param timer
+	 *            the time to wait before resuming
+	 * @param continuation
+	 *            the continuation
+	 */
+	private DownloadStage(DownloadChannel channel, long timer,
+			Continuation continuation) {
+		this.channel = channel;
+		this.timer = timer;
+		this.continuation = continuation;
+	}
+
+	/**
+	 * Creates a stage that completes the download flow
+	 * 
+	 * @param channel
+	 *            the opened channel
+	 * @return the stage
+	 */
+	public static DownloadStage complete(DownloadChannel channel) {
+		return new DownloadStage(channel, 0, null);
+	}
+
+	/**
+	 * Creates a stage that waits for a timer before resuming the download
+	 * flow
+	 * 
+	 * @param timer
+	 *            the time (in milliseconds) to wait
+	 * @param continuation
+	 *            the continuation to resume the flow
+	 * @return the stage
+	 */
+	public static DownloadStage timer(long timer, Continuation continuation) {
+		return new DownloadStage(null, timer, continuation);
+	}
+
+	/**
+	 * @return <code>true</code> if the download flow is complete
+	 */
+	public boolean isComplete() {
+		return continuation == null;
+	}
+
+	/**
+	 * @return the opened channel
+	 */
+	public DownloadChannel getChannel() {
+		return channel;
+	}
+
+	/**
+	 * @return the time (in milliseconds) to wait before resuming
+	 */
+	public long getTimer() {
+		return timer;
+	}
+
+	/**
+	 * @return the continuation to resume the flow
+	 */
+	public Continuation getContinuation() {
+		return continuation;
+	}
+
+	/**
+	 * Resumes a download flow after a timer
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	public interface Continuation {
+		/**
+		 * Resumes the download flow
+		 * 
+		 * @return the next stage
+		 * @throws IOException
+		 *             if any error occur while resuming
+		 */
+		DownloadStage resume() throws IOException;
+	}
+}
@@ -0,0 +1,240 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.service.channel;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A bounded ring of direct buffers that decouples the thread producing data
+ * from the thread writing it to the network. The producer fills buffers and
+ * hands them to the writer, which returns them once written. When all buffers
+ * are in use, the producer is blocked until the writer releases one.
+ * <p>
+ * Buffers are only allocated when needed, so small uploads never allocate the
+ * whole ring.
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ */
+class ByteBufferRing {
+	/**
+	 * Marks the end of the data on the filled queue and a writer failure on
+	 * the free queue
+	 */
+	private static final ByteBuffer MARKER = ByteBuffer.allocate(0);
+
+	/**
+	 * The buffers ready to be filled by the producer
+	 */
+	private final BlockingQueue<ByteBuffer> free;
+	/**
+	 * The buffers ready to be written by the writer
+	 */
+	private final BlockingQueue<ByteBuffer> filled;
+	/**
+	 * The maximum number of buffers
+	 */
+	private final int bufferCount;
+	/**
+	 * The size of each buffer
+	 */
+	private final int bufferSize;
+
+	/**
+	 * The number of buffers allocated so far. Only used by the producer.
+	 */
+	private int allocated;
+	/**
+	 * The buffer being filled. Only used by the producer.
+	 */
+	private ByteBuffer current;
+	/**
+	 * The exception that caused the writer to fail
+	 */
+	private volatile IOException failure;
+
+	/**
+	 * Creates a new instance
+	 * 
+	 * @param bufferCount
+	 *            the maximum number of buffers
+	 * @param bufferSize
+	 *            the size of each buffer
+	 */
+	ByteBufferRing(int bufferCount, int bufferSize) {
+		this.bufferCount = bufferCount;
+		this.bufferSize = bufferSize;
+		this.free = new ArrayBlockingQueue<>(bufferCount);
+		// one extra slot for the end marker
+		this.filled = new ArrayBlockingQueue<>(bufferCount + 1);
+	}
+
+	/**
+	 * Copies the data into the ring, blocking while all buffers are in use
+	 * 
+	 * @param src
+	 *            the source buffer
+	 * @return the number of bytes copied
+	 * @throws IOException
+	 *             if the writer has failed or the thread is interrupted
+	 */
+	int write(ByteBuffer src) throws IOException {
+		final int length = src.remaining();
+		while (src.hasRemaining()) {
+			if (current == null)
+				current = acquire();
+			if (src.remaining() <= current.remaining()) {
+				current.put(src);
+			} else {
+				final int limit = src.limit();
+				src.limit(src.position() + current.remaining());
+				current.put(src);
+				src.limit(limit);
+			}
+			if (!current.hasRemaining())
+				flush();
+		}
+		return length;
+	}
+
+	/**
+	 * Hands the buffer being filled to the writer, even if it is not full
+	 * 
+	 * @throws IOException
+	 *             if the thread is interrupted
+	 */
+	void flush() throws IOException {
+		if (current == null || current.position() == 0)
+			return;
+		current.flip();
+		put(filled, current);
+		current = null;
+	}
+
+	/**
+	 * Flushes the remaining data and signals the writer that there is no more
+	 * data to be written
+	 * 
+	 * @throws IOException
+	 *             if the thread is interrupted
+	 */
+	void close() throws IOException {
+		flush();
+		put(filled, MARKER);
+	}
+
+	/**
+	 * Writes all data from the ring into the channel, until the producer
+	 * closes the ring
+	 * 
+	 * @param channel
+	 *            the destination channel
+	 * @throws IOException
+	 *             if any error occur while writing into the channel
+	 */
+	void drainTo(WritableByteChannel channel) throws IOException {
+		while (true) {
+			final ByteBuffer buffer = take(filled);
+			if (buffer == MARKER)
+				return;
+			try {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			} catch (IOException e) {
+				failure = e;
+				// wakes up the producer if it is waiting for a buffer
+				free.offer(MARKER);
+				throw e;
+			}
+			buffer.clear();
+			put(free, buffer);
+		}
+	}
+
+	/**
+	 * @return a buffer to be filled
+	 * @throws IOException
+	 *             if the writer has failed or the thread is interrupted
+	 */
+	private ByteBuffer acquire() throws IOException {
+		checkFailure();
+		ByteBuffer buffer = free.poll();
+		if (buffer == null && allocated < bufferCount) {
+			allocated++;
+			return ByteBuffer.allocateDirect(bufferSize);
+		}
+		if (buffer == null)
+			buffer = take(free);
+		if (buffer == MARKER) {
+			free.offer(MARKER);
+			checkFailure();
+		}
+		return buffer;
+	}
+
+	/**
+	 * @throws IOException
+	 *             the exception that caused the writer to fail, if any
+	 */
+	private void checkFailure() throws IOException {
+		final IOException failure = this.failure;
+		if (failure != null)
+			throw new IOException("The upload has failed", failure);
+	}
+
+	/**
+	 * @param queue
+	 *            the queue
+	 * @return the head of the queue, waiting if necessary
+	 * @throws InterruptedIOException
+	 *             if the thread is interrupted
+	 */
+	private static ByteBuffer take(BlockingQueue<ByteBuffer> queue)
+			throws InterruptedIOException {
+		try {
+			return queue.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+
+	/**
+	 * @param queue
+	 *            the queue
+	 * @param buffer
+	 *            the buffer to be added to the queue, waiting if necessary
+	 * @throws InterruptedIOException
+	 *             if the thread is interrupted
+	 */
+	private static void put(BlockingQueue<ByteBuffer> queue, ByteBuffer buffer)
+			throws InterruptedIOException {
+		try {
+			queue.put(buffer);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+	}
+}
@@ -24,6 +24,8 @@ import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
 
+import org.apache.http.conn.ConnectionReleaseTrigger;
+
 import com.rogiel.httpchannel.service.DownloadChannel;
 import com.rogiel.httpchannel.service.DownloadService;
 import com.rogiel.httpchannel.service.Downloader;
@@ -33,7 +35,9 @@ import com.rogiel.httpchannel.service.Downloader;
  * 
  */
 public class InputStreamDownloadChannel implements DownloadChannel {
+	private final InputStream in;
 	private final ReadableByteChannel channel;
+	private boolean eof;
 
 	private final DownloadService<?> service;
 	private final Downloader<?> downloader;
@@ -46,6 +50,7 @@ public class InputStreamDownloadChannel implements DownloadChannel {
 			final String filename) {
 		this.service = service;
 		this.downloader = downloader;
+		this.in = in;
 		this.channel = Channels.newChannel(in);
 		this.length = length;
 		this.filename = filename;
@@ -53,7 +58,10 @@ public class InputStreamDownloadChannel implements DownloadChannel {
 
 	@Override
 	public int read(ByteBuffer dst) throws IOException {
-		return channel.read(dst);
+		final int read = channel.read(dst);
+		if (read < 0)
+			eof = true;
+		return read;
 	}
 
 	@Override
@@ -63,6 +71,10 @@ public class InputStreamDownloadChannel implements DownloadChannel {
 
 	@Override
 	public void close() throws IOException {
+		// closing the stream would download the remaining content just to
+		// reuse the connection
+		if (!eof && channel.isOpen() && in instanceof ConnectionReleaseTrigger)
+			((ConnectionReleaseTrigger) in).abortConnection();
 		channel.close();
 	}
 
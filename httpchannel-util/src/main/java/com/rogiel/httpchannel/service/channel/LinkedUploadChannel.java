@@ -19,14 +19,14 @@
 package com.rogiel.httpchannel.service.channel;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.URI;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channel;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.WritableByteChannel;
-import java.util.concurrent.Phaser;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,19 +40,33 @@ import com.rogiel.httpchannel.service.exception.UploadServiceException;
 /**
  * This channel is linked onto another {@link Channel} that actually writes data
  * into the network stream.
+ * <p>
+ * In <b>direct</b> mode, data is written into the network stream by the thread
+ * calling {@link #write(ByteBuffer)}. In <b>pipelined</b> mode, data is copied
+ * into a bounded ring of buffers and written by the HTTP thread, so the
+ * producer only blocks when the ring is full.
  * 
  * @author <a href="http://www.rogiel.com">Rogiel</a>
  */
 public class LinkedUploadChannel implements UploadChannel {
+	/**
+	 * The default number of buffers in pipelined mode
+	 */
+	public static final int DEFAULT_BUFFER_COUNT = 8;
+	/**
+	 * The default size of each buffer in pipelined mode
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
 	/**
 	 * The logger instance
 	 */
 	private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
 	/**
-	 * The synchronization phaser
+	 * Released once the channel is linked
 	 */
-	private final Phaser phaser = new Phaser();
+	private final CountDownLatch linkLatch = new CountDownLatch(1);
 
 	/**
 	 * The upload service
@@ -67,7 +81,7 @@ public class LinkedUploadChannel implements UploadChannel {
 	 * The destionation {@link Channel}. Data writted is forwarded to this
 	 * channel.
 	 */
-	private WritableByteChannel channel;
+	private volatile WritableByteChannel channel;
 	/**
 	 * The close callback, that notifies once the channel has been closed
 	 */
@@ -89,28 +103,84 @@ public class LinkedUploadChannel implements UploadChannel {
 	/**
 	 * Whether the channel is still open or not
 	 */
-	private boolean open = true;
+	private volatile boolean open = true;
+	/**
+	 * Released once the channel is closed
+	 */
+	private final CountDownLatch closeLatch = new CountDownLatch(1);
+	/**
+	 * The buffer ring between the producer and the HTTP thread. Only used in
+	 * pipelined mode.
+	 */
+	private final ByteBufferRing ring;
 
+	/**
+	 * Creates a new channel in direct mode
+	 * 
+	 * @param service
+	 *            the upload service
+	 * @param uploader
+	 *            the uploader
+	 * @param closeCallback
+	 *            the close callback
+	 * @param filesize
+	 *            the file size
+	 * @param filename
+	 *            the file name
+	 */
 	public LinkedUploadChannel(UploadService<?> service, Uploader<?> uploader,
 			LinkedUploadChannelCloseCallback closeCallback, long filesize,
 			String filename) {
+		this(service, uploader, closeCallback, filesize, filename, 0, 0);
+	}
+
+	/**
+	 * Creates a new channel in pipelined mode. If <code>bufferCount</code> is
+	 * zero, the channel is created in direct mode.
+	 * 
+	 * @param service
+	 *            the upload service
+	 * @param uploader
+	 *            the uploader
+	 * @param closeCallback
+	 *            the close callback
+	 * @param filesize
+	 *            the file size
+	 * @param filename
+	 *            the file name
+	 * @param bufferCount
+	 *            the maximum number of buffers in the ring
+	 * @param bufferSize
+	 *            the size of each buffer. Smaller files use a single buffer
+	 *            of the file size.
+	 */
+	public LinkedUploadChannel(UploadService<?> service, Uploader<?> uploader,
+			LinkedUploadChannelCloseCallback closeCallback, long filesize,
+			String filename, int bufferCount, int bufferSize) {
 		this.service = service;
 		this.uploader = uploader;
 		this.closeCallback = closeCallback;
 		this.filename = filename;
 		this.length = filesize;
-
-		// register on the phaser
-		phaser.register();
+		if (bufferCount > 0)
+			// small files do not need full sized buffers, but the size might
+			// not be known
+			this.ring = new ByteBufferRing(bufferCount,
+					(filesize > 0 ? (int) Math.min(bufferSize, filesize)
+							: bufferSize));
+		else
+			this.ring = null;
 	}
 
 	@Override
 	public int write(ByteBuffer src) throws IOException {
-		if (channel == null)
+		if (ring == null && channel == null)
 			throw new IOException("Channel is not linked yet");
 		if (!open)
 			throw new ClosedChannelException();
 		try {
+			if (ring != null)
+				return ring.write(src);
 			return channel.write(src);
 		} catch (IOException e) {
 			close();
@@ -125,7 +195,10 @@ public class LinkedUploadChannel implements UploadChannel {
 
 	@Override
 	public void close() throws IOException {
+		if (open && ring != null)
+			ring.close();
 		open = false;
+		closeLatch.countDown();
 		final String downloadLink = closeCallback.finish();
 		logger.debug("Download link returned by service is {}", downloadLink);
 		if (downloadLink == null)
@@ -179,7 +252,32 @@ public class LinkedUploadChannel implements UploadChannel {
 		if (!channel.isOpen())
 			throw new IOException("The destination channel is closed");
 		this.channel = channel;
-		phaser.arrive();
+		linkLatch.countDown();
+	}
+
+	/**
+	 * Links this {@link Channel} to the destination {@link Channel} and
+	 * transfers all data written into this channel until it is closed. This is
+	 * called by the HTTP thread writing the request entity.
+	 * 
+	 * @param channel
+	 *            the target channel
+	 * @throws IOException
+	 *             if the channel is already linked, the destination channel is
+	 *             closed or any error occur while writing into it
+	 */
+	protected void transferTo(WritableByteChannel channel) throws IOException {
+		linkChannel(channel);
+		if (ring != null) {
+			ring.drainTo(channel);
+			return;
+		}
+		try {
+			closeLatch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
 	}
 
 	/**
@@ -190,6 +288,13 @@ public class LinkedUploadChannel implements UploadChannel {
 		return channel != null;
 	}
 
+	/**
+	 * @return <code>true</code> if the channel is in pipelined mode
+	 */
+	public boolean isPipelined() {
+		return ring != null;
+	}
+
 	/**
 	 * Waits for the channels to get linked
 	 * 
@@ -206,11 +311,12 @@ public class LinkedUploadChannel implements UploadChannel {
 			throws UploadServiceException {
 		logger.debug("Waiting channel {} to link", this);
 		try {
-			phaser.awaitAdvanceInterruptibly(phaser.getPhase(), timeout, unit);
-		} catch (InterruptedException | TimeoutException e) {
-			throw new UploadServiceException("Channel has not linked in "
-					+ timeout + " " + unit);
+			if (linkLatch.await(timeout, unit))
+				return this;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
-		return this;
+		throw new UploadServiceException("Channel has not linked in " + timeout
+				+ " " + unit);
 	}
 }
@@ -21,7 +21,6 @@ package com.rogiel.httpchannel.service.channel;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.channels.Channels;
-import java.nio.channels.WritableByteChannel;
 
 import org.apache.http.entity.mime.content.AbstractContentBody;
 import org.apache.http.entity.mime.content.ContentBody;
@@ -49,14 +48,7 @@ public class LinkedUploadChannelContentBody extends AbstractContentBody {
 
 	@Override
 	public void writeTo(OutputStream out) throws IOException {
-		final WritableByteChannel outputChannel = Channels.newChannel(out);
-		channel.linkChannel(outputChannel);
-		while (channel.isOpen() && outputChannel.isOpen()) {
-			try {
-				Thread.sleep(50);
-			} catch (InterruptedException e) {
-			}
-		}
+		channel.transferTo(Channels.newChannel(out));
 	}
 
 	@Override
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An {@link InputStream} that fails with an {@link IOException} once more than
+ * a given number of bytes have been read from the underlying stream. Useful to
+ * protect parsers from hosts that send unexpectedly large responses.
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ */
+public class BoundedInputStream extends FilterInputStream {
+	/**
+	 * The maximum number of bytes that can be read
+	 */
+	private final long limit;
+	/**
+	 * The number of bytes read so far
+	 */
+	private long count;
+
+	/**
+	 * Creates a new instance
+	 * 
+	 * @param in
+	 *            the underlying stream
+	 * @param limit
+	 *            the maximum number of bytes that can be read
+	 */
+	public BoundedInputStream(InputStream in, long limit) {
+		super(in);
+		this.limit = limit;
+	}
+
+	@Override
+	public int read() throws IOException {
+		final int b = super.read();
+		if (b >= 0)
+			count(1);
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		final int read = super.read(b, off, len);
+		if (read > 0)
+			count(read);
+		return read;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		final long skipped = super.skip(n);
+		count(skipped);
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	/**
+	 * @param read
+	 *            the number of bytes just read
+	 * @throws IOException
+	 *             if the limit has been exceeded
+	 */
+	private void count(long read) throws IOException {
+		count += read;
+		if (count > limit)
+			throw new IOException("Content exceeds the maximum size of "
+					+ limit + " bytes");
+	}
+
+	/**
+	 * @return the number of bytes read so far
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the maximum number of bytes that can be read
+	 */
+	public long getLimit() {
+		return limit;
+	}
+}
@@ -20,22 +20,53 @@ package com.rogiel.httpchannel.util;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.util.EntityUtils;
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
 
+import com.rogiel.httpchannel.http.executor.HttpExecutors;
+import com.rogiel.httpchannel.util.html.Extraction;
+import com.rogiel.httpchannel.util.html.Extractor;
 import com.rogiel.httpchannel.util.html.Page;
 
 public class HttpClientUtils {
-	private static final ExecutorService threadPool = Executors
-			.newCachedThreadPool();
+	/**
+	 * The default maximum size of an HTML page (in bytes)
+	 */
+	public static final long DEFAULT_MAX_PAGE_SIZE = 4 * 1024 * 1024;
+	/**
+	 * The default maximum size of a JSON document (in bytes): unbounded
+	 */
+	public static final long DEFAULT_MAX_JSON_SIZE = Long.MAX_VALUE;
+
+	private static final ExecutorService threadPool = HttpExecutors
+			.newExecutor("httpchannel-utils");
+
+	/**
+	 * The JSON parser of each thread. {@link JSONParser} keeps the parsing
+	 * state and cannot be shared between threads, but it can be reused once a
+	 * document has been parsed.
+	 */
+	private static final ThreadLocal<JSONParser> jsonParser = new ThreadLocal<JSONParser>() {
+		@Override
+		protected JSONParser initialValue() {
+			return new JSONParser();
+		}
+	};
 
 	public static HttpResponse get(HttpClient client, String uri)
 			throws IOException {
@@ -83,6 +114,278 @@ public class HttpClientUtils {
 	}
 
 	public static Page toPage(HttpResponse response) throws IOException {
-		return Page.parse(toString(response));
+		return toPage(response, DEFAULT_MAX_PAGE_SIZE);
+	}
+
+	/**
+	 * Parses the response entity as an HTML page while it is being received.
+	 * The charset is taken from the <code>Content-Type</code> header, falling
+	 * back to <tt>ISO-8859-1</tt>. If the entity is larger than
+	 * <code>maxSize</code>, the connection is aborted and an
+	 * {@link IOException} is thrown.
+	 * 
+	 * @param response
+	 *            the response
+	 * @param maxSize
+	 *            the maximum page size (in bytes)
+	 * @return the parsed page
+	 * @throws IOException
+	 *             if any error occur while reading the page or if it is too
+	 *             large
+	 */
+	public static Page toPage(HttpResponse response, long maxSize)
+			throws IOException {
+		final HttpEntity entity = response.getEntity();
+		final InputStream in = entity.getContent();
+		if (entity.getContentLength() > maxSize) {
+			abort(in);
+			throw new IOException("Page size " + entity.getContentLength()
+					+ " exceeds the maximum size of " + maxSize + " bytes");
+		}
+		boolean completed = false;
+		try {
+			final Page page = Page.parse(new BoundedInputStream(in, maxSize),
+					getCharset(entity));
+			completed = true;
+			return page;
+		} finally {
+			if (completed)
+				in.close();
+			else
+				abort(in);
+		}
+	}
+
+	/**
+	 * Looks up the extractors on the response entity while it is being
+	 * received. As soon as every extractor has been matched, the connection is
+	 * aborted and the remaining content is never transferred. If the entity is
+	 * larger than <code>maxSize</code>, the connection is aborted and an
+	 * {@link IOException} is thrown.
+	 * 
+	 * @param response
+	 *            the response
+	 * @param maxSize
+	 *            the maximum page size (in bytes)
+	 * @param extractors
+	 *            the extractors
+	 * @return the extraction results
+	 * @throws IOException
+	 *             if any error occur while reading the page or if it is too
+	 *             large
+	 */
+	public static Extraction extract(HttpResponse response, long maxSize,
+			Extractor<?>... extractors) throws IOException {
+		final HttpEntity entity = response.getEntity();
+		final InputStream in = entity.getContent();
+		boolean exhausted = false;
+		try {
+			final Extraction extraction = Extraction.extract(
+					new BoundedInputStream(in, maxSize), getCharset(entity),
+					extractors);
+			// an incomplete extraction has read the page until its end
+			exhausted = !extraction.isComplete();
+			return extraction;
+		} finally {
+			if (exhausted)
+				in.close();
+			else
+				abort(in);
+		}
+	}
+
+	/**
+	 * Parses the response entity as JSON while it is being received, without
+	 * buffering it first. The charset is taken from the
+	 * <code>Content-Type</code> header, falling back to <tt>UTF-8</tt>. If the
+	 * entity is larger than <code>maxSize</code>, the connection is aborted
+	 * and an {@link IOException} is thrown.
+	 * 
+	 * @param response
+	 *            the response
+	 * @param maxSize
+	 *            the maximum document size (in bytes) or
+	 *            {@link #DEFAULT_MAX_JSON_SIZE} for no limit
+	 * @return the parsed JSON object tree
+	 * @throws IOException
+	 *             if any error occur while reading the document or if it is
+	 *             too large
+	 * @throws ParseException
+	 *             if the document is not valid JSON
+	 */
+	public static Object toJson(HttpResponse response, long maxSize)
+			throws IOException, ParseException {
+		final HttpEntity entity = response.getEntity();
+		final InputStream in = entity.getContent();
+		final JSONParser parser = jsonParser.get();
+		boolean completed = false;
+		try {
+			final Object json = parser.parse(new InputStreamReader(
+					maxSize == DEFAULT_MAX_JSON_SIZE ? in
+							: new BoundedInputStream(in, maxSize), getCharset(
+							entity, HTTP.UTF_8)));
+			completed = true;
+			return json;
+		} finally {
+			// do not keep the stream referenced by the thread parser
+			parser.reset(null);
+			if (completed)
+				in.close();
+			else
+				abort(in);
+		}
+	}
+
+	/**
+	 * Parses the response entity as JSON while it is being received, sending
+	 * each token to the <code>handler</code> instead of building the object
+	 * tree. If the handler stops the parsing, the connection is aborted and
+	 * the remaining content is never transferred. The document size is not
+	 * limited, since no object tree is built.
+	 * 
+	 * @param response
+	 *            the response
+	 * @param handler
+	 *            the token handler
+	 * @return <code>true</code> if the whole document was parsed,
+	 *         <code>false</code> if the handler stopped the parsing
+	 * @throws IOException
+	 *             if any error occur while reading the document
+	 * @throws ParseException
+	 *             if the document is not valid JSON
+	 */
+	public static boolean parseJson(HttpResponse response,
+			ContentHandler handler) throws IOException, ParseException {
+		final HttpEntity entity = response.getEntity();
+		final InputStream in = entity.getContent();
+		final JSONParser parser = jsonParser.get();
+		final CompletionHandler completion = new CompletionHandler(handler);
+		try {
+			parser.parse(
+					new InputStreamReader(in, getCharset(entity, HTTP.UTF_8)),
+					completion);
+			return completion.completed;
+		} finally {
+			// do not keep the stream referenced by the thread parser
+			parser.reset(null);
+			if (completion.completed)
+				in.close();
+			else
+				abort(in);
+		}
+	}
+
+	/**
+	 * @param entity
+	 *            the entity
+	 * @return the charset from the <code>Content-Type</code> header or
+	 *         <tt>ISO-8859-1</tt> if none is set
+	 */
+	private static String getCharset(HttpEntity entity) {
+		return getCharset(entity, HTTP.DEFAULT_CONTENT_CHARSET);
+	}
+
+	/**
+	 * @param entity
+	 *            the entity
+	 * @param defaultCharset
+	 *            the charset to use if none is set
+	 * @return the charset from the <code>Content-Type</code> header or
+	 *         <code>defaultCharset</code> if none is set
+	 */
+	private static String getCharset(HttpEntity entity, String defaultCharset) {
+		final String charset = EntityUtils.getContentCharSet(entity);
+		if (charset == null)
+			return defaultCharset;
+		return charset;
+	}
+
+	/**
+	 * Aborts the connection from which the stream is being read, instead of
+	 * reading the remaining content
+	 * 
+	 * @param in
+	 *            the entity content stream
+	 * @throws IOException
+	 *             if any error occur while closing the stream
+	 */
+	public static void abort(InputStream in) throws IOException {
+		if (in instanceof ConnectionReleaseTrigger)
+			((ConnectionReleaseTrigger) in).abortConnection();
+		else
+			in.close();
+	}
+
+	/**
+	 * Forwards the JSON tokens to another {@link ContentHandler}, keeping track
+	 * of whether the whole document was parsed
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	private static class CompletionHandler implements ContentHandler {
+		/**
+		 * The handler
+		 */
+		private final ContentHandler handler;
+		/**
+		 * Whether the end of the document was reached
+		 */
+		private boolean completed;
+
+		/**
+		 * @param handler
+		 *            the handler
+		 */
+		public CompletionHandler(ContentHandler handler) {
+			this.handler = handler;
+		}
+
+		@Override
+		public void startJSON() throws ParseException, IOException {
+			handler.startJSON();
+		}
+
+		@Override
+		public void endJSON() throws ParseException, IOException {
+			completed = true;
+			handler.endJSON();
+		}
+
+		@Override
+		public boolean startObject() throws ParseException, IOException {
+			return handler.startObject();
+		}
+
+		@Override
+		public boolean endObject() throws ParseException, IOException {
+			return handler.endObject();
+		}
+
+		@Override
+		public boolean startObjectEntry(String key) throws ParseException,
+				IOException {
+			return handler.startObjectEntry(key);
+		}
+
+		@Override
+		public boolean endObjectEntry() throws ParseException, IOException {
+			return handler.endObjectEntry();
+		}
+
+		@Override
+		public boolean startArray() throws ParseException, IOException {
+			return handler.startArray();
+		}
+
+		@Override
+		public boolean endArray() throws ParseException, IOException {
+			return handler.endArray();
+		}
+
+		@Override
+		public boolean primitive(Object value) throws ParseException,
+				IOException {
+			return handler.primitive(value);
+		}
 	}
 }
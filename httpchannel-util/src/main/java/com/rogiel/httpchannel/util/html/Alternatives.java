@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.util.html;
+
+import java.util.Arrays;
+
+import org.htmlparser.Tag;
+
+/**
+ * An {@link Extractor} matched by the first of several alternatives, for
+ * elements that are found on different variants of a page. Within an
+ * {@link Extraction}, the alternatives count as a single extractor: the
+ * extraction completes as soon as any of them is matched, and
+ * {@link Extraction#get(Extractor)} returns the match for the alternative that
+ * was found and <code>null</code> for all others.
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ * 
+ * @param <T>
+ *            the tag type
+ * @see Extractor#anyOf(Extractor...)
+ */
+public class Alternatives<T extends Tag> extends Extractor<T> {
+	/**
+	 * The alternatives, in order of preference
+	 */
+	private final Extractor<T>[] alternatives;
+
+	/**
+	 * Creates a new instance
+	 * 
+	 * @param alternatives
+	 *            the alternatives, in order of preference
+	 */
+	@SafeVarargs
+	public Alternatives(Extractor<T>... alternatives) {
+		super(alternatives[0].getType(), null, null, false);
+		this.alternatives = alternatives;
+	}
+
+	@Override
+	public MatchedElement<T> match(Tag tag) {
+		for (final Extractor<T> alternative : alternatives) {
+			final MatchedElement<T> matched = alternative.match(tag);
+			if (matched != null)
+				return matched;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the number of alternatives
+	 */
+	int size() {
+		return alternatives.length;
+	}
+
+	/**
+	 * @param i
+	 *            the index
+	 * @return the alternative at the given index
+	 */
+	Extractor<T> get(int i) {
+		return alternatives[i];
+	}
+
+	/**
+	 * @param extractor
+	 *            the extractor
+	 * @return <code>true</code> if the extractor is one of the alternatives
+	 */
+	boolean contains(Extractor<?> extractor) {
+		for (final Extractor<T> alternative : alternatives) {
+			if (alternative == extractor)
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return "Alternatives " + Arrays.toString(alternatives);
+	}
+}
@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.util.html;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.htmlparser.Node;
+import org.htmlparser.PrototypicalNodeFactory;
+import org.htmlparser.Tag;
+import org.htmlparser.lexer.Lexer;
+import org.htmlparser.scanners.Scanner;
+import org.htmlparser.tags.CompositeTag;
+import org.htmlparser.tags.ScriptTag;
+import org.htmlparser.tags.StyleTag;
+import org.htmlparser.tags.TextareaTag;
+import org.htmlparser.util.NodeList;
+import org.htmlparser.util.ParserException;
+
+/**
+ * The result of looking up a set of {@link Extractor}s on a page. Unlike
+ * {@link Page}, the document is never built: tags are matched one by one as
+ * they are read and reading stops as soon as every extractor has been matched.
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ */
+public class Extraction {
+	/**
+	 * The extractors
+	 */
+	private final Extractor<?>[] extractors;
+	/**
+	 * The first element matched by each extractor
+	 */
+	private final MatchedElement<?>[] results;
+	/**
+	 * The extractor that matched each result: the extractor itself or, for
+	 * {@link Alternatives}, the alternative found
+	 */
+	private final Extractor<?>[] matchedBy;
+	/**
+	 * The number of extractors that have not been matched yet
+	 */
+	private int remaining;
+
+	/**
+	 * Creates a new instance
+	 * 
+	 * @param extractors
+	 *            the extractors
+	 */
+	private Extraction(Extractor<?>... extractors) {
+		this.extractors = extractors;
+		this.results = new MatchedElement<?>[extractors.length];
+		this.matchedBy = new Extractor<?>[extractors.length];
+		this.remaining = extractors.length;
+	}
+
+	/**
+	 * Matches the tag against all extractors that have not been matched yet
+	 * 
+	 * @param tag
+	 *            the tag
+	 */
+	private void accept(Tag tag) {
+		for (int i = 0; i < extractors.length; i++) {
+			if (results[i] != null)
+				continue;
+			if (extractors[i] instanceof Alternatives)
+				accept(i, (Alternatives<?>) extractors[i], tag);
+			else
+				accept(i, extractors[i], tag);
+		}
+	}
+
+	/**
+	 * Matches the tag against each alternative, in order
+	 * 
+	 * @param i
+	 *            the extractor index
+	 * @param alternatives
+	 *            the alternatives
+	 * @param tag
+	 *            the tag
+	 */
+	private void accept(int i, Alternatives<?> alternatives, Tag tag) {
+		for (int j = 0; j < alternatives.size() && results[i] == null; j++) {
+			accept(i, alternatives.get(j), tag);
+		}
+	}
+
+	/**
+	 * Matches the tag against a single extractor
+	 * 
+	 * @param i
+	 *            the extractor index
+	 * @param extractor
+	 *            the extractor
+	 * @param tag
+	 *            the tag
+	 */
+	private void accept(int i, Extractor<?> extractor, Tag tag) {
+		results[i] = extractor.match(tag);
+		if (results[i] == null)
+			return;
+		matchedBy[i] = extractor;
+		remaining--;
+	}
+
+	/**
+	 * @param extractor
+	 *            the extractor
+	 * @return the first element matched by the extractor or <code>null</code>
+	 *         if none matched it. For one of {@link Alternatives}, the element
+	 *         is only returned if that alternative was the one found.
+	 * @throws IllegalArgumentException
+	 *             if the extractor is not part of this extraction
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends Tag> MatchedElement<T> get(Extractor<T> extractor) {
+		for (int i = 0; i < extractors.length; i++) {
+			if (extractors[i] == extractor || matchedBy[i] == extractor)
+				return (MatchedElement<T>) results[i];
+			if (extractors[i] instanceof Alternatives
+					&& ((Alternatives<?>) extractors[i]).contains(extractor))
+				return null;
+		}
+		throw new IllegalArgumentException("Extractor " + extractor
+				+ " is not part of this extraction");
+	}
+
+	/**
+	 * @return <code>true</code> if every extractor has been matched. In that
+	 *         case, the page has not necessarily been read until its end.
+	 */
+	public boolean isComplete() {
+		return remaining == 0;
+	}
+
+	/**
+	 * Scans the HTML read from an {@link InputStream} until every extractor
+	 * has been matched or the stream ends. Only the elements whose content is
+	 * needed (scripts, styles and textareas) are read as a whole, all other
+	 * tags are matched as soon as their opening tag is read.
+	 * 
+	 * @param in
+	 *            the input stream. The stream is not closed.
+	 * @param charset
+	 *            the charset used to decode the stream
+	 * @param extractors
+	 *            the extractors
+	 * @return the extraction results
+	 * @throws IOException
+	 *             if any error occur while reading or parsing the stream
+	 */
+	public static Extraction extract(InputStream in, String charset,
+			Extractor<?>... extractors) throws IOException {
+		final Extraction extraction = new Extraction(extractors);
+		final Lexer lexer = new Lexer(new org.htmlparser.lexer.Page(in,
+				charset));
+		lexer.setNodeFactory(new PrototypicalNodeFactory());
+		try {
+			Node node;
+			while (!extraction.isComplete()
+					&& (node = lexer.nextNode()) != null) {
+				if (!(node instanceof Tag))
+					continue;
+				Tag tag = (Tag) node;
+				if (tag.isEndTag())
+					continue;
+				final Scanner scanner = tag.getThisScanner();
+				if (scanner != null && isScanned(tag))
+					tag = scanner.scan(tag, lexer, new NodeList());
+				extraction.accept(tag);
+			}
+		} catch (ParserException e) {
+			if (e.getThrowable() instanceof IOException)
+				throw (IOException) e.getThrowable();
+			throw new IOException(e);
+		}
+		return extraction;
+	}
+
+	/**
+	 * Composite tags are not scanned, otherwise the <code>&lt;html&gt;</code>
+	 * tag would only be returned once the whole page is read. The exceptions
+	 * are the tags whose content is not HTML and must not be lexed as such.
+	 * 
+	 * @param tag
+	 *            the tag
+	 * @return <code>true</code> if the tag must be scanned by its own
+	 *         {@link Scanner}
+	 */
+	private static boolean isScanned(Tag tag) {
+		return !(tag instanceof CompositeTag) || tag instanceof ScriptTag
+				|| tag instanceof StyleTag || tag instanceof TextareaTag;
+	}
+
+	@Override
+	public String toString() {
+		return "Extraction [extractors=" + Arrays.toString(extractors)
+				+ ", results=" + Arrays.toString(results) + "]";
+	}
+}
@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.util.html;
+
+import java.util.regex.Pattern;
+
+import org.htmlparser.Tag;
+import org.htmlparser.tags.FormTag;
+import org.htmlparser.tags.FrameTag;
+import org.htmlparser.tags.ImageTag;
+import org.htmlparser.tags.InputTag;
+import org.htmlparser.tags.LinkTag;
+import org.htmlparser.tags.ScriptTag;
+import org.htmlparser.tags.TextareaTag;
+
+import com.rogiel.httpchannel.util.html.PageElement.TagMatcher;
+
+/**
+ * An extractor describes a single element to be looked up on a page while it
+ * is still being read, using the same matching rules as the equivalent
+ * {@link Page} method (e.g. {@link #form(Pattern)} matches the same form as
+ * {@link Page#form(Pattern)}). Extractors hold no state and can be reused.
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ * 
+ * @param <T>
+ *            the tag type
+ * @see Extraction
+ */
+public class Extractor<T extends Tag> {
+	/**
+	 * The tag type
+	 */
+	private final Class<T> type;
+	/**
+	 * The pattern
+	 */
+	private final Pattern pattern;
+	/**
+	 * The tag matcher (which will be matched against the pattern)
+	 */
+	private final TagMatcher<T> tagMatcher;
+	/**
+	 * Whether the pattern must only be contained in the value, instead of
+	 * matching it entirely
+	 */
+	private final boolean find;
+
+	/**
+	 * Creates a new instance
+	 * 
+	 * @param type
+	 *            the tag type
+	 * @param pattern
+	 *            the pattern
+	 * @param tagMatcher
+	 *            the tag matcher (which will be matched against the pattern)
+	 * @param find
+	 *            <code>true</code> if the pattern must only be contained in
+	 *            the value, <code>false</code> if it must match it entirely
+	 */
+	public Extractor(Class<T> type, Pattern pattern, TagMatcher<T> tagMatcher,
+			boolean find) {
+		this.type = type;
+		this.pattern = pattern;
+		this.tagMatcher = tagMatcher;
+		this.find = find;
+	}
+
+	/**
+	 * Tries to match the tag against this extractor
+	 * 
+	 * @param tag
+	 *            the tag
+	 * @return the matched element or <code>null</code> if the tag does not
+	 *         match
+	 */
+	public MatchedElement<T> match(Tag tag) {
+		if (!type.isInstance(tag))
+			return null;
+		final MatchedElement<T> matched = new PageElement<T>(type.cast(tag))
+				.match(pattern, tagMatcher);
+		if (matched == null)
+			return null;
+		if (find ? matched.find() : matched.matches())
+			return matched;
+		return null;
+	}
+
+	/**
+	 * @return the tag type
+	 */
+	public Class<T> getType() {
+		return type;
+	}
+
+	/**
+	 * @return the pattern
+	 */
+	public Pattern getPattern() {
+		return pattern;
+	}
+
+	/**
+	 * @param pattern
+	 *            the link url pattern
+	 * @return an extractor for the first link whose url matches the pattern
+	 */
+	public static Extractor<LinkTag> link(Pattern pattern) {
+		return new Extractor<>(LinkTag.class, pattern, Page.LINK_TAG_MATCHER,
+				false);
+	}
+
+	/**
+	 * @param pattern
+	 *            the image url pattern
+	 * @return an extractor for the first image whose url matches the pattern
+	 */
+	public static Extractor<ImageTag> image(Pattern pattern) {
+		return new Extractor<>(ImageTag.class, pattern,
+				Page.IMAGE_TAG_MATCHER, false);
+	}
+
+	/**
+	 * @param pattern
+	 *            the action url pattern
+	 * @return an extractor for the first form whose action url matches the
+	 *         pattern
+	 */
+	public static Extractor<FormTag> form(Pattern pattern) {
+		return new Extractor<>(FormTag.class, pattern, Page.FORM_TAG_MATCHER,
+				false);
+	}
+
+	/**
+	 * @param pattern
+	 *            the input value pattern
+	 * @return an extractor for the first input whose value matches the pattern
+	 */
+	public static Extractor<InputTag> input(Pattern pattern) {
+		return new Extractor<>(InputTag.class, pattern,
+				Page.INPUT_TAG_MATCHER, true);
+	}
+
+	/**
+	 * @param pattern
+	 *            the textarea value pattern
+	 * @return an extractor for the first textarea whose value matches the
+	 *         pattern
+	 */
+	public static Extractor<TextareaTag> textarea(Pattern pattern) {
+		return new Extractor<>(TextareaTag.class, pattern,
+				Page.TEXTAREA_TAG_MATCHER, false);
+	}
+
+	/**
+	 * @param pattern
+	 *            the script code pattern
+	 * @return an extractor for the first script whose code matches the pattern
+	 */
+	public static Extractor<ScriptTag> script(Pattern pattern) {
+		return new Extractor<>(ScriptTag.class, pattern,
+				Page.SCRIPT_TAG_MATCHER, true);
+	}
+
+	/**
+	 * @param pattern
+	 *            the script url pattern
+	 * @return an extractor for the first script whose url matches the pattern
+	 */
+	public static Extractor<ScriptTag> scriptBySource(Pattern pattern) {
+		return new Extractor<>(ScriptTag.class, pattern,
+				Page.SCRIPT_SOURCE_TAG_MATCHER, false);
+	}
+
+	/**
+	 * @param pattern
+	 *            the frame url pattern
+	 * @return an extractor for the first frame whose url matches the pattern
+	 */
+	public static Extractor<FrameTag> frame(Pattern pattern) {
+		return new Extractor<>(FrameTag.class, pattern,
+				Page.FRAME_TAG_MATCHER, false);
+	}
+
+	/**
+	 * @param alternatives
+	 *            the alternatives, in order of preference
+	 * @return an extractor for the first element matched by any of the
+	 *         alternatives
+	 * @see Alternatives
+	 */
+	@SafeVarargs
+	public static <T extends Tag> Alternatives<T> anyOf(
+			Extractor<T>... alternatives) {
+		return new Alternatives<>(alternatives);
+	}
+
+	@Override
+	public String toString() {
+		return "Extractor [type=" + type.getSimpleName() + ", pattern="
+				+ pattern + "]";
+	}
+}
@@ -18,15 +18,20 @@
  */
 package com.rogiel.httpchannel.util.html;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
-import org.htmlparser.NodeFilter;
+import org.htmlparser.Node;
 import org.htmlparser.Parser;
 import org.htmlparser.Tag;
-import org.htmlparser.filters.AndFilter;
+import org.htmlparser.lexer.Lexer;
 import org.htmlparser.tags.FormTag;
 import org.htmlparser.tags.FrameTag;
 import org.htmlparser.tags.ImageTag;
@@ -34,12 +39,10 @@ import org.htmlparser.tags.InputTag;
 import org.htmlparser.tags.LinkTag;
 import org.htmlparser.tags.ScriptTag;
 import org.htmlparser.tags.TextareaTag;
-import org.htmlparser.util.NodeIterator;
 import org.htmlparser.util.NodeList;
 import org.htmlparser.util.ParserException;
 
 import com.rogiel.httpchannel.util.html.PageElement.TagMatcher;
-import com.rogiel.httpchannel.util.html.filter.TypeTagFilter;
 import com.rogiel.httpchannel.util.html.matcher.IDTagMatcher;
 import com.rogiel.httpchannel.util.html.matcher.NameTagMatcher;
 
@@ -55,38 +58,14 @@ public class Page {
 	 * The list of nodes on the HTML DOM model
 	 */
 	private final NodeList nodes;
-
 	/**
-	 * This interface provides a mean to transform an list of objects into
-	 * another type
-	 * 
-	 * @author <a href="http://www.rogiel.com">Rogiel</a>
-	 * 
-	 * @param <I>
-	 *            the input object type
-	 * @param <O>
-	 *            the output object type
+	 * The index of the tags on the page. Built on first access.
 	 */
-	private interface ListProcessor<I extends Tag, O> {
-		O process(I tag);
-	}
-
+	private volatile TagIndex index;
 	/**
-	 * An default {@link ListProcessor} that converts all tags to an
-	 * {@link PageElement}
-	 * 
-	 * @author <a href="http://www.rogiel.com">Rogiel</a>
-	 * 
-	 * @param <I>
-	 *            the input type
+	 * The page rendered as a plain string. Built on first access.
 	 */
-	private class DefaultListProcessor<I extends Tag> implements
-			ListProcessor<I, PageElement<I>> {
-		@Override
-		public PageElement<I> process(I tag) {
-			return new PageElement<I>(tag);
-		}
-	}
+	private volatile String plainString;
 
 	/**
 	 * Creates a new page instance
@@ -105,51 +84,6 @@ public class Page {
 	 * ***** INTERNAL
 	 * ************************************************************************
 	 */
-	/**
-	 * Filters all the tags within this page to those matching the filter
-	 * 
-	 * @param processor
-	 *            the list processor
-	 * @param filters
-	 *            the filters to be applied
-	 * @return an list of matching tags
-	 */
-	private <T extends Tag, O> List<O> filter(ListProcessor<T, O> processor,
-			NodeFilter... filters) {
-		final NodeFilter filter;
-		if (filters.length == 1)
-			filter = filters[0];
-		else
-			filter = new AndFilter(filters);
-		try {
-			return list(nodes.extractAllNodesThatMatch(filter, true), processor);
-		} catch (ParserException e) {
-			return Collections.emptyList();
-		}
-	}
-
-	/**
-	 * Creates a list of converted objects
-	 * 
-	 * @param list
-	 *            the input list
-	 * @param processor
-	 *            the processor that converts the object types
-	 * @return the processed and converted list
-	 * @throws ParserException
-	 *             if any exception occur
-	 */
-	@SuppressWarnings("unchecked")
-	private <T extends Tag, O> List<O> list(final NodeList list,
-			ListProcessor<T, O> processor) throws ParserException {
-		final List<O> filtered = new ArrayList<>();
-		final NodeIterator iterator = list.elements();
-		while (iterator.hasMoreNodes()) {
-			filtered.add(processor.process((T) iterator.nextNode()));
-		}
-		return filtered;
-	}
-
 	/**
 	 * Tries to search for a tag value that matches exactly (the entire string)
 	 * with the pattern.
@@ -240,24 +174,92 @@ public class Page {
 		return list.get(0);
 	}
 
+	/**
+	 * Returns the first element from the list, matched against itself
+	 * 
+	 * @param list
+	 *            the list
+	 * @param tagMatcher
+	 *            the tag matcher (which will be used on {@link MatchedElement})
+	 * @return the first element at the list
+	 */
+	private <T extends Tag> MatchedElement<T> first(List<PageElement<T>> list,
+			TagMatcher<T> tagMatcher) {
+		if (list.size() == 0)
+			return null;
+		return list.get(0).match(tagMatcher);
+	}
+
+	/**
+	 * Returns the tag index, building it if this is the first time it is used.
+	 * Two threads racing on the first access may both build it, which is
+	 * harmless since the index is never modified afterwards.
+	 * 
+	 * @return the tag index
+	 */
+	private TagIndex index() {
+		TagIndex index = this.index;
+		if (index == null) {
+			index = new TagIndex();
+			index.add(nodes);
+			this.index = index;
+		}
+		return index;
+	}
+
 	/**
 	 * Parses the HTML page to a plain string. This is similar to the
-	 * "SEO preview" systems
+	 * "SEO preview" systems. The string is only rendered once per page.
 	 * 
-	 * @return
+	 * @return the page as a plain string
 	 */
 	public String asPlainString() {
-		String string = nodes.asString().replaceAll("&nbsp;", "");
-		final String[] lines = string.split("\n");
+		String plainString = this.plainString;
+		if (plainString == null)
+			this.plainString = plainString = toPlainString(nodes.asString());
+		return plainString;
+	}
 
-		final StringBuilder builder = new StringBuilder();
-		for (final String line : lines) {
-			String procLine = line.replaceAll("\t", " ").trim();
-			if (procLine.length() == 0)
+	/**
+	 * Renders the text to a plain string in a single pass: all
+	 * <code>&amp;nbsp;</code> entities are removed, tabs are replaced by
+	 * spaces and each non-blank line is trimmed and followed by a space.
+	 * 
+	 * @param text
+	 *            the page text
+	 * @return the plain string
+	 */
+	private static String toPlainString(String text) {
+		final StringBuilder builder = new StringBuilder(text.length());
+		// the length of the builder after the last non-blank character
+		int lineEnd = -1;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '&' && text.startsWith("&nbsp;", i)) {
+				i += 5;
+				continue;
+			}
+			if (c == '\n') {
+				if (lineEnd >= 0) {
+					builder.setLength(lineEnd);
+					builder.append(' ');
+				}
+				lineEnd = -1;
 				continue;
-			builder.append(line.replaceAll("\t", " ").trim()).append(" ");
+			}
+			if (c == '\t')
+				c = ' ';
+			if (c > ' ') {
+				builder.append(c);
+				lineEnd = builder.length();
+			} else if (lineEnd >= 0) {
+				builder.append(c);
+			}
+		}
+		if (lineEnd >= 0) {
+			builder.setLength(lineEnd);
+			builder.append(' ');
 		}
-
 		return builder.toString();
 	}
 
@@ -288,6 +290,23 @@ public class Page {
 		return search(Pattern.compile(Pattern.quote(text)));
 	}
 
+	/**
+	 * Searches for all the given patterns at the entire page. The page is
+	 * rendered to a plain string only once for all patterns.
+	 * 
+	 * @param patterns
+	 *            the patterns
+	 * @return the search results, in the same order as the patterns
+	 */
+	public SearchResults[] searchAll(Pattern... patterns) {
+		final String content = asPlainString();
+		final SearchResults[] results = new SearchResults[patterns.length];
+		for (int i = 0; i < patterns.length; i++) {
+			results[i] = new SearchResults(patterns[i], content);
+		}
+		return results;
+	}
+
 	/*
 	 * ************************************************************************
 	 * ***** LINKS
@@ -296,7 +315,7 @@ public class Page {
 	/**
 	 * An {@link TagMatcher} that returns the link href
 	 */
-	private static final TagMatcher<LinkTag> LINK_TAG_MATCHER = new TagMatcher<LinkTag>() {
+	static final TagMatcher<LinkTag> LINK_TAG_MATCHER = new TagMatcher<LinkTag>() {
 		@Override
 		public String content(LinkTag tag) {
 			return tag.getLink();
@@ -307,8 +326,7 @@ public class Page {
 	 * @return a list of all links contained at the page
 	 */
 	public List<PageElement<LinkTag>> links() {
-		return filter(new DefaultListProcessor<LinkTag>(), new TypeTagFilter(
-				LinkTag.class));
+		return index().byType(LinkTag.class);
 	}
 
 	/**
@@ -349,7 +367,7 @@ public class Page {
 	 * @return the link with the given ID
 	 */
 	public MatchedElement<LinkTag> linkByID(String id) {
-		return single(linksByID(Pattern.compile(Pattern.quote(id))));
+		return first(index().byID(LinkTag.class, id), LINK_TAG_MATCHER);
 	}
 
 	/**
@@ -368,7 +386,7 @@ public class Page {
 	 * @return the link with the given name
 	 */
 	public MatchedElement<LinkTag> linkByName(String name) {
-		return single(linksByName(Pattern.compile(Pattern.quote(name))));
+		return first(index().byName(LinkTag.class, name), LINK_TAG_MATCHER);
 	}
 
 	/*
@@ -379,7 +397,7 @@ public class Page {
 	/**
 	 * An {@link TagMatcher} that returns the image source url
 	 */
-	private static final TagMatcher<ImageTag> IMAGE_TAG_MATCHER = new TagMatcher<ImageTag>() {
+	static final TagMatcher<ImageTag> IMAGE_TAG_MATCHER = new TagMatcher<ImageTag>() {
 		@Override
 		public String content(ImageTag tag) {
 			return tag.getImageURL();
@@ -390,8 +408,7 @@ public class Page {
 	 * @return the list of all images at the page
 	 */
 	public List<PageElement<ImageTag>> images() {
-		return filter(new DefaultListProcessor<ImageTag>(), new TypeTagFilter(
-				ImageTag.class));
+		return index().byType(ImageTag.class);
 	}
 
 	/**
@@ -428,7 +445,7 @@ public class Page {
 	 * @return the image that matches with the given id
 	 */
 	public MatchedElement<ImageTag> imageByID(String id) {
-		return single(imagesByID(Pattern.compile(Pattern.quote(id))));
+		return first(index().byID(ImageTag.class, id), IMAGE_TAG_MATCHER);
 	}
 
 	/**
@@ -447,7 +464,7 @@ public class Page {
 	 * @return the image whose name matches the given
 	 */
 	public MatchedElement<ImageTag> imageByName(String name) {
-		return single(imagesByName(Pattern.compile(Pattern.quote(name))));
+		return first(index().byName(ImageTag.class, name), IMAGE_TAG_MATCHER);
 	}
 
 	/*
@@ -458,7 +475,7 @@ public class Page {
 	/**
 	 * An {@link TagMatcher} that returns the form action (or submit) url
 	 */
-	private static final TagMatcher<FormTag> FORM_TAG_MATCHER = new TagMatcher<FormTag>() {
+	static final TagMatcher<FormTag> FORM_TAG_MATCHER = new TagMatcher<FormTag>() {
 		@Override
 		public String content(FormTag tag) {
 			return tag.getFormLocation();
@@ -469,8 +486,7 @@ public class Page {
 	 * @return the list of all forms on the page
 	 */
 	public List<PageElement<FormTag>> forms() {
-		return filter(new DefaultListProcessor<FormTag>(), new TypeTagFilter(
-				FormTag.class));
+		return index().byType(FormTag.class);
 	}
 
 	/**
@@ -507,7 +523,7 @@ public class Page {
 	 * @return the form whose id matches the given
 	 */
 	public MatchedElement<FormTag> formByID(String id) {
-		return single(formsByID(Pattern.compile(Pattern.quote(id))));
+		return first(index().byID(FormTag.class, id), FORM_TAG_MATCHER);
 	}
 
 	/**
@@ -526,7 +542,7 @@ public class Page {
 	 * @return the form whose name matches the given
 	 */
 	public MatchedElement<FormTag> formByName(String name) {
-		return single(formsByName(Pattern.compile(Pattern.quote(name))));
+		return first(index().byName(FormTag.class, name), FORM_TAG_MATCHER);
 	}
 
 	/*
@@ -537,7 +553,7 @@ public class Page {
 	/**
 	 * An {@link TagMatcher} that returns the input value
 	 */
-	private static final TagMatcher<InputTag> INPUT_TAG_MATCHER = new TagMatcher<InputTag>() {
+	static final TagMatcher<InputTag> INPUT_TAG_MATCHER = new TagMatcher<InputTag>() {
 		@Override
 		public String content(InputTag tag) {
 			return tag.getAttribute("value");
@@ -548,8 +564,7 @@ public class Page {
 	 * @return the list of all inputs on the page
 	 */
 	public List<PageElement<InputTag>> inputs() {
-		return filter(new DefaultListProcessor<InputTag>(), new TypeTagFilter(
-				InputTag.class));
+		return index().byType(InputTag.class);
 	}
 
 	/**
@@ -586,7 +601,7 @@ public class Page {
 	 * @return the input whose id matches the given
 	 */
 	public MatchedElement<InputTag> inputByID(String id) {
-		return single(inputsByID(Pattern.compile(Pattern.quote(id))));
+		return first(index().byID(InputTag.class, id), INPUT_TAG_MATCHER);
 	}
 
 	/**
@@ -605,7 +620,7 @@ public class Page {
 	 * @return the input whose name matches the given
 	 */
 	public MatchedElement<InputTag> inputByName(String name) {
-		return single(inputsByName(Pattern.compile(Pattern.quote(name))));
+		return first(index().byName(InputTag.class, name), INPUT_TAG_MATCHER);
 	}
 
 	/*
@@ -616,7 +631,7 @@ public class Page {
 	/**
 	 * An {@link TagMatcher} that returns the textarea value
 	 */
-	private static final TagMatcher<TextareaTag> TEXTAREA_TAG_MATCHER = new TagMatcher<TextareaTag>() {
+	static final TagMatcher<TextareaTag> TEXTAREA_TAG_MATCHER = new TagMatcher<TextareaTag>() {
 		@Override
 		public String content(TextareaTag tag) {
 			return tag.getStringText();
@@ -627,8 +642,7 @@ public class Page {
 	 * @return the list of all textareas on the page
 	 */
 	public List<PageElement<TextareaTag>> textareas() {
-		return filter(new DefaultListProcessor<TextareaTag>(),
-				new TypeTagFilter(TextareaTag.class));
+		return index().byType(TextareaTag.class);
 	}
 
 	/**
@@ -665,7 +679,7 @@ public class Page {
 	 * @return the textarea whose id matches the given
 	 */
 	public MatchedElement<TextareaTag> textareaByID(String id) {
-		return single(textareasByID(Pattern.compile(Pattern.quote(id))));
+		return first(index().byID(TextareaTag.class, id), TEXTAREA_TAG_MATCHER);
 	}
 
 	/**
@@ -684,7 +698,7 @@ public class Page {
 	 * @return the textarea whose name matches the given
 	 */
 	public MatchedElement<TextareaTag> textareaByName(String name) {
-		return single(textareasByName(Pattern.compile(Pattern.quote(name))));
+		return first(index().byName(TextareaTag.class, name), TEXTAREA_TAG_MATCHER);
 	}
 
 	/*
@@ -695,21 +709,36 @@ public class Page {
 	/**
 	 * An {@link TagMatcher} that returns the script code
 	 */
+	static final TagMatcher<ScriptTag> SCRIPT_TAG_MATCHER = new TagMatcher<ScriptTag>() {
+		@Override
+		public String content(ScriptTag tag) {
+			return tag.getScriptCode();
+		}
+	};
+	/**
+	 * An {@link TagMatcher} that returns the script source url
+	 */
+	static final TagMatcher<ScriptTag> SCRIPT_SOURCE_TAG_MATCHER = new TagMatcher<ScriptTag>() {
+		@Override
+		public String content(ScriptTag tag) {
+			return tag.getAttribute("src");
+		}
+	};
+
+	/**
+	 * @return the list of all scripts on the page
+	 */
 	public List<PageElement<ScriptTag>> scripts() {
-		return filter(new DefaultListProcessor<ScriptTag>(), new TypeTagFilter(
-				ScriptTag.class));
+		return index().byType(ScriptTag.class);
 	}
 
 	/**
-	 * @return the list of all scripts on the page
+	 * @param pattern
+	 *            the script code pattern
+	 * @return the scripts whose code matches the pattern
 	 */
 	public List<MatchedElement<ScriptTag>> scripts(Pattern pattern) {
-		return find(scripts(), pattern, new TagMatcher<ScriptTag>() {
-			@Override
-			public String content(ScriptTag tag) {
-				return tag.getScriptCode();
-			}
-		});
+		return find(scripts(), pattern, SCRIPT_TAG_MATCHER);
 	}
 
 	/**
@@ -727,12 +756,7 @@ public class Page {
 	 * @return the scripts whose urls matches the pattern
 	 */
 	public MatchedElement<ScriptTag> scriptBySource(Pattern pattern) {
-		return single(match(scripts(), pattern, new TagMatcher<ScriptTag>() {
-			@Override
-			public String content(ScriptTag tag) {
-				return tag.getAttribute("src");
-			}
-		}));
+		return single(match(scripts(), pattern, SCRIPT_SOURCE_TAG_MATCHER));
 	}
 
 	/*
@@ -743,7 +767,7 @@ public class Page {
 	/**
 	 * An {@link TagMatcher} that returns the frame url
 	 */
-	private static final TagMatcher<FrameTag> FRAME_TAG_MATCHER = new TagMatcher<FrameTag>() {
+	static final TagMatcher<FrameTag> FRAME_TAG_MATCHER = new TagMatcher<FrameTag>() {
 		@Override
 		public String content(FrameTag tag) {
 			return tag.getFrameLocation();
@@ -754,8 +778,7 @@ public class Page {
 	 * @return the list of all frames on the page
 	 */
 	public List<PageElement<FrameTag>> frames() {
-		return filter(new DefaultListProcessor<FrameTag>(), new TypeTagFilter(
-				FrameTag.class));
+		return index().byType(FrameTag.class);
 	}
 
 	/**
@@ -792,7 +815,7 @@ public class Page {
 	 * @return the frame whose id matches the given
 	 */
 	public MatchedElement<FrameTag> frameByID(String id) {
-		return single(framesByID(Pattern.compile(Pattern.quote(id))));
+		return first(index().byID(FrameTag.class, id), FRAME_TAG_MATCHER);
 	}
 
 	/**
@@ -811,7 +834,151 @@ public class Page {
 	 * @return the frame whose name matches the given
 	 */
 	public MatchedElement<FrameTag> frameByName(String name) {
-		return single(framesByName(Pattern.compile(Pattern.quote(name))));
+		return first(index().byName(FrameTag.class, name), FRAME_TAG_MATCHER);
+	}
+
+	/*
+	 * ************************************************************************
+	 * ***** INDEX
+	 * ************************************************************************
+	 */
+	/**
+	 * An index of all the tags on the page that can be looked up by type, ID or
+	 * name. The whole DOM tree is walked only once, when the index is built.
+	 * 
+	 * @author <a href="http://www.rogiel.com">Rogiel</a>
+	 */
+	private static class TagIndex {
+		/**
+		 * The tag types that are indexed
+		 */
+		private static final List<Class<? extends Tag>> TYPES = Arrays
+				.<Class<? extends Tag>> asList(LinkTag.class, ImageTag.class,
+						FormTag.class, InputTag.class, TextareaTag.class,
+						ScriptTag.class, FrameTag.class);
+
+		/**
+		 * The tags, in document order, mapped by their type
+		 */
+		private final Map<Class<? extends Tag>, List<PageElement<?>>> types = new HashMap<>();
+		/**
+		 * The tags, in document order, mapped by their ID
+		 */
+		private final Map<String, List<PageElement<?>>> ids = new HashMap<>();
+		/**
+		 * The tags, in document order, mapped by their name
+		 */
+		private final Map<String, List<PageElement<?>>> names = new HashMap<>();
+
+		/**
+		 * Indexes all the tags on the list and their children
+		 * 
+		 * @param list
+		 *            the node list
+		 */
+		private void add(NodeList list) {
+			for (int i = 0; i < list.size(); i++) {
+				final Node node = list.elementAt(i);
+				if (node instanceof Tag)
+					add((Tag) node);
+				if (node.getChildren() != null)
+					add(node.getChildren());
+			}
+		}
+
+		/**
+		 * Indexes a single tag
+		 * 
+		 * @param tag
+		 *            the tag
+		 */
+		private void add(Tag tag) {
+			for (final Class<? extends Tag> type : TYPES) {
+				if (!type.isInstance(tag))
+					continue;
+				final PageElement<?> element = new PageElement<>(tag);
+				put(types, type, element);
+				put(ids, tag.getAttribute("id"), element);
+				put(names, tag.getAttribute("name"), element);
+			}
+		}
+
+		/**
+		 * Adds an element to the list mapped by the given key
+		 * 
+		 * @param map
+		 *            the map
+		 * @param key
+		 *            the key. If <code>null</code>, nothing is added.
+		 * @param element
+		 *            the element
+		 */
+		private <K> void put(Map<K, List<PageElement<?>>> map, K key,
+				PageElement<?> element) {
+			if (key == null)
+				return;
+			List<PageElement<?>> list = map.get(key);
+			if (list == null)
+				map.put(key, list = new ArrayList<>());
+			list.add(element);
+		}
+
+		/**
+		 * @param type
+		 *            the tag type
+		 * @return all tags of the given type
+		 */
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private <T extends Tag> List<PageElement<T>> byType(Class<T> type) {
+			final List list = types.get(type);
+			if (list == null)
+				return Collections.emptyList();
+			return Collections.unmodifiableList(list);
+		}
+
+		/**
+		 * @param type
+		 *            the tag type
+		 * @param id
+		 *            the tag ID
+		 * @return all tags of the given type and ID
+		 */
+		private <T extends Tag> List<PageElement<T>> byID(Class<T> type,
+				String id) {
+			return filter(ids.get(id), type);
+		}
+
+		/**
+		 * @param type
+		 *            the tag type
+		 * @param name
+		 *            the tag name
+		 * @return all tags of the given type and name
+		 */
+		private <T extends Tag> List<PageElement<T>> byName(Class<T> type,
+				String name) {
+			return filter(names.get(name), type);
+		}
+
+		/**
+		 * @param list
+		 *            the list of elements (may be <code>null</code>)
+		 * @param type
+		 *            the tag type
+		 * @return the elements whose tag is of the given type
+		 */
+		@SuppressWarnings("unchecked")
+		private <T extends Tag> List<PageElement<T>> filter(
+				List<PageElement<?>> list, Class<T> type) {
+			if (list == null)
+				return Collections.emptyList();
+			final List<PageElement<T>> filtered = new ArrayList<>();
+			for (final PageElement<?> element : list) {
+				if (type.isInstance(element.tag()))
+					filtered.add((PageElement<T>) element);
+			}
+			return filtered;
+		}
 	}
 
 	/*
@@ -833,6 +1000,33 @@ public class Page {
 			return null;
 		}
 	}
+
+	/**
+	 * Creates a new page parsing the HTML read from an {@link InputStream}.
+	 * The stream is parsed as it is read, so parsing overlaps with the
+	 * transfer and the HTML is never held as an intermediate {@link String}.
+	 * If the document declares another charset in a <code>&lt;meta&gt;</code>
+	 * tag, the parser switches to it.
+	 * 
+	 * @param in
+	 *            the input stream. The stream is not closed.
+	 * @param charset
+	 *            the charset used to decode the stream
+	 * @return the newly created {@link Page} object
+	 * @throws IOException
+	 *             if any error occur while reading or parsing the stream
+	 */
+	public static Page parse(InputStream in, String charset)
+			throws IOException {
+		try {
+			return new Page(new Parser(new Lexer(
+					new org.htmlparser.lexer.Page(in, charset))));
+		} catch (ParserException e) {
+			if (e.getThrowable() instanceof IOException)
+				throw (IOException) e.getThrowable();
+			throw new IOException(e);
+		}
+	}
 	
 	@Override
 	public String toString() {
@@ -0,0 +1,256 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.util.json;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.ParseException;
+
+/**
+ * A {@link ContentHandler} that pulls a single field out of a JSON document
+ * while it is being parsed. The field is located by a path of object keys,
+ * starting at the root object: <code>new JsonField("user", "id")</code>
+ * matches the value of <code>{"user": {"id": 10}}</code>. Arrays are not
+ * traversed.
+ * <p>
+ * Only the field value is materialized, the rest of the document is skipped
+ * token by token. Parsing is stopped as soon as the value has been read or
+ * the object that should contain it has ended.
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ */
+public class JsonField implements ContentHandler {
+	/**
+	 * The path of object keys
+	 */
+	private final String[] path;
+
+	/**
+	 * The number of containers currently open
+	 */
+	private int depth;
+	/**
+	 * The number of path keys matched by the entries currently open
+	 */
+	private int matched;
+
+	/**
+	 * The containers of the value being built, if it is an object or an array
+	 */
+	private final Deque<Object> containers = new ArrayDeque<>();
+	/**
+	 * The keys of the entries open on the value being built
+	 */
+	private final Deque<String> keys = new ArrayDeque<>();
+
+	/**
+	 * Whether the field was found
+	 */
+	private boolean found;
+	/**
+	 * The field value
+	 */
+	private Object value;
+
+	/**
+	 * Creates a new instance
+	 * 
+	 * @param path
+	 *            the path of object keys. If empty, the whole document is
+	 *            matched.
+	 */
+	public JsonField(String... path) {
+		this.path = path;
+	}
+
+	@Override
+	public void startJSON() throws ParseException, IOException {
+		depth = 0;
+		matched = 0;
+		containers.clear();
+		keys.clear();
+		found = false;
+		value = null;
+	}
+
+	@Override
+	public void endJSON() throws ParseException, IOException {
+	}
+
+	@Override
+	public boolean startObject() throws ParseException, IOException {
+		if (!containers.isEmpty() || isValue())
+			return start(new JSONObject());
+		depth++;
+		return true;
+	}
+
+	@Override
+	public boolean endObject() throws ParseException, IOException {
+		if (!containers.isEmpty())
+			return end();
+		return leave();
+	}
+
+	@Override
+	public boolean startObjectEntry(String key) throws ParseException,
+			IOException {
+		if (!containers.isEmpty()) {
+			keys.push(key);
+		} else if (depth == matched + 1 && key.equals(path[matched])) {
+			matched++;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean endObjectEntry() throws ParseException, IOException {
+		if (!containers.isEmpty()) {
+			keys.pop();
+		} else if (depth == matched) {
+			matched--;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean startArray() throws ParseException, IOException {
+		if (!containers.isEmpty() || isValue())
+			return start(new JSONArray());
+		depth++;
+		return true;
+	}
+
+	@Override
+	public boolean endArray() throws ParseException, IOException {
+		if (!containers.isEmpty())
+			return end();
+		return leave();
+	}
+
+	@Override
+	public boolean primitive(Object value) throws ParseException, IOException {
+		if (!containers.isEmpty()) {
+			add(value);
+			return true;
+		}
+		if (!isValue())
+			return true;
+		this.found = true;
+		this.value = value;
+		return false;
+	}
+
+	/**
+	 * @return <code>true</code> if the field was found
+	 */
+	public boolean isFound() {
+		return found;
+	}
+
+	/**
+	 * @return the field value, either a {@link JSONObject}, a
+	 *         {@link JSONArray}, a {@link String}, a {@link Number}, a
+	 *         {@link Boolean} or <code>null</code>
+	 */
+	public Object getValue() {
+		return value;
+	}
+
+	/**
+	 * @return the path of object keys
+	 */
+	public String[] getPath() {
+		return path;
+	}
+
+	/**
+	 * @return <code>true</code> if the next value is the field value
+	 */
+	private boolean isValue() {
+		return !found && matched == path.length && depth == matched;
+	}
+
+	/**
+	 * Starts a container on the value being built
+	 * 
+	 * @param container
+	 *            the container
+	 * @return always <code>true</code>
+	 */
+	private boolean start(Object container) {
+		if (containers.isEmpty()) {
+			found = true;
+			value = container;
+		} else {
+			add(container);
+		}
+		containers.push(container);
+		return true;
+	}
+
+	/**
+	 * Ends a container on the value being built
+	 * 
+	 * @return <code>false</code> once the value is complete
+	 */
+	private boolean end() {
+		containers.pop();
+		return !containers.isEmpty();
+	}
+
+	/**
+	 * Leaves a container outside the value
+	 * 
+	 * @return <code>false</code> if the container was the one that should
+	 *         contain the field
+	 */
+	private boolean leave() {
+		final boolean searched = (depth == matched + 1);
+		depth--;
+		return !searched;
+	}
+
+	/**
+	 * Adds a value to the innermost container of the value being built
+	 * 
+	 * @param value
+	 *            the value
+	 */
+	@SuppressWarnings("unchecked")
+	private void add(Object value) {
+		final Object container = containers.peek();
+		if (container instanceof JSONArray)
+			((JSONArray) container).add(value);
+		else
+			((JSONObject) container).put(keys.peek(), value);
+	}
+
+	@Override
+	public String toString() {
+		return "JsonField [path=" + Arrays.toString(path) + ", found=" + found
+				+ ", value=" + value + "]";
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.util.xml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.transform.stream.StreamSource;
+
+import com.rogiel.httpchannel.service.exception.ChannelServiceException;
+
+/**
+ * A pool of unmarshallers created from a shared {@link JAXBContext}, one pool
+ * per response type. Creating a context is expensive, but unmarshallers are
+ * not thread-safe.
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ */
+public class UnmarshallerPool {
+	/**
+	 * The maximum number of idle unmarshallers kept per response type
+	 */
+	private static final int MAX_IDLE_UNMARSHALLERS = 8;
+
+	/**
+	 * The unmarshaller pools, per response type
+	 */
+	private static final ConcurrentMap<Class<?>, UnmarshallerPool> pools = new ConcurrentHashMap<>();
+
+	/**
+	 * The JAXB context
+	 */
+	private final JAXBContext context;
+	/**
+	 * The idle unmarshallers
+	 */
+	private final BlockingQueue<Unmarshaller> idle = new LinkedBlockingQueue<>(
+			MAX_IDLE_UNMARSHALLERS);
+
+	/**
+	 * @param context
+	 *            the JAXB context
+	 */
+	private UnmarshallerPool(JAXBContext context) {
+		this.context = context;
+	}
+
+	/**
+	 * Unmarshals a XML document with a pooled unmarshaller
+	 * 
+	 * @param in
+	 *            the input stream. The stream is not closed.
+	 * @param type
+	 *            the response type
+	 * @return the unmarshalled object
+	 * @throws IOException
+	 *             if any error occur while reading or unmarshalling the
+	 *             document
+	 */
+	public static <T> T unmarshal(InputStream in, Class<T> type)
+			throws IOException {
+		final UnmarshallerPool pool = getPool(type);
+		final Unmarshaller unmarshaller = pool.borrow();
+		try {
+			return unmarshaller.unmarshal(new StreamSource(in), type)
+					.getValue();
+		} catch (JAXBException e) {
+			throw new ChannelServiceException(e);
+		} finally {
+			pool.release(unmarshaller);
+		}
+	}
+
+	/**
+	 * @param type
+	 *            the response type
+	 * @return the unmarshaller pool for <code>type</code>
+	 * @throws IOException
+	 *             if the JAXB context cannot be created
+	 */
+	private static UnmarshallerPool getPool(Class<?> type) throws IOException {
+		UnmarshallerPool pool = pools.get(type);
+		if (pool == null) {
+			try {
+				pool = new UnmarshallerPool(JAXBContext.newInstance(type));
+			} catch (JAXBException e) {
+				throw new ChannelServiceException(e);
+			}
+			final UnmarshallerPool current = pools.putIfAbsent(type, pool);
+			if (current != null)
+				pool = current;
+		}
+		return pool;
+	}
+
+	/**
+	 * @return an idle unmarshaller or a new one if none is idle
+	 * @throws IOException
+	 *             if the unmarshaller cannot be created
+	 */
+	private Unmarshaller borrow() throws IOException {
+		final Unmarshaller unmarshaller = idle.poll();
+		if (unmarshaller != null)
+			return unmarshaller;
+		try {
+			return context.createUnmarshaller();
+		} catch (JAXBException e) {
+			throw new ChannelServiceException(e);
+		}
+	}
+
+	/**
+	 * Returns an unmarshaller to the pool, discarding it if the pool is full
+	 * 
+	 * @param unmarshaller
+	 *            the unmarshaller
+	 */
+	private void release(Unmarshaller unmarshaller) {
+		idle.offer(unmarshaller);
+	}
+}
@@ -0,0 +1,238 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.http.executor.virtual;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.rogiel.httpchannel.http.executor.MonitoredExecutorService;
+
+/**
+ * An {@link ExecutorService} that runs every task on its own virtual thread.
+ * Virtual threads are cheap, but each running request still holds a socket
+ * and buffers, so the number of tasks in flight is bounded: once the limit is
+ * reached, submitters are blocked for up to the <tt>submit timeout</tt> and
+ * then rejected with an {@link RejectedExecutionException}.
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ */
+public class VirtualThreadExecutorService extends AbstractExecutorService
+		implements MonitoredExecutorService {
+	/**
+	 * The executor name
+	 */
+	private final String name;
+	/**
+	 * The thread-per-task executor that actually creates the virtual threads
+	 */
+	private final ExecutorService executor;
+	/**
+	 * The permits for tasks in flight
+	 */
+	private final Semaphore permits;
+	/**
+	 * The amount of time (in milliseconds) to wait for a permit
+	 */
+	private final long submitTimeout;
+
+	/**
+	 * The number of tasks waiting for a permit
+	 */
+	private final AtomicInteger waiting = new AtomicInteger();
+	/**
+	 * The number of tasks running
+	 */
+	private final AtomicInteger active = new AtomicInteger();
+	/**
+	 * The number of accepted tasks
+	 */
+	private final AtomicLong submitted = new AtomicLong();
+	/**
+	 * The number of finished tasks
+	 */
+	private final AtomicLong finished = new AtomicLong();
+	/**
+	 * The number of rejected tasks
+	 */
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * Creates a new instance
+	 * 
+	 * @param name
+	 *            the executor name
+	 * @param executor
+	 *            the thread-per-task executor
+	 * @param maxTasks
+	 *            the maximum number of tasks in flight
+	 * @param submitTimeout
+	 *            the amount of time a submitter is blocked waiting for a task
+	 *            to finish on a saturated executor
+	 * @param unit
+	 *            the <code>submitTimeout</code> unit
+	 */
+	public VirtualThreadExecutorService(String name, ExecutorService executor,
+			int maxTasks, long submitTimeout, TimeUnit unit) {
+		this.name = name;
+		this.executor = executor;
+		this.permits = new Semaphore(maxTasks);
+		this.submitTimeout = unit.toMillis(submitTimeout);
+	}
+
+	@Override
+	public void execute(final Runnable command) {
+		if (isShutdown())
+			reject();
+		waiting.incrementAndGet();
+		try {
+			if (!permits.tryAcquire(submitTimeout, TimeUnit.MILLISECONDS))
+				reject();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			reject();
+		} finally {
+			waiting.decrementAndGet();
+		}
+		dispatch(command);
+	}
+
+	@Override
+	public boolean tryExecute(Runnable command) {
+		if (isShutdown() || !permits.tryAcquire()) {
+			rejected.incrementAndGet();
+			return false;
+		}
+		try {
+			dispatch(command);
+			return true;
+		} catch (RejectedExecutionException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Runs the task on a new virtual thread. The caller must have acquired a
+	 * permit, which is released once the task finishes.
+	 * 
+	 * @param command
+	 *            the task
+	 */
+	private void dispatch(final Runnable command) {
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					active.incrementAndGet();
+					try {
+						command.run();
+					} finally {
+						active.decrementAndGet();
+						finished.incrementAndGet();
+						permits.release();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			permits.release();
+			rejected.incrementAndGet();
+			throw e;
+		}
+		submitted.incrementAndGet();
+	}
+
+	/**
+	 * Rejects the task being submitted
+	 */
+	private void reject() {
+		rejected.incrementAndGet();
+		throw new RejectedExecutionException("Executor " + name
+				+ " is saturated or shut down");
+	}
+
+	@Override
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		return executor.shutdownNow();
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return executor.isShutdown();
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return executor.isTerminated();
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit)
+			throws InterruptedException {
+		return executor.awaitTermination(timeout, unit);
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public int getActiveTaskCount() {
+		return active.get();
+	}
+
+	@Override
+	public int getQueuedTaskCount() {
+		return waiting.get();
+	}
+
+	@Override
+	public long getSubmittedTaskCount() {
+		return submitted.get();
+	}
+
+	@Override
+	public long getFinishedTaskCount() {
+		return finished.get();
+	}
+
+	@Override
+	public long getRejectedTaskCount() {
+		return rejected.get();
+	}
+
+	@Override
+	public String toString() {
+		return "VirtualThreadExecutorService [name=" + name + ", active="
+				+ getActiveTaskCount() + ", queued=" + getQueuedTaskCount()
+				+ ", submitted=" + getSubmittedTaskCount() + ", finished="
+				+ getFinishedTaskCount() + ", rejected="
+				+ getRejectedTaskCount() + "]";
+	}
+}
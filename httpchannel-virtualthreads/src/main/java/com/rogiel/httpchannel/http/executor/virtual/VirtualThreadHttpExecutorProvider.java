@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.rogiel.httpchannel.http.executor.virtual;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.rogiel.httpchannel.http.executor.HttpExecutorProvider;
+import com.rogiel.httpchannel.http.executor.MonitoredExecutorService;
+
+/**
+ * An {@link HttpExecutorProvider} that runs asynchronous requests on virtual
+ * threads. Virtual threads are only available on recent JVMs, so they are
+ * accessed reflectively: on older JVMs, and on JVMs where they are a preview
+ * feature that was not enabled, {@link #isAvailable()} returns
+ * <code>false</code> and the default provider is used instead.
+ * 
+ * @author <a href="http://www.rogiel.com">Rogiel</a>
+ */
+public class VirtualThreadHttpExecutorProvider implements
+		HttpExecutorProvider {
+	/**
+	 * The default maximum number of tasks in flight per executor
+	 */
+	public static final int DEFAULT_MAX_TASKS = 10000;
+	/**
+	 * The default amount of time (in milliseconds) submitters are blocked on a
+	 * saturated executor
+	 */
+	public static final long DEFAULT_SUBMIT_TIMEOUT = 30 * 1000;
+
+	/**
+	 * <code>Thread.ofVirtual()</code>
+	 */
+	private static final Method OF_VIRTUAL;
+	/**
+	 * <code>Thread.Builder.name(String, long)</code>
+	 */
+	private static final Method BUILDER_NAME;
+	/**
+	 * <code>Thread.Builder.factory()</code>
+	 */
+	private static final Method BUILDER_FACTORY;
+	/**
+	 * <code>Executors.newThreadPerTaskExecutor(ThreadFactory)</code>
+	 */
+	private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+	static {
+		Method ofVirtual = null;
+		Method builderName = null;
+		Method builderFactory = null;
+		Method newThreadPerTaskExecutor = null;
+		try {
+			final Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			builderName = builder.getMethod("name", String.class, long.class);
+			builderFactory = builder.getMethod("factory");
+			newThreadPerTaskExecutor = Executors.class.getMethod(
+					"newThreadPerTaskExecutor", ThreadFactory.class);
+			// the methods exist on JDK 19 and 20 even if preview features
+			// are disabled, but fail when invoked
+			final ThreadFactory factory = (ThreadFactory) builderFactory
+					.invoke(ofVirtual.invoke(null));
+			((ExecutorService) newThreadPerTaskExecutor.invoke(null, factory))
+					.shutdown();
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			ofVirtual = null;
+		}
+		OF_VIRTUAL = ofVirtual;
+		BUILDER_NAME = builderName;
+		BUILDER_FACTORY = builderFactory;
+		NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+	}
+
+	/**
+	 * The maximum number of tasks in flight
+	 */
+	private final int maxTasks;
+	/**
+	 * The amount of time (in milliseconds) submitters are blocked on a
+	 * saturated executor
+	 */
+	private final long submitTimeout;
+
+	/**
+	 * Creates a new provider with the default limits
+	 */
+	public VirtualThreadHttpExecutorProvider() {
+		this(DEFAULT_MAX_TASKS, DEFAULT_SUBMIT_TIMEOUT, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Creates a new provider
+	 * 
+	 * @param maxTasks
+	 *            the maximum number of tasks in flight per executor
+	 * @param submitTimeout
+	 *            the amount of time submitters are blocked on a saturated
+	 *            executor
+	 * @param unit
+	 *            the <code>submitTimeout</code> unit
+	 */
+	public VirtualThreadHttpExecutorProvider(int maxTasks, long submitTimeout,
+			TimeUnit unit) {
+		this.maxTasks = maxTasks;
+		this.submitTimeout = unit.toMillis(submitTimeout);
+	}
+
+	@Override
+	public boolean isAvailable() {
+		return OF_VIRTUAL != null;
+	}
+
+	@Override
+	public MonitoredExecutorService newExecutor(String name) {
+		if (!isAvailable())
+			throw new UnsupportedOperationException(
+					"Virtual threads are not supported by this JVM");
+		try {
+			final Object builder = BUILDER_NAME.invoke(
+					OF_VIRTUAL.invoke(null), name + "-", 1L);
+			final ThreadFactory factory = (ThreadFactory) BUILDER_FACTORY
+					.invoke(builder);
+			final ExecutorService executor = (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR
+					.invoke(null, factory);
+			return new VirtualThreadExecutorService(name, executor, maxTasks,
+					submitTimeout, TimeUnit.MILLISECONDS);
+		} catch (ReflectiveOperationException e) {
+			throw new UnsupportedOperationException(
+					"Unable to create virtual thread executor", e);
+		}
+	}
+}